@@ -0,0 +1,124 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.benchmarks;
+
+import it.unitn.disi.db.queryrelaxation.model.Constraint;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.tree.ConvolutionTree;
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree.TreeType;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Operations on the bucketized cost distributions of <code>ConvolutionTree</code>,
+ * on random distributions with the given number of buckets.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvolutionBenchmark {
+    @Param({"10", "20", "50"})
+    public int buckets;
+    @Param({"42"})
+    public long seed;
+
+    private Convolution tree;
+    private double[][] buckets1;
+    private double[][] buckets2;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(seed);
+        Query q = new Query();
+        q.addConstraint(new Constraint("0", true));
+        tree = new Convolution(q, buckets);
+        buckets1 = distribution(random, 1, 3);
+        buckets2 = distribution(random, 2, 5);
+    }
+
+    /*
+     * A random distribution over [min, max]
+     */
+    private double[][] distribution(Random random, double min, double max) {
+        double[][] distribution = new double[2][buckets + 1];
+        double sum = 0;
+        for (int i = 0; i <= buckets; i++) {
+            distribution[0][i] = min + (max - min) * i / buckets;
+        }
+        for (int i = 0; i < buckets; i++) {
+            distribution[1][i] = random.nextDouble();
+            sum += distribution[1][i];
+        }
+        for (int i = 0; i < buckets; i++) {
+            distribution[1][i] /= sum;
+        }
+        return distribution;
+    }
+
+    @Benchmark
+    public double[][] convolutionMin() {
+        return tree.convolutionMin(buckets1, buckets2);
+    }
+
+    @Benchmark
+    public double[][] convolutionMax() {
+        return tree.convolutionMax(buckets1, buckets2);
+    }
+
+    @Benchmark
+    public double[][] combineSum() {
+        return tree.combine(0, buckets1, buckets2);
+    }
+
+    @Benchmark
+    public double[][] combineProduct() {
+        return tree.combine(1, buckets1, buckets2);
+    }
+
+    /*
+     * Exposes the combination of distributions, that is not public
+     */
+    private static class Convolution extends ConvolutionTree {
+        Convolution(Query q, int buckets) {
+            super(q, 1, buckets, 1, TreeType.MIN_EFFORT);
+        }
+
+        double[][] combine(int typeCombination, double[][] buckets1, double[][] buckets2) {
+            return combineDistr(typeCombination, buckets1, buckets2);
+        }
+    }
+}
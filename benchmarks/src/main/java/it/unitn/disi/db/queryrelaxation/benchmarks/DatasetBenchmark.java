@@ -0,0 +1,118 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.benchmarks;
+
+import it.unitn.disi.db.queryrelaxation.model.EfficientBoolDatabase;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.model.data.BooleanMockConnector;
+import it.unitn.disi.db.queryrelaxation.statistics.DatasetGenerator;
+import it.unitn.disi.db.queryrelaxation.statistics.EmptySubqueryMiner;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Base class of the benchmarks that run on a synthetic dataset. The database
+ * and its prior are written by <code>DatasetGenerator</code>, as the ones of
+ * the tests, and the empty query is drawn from the minimal empty subqueries
+ * mined on the database. They are generated once per trial, the size of the
+ * dataset can be changed from the command line, e.g.:
+ * <pre>
+ * java -jar target/benchmarks.jar StorageBenchmark -p tuples=100000 -p density=0.1
+ * </pre>
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ * @see DatasetGenerator
+ */
+@State(Scope.Benchmark)
+public abstract class DatasetBenchmark {
+    @Param({"10000"})
+    public int tuples;
+    @Param({"16"})
+    public int attributes;
+    @Param({"0.15"})
+    public double density;
+    @Param({"1.0"})
+    public double skew;
+    @Param({"0.3"})
+    public double correlation;
+    @Param({"4"})
+    public int clusters;
+    @Param({"5"})
+    public int querySize;
+    @Param({"42"})
+    public long seed;
+
+    /* The folder of the database and of the prior */
+    private File directory;
+    protected String dbPath;
+    protected String priorPath;
+    /* The storage, as used by the connector */
+    protected EfficientBoolDatabase storage;
+    protected BooleanMockConnector db;
+    /* An empty query of size querySize */
+    protected Query query;
+
+    @Setup(Level.Trial)
+    public void setUpDataset() throws Exception {
+        DatasetGenerator generator = new DatasetGenerator(attributes, density, skew, correlation, clusters, seed);
+        int workers = Runtime.getRuntime().availableProcessors();
+        EmptySubqueryMiner.Lattice lattice;
+        List<Query> queries;
+
+        directory = Files.createTempDirectory("iqr-bench").toFile();
+        dbPath = new File(directory, "db.txt").getPath();
+        priorPath = new File(directory, "prior.txt").getPath();
+        generator.writeDatabase(dbPath, tuples, null, workers);
+        generator.writePrior(priorPath, workers);
+        storage = new EfficientBoolDatabase(dbPath);
+        db = new BooleanMockConnector(dbPath);
+        db.connect();
+        lattice = db.getMiner().mineAll(querySize, 1);
+        queries = lattice.emptyQueries(querySize, 1, new Random(seed));
+        if (queries.isEmpty()) {
+            throw new IllegalStateException(String.format("Cannot find an empty query of size %d, try a lower density", querySize));
+        }
+        query = queries.get(0);
+        setUp();
+    }
+
+    /**
+     * Prepare the state of the benchmark, called once the dataset is ready
+     * @throws Exception If the state cannot be prepared
+     */
+    protected void setUp() throws Exception {
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownDataset() throws Exception {
+        db.close();
+        new File(dbPath).delete();
+        new File(priorPath).delete();
+        directory.delete();
+    }
+}
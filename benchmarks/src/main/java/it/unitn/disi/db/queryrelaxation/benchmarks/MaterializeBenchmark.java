@@ -0,0 +1,78 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.benchmarks;
+
+import it.unitn.disi.db.queryrelaxation.commands.TestFramework;
+import it.unitn.disi.db.queryrelaxation.model.functions.IPFPrior;
+import it.unitn.disi.db.queryrelaxation.model.functions.IdfFunction;
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree;
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree.TreeType;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end construction of a relaxation tree, with costs, for each
+ * optimization criterion. Algorithms use the same codes as
+ * <code>TestFramework</code>; the prior and the preference function are built
+ * once per trial, as in the experiments.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MaterializeBenchmark extends DatasetBenchmark {
+    @Param({"MIN_EFFORT", "MAX_VALUE_AVG", "MAX_VALUE_MAX", "PREFERRED"})
+    public TreeType type;
+    @Param({"1", "3", "4", "8", "9"})
+    public int algorithm;
+    @Param({"2"})
+    public int level;
+    @Param({"10"})
+    public int buckets;
+
+    private IPFPrior prior;
+    private IdfFunction pref;
+
+    @Override
+    protected void setUp() throws Exception {
+        prior = new IPFPrior(db, priorPath, query);
+        pref = new IdfFunction(db);
+    }
+
+    @Benchmark
+    public RelaxationTree materialize() throws Exception {
+        RelaxationTree tree = TestFramework.createTree(algorithm, query, level, buckets, 1, type, 1);
+        tree.setDb(db);
+        tree.setPref(pref);
+        tree.setPrior(prior);
+        tree.materialize(true);
+        return tree;
+    }
+}
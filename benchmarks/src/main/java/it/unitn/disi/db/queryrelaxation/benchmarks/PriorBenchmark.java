@@ -0,0 +1,69 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.benchmarks;
+
+import it.unitn.disi.db.queryrelaxation.model.functions.IPFPrior;
+import it.unitn.disi.db.queryrelaxation.model.functions.IPFTable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups in the IPF prior of an empty query, and construction of the prior
+ * from an IPF table already in memory.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriorBenchmark extends DatasetBenchmark {
+    private IPFTable table;
+    private IPFPrior prior;
+    private int[] subqueries;
+
+    @Override
+    protected void setUp() throws Exception {
+        table = IPFTable.read(priorPath);
+        prior = new IPFPrior(db, table, query);
+        subqueries = Queries.subqueries(query);
+    }
+
+    @Benchmark
+    public double getProbability() {
+        double sum = 0;
+        for (int t : subqueries) {
+            sum += prior.getProbability(t);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public IPFPrior buildPrior() throws Exception {
+        return new IPFPrior(db, table, query);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.benchmarks;
+
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.model.functions.IPFPrior;
+import it.unitn.disi.db.queryrelaxation.model.functions.IdfFunction;
+import it.unitn.disi.db.queryrelaxation.tree.Node;
+import it.unitn.disi.db.queryrelaxation.tree.PruningTree;
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree.TreeType;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The bound update and the pruning step of <code>PruningTree</code>, run on
+ * the tree and on the frontier of its largest level. The tree is materialized
+ * once per trial: both steps only recompute bounds and marks, so repeating them
+ * on the same tree does the same work.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PruningBenchmark extends DatasetBenchmark {
+    @Param({"MIN_EFFORT", "MAX_VALUE_AVG", "MAX_VALUE_MAX", "PREFERRED"})
+    public TreeType type;
+
+    private RecordingPruningTree tree;
+
+    @Override
+    protected void setUp() throws Exception {
+        tree = new RecordingPruningTree(query, type);
+        tree.setDb(db);
+        tree.setPref(new IdfFunction(db));
+        tree.setPrior(new IPFPrior(db, priorPath, query));
+        tree.materialize(true);
+    }
+
+    @Benchmark
+    public PruningTree update() {
+        tree.runUpdate();
+        return tree;
+    }
+
+    @Benchmark
+    public PruningTree prune() {
+        tree.runPrune();
+        return tree;
+    }
+
+    /*
+     * Keeps the largest frontier seen during the construction
+     */
+    private static class RecordingPruningTree extends PruningTree {
+        private LinkedList<Node> frontier = new LinkedList<>();
+
+        RecordingPruningTree(Query query, TreeType type) {
+            super(query, 1, type);
+        }
+
+        @Override
+        protected void update(LinkedList<Node> queue) {
+            if (queue.size() > frontier.size()) {
+                frontier = new LinkedList<>(queue);
+            }
+            super.update(queue);
+        }
+
+        void runUpdate() {
+            super.update(frontier);
+        }
+
+        void runPrune() {
+            prune(frontier);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.benchmarks;
+
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.statistics.Utilities;
+
+/**
+ * Helpers to enumerate the subqueries visited by the relaxation trees.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+final class Queries {
+
+    private Queries() {
+    }
+
+    /**
+     * @param q The query
+     * @return The boolean queries of all the subsets of the constraints of
+     * <code>q</code>, including the empty and the full query
+     */
+    static int[] subqueries(Query q) {
+        int query = Utilities.toBooleanQuery(q);
+        int[] subqueries = new int[1 << Integer.bitCount(query)];
+        int i = 0, sub = query;
+        //Enumerate the submasks in decreasing order
+        do {
+            subqueries[i++] = sub;
+            sub = (sub - 1) & query;
+        } while (sub != query);
+        return subqueries;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.benchmarks;
+
+import it.unitn.disi.db.queryrelaxation.model.LeaveOneOut;
+import it.unitn.disi.db.queryrelaxation.model.Pair;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluation of queries on the boolean storage: the empty query (the check done
+ * on every relaxation node), one of its relaxations (that usually has results)
+ * and all its relaxations at once.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark extends DatasetBenchmark {
+    private Query relaxed;
+
+    @Override
+    protected void setUp() {
+        relaxed = (Query) query.clone();
+        relaxed.relax(query.getConstraints().get(0));
+    }
+
+    @Benchmark
+    public Pair<int[], double[]> resultSetEmpty() {
+        return storage.resultSet(query);
+    }
+
+    @Benchmark
+    public Pair<int[], double[]> resultSetRelaxed() {
+        return storage.resultSet(relaxed);
+    }
+
+    @Benchmark
+    public LeaveOneOut leaveOneOut() {
+        return storage.leaveOneOut(query);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR events emitted by {@link Metrics}. This class is compiled only by the
+ * <code>jfr</code> profile, active on JDK 11 or later, and is loaded by
+ * reflection (see {@link Metrics#setJfrEnabled(boolean)}), so that the library
+ * still builds and runs on Java 8 without it.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+final class JfrEvents implements Metrics.EventSink {
+
+    JfrEvents() {
+    }
+
+    @Override
+    public void phase(String phase, long elapsed) {
+        PhaseEvent event = new PhaseEvent();
+        if (event.shouldCommit()) {
+            event.phase = phase;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void query(String tree, String query, int nodes, int pruned, long elapsed) {
+        QueryEvent event = new QueryEvent();
+        if (event.shouldCommit()) {
+            event.tree = tree;
+            event.query = query;
+            event.nodes = nodes;
+            event.pruned = pruned;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    @Name("it.unitn.disi.db.queryrelaxation.Phase")
+    @Label("Tree Phase")
+    @Category("IQR")
+    @Description("A phase (build, update, prune, cost) of the construction of a relaxation tree")
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("it.unitn.disi.db.queryrelaxation.Query")
+    @Label("Query Relaxation")
+    @Category("IQR")
+    @Description("The materialization of a relaxation tree for a query")
+    static final class QueryEvent extends Event {
+        @Label("Tree")
+        String tree;
+        @Label("Query")
+        String query;
+        @Label("Nodes")
+        int nodes;
+        @Label("Pruned Nodes")
+        int pruned;
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+}
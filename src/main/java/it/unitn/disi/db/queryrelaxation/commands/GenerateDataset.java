@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2014 Davide Mottin <mottin@disi.unitn.eu>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package it.unitn.disi.db.queryrelaxation.commands;
+
+import eu.unitn.disi.db.command.CommandInput;
+import eu.unitn.disi.db.command.exceptions.ExecutionException;
+import eu.unitn.disi.db.command.global.Command;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.statistics.DatasetGenerator;
+import it.unitn.disi.db.queryrelaxation.statistics.EmptyQueryGeneration;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Generates a synthetic dataset: a boolean database, its prior and a file of
+ * empty queries in the format read by <code>TestFramework</code>. The database
+ * and the prior are written in a subfolder of the output folder, as expected by
+ * <code>GenerateQueries</code>, the query file in the output folder.
+ *
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ * @see DatasetGenerator
+ */
+public class GenerateDataset extends Command {
+    private String outputFolder;
+    private int rows;
+    private int attributes;
+    private String density;
+    private String skew;
+    private String correlation;
+    private int clusters;
+    private int minQuerySize;
+    private int maxQuerySize;
+    private int queries;
+    private int seed;
+    private int workers;
+
+    @Override
+    protected void execute() throws ExecutionException {
+        String name = String.format("synthetic_BOOLEAN_%d_%d", attributes, rows);
+        File directory = new File(outputFolder, name);
+        String pathToDb = new File(directory, name + ".txt").getAbsolutePath();
+        //TestFramework reads the number of tuples and attributes from the name
+        String pathToIPF = new File(directory, String.format("synthetic_forIPF_%dtuples_%d.txt", rows, attributes)).getAbsolutePath();
+        File queryFile = new File(outputFolder, "queries_" + name + ".txt");
+        DatasetGenerator generator;
+        DatasetGenerator.Candidates candidates;
+        List<Query> empty;
+
+        if (attributes > DatasetGenerator.MAX_PRIOR_ATTRIBUTES) {
+            throw new ExecutionException(String.format("The prior cannot be generated with more than %d attributes", DatasetGenerator.MAX_PRIOR_ATTRIBUTES));
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new ExecutionException("Cannot create the directory " + directory);
+        }
+        try {
+            generator = new DatasetGenerator(attributes, Double.parseDouble(density), Double.parseDouble(skew),
+                    Double.parseDouble(correlation), clusters, seed);
+        } catch (IllegalArgumentException ex) {
+            throw new ExecutionException(ex);
+        }
+        //Draw more candidates than needed, some of them will have results
+        candidates = generator.candidates(minQuerySize, maxQuerySize, queries * 10);
+        try {
+            generator.writeDatabase(pathToDb, rows, candidates, workers);
+            generator.writePrior(pathToIPF, workers);
+            try (BufferedWriter queryWriter = new BufferedWriter(new FileWriter(queryFile))) {
+                for (int size = minQuerySize; size <= maxQuerySize; size++) {
+                    empty = candidates.emptyQueries(size, queries);
+                    if (empty.size() < queries) {
+                        warn("Only %d empty queries of size %d found", empty.size(), size);
+                    }
+                    for (Query q : empty) {
+                        queryWriter.append(String.format("%s\t%s\t%s\n", pathToDb, pathToIPF, EmptyQueryGeneration.queryToString(q)));
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new ExecutionException(ex);
+        }
+        info("Queries written in %s", queryFile.getAbsolutePath());
+    }
+
+    @Override
+    protected String commandDescription() {
+        return "Generates a synthetic database with its prior and empty queries";
+    }
+
+    @CommandInput(
+        consoleFormat = "-o",
+        defaultValue = "synthetic",
+        mandatory = false,
+        description = "folder where the dataset and the queries are written")
+    public void setOutputFolder(String outputFolder) {
+        this.outputFolder = outputFolder;
+    }
+
+    @CommandInput(
+        consoleFormat = "-r",
+        defaultValue = "100000",
+        mandatory = false,
+        description = "number of tuples")
+    public void setRows(int rows) {
+        this.rows = rows;
+    }
+
+    @CommandInput(
+        consoleFormat = "-a",
+        defaultValue = "16",
+        mandatory = false,
+        description = "number of attributes (at most 24)")
+    public void setAttributes(int attributes) {
+        this.attributes = attributes;
+    }
+
+    @CommandInput(
+        consoleFormat = "-d",
+        defaultValue = "0.2",
+        mandatory = false,
+        description = "average probability of an attribute to be 1")
+    public void setDensity(String density) {
+        this.density = density;
+    }
+
+    @CommandInput(
+        consoleFormat = "-z",
+        defaultValue = "1.0",
+        mandatory = false,
+        description = "zipf exponent of the attribute frequencies, 0 for uniform")
+    public void setSkew(String skew) {
+        this.skew = skew;
+    }
+
+    @CommandInput(
+        consoleFormat = "-cr",
+        defaultValue = "0.0",
+        mandatory = false,
+        description = "probability to copy an attribute from the cluster prototype, 0 for independent attributes")
+    public void setCorrelation(String correlation) {
+        this.correlation = correlation;
+    }
+
+    @CommandInput(
+        consoleFormat = "-k",
+        defaultValue = "10",
+        mandatory = false,
+        description = "number of clusters of correlated tuples")
+    public void setClusters(int clusters) {
+        this.clusters = clusters;
+    }
+
+    @CommandInput(
+        consoleFormat = "-m",
+        defaultValue = "3",
+        mandatory = false,
+        description = "minimum query size to be generated")
+    public void setMinQuerySize(int minQuerySize) {
+        this.minQuerySize = minQuerySize;
+    }
+
+    @CommandInput(
+        consoleFormat = "-M",
+        defaultValue = "7",
+        mandatory = false,
+        description = "maximum query size to be generated")
+    public void setMaxQuerySize(int maxQuerySize) {
+        this.maxQuerySize = maxQuerySize;
+    }
+
+    @CommandInput(
+        consoleFormat = "-q",
+        defaultValue = "10",
+        mandatory = false,
+        description = "number of empty queries of each size")
+    public void setQueries(int queries) {
+        this.queries = queries;
+    }
+
+    @CommandInput(
+        consoleFormat = "-s",
+        defaultValue = "42",
+        mandatory = false,
+        description = "seed of the generation, the same seed gives the same dataset")
+    public void setSeed(int seed) {
+        this.seed = seed;
+    }
+
+    @CommandInput(
+        consoleFormat = "-j",
+        defaultValue = "1",
+        mandatory = false,
+        description = "number of threads generating the data")
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+}
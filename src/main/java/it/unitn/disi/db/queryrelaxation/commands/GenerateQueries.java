@@ -24,13 +24,17 @@ import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 import it.unitn.disi.db.queryrelaxation.model.data.BooleanMockConnector;
 import it.unitn.disi.db.queryrelaxation.model.data.DatabaseConnector;
+import it.unitn.disi.db.queryrelaxation.model.data.DatasetRegistry;
 import it.unitn.disi.db.queryrelaxation.statistics.EmptyQueryGeneration;
+import it.unitn.disi.db.queryrelaxation.statistics.EmptySubqueryMiner;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,6 +48,7 @@ public class GenerateQueries extends Command {
     private String queryFile; 
     private int minQuerySize; 
     private int maxQuerySize;
+    private boolean mineSubqueries;
     
     @Override
     protected void execute() throws ExecutionException {        
@@ -86,24 +91,36 @@ public class GenerateQueries extends Command {
                             + "\n and db:" + pathToDb);
 
                     //generate queris
-                    db = new BooleanMockConnector(pathToDb);
-                    db.connect();
+                    try (DatasetRegistry.Handle<BooleanMockConnector> dbHandle = DatasetRegistry.getInstance().database(pathToDb)) {
+                        db = dbHandle.get();
 
-                    //test profiler
-                    List<Query> genQueries = null;
-                    genQueries = (new EmptyQueryGeneration()).generateQueries(db, minQuerySize, maxQuerySize, 3, 10, 10, db.getAttributeNumber());// yahoo cluster
-                    if (queryFile != null) {
-                        for (Query query : genQueries) {
-                            saveWriter.append(String.format("%s\t%s\t%s\n", pathToDb, pathToIPF, EmptyQueryGeneration.queryToString(query)));
+                        //test profiler
+                        List<Query> genQueries = null;
+                        if (mineSubqueries) {
+                            //Supersets of the minimal empty subqueries are empty, no need to probe them
+                            EmptySubqueryMiner.Lattice lattice = dbHandle.get().getMiner().mineAll(maxQuerySize, 1);
+                            Random random = new Random();
+                            info("Mined %s", lattice);
+                            genQueries = new ArrayList<>();
+                            for (int size = minQuerySize; size <= maxQuerySize; size++) {
+                                genQueries.addAll(lattice.emptyQueries(size, 3, random));
+                            }
+                        } else {
+                            genQueries = (new EmptyQueryGeneration()).generateQueries(db, minQuerySize, maxQuerySize, 3, 10, 10, db.getAttributeNumber());// yahoo cluster
                         }
-                        saveWriter.flush();
-                    }
-                    for (int iii = 0; iii < genQueries.size(); iii++) {
-                        q = genQueries.get(iii);
-                        info("Start processing the query:" + q);
-                        if (db.submitQuery(q).length != 0) {
-                            error("The query is not empty.");
-                            throw new ExecutionException("The query is not empty");
+                        if (queryFile != null) {
+                            for (Query query : genQueries) {
+                                saveWriter.append(String.format("%s\t%s\t%s\n", pathToDb, pathToIPF, EmptyQueryGeneration.queryToString(query)));
+                            }
+                            saveWriter.flush();
+                        }
+                        for (int iii = 0; iii < genQueries.size(); iii++) {
+                            q = genQueries.get(iii);
+                            info("Start processing the query:" + q);
+                            if (db.submitQuery(q).length != 0) {
+                                error("The query is not empty.");
+                                throw new ExecutionException("The query is not empty");
+                            }
                         }
                     }
                 }//END IF ONE DIR
@@ -161,4 +178,13 @@ public class GenerateQueries extends Command {
     public void setMaxQuerySize(int maxQuerySize) {
         this.maxQuerySize = maxQuerySize;
     }    
+
+    @CommandInput(
+            consoleFormat = "-ms",
+            defaultValue = "false",
+            mandatory = false,
+            description = "generate the queries from the minimal empty subqueries of the database")
+    public void setMineSubqueries(boolean mineSubqueries) {
+        this.mineSubqueries = mineSubqueries;
+    }
 }
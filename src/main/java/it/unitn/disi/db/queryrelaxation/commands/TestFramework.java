@@ -23,21 +23,33 @@ import eu.unitn.disi.db.command.CommandInput;
 import eu.unitn.disi.db.command.exceptions.ExecutionException;
 import eu.unitn.disi.db.command.global.Command;
 import eu.unitn.disi.db.command.util.StopWatch;
+import it.unitn.disi.db.queryrelaxation.metrics.Metrics;
+import it.unitn.disi.db.queryrelaxation.metrics.MetricsExporter;
 import it.unitn.disi.db.queryrelaxation.model.Constraint;
 import it.unitn.disi.db.queryrelaxation.model.PreferenceFunction;
 import it.unitn.disi.db.queryrelaxation.model.Prior;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 import it.unitn.disi.db.queryrelaxation.model.data.BooleanMockConnector;
+import it.unitn.disi.db.queryrelaxation.model.data.DatasetRegistry;
 import it.unitn.disi.db.queryrelaxation.model.functions.DatabaseFunction;
 import it.unitn.disi.db.queryrelaxation.model.functions.IPFPrior;
+import it.unitn.disi.db.queryrelaxation.model.functions.IPFTable;
 import it.unitn.disi.db.queryrelaxation.model.functions.IdfFunction;
 import it.unitn.disi.db.queryrelaxation.statistics.EmptyQueryGeneration;
+import it.unitn.disi.db.queryrelaxation.statistics.EmptySubqueryMiner;
+import it.unitn.disi.db.queryrelaxation.statistics.Utilities;
 import it.unitn.disi.db.queryrelaxation.tree.topk.TopKPruningTree;
+import it.unitn.disi.db.queryrelaxation.tree.BeamSearchRelaxationTree;
 import it.unitn.disi.db.queryrelaxation.tree.ConvolutionTree;
 import it.unitn.disi.db.queryrelaxation.tree.GreedyRelaxationRandomChoiceTree;
 import it.unitn.disi.db.queryrelaxation.tree.GreedyRelaxationTree;
 import it.unitn.disi.db.queryrelaxation.tree.HeuristicPruningTree;
+import it.unitn.disi.db.queryrelaxation.tree.Histograms;
+import it.unitn.disi.db.queryrelaxation.tree.MonteCarloRelaxationTree;
+import it.unitn.disi.db.queryrelaxation.tree.ObjectiveCosts;
 import it.unitn.disi.db.queryrelaxation.tree.OptimalRelaxationTree;
+import it.unitn.disi.db.queryrelaxation.tree.PruningProfiler;
+import it.unitn.disi.db.queryrelaxation.tree.PruningTree;
 import it.unitn.disi.db.queryrelaxation.tree.QueryRefinementTree;
 import it.unitn.disi.db.queryrelaxation.tree.RandomRelaxationTree;
 import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree;
@@ -49,7 +61,16 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.text.DecimalFormat;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -72,14 +93,38 @@ public class TestFramework extends Command {
     private int k; 
     private int[] algorithms;
     private boolean writeTrees;
+    private boolean benefitSorted;
+    private boolean mineSubqueries;
+    private int registryBudget;
+    private int workers;
+    private int branchThreads;
+    private String histogramType;
+    private int beamWidth;
+    private String beamRanking;
+    private int searchBudget;
+    private String rolloutPolicy;
+    private String metricsFile;
+    private boolean jfr;
+    /* Shared by all the experiments, disabled if nothing is exported */
+    private Metrics metrics;
+    private String profileFile;
 
     @Override
     protected void execute() throws eu.unitn.disi.db.command.exceptions.ExecutionException {
-        BooleanMockConnector db;
         Query q = null;
         TreeType type = TreeType.valueOf(optimizationCriteria);;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers));
+        OrderedWriter writer = new OrderedWriter(outputFile);
+        boolean export = metricsFile != null && !metricsFile.isEmpty();
+        metrics = !export && !jfr ? Metrics.DISABLED : new Metrics();
+        if (jfr && !metrics.setJfrEnabled(true)) {
+            warn("JFR is not available, events are not emitted");
+        }
         //int[] types = new int[]{3};
         
+        if (k > 1) {
+            warn("k is ignored if the tree is not FastOpt or FastCDR, the others are not implemented");
+        }
         try (BufferedReader testReader = new BufferedReader(new FileReader(queryFile))) {
             File directory = new File(dbFolder);
             if (directory == null) {
@@ -90,10 +135,17 @@ public class TestFramework extends Command {
             }
             String dirs[] = directory.list(), files[];
 
-            info("Cardinality: %d", cardinality);
+            DatasetRegistry.getInstance().setBudget((long) registryBudget << 20);
+            info("Cardinality: %d, workers: %d", cardinality, Math.max(1, workers));
             String line = null;
             String[] splittedLine;
             info("Successfully Loaded file: %s", queryFile);
+            if (profileFile != null && !profileFile.isEmpty()) {
+                try (BufferedWriter out = new BufferedWriter(new FileWriter(profileFile))) {
+                    out.append(PruningProfiler.HEADER).append('\n');
+                }
+            }
+            writer.start();
             while ((line = testReader.readLine()) != null) {
                 line = line.trim();
                 if (line.length() != 0) {
@@ -101,13 +153,40 @@ public class TestFramework extends Command {
                     q = EmptyQueryGeneration.stringToQuery(splittedLine[2]);
                     if (q.size() >= minQuerySize && q.size() <= maxQuerySize) {
                         info("Processing query: %s\ndb: %s\nIPF: %s", q.toString(), splittedLine[0], splittedLine[1]);
-                        execute(splittedLine[0], splittedLine[1], q, level, cardinality, algorithms, buckets, k, preferenceFunction, type);
+                        //Each (query, algorithm) pair is an independent task
+                        for (int typeOfTree : algorithms) {
+                            writer.add(pool.submit(new Experiment(splittedLine[0], splittedLine[1], q, typeOfTree, type)));
+                        }
                     }
 
                 }
             }
         } catch (IOException ex) {
             throw new ExecutionException("Error while reading the input file");
+        } finally {
+            pool.shutdown();
+            writer.finish();
+        }
+        info("%s", DatasetRegistry.getInstance());
+        if (export) {
+            try {
+                MetricsExporter.write(metrics, metricsFile);
+                info("Metrics written in %s", metricsFile);
+            } catch (IOException ex) {
+                error("Cannot write the metrics in " + metricsFile);
+            }
+        }
+    }
+
+    /*
+     * Append the per-level pruning statistics of a tree, called concurrently by
+     * the experiments
+     */
+    private synchronized void appendProfile(String rows) {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(profileFile, true))) {
+            out.append(rows);
+        } catch (IOException ex) {
+            warn("Cannot write the pruning profile in %s", profileFile);
         }
     }
 
@@ -116,126 +195,203 @@ public class TestFramework extends Command {
         return "Execute experiments on the framework";
     }
 
-    private void execute(String pathToDb, String pathToIPF, Query q, int L, int cardinality, int[] scalability, int buckets, int k, String preferenceFunction, TreeType type) {
-        int typeOfTree;
-        int relaxationNodes;
-        double similarity = 0.0;
-        long buildingTime;
-        long ipfTime;
-        long queryTime;
-        short failing;
-        double profit, answers, effort;
-
-        RelaxationTree tree = null, optTree = null;
-        BufferedWriter br = null, out = null;
-        BooleanMockConnector db;
-        Prior prior;
-        PreferenceFunction pref;
-        String nameOfTree;
-        String tmp = "";
-        String query;
-        DecimalFormat nf = new DecimalFormat("#.#");
-        Query queryCopy;
-        //TreeType optTreeType = null;
-        StopWatch watch = new StopWatch();
+    /**
+     * Build an empty tree of the input type
+     * @param typeOfTree The algorithm (see the -t option)
+     * @param q The query to relax
+     * @param L The level used by the convolution trees
+     * @param buckets The number of buckets used by the convolution trees
+     * @param cardinality The minimum number of results of a query
+     * @param type The optimization function
+     * @param k The number of relaxations returned by the top-k trees
+     * @return The tree, null if the type does not exist
+     */
+    public static RelaxationTree createTree(int typeOfTree, Query q, int L, int buckets, int cardinality, TreeType type, int k) {
+        switch (typeOfTree) {
+            case 0: //Random Relaxation Tree
+                return new RandomRelaxationTree(q, cardinality, type);
+            case 1: //Greedy Relaxation Tree
+                return new GreedyRelaxationTree(q, cardinality, type);
+            case 2: //Greedy Random Relaxation Tree
+                return new GreedyRelaxationRandomChoiceTree(q, cardinality, type);
+            case 3: //Brute Force Relaxation Tree
+                return new OptimalRelaxationTree(q, cardinality, type);
+            case 4: // Pruning Relaxation Tree
+                return new TopKPruningTree(q, cardinality, type, k);
+            case 5://Heuristic Pruning Relaxation Tree Strategy.DIFFFIRST
+                return new HeuristicPruningTree(q, cardinality, type, HeuristicPruningTree.Strategy.DIFFFIRST);
+            case 6://Heuristic Pruning Relaxation Tree Strategy.LBFIRST
+                return new HeuristicPruningTree(q, cardinality, type, HeuristicPruningTree.Strategy.LBFIRST);
+            case 7://Heuristic Pruning Relaxation Tree Strategy.UBFIRST
+                return new HeuristicPruningTree(q, cardinality, type, HeuristicPruningTree.Strategy.UBFIRST);
+            case 8: //CDR 
+                return new ConvolutionTree(q, L, buckets, cardinality, type);
+            case 9: //FastCDR
+                return new TopKConvolutionPruningTree(q, L, buckets, cardinality, type, k);
+            case 10: //Koudas paper
+                return new QueryRefinementTree(q);
+            case 11: //Beam search, L is the depth
+                return new BeamSearchRelaxationTree(q, cardinality, type, BeamSearchRelaxationTree.DEFAULT_WIDTH, L);
+            case 12: //Monte Carlo tree search
+                return new MonteCarloRelaxationTree(q, cardinality, type);
+            default:
+                return null;
+        }
+    }
 
-        if (k > 1) {
-            warn("k is ignored if the tree is not FastOpt or FastCDR, the others are not implemented");
+    /**
+     * Return the name of an algorithm used in the output
+     * @param typeOfTree The algorithm (see the -t option)
+     * @return The name of the algorithm, null if it does not exist
+     */
+    public static String treeName(int typeOfTree) {
+        switch (typeOfTree) {
+            case 0: return "Rand";
+            case 1: return "Greedy";
+            case 2: return "Greedy-Rand";
+            case 3: return "FullTree";
+            case 4: return "FastOpt";
+            case 5: return "FastOpt-Diff";
+            case 6: return "FastOpt-LB";
+            case 7: return "FastOpt-UB";
+            case 8: return "CDR";
+            case 9: return "FastCDR";
+            case 10: return "QueryRef";
+            case 11: return "Beam";
+            case 12: return "MCTS";
+            default: return null;
         }
-        
-        nf.setMaximumFractionDigits(4);
-        nf.setMinimumIntegerDigits(1);
-        nf.setGroupingUsed(false);
+    }
 
+    /*
+     * Build the preference function by name
+     */
+    private PreferenceFunction preferenceFunction(BooleanMockConnector db) throws ReflectiveOperationException {
+        if ("IdfFunction".equals(preferenceFunction)) {
+            return new IdfFunction(db);
+        } else if ("DatabaseFunction".equals(preferenceFunction)) {
+            return new DatabaseFunction(db);
+        }
         try {
-            watch.start();
-            db = new BooleanMockConnector(pathToDb);
-            db.connect();
-            if ("IdfFunction".equals(preferenceFunction)) {
-                pref = new IdfFunction(db);
-            } else if ("DatabaseFunction".equals(preferenceFunction)) {
-                pref = new DatabaseFunction(db);
-            } else {
-                try {
-                    pref = (PreferenceFunction) Class.forName("it.unitn.disi.db.queryrelaxation.model.functions." + preferenceFunction).newInstance();
-                } catch (Exception ex) {
-                    System.out.printf("Failed to load %s with the canonical package it.unitn.disi.db.queryrelaxation.model.functions, trying to load as a fully qualified name");
-                    pref = (PreferenceFunction) Class.forName(preferenceFunction).newInstance();
-                }
-            }
+            return (PreferenceFunction) Class.forName("it.unitn.disi.db.queryrelaxation.model.functions." + preferenceFunction).newInstance();
+        } catch (Exception ex) {
+            System.out.printf("Failed to load %s with the canonical package it.unitn.disi.db.queryrelaxation.model.functions, trying to load as a fully qualified name", preferenceFunction);
+            return (PreferenceFunction) Class.forName(preferenceFunction).newInstance();
+        }
+    }
 
-            prior = new IPFPrior(db, pathToIPF, q); //Prior does not change over the texts
-            info("Loaded db and ipf in %dms", watch.getElapsedTimeMillis());
+    /*
+     * Build and measure one tree for one query. Datasets and priors are shared
+     * (read-only) through the registry, everything else belongs to the task.
+     * The result is the output row, null if the experiment failed.
+     */
+    private class Experiment implements Callable<String> {
+        private final String pathToDb;
+        private final String pathToIPF;
+        private final Query q;
+        private final int typeOfTree;
+        private final TreeType type;
+
+        Experiment(String pathToDb, String pathToIPF, Query q, int typeOfTree, TreeType type) {
+            this.pathToDb = pathToDb;
+            this.pathToIPF = pathToIPF;
+            this.q = q;
+            this.typeOfTree = typeOfTree;
+            this.type = type;
+        }
 
-            if (db.submitQuery(q).length != 0) {
-                error("The query is not empty.");
-                return;
+        @Override
+        public String call() {
+            int L = level;
+            int relaxationNodes;
+            double similarity = 0.0;
+            long buildingTime;
+            long ipfTime;
+            long queryTime;
+            long dbTime;
+            long cpuTime;
+            short failing = 1;
+            double profit, answers, effort;
+
+            RelaxationTree tree;
+            ObjectiveCosts objectives;
+            BufferedWriter br = null;
+            BooleanMockConnector db;
+            Prior prior;
+            PreferenceFunction pref;
+            String nameOfTree = treeName(typeOfTree);
+            String tmp = "";
+            String query;
+            DecimalFormat nf = new DecimalFormat("#.#");
+            Query queryCopy;
+            EmptySubqueryMiner.Lattice lattice;
+            PruningProfiler profiler = null;
+            StopWatch watch = new StopWatch();
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+            nf.setMaximumFractionDigits(4);
+            nf.setMinimumIntegerDigits(1);
+            nf.setGroupingUsed(false);
+
+            tree = createTree(typeOfTree, q, L, buckets, cardinality, type, k);
+            if (tree == null) {
+                System.err.println("wrong parameter");
+                return null;
             }
-
-            ////////1. FOR CHECKING ONLY SEVERAL TREES for big size
-            for (int i = 0; i < scalability.length; i++) {
-                typeOfTree = scalability[i];
-                failing = 1;
-
-                switch (typeOfTree) {
-                    case 0: //Random Relaxation Tree
-                        tree = new RandomRelaxationTree(q, cardinality, type);
-                        nameOfTree = "Rand";
-                        break;
-                    case 1: //Greedy Relaxation Tree
-                        tree = new GreedyRelaxationTree(q, cardinality, type);
-                        nameOfTree = "Greedy";
-                        break;
-                    case 2: //Greedy Random Relaxation Tree
-                        tree = new GreedyRelaxationRandomChoiceTree(q, cardinality, type);
-                        nameOfTree = "Greedy-Rand";
-                        break;
-                    case 3: //Brute Force Relaxation Tree
-                        tree = new OptimalRelaxationTree(q, cardinality, type);
-                        nameOfTree = "FullTree";
-                        break;
-                    case 4: // Pruning Relaxation Tree
-                        tree = new TopKPruningTree(q, cardinality, type, k);
-                        nameOfTree = "FastOpt";
-                        break;
-                    case 5://Heuristic Pruning Relaxation Tree Strategy.DIFFFIRST
-                        tree = new HeuristicPruningTree(q, cardinality, type, HeuristicPruningTree.Strategy.DIFFFIRST);
-                        nameOfTree = "FastOpt-Diff";
-                        break;
-                    case 6://Heuristic Pruning Relaxation Tree Strategy.LBFIRST
-                        tree = new HeuristicPruningTree(q, cardinality, type, HeuristicPruningTree.Strategy.LBFIRST);
-                        nameOfTree = "FastOpt-LB";
-                        break;
-                    case 7://Heuristic Pruning Relaxation Tree Strategy.UBFIRST
-                        tree = new HeuristicPruningTree(q, cardinality, type, HeuristicPruningTree.Strategy.UBFIRST);
-                        nameOfTree = "FastOpt-UB";
-                        break;
-                    case 8: //CDR 
-                        tree = new ConvolutionTree(q, L, buckets, cardinality, type);
-                        nameOfTree = "CDR";
-                        break;
-                    case 9: //FastCDR
-                        tree = new TopKConvolutionPruningTree(q, L, buckets, cardinality, type, k);
-                        nameOfTree = "FastCDR";
-                        break;
-                    case 10: //Koudas paper
-                        tree = new QueryRefinementTree(q);
-                        nameOfTree = "QueryRef";
-                        break;
-                    default:
-                        System.err.println("wrong parameter");
-                        return;
+            watch.start();
+            try (DatasetRegistry.Handle<BooleanMockConnector> dbHandle = DatasetRegistry.getInstance().database(pathToDb, benefitSorted);
+                    DatasetRegistry.Handle<IPFTable> ipfHandle = DatasetRegistry.getInstance().prior(pathToIPF)) {
+                db = dbHandle.get();
+                pref = preferenceFunction(db);
+                prior = new IPFPrior(db, ipfHandle.get(), q); //Prior does not change over the texts
+                info("Loaded db and ipf in %dms", watch.getElapsedTimeMillis());
+
+                if (db.submitQuery(q).length != 0) {
+                    error("The query is not empty.");
+                    return null;
                 }
 
                 tree.setDb(db);
                 tree.setPref(pref);
                 tree.setPrior(prior);
                 tree.setVerbose(false);
+                tree.setMetrics(metrics);
+                db.setMetrics(metrics);
+                if (tree instanceof ConvolutionTree) {
+                    ((ConvolutionTree) tree).setParallelism(branchThreads);
+                    ((ConvolutionTree) tree).setHistogramType(Histograms.Type.valueOf(histogramType));
+                }
+                if (tree instanceof BeamSearchRelaxationTree) {
+                    ((BeamSearchRelaxationTree) tree).setWidth(beamWidth);
+                    ((BeamSearchRelaxationTree) tree).setRanking(BeamSearchRelaxationTree.Ranking.valueOf(beamRanking));
+                }
+                if (tree instanceof MonteCarloRelaxationTree) {
+                    ((MonteCarloRelaxationTree) tree).setBudget(searchBudget);
+                    ((MonteCarloRelaxationTree) tree).setParallelism(branchThreads);
+                    ((MonteCarloRelaxationTree) tree).setPolicy(MonteCarloRelaxationTree.Policy.valueOf(rolloutPolicy));
+                }
+                if (profileFile != null && !profileFile.isEmpty() && tree instanceof PruningTree) {
+                    profiler = new PruningProfiler();
+                    ((PruningTree) tree).setProfiler(profiler);
+                }
 
+                //The connector is shared: only the time of this thread is considered
+                dbTime = -db.getThreadTimeDbInterrogation();
+                cpuTime = threads.isCurrentThreadCpuTimeSupported() ? -threads.getCurrentThreadCpuTime() : 0;
                 buildingTime = -System.currentTimeMillis();
+                //Mining is part of the construction, it replaces the emptiness probes
+                lattice = mineSubqueries ? db.mineEmptySubqueries(q, cardinality) : null;
+                if (tree instanceof OptimalRelaxationTree) {
+                    ((OptimalRelaxationTree) tree).setLattice(lattice);
+                }
                 tree.materialize(true);
                 buildingTime += System.currentTimeMillis();
+                cpuTime = threads.isCurrentThreadCpuTimeSupported() ? (cpuTime + threads.getCurrentThreadCpuTime()) / 1000000 : 0;
+                dbTime += db.getThreadTimeDbInterrogation();
                 queryTime = tree.getTime();
+                if (profiler != null) {
+                    appendProfile(profiler.report(nameOfTree, EmptyQueryGeneration.queryToString(q)));
+                }
 
                 info("Tree of type: " + nameOfTree + ", root cost: " + tree.getRoot().getCost()
                         + ", " + tree.getNumberOfNodes() + " nodes, query time: " + queryTime);
@@ -248,7 +404,9 @@ public class TestFramework extends Command {
                     query += c.getAttributeName() + "_";
                     queryCopy = (Query) q.clone();
                     queryCopy.relax(c);
-                    if (db.submitQuery(queryCopy).length != 0) {
+                    //With cardinality 1 the lattice tells which relaxations have results
+                    if (lattice != null && cardinality == 1 ? !lattice.isEmpty(Utilities.toBooleanQuery(queryCopy))
+                            : db.submitQuery(queryCopy).length != 0) {
                         failing = 0;
                     }
                 }
@@ -257,33 +415,41 @@ public class TestFramework extends Command {
                     br.append(tree.toString());
                     br.close();
                 }
-                //DEBUG: to remove
-                //Compute optimal trees
-                optTree = tree.optimalTree(TreeType.MIN_EFFORT);
-                optTree.computeCosts();
-                effort = optTree.getRoot().getCost() / optTree.getRoot().getChildren().size();
-                optTree = tree.optimalTree(TreeType.PREFERRED);
-                optTree.computeCosts();
-                answers = optTree.getRoot().getCost() / optTree.getRoot().getChildren().size();
-                optTree = tree.optimalTree(TreeType.MAX_VALUE_MAX);
-                optTree.computeCosts();
-                profit = optTree.getRoot().getCost() / optTree.getRoot().getChildren().size();
+                //Compute the costs of the optimal tree, in a single pass
+                if (tree instanceof OptimalRelaxationTree) {
+                    objectives = ((OptimalRelaxationTree) tree).computeObjectives(TreeType.MIN_EFFORT, TreeType.PREFERRED, TreeType.MAX_VALUE_MAX);
+                    effort = objectives.getCost(TreeType.MIN_EFFORT) / objectives.getOptimalChoices();
+                    answers = objectives.getCost(TreeType.PREFERRED) / objectives.getOptimalChoices();
+                    profit = objectives.getCost(TreeType.MAX_VALUE_MAX) / objectives.getOptimalChoices();
+                } else {
+                    //The refinement tree has a single policy and no optimal tree
+                    objectives = null;
+                    effort = answers = profit = Double.NaN;
+                }
 
-                if (writeTrees) {
+                if (writeTrees && objectives != null) {
                     br = new BufferedWriter(new FileWriter(String.format("OutputData%sopt_tree%d_%s.dot", File.separator, typeOfTree, query)));
-                    optTree = tree.optimalTree((type == TreeType.MAX_VALUE_MAX || type == TreeType.PREFERRED) ? TreeType.MIN_EFFORT : TreeType.MAX_VALUE_MAX);
-                    optTree.computeCosts();
-                    br.append(optTree.toString());
+                    br.append(((OptimalRelaxationTree) tree).optimalView().toString(objectives, 
+                            (type == TreeType.MAX_VALUE_MAX || type == TreeType.PREFERRED) ? TreeType.MIN_EFFORT : TreeType.MAX_VALUE_MAX));
                     br.close();
                 }
 
-                out = new BufferedWriter(new FileWriter(outputFile, true));
-
-                info("Query time: %d, Building time: %d", queryTime, buildingTime);
+                info("Query time: %d, Building time: %d, CPU time: %d", queryTime, buildingTime, cpuTime);
                 //Old comparison with optimal
                 if (typeOfTree == 8 || typeOfTree == 9) {
                     info("No steps: " + ((ConvolutionTree) tree).getNumberOfSteps());
                 }
+                if (tree instanceof BeamSearchRelaxationTree) {
+                    info("Cost gap: %f, optimistic cost: %f", ((BeamSearchRelaxationTree) tree).getCostGap(), 
+                            ((BeamSearchRelaxationTree) tree).getOptimisticCost());
+                }
+                if (tree instanceof MonteCarloRelaxationTree) {
+                    info("Episodes: %d, nodes to expand: %d", ((MonteCarloRelaxationTree) tree).getEpisodes(), 
+                            ((MonteCarloRelaxationTree) tree).getOpenNodes());
+                }
+                if (tree instanceof OptimalRelaxationTree && ((OptimalRelaxationTree) tree).getSimulation() != null) {
+                    info("Simulated policy, %s", ((OptimalRelaxationTree) tree).getSimulation());
+                }
 
                 tmp += typeOfTree + "\t";
                 tmp += nameOfTree + "\t";
@@ -293,6 +459,8 @@ public class TestFramework extends Command {
                     tmp += "yahoo\t";
                 } else if (pathToIPF.contains("realtor")) {
                     tmp += "realtor\t";
+                } else if (pathToIPF.contains("synthetic")) {
+                    tmp += "synthetic\t";
                 } else {
                     System.out.println("The name of the ipf file do not contain yahoo or realtor");
                 }
@@ -317,7 +485,7 @@ public class TestFramework extends Command {
                         //Time to construct the tree
                         + buildingTime + "\t"
                         //Db interrogation time percentage
-                        + db.getTotalTimeDbInterrogation() / 1000000 + " = " + nf.format(db.getTotalTimeDbInterrogation() / 10000 / (float) buildingTime) + "%\t"
+                        + dbTime / 1000000 + " = " + nf.format(dbTime / 10000 / (float) buildingTime) + "%\t"
                         //ipf interrogation time percentage
                         + nf.format(ipfTime / 10000 / (float) buildingTime) + "%" + "\t"
                         //is it a failing query? (at first level) 
@@ -331,26 +499,80 @@ public class TestFramework extends Command {
                         + answers + "\t"
                         + profit + "\t"
                         //similarity and number of buckets
-                        + (typeOfTree == 8 || typeOfTree == 9? (similarity + "\t" + buckets) : "") + "\n"; //total time to interoog the db
-                out.append(tmp);
-
-                db.resetTime();//A:
+                        + (typeOfTree == 8 || typeOfTree == 9? (similarity + "\t" + buckets) : "") + "\n";
                 tree.resetTime();//A:
+                return tmp;
+            } catch (Exception ex) {
+                Logger.getLogger(TestFramework.class.getName()).log(Level.SEVERE, null, ex);
+                return null;
+            } finally {
+                try {
+                    if (br != null) {
+                        br.close();
+                    }
+                } catch (Exception ex) {
+                }
             }
-        } catch (Exception ex) {
-            Logger.getLogger(TestFramework.class.getName()).log(Level.SEVERE, null, ex);
-        } finally {
+        }
+    }
+
+    /*
+     * Appends the rows of the experiments to the output file in the order they
+     * have been submitted, as soon as each of them is available. It is the only
+     * thread that writes the file.
+     */
+    private class OrderedWriter extends Thread {
+        private final BlockingQueue<Future<String>> rows;
+        /* Marks the end of the rows */
+        private final Future<String> end;
+        private final String path;
+
+        OrderedWriter(String path) {
+            super("TestFramework-writer");
+            this.path = path;
+            rows = new LinkedBlockingQueue<>();
+            end = CompletableFuture.completedFuture(null);
+        }
+
+        void add(Future<String> row) {
+            rows.add(row);
+        }
+
+        /*
+         * Wait until all the rows submitted so far have been written
+         */
+        void finish() {
+            rows.add(end);
             try {
-                if (br != null) {
-                    br.close();
+                if (isAlive()) {
+                    join();
                 }
-            } catch (Exception ex) {
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
             }
-            try {
-                if (out != null) {
-                    out.close();
+        }
+
+        @Override
+        public void run() {
+            Future<String> row;
+            String line;
+            try (BufferedWriter out = new BufferedWriter(new FileWriter(path, true))) {
+                while ((row = rows.take()) != end) {
+                    try {
+                        line = row.get();
+                    } catch (java.util.concurrent.ExecutionException ex) {
+                        Logger.getLogger(TestFramework.class.getName()).log(Level.SEVERE, null, ex);
+                        continue;
+                    }
+                    if (line != null) {
+                        out.append(line);
+                        out.flush();
+                    }
                 }
-            } catch (Exception ex) {
+            } catch (IOException ex) {
+                Logger.getLogger(TestFramework.class.getName()).log(Level.SEVERE, "Cannot write the output file", ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
             }
         }
     }
@@ -471,4 +693,121 @@ public class TestFramework extends Command {
     public void setK(int k) {
         this.k = k;
     }
+
+    @CommandInput(
+            consoleFormat = "-bs",
+            defaultValue = "false",
+            mandatory = false,
+            description = "store the tuples by descending benefit (faster MAX_VALUE_MAX bounds)")    
+    public void setBenefitSorted(boolean benefitSorted) {
+        this.benefitSorted = benefitSorted;
+    }
+
+    @CommandInput(
+            consoleFormat = "-rb",
+            defaultValue = "0",
+            mandatory = false,
+            description = "memory (MB) used to cache datasets and priors, 0 for half of the heap")    
+    public void setRegistryBudget(int registryBudget) {
+        this.registryBudget = registryBudget;
+    }
+
+    @CommandInput(
+            consoleFormat = "-ms",
+            defaultValue = "false",
+            mandatory = false,
+            description = "mine the minimal empty subqueries of each query to avoid emptiness probes")    
+    public void setMineSubqueries(boolean mineSubqueries) {
+        this.mineSubqueries = mineSubqueries;
+    }
+
+    @CommandInput(
+            consoleFormat = "-j",
+            defaultValue = "1",
+            mandatory = false,
+            description = "number of experiments (query, algorithm) run in parallel")    
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    @CommandInput(
+            consoleFormat = "-mo",
+            defaultValue = "",
+            mandatory = false,
+            description = "file where node, probe and phase metrics are exported, JSON if it ends with .json, Prometheus text otherwise")    
+    public void setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    @CommandInput(
+            consoleFormat = "-jfr",
+            defaultValue = "false",
+            mandatory = false,
+            description = "emit a JFR event for each tree phase and query (needs a running flight recording)")    
+    public void setJfr(boolean jfr) {
+        this.jfr = jfr;
+    }
+
+    @CommandInput(
+            consoleFormat = "-pp",
+            defaultValue = "",
+            mandatory = false,
+            description = "file where the per-level pruning statistics of the bound-based trees are written (tab separated)")    
+    public void setProfileFile(String profileFile) {
+        this.profileFile = profileFile;
+    }
+
+    @CommandInput(
+            consoleFormat = "-bt",
+            defaultValue = "1",
+            mandatory = false,
+            description = "number of threads expanding the branches of the CDR trees and running the episodes of MCTS, db and cpu times count only the calling thread")    
+    public void setBranchThreads(int branchThreads) {
+        this.branchThreads = branchThreads;
+    }
+
+    @CommandInput(
+            consoleFormat = "-ht",
+            defaultValue = "EQUI_WIDTH",
+            mandatory = false,
+            description = "histograms of the CDR trees: EQUI_WIDTH or ADAPTIVE (equi-depth, fewer buckets are needed)")    
+    public void setHistogramType(String histogramType) {
+        this.histogramType = histogramType;
+    }
+
+    @CommandInput(
+            consoleFormat = "-bw",
+            defaultValue = "3",
+            mandatory = false,
+            description = "number of choices kept for each relaxation by the beam search tree, -L is its depth")    
+    public void setBeamWidth(int beamWidth) {
+        this.beamWidth = beamWidth;
+    }
+
+    @CommandInput(
+            consoleFormat = "-br",
+            defaultValue = "BOUNDS",
+            mandatory = false,
+            description = "ranking of the choices of the beam search tree: BOUNDS, SELECTIVITY or PREFERENCE")    
+    public void setBeamRanking(String beamRanking) {
+        this.beamRanking = beamRanking;
+    }
+
+    @CommandInput(
+            consoleFormat = "-mb",
+            defaultValue = "1000",
+            mandatory = false,
+            description = "time budget of MCTS in milliseconds, 0 to build the whole tree")    
+    public void setSearchBudget(int searchBudget) {
+        this.searchBudget = searchBudget;
+    }
+
+    @CommandInput(
+            consoleFormat = "-mp",
+            defaultValue = "GREEDY",
+            mandatory = false,
+            description = "default policy of the rollouts of MCTS: GREEDY or RANDOM")    
+    public void setRolloutPolicy(String rolloutPolicy) {
+        this.rolloutPolicy = rolloutPolicy;
+    }
 }
@@ -19,175 +19,385 @@
 package it.unitn.disi.db.queryrelaxation.commands;
 
 import eu.unitn.disi.db.command.CommandInput;
+import eu.unitn.disi.db.command.exceptions.ExecutionException;
 import eu.unitn.disi.db.command.global.Command;
 import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
-import it.unitn.disi.db.queryrelaxation.model.Pair;
 import it.unitn.disi.db.queryrelaxation.model.PreferenceFunction;
+import it.unitn.disi.db.queryrelaxation.model.Prior;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 import it.unitn.disi.db.queryrelaxation.model.data.BooleanMockConnector;
+import it.unitn.disi.db.queryrelaxation.model.data.DatasetRegistry;
 import it.unitn.disi.db.queryrelaxation.model.functions.IPFPrior;
+import it.unitn.disi.db.queryrelaxation.model.functions.IPFTable;
 import it.unitn.disi.db.queryrelaxation.model.functions.IdfFunction;
 import it.unitn.disi.db.queryrelaxation.statistics.EmptyQueryGeneration;
-import it.unitn.disi.db.queryrelaxation.tree.ConvolutionTree;
 import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree;
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree.TreeType;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * TODO: Refine this class
+ * Closed-loop load test: a fixed number of threads relax queries back to back,
+ * each thread starting a new query as soon as the previous one is done. For
+ * each algorithm and query size there is a warm-up phase, whose results are
+ * discarded, followed by a measurement phase that reports throughput, latency
+ * percentiles and garbage collection time.
  * @author Davide Mottin <mottin@disi.unitn.eu>
  */
 public class TestThroughput extends Command {
     private String pathToDb;
-    private int n; 
-    private int minQuerySize; 
+    private int n;
+    private int minQuerySize;
     private int maxQuerySize;
     private int cardinality;
     private int[] algorithms;
-    private int t; 
-    
-    @Override
-    protected void execute() throws eu.unitn.disi.db.command.exceptions.ExecutionException {
-        executeThroughput(pathToDb, minQuerySize, maxQuerySize, n, t, cardinality);
-    
-    }
+    private String optimizationCriteria;
+    private int level;
+    private int buckets;
+    private int k;
+    private int warmup;
+    private int duration;
+    private String outputFile;
 
     @Override
-    protected String commandDescription() {
-        return "Test the algorithms with a set of parallel queries"; 
-    }
-    
-    private static class ThroughputProcess implements Callable<Long> {
-        private RelaxationTree tree;
-        
-        public ThroughputProcess(RelaxationTree tree) {
-            this.tree = tree;
-        }
-        
-        public Long call() throws Exception {
-            tree.materialize(true);
-            return tree.getTime();
-        }
-    }
-    
-    public static void executeThroughput(String pathToDb, int minQuerySize, int maxQuerySize, int n, int t, int cardinality) {
-        Query q; 
-        BufferedReader testReader = null;
+    protected void execute() throws ExecutionException {
+        TreeMap<Integer,List<Workload>> sizeQueryMap = new TreeMap<>();
+        Map<String,DatasetRegistry.Handle<BooleanMockConnector>> dbs = new HashMap<>();
+        Map<String,DatasetRegistry.Handle<IPFTable>> ipfs = new HashMap<>();
+        List<Result> results = new ArrayList<>();
+        TreeType type = TreeType.valueOf(optimizationCriteria);
         String line;
         String[] splittedLine;
-        IPFPrior prior;
-        PreferenceFunction pref;
         BooleanMockConnector db;
-        RelaxationTree tree;
-        long totalTime; 
-        RelaxationTree.TreeType type = RelaxationTree.TreeType.MIN_EFFORT;
-        int L = 3; 
-        int buckets = 20;
-        ExecutorService pool = Executors.newCachedThreadPool();
-        TreeMap<Integer,List<Pair<Query,String>>> sizeQueryMap; 
-        Map<String,BooleanMockConnector> dbs; 
-        Map<String,IPFPrior> ipfs; 
-        List<Pair<Query,String>> queries; 
-        Pair<Query,String> data;
-        
-        
-        try {
-            testReader = new BufferedReader(new FileReader(pathToDb));
-            System.out.printf("Successfully Loaded file: %s\n-----------------\n", pathToDb);
-            sizeQueryMap = new TreeMap<>();
-            ipfs = new HashMap<>();
-            dbs = new HashMap<>();
-            
+        List<Workload> queries;
+        Query q;
+
+        try (BufferedReader testReader = new BufferedReader(new FileReader(pathToDb))) {
+            info("Successfully Loaded file: %s", pathToDb);
+            //Databases, priors and preferences are prepared once, outside the measurements
             while ((line = testReader.readLine()) != null) {
                 line = line.trim();
-                
-                //Load the queries and repeat them a fixed amount of times. 
                 if (line.length() != 0) {
                     splittedLine = line.split("\t");
                     q = EmptyQueryGeneration.stringToQuery(splittedLine[2]);
                     if (q.size() >= minQuerySize && q.size() <= maxQuerySize) {
-                        System.out.printf("Processing query: %s\ndb: %s\nIPF: %s\n", q.toString(), splittedLine[0], splittedLine[1]);
-                        try {
-                        } catch (Exception ex) {
-                            Logger.getLogger(TestFramework.class.getName()).log(Level.SEVERE, null, ex);
+                        if (!dbs.containsKey(splittedLine[0])) {
+                            dbs.put(splittedLine[0], DatasetRegistry.getInstance().database(splittedLine[0]));
                         }
-                        queries = sizeQueryMap.get((int)q.size());
+                        if (!ipfs.containsKey(splittedLine[1])) {
+                            ipfs.put(splittedLine[1], DatasetRegistry.getInstance().prior(splittedLine[1]));
+                        }
+                        db = dbs.get(splittedLine[0]).get();
+                        if (db.submitQuery(q).length != 0) {
+                            warn("The query %s is not empty, skipped", q);
+                            continue;
+                        }
+                        queries = sizeQueryMap.get((int) q.size());
                         if (queries == null) {
                             queries = new ArrayList<>();
+                            sizeQueryMap.put((int) q.size(), queries);
                         }
-                        queries.add(new Pair<>(q, splittedLine[0] + "," + splittedLine[1]));
-                        sizeQueryMap.put((int)q.size(), queries);
-                        db = dbs.get(splittedLine[0]);
-                        prior = ipfs.get(splittedLine[1]);
-                        if (db == null) {
-                            db = new BooleanMockConnector(splittedLine[0]);
-                            db.connect();
-                        }
-                        dbs.put(splittedLine[0], db);
-                        ipfs.put(splittedLine[1], prior);
+                        queries.add(new Workload(q, db, new IPFPrior(db, ipfs.get(splittedLine[1]).get(), q), new IdfFunction(db)));
                     }
                 }
             }
-            System.out.println("Loaded all the databases and ipfs into memory, now let's start the computation");
-            List<Future<Long>> times; 
-            //looping over all the sizes in ascending order
-            for (Integer size : sizeQueryMap.keySet()) {
-                queries = sizeQueryMap.get(size);
-                times = new ArrayList<>();
-                //Submit the batches and iterate over the list
-                for (int i = 0; i < n; i++) {
-                    data = queries.get(i % queries.size()); //Iterate over the queries several tiems
-                    splittedLine = data.getSecond().split(",");
-                    db = dbs.get(splittedLine[0]);
-                    prior = new IPFPrior(db, splittedLine[1], data.getFirst());
-//                    prior = ipfs.get(splittedLine[1]);
-                    pref = new IdfFunction(db);
-                    tree = new ConvolutionTree(data.getFirst(), L, buckets, cardinality, type); //Only for convolution if not required
-                    tree.setDb(db);
-                    tree.setPref(pref);
-                    tree.setPrior(prior);
-                    tree.setVerbose(false);
-                    
-                    times.add(pool.submit(new ThroughputProcess(tree)));
-                    if (db.submitQuery(data.getFirst()).length != 0) {
-                        System.out.println("The query is not empty.");
-                        return;
-                    }
+            info("Loaded %d databases and %d priors, concurrency %d, warm-up %ds, measurement %ds", dbs.size(), ipfs.size(), n, warmup, duration);
+            for (int algorithm : algorithms) {
+                if (TestFramework.treeName(algorithm) == null) {
+                    warn("Algorithm %d does not exist, skipped", algorithm);
+                    continue;
                 }
-                totalTime = 0L;
-                for (Future<Long> timeFuture : times) {
-                    totalTime += timeFuture.get();
+                //looping over all the sizes in ascending order
+                for (Integer size : sizeQueryMap.keySet()) {
+                    results.add(run(algorithm, size, sizeQueryMap.get(size), type));
                 }
-                System.out.printf("Total time for %d batches of query size %d is %dms\n", n, size, totalTime);
-            }    
-        } catch (InterruptedException | ExecutionException | ConnectionException ex) {
-            Logger.getLogger(TestFramework.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            write(results);
+        } catch (ConnectionException | InterruptedException ex) {
+            Logger.getLogger(TestThroughput.class.getName()).log(Level.SEVERE, null, ex);
         } catch (IOException ex) {
-            Logger.getLogger(TestFramework.class.getName()).log(Level.SEVERE, "An error occurred in reading the test File, message follows", ex);
+            Logger.getLogger(TestThroughput.class.getName()).log(Level.SEVERE, "An error occurred in reading the test File, message follows", ex);
         } finally {
-            pool.shutdown();
-        }       
+            for (DatasetRegistry.Handle<BooleanMockConnector> handle : dbs.values()) {
+                handle.close();
+            }
+            for (DatasetRegistry.Handle<IPFTable> handle : ipfs.values()) {
+                handle.close();
+            }
+        }
+    }
+
+    @Override
+    protected String commandDescription() {
+        return "Test the algorithms with a set of parallel queries";
+    }
+
+    /*
+     * Run the warm-up and the measurement phase of an algorithm on the queries
+     * of the same size
+     */
+    private Result run(int algorithm, int size, List<Workload> queries, TreeType type) throws InterruptedException {
+        int threads = Math.max(1, n);
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads);
+        Worker[] workers = new Worker[threads];
+        long start = System.nanoTime();
+        long measureStart = start + warmup * 1000000000L;
+        long measureEnd = measureStart + duration * 1000000000L;
+        long gcTime, gcCount;
+        Result result;
+
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(algorithm, type, queries, next, measureStart, measureEnd, done);
+            workers[i].setName(String.format("TestThroughput-%d", i));
+            workers[i].start();
+        }
+        //GC is sampled at the phase boundaries, from the main thread
+        sleepUntil(measureStart);
+        gcTime = -gcTime();
+        gcCount = -gcCount();
+        sleepUntil(measureEnd);
+        gcTime += gcTime();
+        gcCount += gcCount();
+        done.await();
+
+        result = new Result(algorithm, size, threads, (measureEnd - measureStart) / 1e9, workers, gcTime, gcCount);
+        info("%s, query size %d: %d queries, %.2f queries/s, p50 %.2fms, p95 %.2fms, p99 %.2fms, max %.2fms, GC %dms (%d errors)",
+                TestFramework.treeName(algorithm), size, result.completed, result.throughput(),
+                result.percentile(0.50), result.percentile(0.95), result.percentile(0.99), result.max(), result.gcTime, result.errors);
+        return result;
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+        }
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    /*
+     * Write the results as CSV if the output file ends with .csv, as JSON
+     * otherwise
+     */
+    private void write(List<Result> results) throws IOException {
+        boolean csv = outputFile.toLowerCase().endsWith(".csv");
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(outputFile))) {
+            if (csv) {
+                out.append("algorithm,name,querySize,concurrency,seconds,completed,errors,qps,meanMs,p50Ms,p95Ms,p99Ms,maxMs,gcMs,gcCount\n");
+            } else {
+                out.append("[\n");
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                if (csv) {
+                    out.append(String.format(java.util.Locale.ROOT, "%d,%s,%d,%d,%.3f,%d,%d,%.4f,%.4f,%.4f,%.4f,%.4f,%.4f,%d,%d\n",
+                            r.algorithm, TestFramework.treeName(r.algorithm), r.size, r.concurrency, r.seconds, r.completed, r.errors,
+                            r.throughput(), r.mean(), r.percentile(0.50), r.percentile(0.95), r.percentile(0.99), r.max(), r.gcTime, r.gcCount));
+                } else {
+                    out.append(String.format(java.util.Locale.ROOT, "  {\"algorithm\": %d, \"name\": \"%s\", \"querySize\": %d, \"concurrency\": %d, "
+                            + "\"seconds\": %.3f, \"completed\": %d, \"errors\": %d, \"qps\": %.4f, \"meanMs\": %.4f, \"p50Ms\": %.4f, "
+                            + "\"p95Ms\": %.4f, \"p99Ms\": %.4f, \"maxMs\": %.4f, \"gcMs\": %d, \"gcCount\": %d}%s\n",
+                            r.algorithm, TestFramework.treeName(r.algorithm), r.size, r.concurrency, r.seconds, r.completed, r.errors,
+                            r.throughput(), r.mean(), r.percentile(0.50), r.percentile(0.95), r.percentile(0.99), r.max(), r.gcTime, r.gcCount,
+                            i < results.size() - 1 ? "," : ""));
+                }
+            }
+            if (!csv) {
+                out.append("]\n");
+            }
+        }
+        info("Results written in %s", outputFile);
+    }
+
+    /*
+     * A query with everything needed to relax it, shared by the threads
+     */
+    private static class Workload {
+        private final Query query;
+        private final BooleanMockConnector db;
+        private final Prior prior;
+        private final PreferenceFunction pref;
+
+        Workload(Query query, BooleanMockConnector db, Prior prior, PreferenceFunction pref) {
+            this.query = query;
+            this.db = db;
+            this.prior = prior;
+            this.pref = pref;
+        }
+    }
+
+    /*
+     * Relax the queries in round robin until the end of the measurement phase,
+     * recording the latency of the queries started in the measurement phase
+     */
+    private class Worker extends Thread {
+        private final int algorithm;
+        private final TreeType type;
+        private final List<Workload> queries;
+        private final AtomicInteger next;
+        private final long measureStart;
+        private final long measureEnd;
+        private final CountDownLatch done;
+        /* Latencies in nanoseconds */
+        private long[] latencies;
+        private int completed;
+        private int errors;
+
+        Worker(int algorithm, TreeType type, List<Workload> queries, AtomicInteger next, long measureStart, long measureEnd, CountDownLatch done) {
+            this.algorithm = algorithm;
+            this.type = type;
+            this.queries = queries;
+            this.next = next;
+            this.measureStart = measureStart;
+            this.measureEnd = measureEnd;
+            this.done = done;
+            latencies = new long[1024];
+            completed = 0;
+            errors = 0;
+        }
+
+        @Override
+        public void run() {
+            Workload workload;
+            RelaxationTree tree;
+            long start, end;
+            boolean failed;
+            try {
+                while ((start = System.nanoTime()) < measureEnd) {
+                    workload = queries.get(Math.floorMod(next.getAndIncrement(), queries.size()));
+                    failed = false;
+                    try {
+                        tree = TestFramework.createTree(algorithm, workload.query, level, buckets, cardinality, type, k);
+                        tree.setDb(workload.db);
+                        tree.setPref(workload.pref);
+                        tree.setPrior(workload.prior);
+                        tree.setVerbose(false);
+                        tree.materialize(true);
+                    } catch (Exception ex) {
+                        Logger.getLogger(TestThroughput.class.getName()).log(Level.SEVERE, null, ex);
+                        failed = true;
+                    }
+                    end = System.nanoTime();
+                    //Only the queries entirely inside the measurement phase count
+                    if (start >= measureStart && end <= measureEnd) {
+                        if (failed) {
+                            errors++;
+                        } else {
+                            if (completed == latencies.length) {
+                                latencies = Arrays.copyOf(latencies, completed * 2);
+                            }
+                            latencies[completed++] = end - start;
+                        }
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    /*
+     * Measurements of a run, latencies are reported in milliseconds
+     */
+    private static class Result {
+        private final int algorithm;
+        private final int size;
+        private final int concurrency;
+        private final double seconds;
+        private final long[] latencies;
+        private final int completed;
+        private final int errors;
+        private final long gcTime;
+        private final long gcCount;
+
+        Result(int algorithm, int size, int concurrency, double seconds, Worker[] workers, long gcTime, long gcCount) {
+            int count = 0, failures = 0;
+            this.algorithm = algorithm;
+            this.size = size;
+            this.concurrency = concurrency;
+            this.seconds = seconds;
+            this.gcTime = gcTime;
+            this.gcCount = gcCount;
+            for (Worker w : workers) {
+                count += w.completed;
+                failures += w.errors;
+            }
+            latencies = new long[count];
+            count = 0;
+            for (Worker w : workers) {
+                System.arraycopy(w.latencies, 0, latencies, count, w.completed);
+                count += w.completed;
+            }
+            Arrays.sort(latencies);
+            completed = count;
+            errors = failures;
+        }
+
+        double throughput() {
+            return seconds > 0 ? completed / seconds : 0;
+        }
+
+        /*
+         * Nearest-rank percentile
+         */
+        double percentile(double p) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(p * latencies.length);
+            return latencies[Math.max(0, rank - 1)] / 1e6;
+        }
+
+        double max() {
+            return latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e6;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (long latency : latencies) {
+                sum += latency;
+            }
+            return latencies.length == 0 ? 0 : sum / latencies.length / 1e6;
+        }
     }
 
-    
+
     @CommandInput(
         consoleFormat = "-db",
         defaultValue = "",
         mandatory = true,
-        description = "folder containing the database to be used")
+        description = "query file containing the dataset and the query to be performed")
     public void setDbFolder(String dbFolder) {
         this.pathToDb = dbFolder;
     }
@@ -197,7 +407,7 @@ public class TestThroughput extends Command {
         consoleFormat = "-m",
         defaultValue = "3",
         mandatory = false,
-        description = "minimum query size to be processed")    
+        description = "minimum query size to be processed")
     public void setMinQuerySize(int minQuerySize) {
         this.minQuerySize = minQuerySize;
     }
@@ -206,7 +416,7 @@ public class TestThroughput extends Command {
         consoleFormat = "-M",
         defaultValue = "7",
         mandatory = false,
-        description = "maximum query size to be processed")    
+        description = "maximum query size to be processed")
     public void setMaxQuerySize(int maxQuerySize) {
         this.maxQuerySize = maxQuerySize;
     }
@@ -215,16 +425,16 @@ public class TestThroughput extends Command {
         consoleFormat = "-c",
         defaultValue = "1",
         mandatory = false,
-        description = "minimum cardinality for a set of resutls") 
+        description = "minimum cardinality for a set of resutls")
     public void setCardinality(int cardinality) {
         this.cardinality = cardinality;
     }
-    
+
     @CommandInput(
         consoleFormat = "-t",
         defaultValue = "",
         mandatory = true,
-        description = "algorithms to be used in the evaluation") 
+        description = "algorithms to be used in the evaluation (same codes as TestFramework)")
     public void setAlgorithms(int[] algorithms) {
         this.algorithms = algorithms;
     }
@@ -233,8 +443,71 @@ public class TestThroughput extends Command {
         consoleFormat = "-n",
         defaultValue = "10",
         mandatory = true,
-        description = "number of threads") 
+        description = "number of threads")
     public void setN(int n) {
         this.n = n;
     }
+
+    @CommandInput(
+        consoleFormat = "-tt",
+        defaultValue = "MIN_EFFORT",
+        mandatory = false,
+        description = "optimization function used")
+    public void setOptimizationCriteria(String optimizationCriteria) {
+        this.optimizationCriteria = optimizationCriteria;
+    }
+
+    @CommandInput(
+        consoleFormat = "-L",
+        defaultValue = "3",
+        mandatory = false,
+        description = "level used in the convolution tree")
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    @CommandInput(
+        consoleFormat = "-b",
+        defaultValue = "20",
+        mandatory = false,
+        description = "number of buckets used by Convolution tree")
+    public void setBuckets(int buckets) {
+        this.buckets = buckets;
+    }
+
+    @CommandInput(
+        consoleFormat = "-k",
+        defaultValue = "1",
+        mandatory = false,
+        description = "number of relaxations to return to the user")
+    public void setK(int k) {
+        this.k = k;
+    }
+
+    @CommandInput(
+        consoleFormat = "-w",
+        defaultValue = "10",
+        mandatory = false,
+        description = "seconds of warm-up before each measurement")
+    public void setWarmup(int warmup) {
+        this.warmup = warmup;
+    }
+
+    @CommandInput(
+        consoleFormat = "-d",
+        defaultValue = "30",
+        mandatory = false,
+        description = "seconds of measurement for each algorithm and query size")
+    public void setDuration(int duration) {
+        this.duration = duration;
+    }
+
+    @CommandInput(
+        consoleFormat = "-o",
+        defaultValue = "throughput.json",
+        mandatory = false,
+        description = "output file, CSV if it ends with .csv, JSON otherwise")
+    public void setOutputFile(String outputFile) {
+        this.outputFile = outputFile;
+    }
 }
@@ -0,0 +1,381 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the counters and timers recorded on the hot paths of the trees
+ * and of the database connectors. The registry is thread safe, so that trees
+ * built concurrently can share it. The {@link #DISABLED} registry ignores any
+ * update and is the default of trees and connectors, so that instrumentation
+ * costs a branch when it is not requested.
+ * <p>
+ * Metrics are identified by a name and, optionally, by a label, e.g.
+ * <code>iqr_nodes_pruned_total{level="3"}</code>, and can be exported with
+ * {@link MetricsExporter}. Phases and queries are also emitted as JFR events
+ * if {@link #setJfrEnabled(boolean)} is set and a recording is running.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class Metrics {
+    public static final String NODES_EXPANDED = "iqr_nodes_expanded_total";
+    public static final String NODES_PRUNED = "iqr_nodes_pruned_total";
+    public static final String DB_PROBES = "iqr_db_probe_seconds";
+    public static final String CACHE_HITS = "iqr_cache_hits_total";
+    public static final String CACHE_MISSES = "iqr_cache_misses_total";
+    public static final String PRIOR_EVALUATIONS = "iqr_prior_evaluations_total";
+    public static final String PREFERENCE_EVALUATIONS = "iqr_preference_evaluations_total";
+    public static final String PHASES = "iqr_phase_seconds";
+    public static final String QUERIES = "iqr_query_seconds";
+
+    public static final String BUILD = "build";
+    public static final String UPDATE = "update";
+    public static final String PRUNE = "prune";
+    public static final String COST = "cost";
+
+    /**
+     * A registry that does not record anything
+     */
+    public static final Metrics DISABLED = new Metrics(false);
+
+    private final boolean enabled;
+    private final ConcurrentHashMap<String, Counter> counters;
+    private final ConcurrentHashMap<String, Timer> timers;
+    /*
+     * Name of the class that emits the JFR events, it is compiled only by the
+     * jfr profile (JDK 11 or later) and therefore loaded by reflection
+     */
+    private static final String JFR_EVENTS = "it.unitn.disi.db.queryrelaxation.metrics.JfrEvents";
+
+    /*
+     * Sink of the JFR events, null if they are not emitted
+     */
+    private volatile EventSink events;
+
+    /**
+     * Create an empty registry that records the metrics
+     */
+    public Metrics() {
+        this(true);
+    }
+
+    private Metrics(boolean enabled) {
+        this.enabled = enabled;
+        counters = new ConcurrentHashMap<>();
+        timers = new ConcurrentHashMap<>();
+        events = null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Emit a JFR event for each phase and query, the events are recorded only
+     * if a flight recording is running (e.g. -XX:StartFlightRecording)
+     * @param jfr True to emit the events
+     * @return True if the events will be emitted, false if the runtime does
+     * not support JFR or the library was built without the jfr profile
+     */
+    public boolean setJfrEnabled(boolean jfr) {
+        if (jfr && enabled) {
+            try {
+                events = (EventSink) Class.forName(JFR_EVENTS).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                Logger.getLogger(Metrics.class.getName()).log(Level.WARNING, "JFR is not supported by this runtime or build, events are not emitted");
+                events = null;
+            }
+        } else {
+            events = null;
+        }
+        return events != null;
+    }
+
+    public void increment(String name) {
+        if (enabled) {
+            counter(name, null).add(1);
+        }
+    }
+
+    public void add(String name, long delta) {
+        if (enabled) {
+            counter(name, null).add(delta);
+        }
+    }
+
+    /**
+     * Increment the counter with the input label, e.g.
+     * <code>increment(NODES_PRUNED, "level", 3)</code>
+     * @param name The name of the counter
+     * @param label The name of the label
+     * @param value The value of the label
+     */
+    public void increment(String name, String label, Object value) {
+        if (enabled) {
+            counter(name, label(label, value)).add(1);
+        }
+    }
+
+    public void add(String name, String label, Object value, long delta) {
+        if (enabled) {
+            counter(name, label(label, value)).add(delta);
+        }
+    }
+
+    /**
+     * Start a measurement to be passed to one of the <code>record</code>
+     * methods
+     * @return The current time in nanoseconds, 0 if the registry is disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time elapsed since <code>start</code>
+     * @param name The name of the timer
+     * @param start The value returned by {@link #start()}
+     */
+    public void record(String name, long start) {
+        if (enabled) {
+            timer(name, null).record(System.nanoTime() - start);
+        }
+    }
+
+    public void record(String name, String label, Object value, long start) {
+        if (enabled) {
+            timer(name, label(label, value)).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Record the time spent in a phase of the construction of a tree (see
+     * {@link #BUILD}, {@link #UPDATE}, {@link #PRUNE} and {@link #COST})
+     * @param phase The name of the phase
+     * @param start The value returned by {@link #start()}
+     */
+    public void phase(String phase, long start) {
+        if (enabled) {
+            long elapsed = System.nanoTime() - start;
+            timer(PHASES, label("phase", phase)).record(elapsed);
+            EventSink sink = events;
+            if (sink != null) {
+                sink.phase(phase, elapsed);
+            }
+        }
+    }
+
+    /**
+     * Record the materialization of a tree for a query
+     * @param tree The kind of tree
+     * @param query The query relaxed by the tree
+     * @param nodes The number of nodes of the tree
+     * @param pruned The number of pruned nodes
+     * @param start The value returned by {@link #start()}
+     */
+    public void query(String tree, Object query, int nodes, int pruned, long start) {
+        if (enabled) {
+            long elapsed = System.nanoTime() - start;
+            timer(QUERIES, label("tree", tree)).record(elapsed);
+            EventSink sink = events;
+            if (sink != null) {
+                sink.query(tree, String.valueOf(query), nodes, pruned, elapsed);
+            }
+        }
+    }
+
+    /**
+     * @return The counters sorted by name and label
+     */
+    public List<Counter> getCounters() {
+        List<Counter> list = new ArrayList<>(counters.values());
+        Collections.sort(list, BY_KEY);
+        return list;
+    }
+
+    /**
+     * @return The timers sorted by name and label
+     */
+    public List<Timer> getTimers() {
+        List<Timer> list = new ArrayList<>(timers.values());
+        Collections.sort(list, BY_KEY);
+        return list;
+    }
+
+    /**
+     * Remove all the metrics, updates running concurrently may or may not be
+     * kept
+     */
+    public void reset() {
+        counters.clear();
+        timers.clear();
+    }
+
+    private Counter counter(String name, String labels) {
+        String key = key(name, labels);
+        Counter c = counters.get(key);
+        if (c == null) {
+            Counter other = counters.putIfAbsent(key, c = new Counter(name, labels));
+            if (other != null) {
+                c = other;
+            }
+        }
+        return c;
+    }
+
+    private Timer timer(String name, String labels) {
+        String key = key(name, labels);
+        Timer t = timers.get(key);
+        if (t == null) {
+            Timer other = timers.putIfAbsent(key, t = new Timer(name, labels));
+            if (other != null) {
+                t = other;
+            }
+        }
+        return t;
+    }
+
+    private static String label(String label, Object value) {
+        return label + "=\"" + value + "\"";
+    }
+
+    private static String key(String name, String labels) {
+        return labels == null ? name : name + '{' + labels + '}';
+    }
+
+    private static final Comparator<Metric> BY_KEY = new Comparator<Metric>() {
+        @Override
+        public int compare(Metric m1, Metric m2) {
+            return m1.getKey().compareTo(m2.getKey());
+        }
+    };
+
+    private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    /*
+     * Receiver of the phase and query events, implemented by JfrEvents
+     */
+    interface EventSink {
+        void phase(String phase, long elapsed);
+
+        void query(String tree, String query, int nodes, int pruned, long elapsed);
+    }
+
+    /**
+     * A named metric with an optional label
+     */
+    public static abstract class Metric {
+        private final String name;
+        private final String labels;
+
+        private Metric(String name, String labels) {
+            this.name = name;
+            this.labels = labels;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The labels in the form <code>name="value"</code>, null if
+         * the metric has no label
+         */
+        public String getLabels() {
+            return labels;
+        }
+
+        public String getKey() {
+            return key(name, labels);
+        }
+    }
+
+    /**
+     * A monotonic counter
+     */
+    public static final class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String name, String labels) {
+            super(name, labels);
+        }
+
+        private void add(long delta) {
+            value.add(delta);
+        }
+
+        public long getValue() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Number, total and maximum time of the recorded events
+     */
+    public static final class Timer extends Metric {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(MAX, 0);
+
+        private Timer(String name, String labels) {
+            super(name, labels);
+        }
+
+        private void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return The total time in nanoseconds
+         */
+        public long getTotalNanos() {
+            return total.sum();
+        }
+
+        /**
+         * @return The longest event in nanoseconds
+         */
+        public long getMaxNanos() {
+            return max.get();
+        }
+    }
+}
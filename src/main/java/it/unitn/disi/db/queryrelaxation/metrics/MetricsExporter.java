@@ -0,0 +1,122 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.metrics;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Write a snapshot of the {@link Metrics} in the Prometheus text format or in
+ * JSON. Timers are written as Prometheus summaries (count and sum in seconds)
+ * plus a gauge with the maximum.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public final class MetricsExporter {
+    private static final double NANOS = 1e9;
+
+    private MetricsExporter() {
+    }
+
+    /**
+     * Write the metrics in JSON if the file ends with .json, in the Prometheus
+     * text format otherwise
+     * @param metrics The metrics to be written
+     * @param path The output file
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(Metrics metrics, String path) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(path))) {
+            if (path.toLowerCase().endsWith(".json")) {
+                writeJson(metrics, out);
+            } else {
+                writePrometheus(metrics, out);
+            }
+        }
+    }
+
+    public static void writePrometheus(Metrics metrics, Writer out) throws IOException {
+        String last = null;
+        for (Metrics.Counter c : metrics.getCounters()) {
+            if (!c.getName().equals(last)) {
+                out.append(String.format("# TYPE %s counter\n", c.getName()));
+                last = c.getName();
+            }
+            out.append(String.format("%s %d\n", c.getKey(), c.getValue()));
+        }
+        for (Metrics.Timer t : metrics.getTimers()) {
+            if (!t.getName().equals(last)) {
+                out.append(String.format("# TYPE %s summary\n", t.getName()));
+                last = t.getName();
+            }
+            out.append(String.format(Locale.ROOT, "%s %d\n", key(t.getName() + "_count", t.getLabels()), t.getCount()));
+            out.append(String.format(Locale.ROOT, "%s %.9f\n", key(t.getName() + "_sum", t.getLabels()), t.getTotalNanos() / NANOS));
+        }
+        last = null;
+        for (Metrics.Timer t : metrics.getTimers()) {
+            if (!t.getName().equals(last)) {
+                out.append(String.format("# TYPE %s_max gauge\n", t.getName()));
+                last = t.getName();
+            }
+            out.append(String.format(Locale.ROOT, "%s %.9f\n", key(t.getName() + "_max", t.getLabels()), t.getMaxNanos() / NANOS));
+        }
+        out.flush();
+    }
+
+    public static void writeJson(Metrics metrics, Writer out) throws IOException {
+        List<Metrics.Counter> counters = metrics.getCounters();
+        List<Metrics.Timer> timers = metrics.getTimers();
+
+        out.append("{\n  \"counters\": [\n");
+        for (int i = 0; i < counters.size(); i++) {
+            Metrics.Counter c = counters.get(i);
+            out.append(String.format("    {\"name\": \"%s\", \"labels\": %s, \"value\": %d}%s\n",
+                    c.getName(), jsonLabels(c.getLabels()), c.getValue(), i < counters.size() - 1 ? "," : ""));
+        }
+        out.append("  ],\n  \"timers\": [\n");
+        for (int i = 0; i < timers.size(); i++) {
+            Metrics.Timer t = timers.get(i);
+            out.append(String.format(Locale.ROOT, "    {\"name\": \"%s\", \"labels\": %s, \"count\": %d, \"totalNanos\": %d, \"maxNanos\": %d}%s\n",
+                    t.getName(), jsonLabels(t.getLabels()), t.getCount(), t.getTotalNanos(), t.getMaxNanos(), i < timers.size() - 1 ? "," : ""));
+        }
+        out.append("  ]\n}\n");
+        out.flush();
+    }
+
+    private static String key(String name, String labels) {
+        return labels == null ? name : name + '{' + labels + '}';
+    }
+
+    /*
+     * Labels are in the form name="value"
+     */
+    private static String jsonLabels(String labels) {
+        if (labels == null) {
+            return "{}";
+        }
+        int eq = labels.indexOf('=');
+        return "{\"" + labels.substring(0, eq) + "\": " + labels.substring(eq + 1) + "}";
+    }
+}
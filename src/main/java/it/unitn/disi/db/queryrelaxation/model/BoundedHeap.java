@@ -0,0 +1,152 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.model;
+
+/**
+ * Keeps the k elements with the highest score seen so far, without boxing.
+ * The elements are integer identifiers (e.g., tuple positions) and among
+ * elements with the same score the ones offered first are preferred.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public final class BoundedHeap {
+    /* Min-heap: the root is the worst retained element */
+    private final int[] ids;
+    private final double[] scores;
+    private final long[] sequence;
+    private final int capacity;
+    private int size;
+    private long offered;
+
+    public BoundedHeap(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        ids = new int[this.capacity];
+        scores = new double[this.capacity];
+        sequence = new long[this.capacity];
+        size = 0;
+        offered = 0;
+    }
+
+    /**
+     * Offer an element to the heap, it is retained if the heap is not full or
+     * if its score is greater than the worst retained one.
+     * @param id The identifier of the element
+     * @param score The score of the element
+     * @return true if the element has been retained
+     */
+    public boolean offer(int id, double score) {
+        long seq = offered++;
+        if (size < capacity) {
+            ids[size] = id;
+            scores[size] = score;
+            sequence[size] = seq;
+            siftUp(size++);
+            return true;
+        }
+        if (capacity > 0 && Double.compare(score, scores[0]) > 0) {
+            ids[0] = id;
+            scores[0] = score;
+            sequence[0] = seq;
+            siftDown(0, size);
+            return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Return the score of the worst retained element
+     * @return The minimum score, or negative infinity if the heap is empty
+     */
+    public double minScore() {
+        return size == 0 ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * Sort the retained elements by descending score and return them. The heap
+     * cannot be used anymore after this call.
+     * @return The identifiers and the scores of the retained elements
+     */
+    public Pair<int[], double[]> sortDescending() {
+        int[] sortedIds = new int[size];
+        double[] sortedScores = new double[size];
+        for (int last = size - 1; last > 0; last--) {
+            swap(0, last);
+            siftDown(0, last);
+        }
+        System.arraycopy(ids, 0, sortedIds, 0, size);
+        System.arraycopy(scores, 0, sortedScores, 0, size);
+        size = 0;
+        return new Pair<>(sortedIds, sortedScores);
+    }
+
+    /*
+     * True if the element at position i is worse than the one at position j
+     */
+    private boolean worse(int i, int j) {
+        int cmp = Double.compare(scores[i], scores[j]);
+        return cmp < 0 || (cmp == 0 && sequence[i] > sequence[j]);
+    }
+
+    private void siftUp(int i) {
+        int parent;
+        while (i > 0) {
+            parent = (i - 1) >>> 1;
+            if (!worse(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int n) {
+        int child;
+        while ((child = 2 * i + 1) < n) {
+            if (child + 1 < n && worse(child + 1, child)) {
+                child++;
+            }
+            if (!worse(child, i)) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int id = ids[i];
+        double score = scores[i];
+        long seq = sequence[i];
+        ids[i] = ids[j];
+        scores[i] = scores[j];
+        sequence[i] = sequence[j];
+        ids[j] = id;
+        scores[j] = score;
+        sequence[j] = seq;
+    }
+}
@@ -20,11 +20,14 @@
 package it.unitn.disi.db.queryrelaxation.model;
 import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
 import it.unitn.disi.db.queryrelaxation.exceptions.DataException;
+import it.unitn.disi.db.queryrelaxation.statistics.Utilities;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -53,15 +56,43 @@ public class EfficientBoolDatabase {
     private List<String> attributes;
     
     
+    /*
+     * Positions of the tuples by descending benefit (lazily computed)
+     */
+    private volatile int[] benefitOrder;
+    
+    /*
+     * True if tuples (and therefore posting lists) are stored by descending 
+     * benefit
+     */
+    private final boolean benefitSorted;
+    
     private double maxBenefit; 
     private double minBenefit; 
     
     public EfficientBoolDatabase(String path) throws FileNotFoundException, IOException, NumberFormatException, ConnectionException {
+        this(path, false);
+    }
+
+    /**
+     * Load the database, optionally storing the tuples by descending benefit. 
+     * In the sorted layout the first tuple matching a query is the one with 
+     * the highest benefit, so that maximum benefit probes stop at the first 
+     * match.
+     * @param path The path of the database file
+     * @param benefitSorted True to store the tuples by descending benefit, false
+     * to keep the order of the file
+     */
+    public EfficientBoolDatabase(String path, boolean benefitSorted) throws FileNotFoundException, IOException, NumberFormatException, ConnectionException {
         size = 0;
         attributeToTuple = new HashMap<>();
         minBenefit = Double.MAX_VALUE;
         maxBenefit = -(Double.MAX_VALUE);
+        this.benefitSorted = benefitSorted;
         populate(path);
+        if (benefitSorted) {
+            sortByBenefit();
+        }
     }
 
     private void populate(String pathToDB) throws
@@ -134,6 +165,42 @@ public class EfficientBoolDatabase {
         }
     }
 
+    /*
+     * Reorder the tuples by descending benefit (ties keep the file order) and
+     * rebuild the posting lists, which stay sorted by position.
+     */
+    private void sortByBenefit() {
+        int[] order = Utilities.sortByValue(benefits, true);
+        int[] sortedDb = new int[db.length];
+        double[] sortedBenefits = new double[benefits.length];
+        int[] counts = new int[size];
+        int[] tuples;
+        int tuple;
+
+        for (int i = 0; i < order.length; i++) {
+            sortedDb[i] = db[order[i]];
+            sortedBenefits[i] = benefits[order[i]];
+        }
+        db = sortedDb;
+        benefits = sortedBenefits;
+        for (Integer att : attributeToTuple.keySet()) {
+            attributeToTuple.put(att, new int[attributeToTuple.get(att).length]);
+        }
+        for (int i = 0; i < db.length; i++) {
+            tuple = db[i];
+            for (int att = 0; att < size; att++) {
+                if ((tuple >>> att & 1) != 0) {
+                    tuples = attributeToTuple.get(att);
+                    tuples[counts[att]++] = i;
+                }
+            }
+        }
+    }
+
+    public boolean isBenefitSorted() {
+        return benefitSorted;
+    }
+
     public int resultSize(Query q, boolean restricted) {
         return 0;
     }
@@ -188,46 +255,304 @@ public class EfficientBoolDatabase {
     public Pair<int[], double[]> resultSet(Query q) {
         return resultSet(q, false);
     }
-    
-//    public List<Tuple> getTopKTuples(int[] weights, Query q, int k) {
-//        List<Tuple> topk = new ArrayList<Tuple>();
-//        int tuple ;
-//        int[][] weightDb = new int[db.length][];  
-//        int weight;
-//        
-//        for (int i = 0; i < db.length; i++) {
-//            tuple = db[i];
-//            weightDb[i] = new int[2];
-//            weightDb[i][0] = tuple;
-//            weight = 0;
-//            for (int j = 0; j < size; j++) {                
-//                if ((tuple & (1 << j)) > 0) {
-//                    weight += weights[j]; 
-//                }
-//            }
-//            weightDb[i][1] = weight;    
-//        }
-//        Arrays.sort(weightDb, new Comparator<int[]>() {
-//            public int compare(int[] o1, int[] o2) {
-//                if (o1[1] > o2[1])
-//                    return -1;
-//                if (o1[1] < o2[1])
-//                    return 1;
-//                return 0;
-//            }
-//        });
-//        int query = q != null? toBooleanQuery(q) : -1;
-//        for (int i = 0; i < k && i < weightDb.length; i++) {
-//            topk.add(toTuple(weightDb[i][0], query));
-//        }
-//        return topk;
-//    }
-//        
-//        
-//    public List<Tuple> getTopKTuples(int[] weights, int k) {
-//        return getTopKTuples(weights, null, k);
-//    }
 
+    /**
+     * Compute in a single pass the results of all the queries obtained removing
+     * one constraint from q. Only the tuples that violate at most one 
+     * constraint can satisfy a variant, and each of them contains at least one
+     * of any two attributes of the query: the union of the two shortest posting
+     * lists is therefore enough.
+     * @param q The input query
+     * @return The results of the variants of q, one per constraint
+     */
+    public LeaveOneOut leaveOneOut(Query q) {
+        List<Constraint> constraints = q.getConstraints();
+        int[] bits = new int[constraints.size()];
+        int[] variants = new int[constraints.size()];
+        int[] first = null, second = null, tuples, candidates;
+        double[] tupleBenefits;
+        int query = 0, count = 0, missing;
+
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = toBooleanQuery(new Query(constraints.subList(i, i + 1)));
+            query |= bits[i];
+        }
+        for (int i = 0; i < bits.length; i++) {
+            for (int j = 0; j < bits.length; j++) {
+                if (j != i) {
+                    variants[i] |= bits[j];
+                }
+            }
+        }
+        if (bits.length <= 1) { //The only variant is the empty query
+            return new LeaveOneOut(constraints, variants, db, benefits);
+        }
+        for (int i = 0; i < size; i++) {
+            if ((query >>> i & 1) != 0) {
+                tuples = attributeToTuple.get(i);
+                if (tuples == null) {
+                    tuples = new int[0];
+                }
+                if (first == null || tuples.length < first.length) {
+                    second = first;
+                    first = tuples;
+                } else if (second == null || tuples.length < second.length) {
+                    second = tuples;
+                }
+            }
+        }
+        candidates = union(first != null ? first : new int[0], second != null ? second : new int[0]);
+        tuples = new int[candidates.length];
+        tupleBenefits = new double[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            missing = query & ~db[candidates[i]];
+            if ((missing & (missing - 1)) == 0) { //At most one violated constraint
+                tuples[count] = db[candidates[i]];
+                tupleBenefits[count] = benefits[candidates[i]];
+                count++;
+            }
+        }
+        return new LeaveOneOut(constraints, variants, Arrays.copyOf(tuples, count), Arrays.copyOf(tupleBenefits, count));
+    }
+
+    /*
+     * Merge two sorted posting lists removing duplicates
+     */
+    private static int[] union(int[] a, int[] b) {
+        int[] merged = new int[a.length + b.length];
+        int i = 0, j = 0, count = 0;
+        while (i < a.length || j < b.length) {
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                merged[count++] = a[i++];
+            } else if (i >= a.length || b[j] < a[i]) {
+                merged[count++] = b[j++];
+            } else {
+                merged[count++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(merged, count);
+    }
+
+    /**
+     * Find the maximum benefit among the tuples satisfying the query, without
+     * materializing the result set. If the database is sorted by benefit the
+     * scan stops at the first match.
+     * @param q The input query
+     * @return The maximum benefit, negative infinity if no tuple matches
+     */
+    public double maxBenefit(Query q) {
+        int query = toBooleanQuery(q);
+        int[] candidates;
+        double max = Double.NEGATIVE_INFINITY;
+        if (q.size() == 0) 
+            return db.length == 0 ? max : maxBenefit;
+        candidates = candidates(query);
+        for (int i = 0; i < candidates.length; i++) {
+            if ((db[candidates[i]] & query) == query) {
+                if (benefitSorted) 
+                    return benefits[candidates[i]];
+                if (benefits[candidates[i]] > max) 
+                    max = benefits[candidates[i]];
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Check if at least one tuple satisfying the query has a benefit greater 
+     * than the threshold. If the database is sorted by benefit the scan stops 
+     * as soon as the benefits drop to the threshold.
+     * @param q The input query
+     * @param threshold The benefit to exceed
+     * @return true if a matching tuple with benefit greater than threshold exists
+     */
+    public boolean hasBenefitAbove(Query q, double threshold) {
+        int query = toBooleanQuery(q);
+        int[] candidates;
+        if (q.size() == 0) 
+            return db.length != 0 && maxBenefit > threshold;
+        candidates = candidates(query);
+        for (int i = 0; i < candidates.length; i++) {
+            if (benefits[candidates[i]] <= threshold) {
+                if (benefitSorted) 
+                    return false;
+            } else if ((db[candidates[i]] & query) == query) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the minimum and the maximum benefit among the tuples satisfying the
+     * query, without materializing the result set. If the database is sorted
+     * by benefit they are the first and the last match.
+     * @param q The input query
+     * @return The minimum and the maximum benefit, positive and negative 
+     * infinity if no tuple matches
+     */
+    public Pair<Double, Double> minMaxBenefit(Query q) {
+        int query = toBooleanQuery(q);
+        int[] candidates;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        double benefit;
+        if (q.size() == 0) 
+            return db.length == 0 ? new Pair<>(min, max) : new Pair<>(minBenefit, maxBenefit);
+        candidates = candidates(query);
+        if (benefitSorted) {
+            for (int i = 0; i < candidates.length; i++) {
+                if ((db[candidates[i]] & query) == query) {
+                    max = benefits[candidates[i]];
+                    break;
+                }
+            }
+            for (int i = candidates.length - 1; i >= 0; i--) {
+                if ((db[candidates[i]] & query) == query) {
+                    min = benefits[candidates[i]];
+                    break;
+                }
+            }
+        } else {
+            for (int i = 0; i < candidates.length; i++) {
+                if ((db[candidates[i]] & query) == query) {
+                    benefit = benefits[candidates[i]];
+                    if (benefit < min) 
+                        min = benefit;
+                    if (benefit > max) 
+                        max = benefit;
+                }
+            }
+        }
+        return new Pair<>(min, max);
+    }
+
+    /**
+     * Retrieve the k tuples satisfying the query with the highest score, where
+     * the score of a tuple is its preference for the kernel plus its benefit. 
+     * The method uses the threshold algorithm: the posting lists of the 
+     * positive constraints of the kernel and the matches of the query sorted by
+     * benefit are read in parallel, each new tuple is scored by random access 
+     * and the search stops as soon as the k-th best score reaches the best 
+     * score an unseen tuple can get.
+     * @param q The query the tuples must satisfy (the empty query selects all
+     * the tuples)
+     * @param kernel The preference function compiled for the query
+     * @param k The number of tuples to retrieve
+     * @return The tuples and their scores, by descending score (ties are broken
+     * in favor of the tuple found first), at most k
+     */
+    public Pair<int[], double[]> topKTuples(Query q, PreferenceKernel kernel, int k) {
+        int query = toBooleanQuery(q);
+        int[] ranked = benefitSorted && query != 0 ? candidates(query) : benefitOrder();
+        List<int[]> lists = new ArrayList<>();
+        List<Double> listGains = new ArrayList<>();
+        int[][] postings;
+        double[] gains;
+        int[] cursors, tuples;
+        int rankedCursor = 0;
+        double threshold, base = kernel.baseBound();
+        BitSet seen = new BitSet();
+        BoundedHeap heap = new BoundedHeap(Math.min(k, ranked.length));
+        Pair<int[], double[]> top;
+
+        for (int j = 0; j < kernel.positiveCount(); j++) {
+            int[] posting = attributeToTuple.get(kernel.positiveAttribute(j));
+            if (kernel.positiveGain(j) > 0 && posting != null) {
+                lists.add(posting);
+                listGains.add(kernel.positiveGain(j));
+            }
+        }
+        postings = lists.toArray(new int[lists.size()][]);
+        gains = new double[postings.length];
+        for (int j = 0; j < gains.length; j++) {
+            gains[j] = listGains.get(j);
+        }
+        cursors = new int[postings.length];
+        //The ranked list contains every match: once it is exhausted all the 
+        //matches have been scored
+        while (k > 0 && rankedCursor < ranked.length) {
+            threshold = base;
+            for (int j = 0; j < postings.length; j++) {
+                if (cursors[j] < postings[j].length) {
+                    offer(heap, seen, postings[j][cursors[j]++], kernel, query);
+                    if (cursors[j] < postings[j].length) {
+                        threshold += gains[j];
+                    }
+                }
+            }
+            offer(heap, seen, ranked[rankedCursor++], kernel, query);
+            if (rankedCursor < ranked.length) {
+                threshold += benefits[ranked[rankedCursor]];
+                if (heap.isFull() && heap.minScore() >= threshold) {
+                    break;
+                }
+            }
+        }
+        top = heap.sortDescending();
+        tuples = top.getFirst();
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = db[tuples[i]];
+        }
+        return top;
+    }
+
+    /*
+     * Score the tuple at the input position, the first time it is seen, and
+     * offer it to the heap if it satisfies the query
+     */
+    private void offer(BoundedHeap heap, BitSet seen, int position, PreferenceKernel kernel, int query) {
+        int tuple = db[position];
+        if (seen.get(position)) {
+            return;
+        }
+        seen.set(position);
+        if ((tuple & query) == query) {
+            heap.offer(position, kernel.compute(tuple) + benefits[position]);
+        }
+    }
+
+    /*
+     * Positions of the tuples sorted by descending benefit, computed the first
+     * time it is needed. Concurrent callers may compute it twice, but they 
+     * always get the same fully built array.
+     */
+    private int[] benefitOrder() {
+        int[] order = benefitOrder;
+        if (order == null) {
+            if (benefitSorted) {
+                order = new int[db.length];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+            } else {
+                order = Utilities.sortByValue(benefits, true);
+            }
+            benefitOrder = order;
+        }
+        return order;
+    }
+
+    /*
+     * The shortest posting list among the attributes of a non-empty boolean 
+     * query, empty if some attribute of the query is never set
+     */
+    private int[] candidates(int query) {
+        int[] shortest = null, tuples;
+        if (query == 0) 
+            return new int[0];
+        for (int i = 0; i < size; i++) {
+            if ((query >>> i & 1) != 0) {
+                tuples = attributeToTuple.get(i);
+                if (tuples == null) 
+                    return new int[0];
+                if (shortest == null || tuples.length < shortest.length) 
+                    shortest = tuples;
+            }
+        }
+        return shortest;
+    }
+    
     private int toBooleanQuery(Query q) {
         int query = 0;
         String name;
@@ -275,6 +600,24 @@ public class EfficientBoolDatabase {
         return attributeToTuple.get(attribute).length;
     }
 
+    /**
+     * Return the tuples having the attribute as a bitmap, bit i of the bitmap
+     * (bit i % 64 of word i / 64) is set if the tuple in position i has the
+     * attribute.
+     * @param attribute The index of the attribute
+     * @return A new bitmap of <code>(size() + 63) / 64</code> words
+     */
+    public long[] bitmap(int attribute) {
+        long[] bitmap = new long[(db.length + 63) >>> 6];
+        int[] tuples = attributeToTuple.get(attribute);
+        if (tuples != null) {
+            for (int t : tuples) {
+                bitmap[t >>> 6] |= 1L << t;
+            }
+        }
+        return bitmap;
+    }
+
     public int noAttributes(){//A: added
         if(attributes != null) return attributes.size();
         return 0;
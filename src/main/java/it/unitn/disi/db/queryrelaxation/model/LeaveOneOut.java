@@ -0,0 +1,146 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.model;
+
+import java.util.List;
+
+/**
+ * The results of all the queries obtained removing exactly one constraint from
+ * a query, computed in a single pass over the tuples that violate at most one
+ * constraint. Variant <code>i</code> is the query without its i-th constraint,
+ * as returned by <code>Query.relax</code>.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public final class LeaveOneOut {
+    /* The constraints of the original query, in query order */
+    private final List<Constraint> constraints;
+    /* Boolean query of each variant */
+    private final int[] variants;
+    /* Tuples violating at most one constraint, by position in the database */
+    private final int[] tuples;
+    private final double[] benefits;
+    /* Aggregates of the benefits of each variant */
+    private final int[] counts;
+    private final double[] sums;
+    private final double[] mins;
+    private final double[] maxs;
+
+    LeaveOneOut(List<Constraint> constraints, int[] variants, int[] tuples, double[] benefits) {
+        this.constraints = constraints;
+        this.variants = variants;
+        this.tuples = tuples;
+        this.benefits = benefits;
+        counts = new int[variants.length];
+        sums = new double[variants.length];
+        mins = new double[variants.length];
+        maxs = new double[variants.length];
+        for (int i = 0; i < variants.length; i++) {
+            mins[i] = Double.POSITIVE_INFINITY;
+            maxs[i] = Double.NEGATIVE_INFINITY;
+        }
+        //Tuples are visited in database order, so that sums are accumulated as
+        //a scan of the result set would do
+        for (int t = 0; t < tuples.length; t++) {
+            for (int i = 0; i < variants.length; i++) {
+                if ((tuples[t] & variants[i]) == variants[i]) {
+                    counts[i]++;
+                    sums[i] += benefits[t];
+                    if (benefits[t] < mins[i]) {
+                        mins[i] = benefits[t];
+                    }
+                    if (benefits[t] > maxs[i]) {
+                        maxs[i] = benefits[t];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the variant that relaxes the input constraint
+     * @param c The constraint removed from the query
+     * @return The index of the variant, -1 if the constraint is not in the query
+     */
+    public int indexOf(Constraint c) {
+        return constraints.indexOf(c);
+    }
+
+    /**
+     * @return The number of variants, i.e., the number of constraints of the query
+     */
+    public int size() {
+        return variants.length;
+    }
+
+    /**
+     * @param i The index of the variant
+     * @return The number of tuples satisfying the variant
+     */
+    public int count(int i) {
+        return counts[i];
+    }
+
+    /**
+     * @param i The index of the variant
+     * @return The sum of the benefits of the tuples satisfying the variant
+     */
+    public double sum(int i) {
+        return sums[i];
+    }
+
+    /**
+     * @param i The index of the variant
+     * @return The minimum benefit of the variant, positive infinity if it has
+     * no results
+     */
+    public double min(int i) {
+        return mins[i];
+    }
+
+    /**
+     * @param i The index of the variant
+     * @return The maximum benefit of the variant, negative infinity if it has
+     * no results
+     */
+    public double max(int i) {
+        return maxs[i];
+    }
+
+    /**
+     * Materialize the result set of a variant, the tuples are in the same order
+     * <code>EfficientBoolDatabase.resultSet</code> returns them.
+     * @param i The index of the variant
+     * @return The tuples satisfying the variant and their benefits
+     */
+    public Pair<int[], double[]> resultSet(int i) {
+        int[] rs = new int[counts[i]];
+        double[] rsBenefits = new double[counts[i]];
+        int count = 0;
+        for (int t = 0; t < tuples.length && count < rs.length; t++) {
+            if ((tuples[t] & variants[i]) == variants[i]) {
+                rs[count] = tuples[t];
+                rsBenefits[count] = benefits[t];
+                count++;
+            }
+        }
+        return new Pair<>(rs, rsBenefits);
+    }
+}
@@ -36,4 +36,14 @@ public interface PreferenceFunction {
      * @return Probability of user's preference 
      */
     public double compute(Query q, int tuple);
+
+    /**
+     * Compile the function for a fixed query, so that the preference of many
+     * tuples can be evaluated without inspecting the query again. The kernel
+     * returns the same values as <code>compute(q, tuple)</code>
+     * @param q The input query (relaxed or not) of the user
+     * @return The kernel of the function for the query
+     * @see PreferenceKernel
+     */
+    public PreferenceKernel compile(Query q);
 }
@@ -0,0 +1,237 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.model;
+
+import java.util.List;
+
+/**
+ * A preference function compiled for a specific query. The kernel is immutable
+ * and computes <code>offset + sign * (sum of the weights of the satisfied
+ * constraints) / divisor</code>, where a positive constraint is satisfied if
+ * the corresponding bit of the tuple is set and a negated one if it is not set.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ * @see PreferenceFunction#compile(Query)
+ */
+public final class PreferenceKernel {
+    private static final int[] NO_ATTRIBUTES = new int[0];
+    private static final double[] NO_WEIGHTS = new double[0];
+    /* Number of tuples evaluated at once by the fused operations */
+    private static final int BLOCK_SIZE = 1024;
+
+    /* Attributes and weights of the positive constraints, in query order */
+    private final int[] positive;
+    private final double[] positiveWeights;
+    /* Attributes and weights of the negated constraints, in query order */
+    private final int[] negative;
+    private final double[] negativeWeights;
+    private final double offset;
+    private final double sign;
+    private final double divisor;
+
+    private PreferenceKernel(int[] positive, double[] positiveWeights, int[] negative, double[] negativeWeights, double offset, double sign, double divisor) {
+        this.positive = positive;
+        this.positiveWeights = positiveWeights;
+        this.negative = negative;
+        this.negativeWeights = negativeWeights;
+        this.offset = offset;
+        this.sign = sign;
+        this.divisor = divisor;
+    }
+
+    /**
+     * Build a kernel that returns always the same value
+     * @param value The value returned for every tuple
+     * @return The constant kernel
+     */
+    public static PreferenceKernel constant(double value) {
+        return new PreferenceKernel(NO_ATTRIBUTES, NO_WEIGHTS, NO_ATTRIBUTES, NO_WEIGHTS, value, 0.0, 1.0);
+    }
+
+    /**
+     * Build a weighted kernel from the attribute indexes of the constraints
+     * @param positive The attributes of the positive constraints
+     * @param positiveWeights The weight of each positive constraint
+     * @param negative The attributes of the negated constraints
+     * @param negativeWeights The weight of each negated constraint
+     * @param offset The value added to the normalized sum
+     * @param sign The factor (usually 1 or -1) the normalized sum is multiplied by
+     * @param divisor The normalization factor of the sum
+     * @return The compiled kernel
+     */
+    public static PreferenceKernel weighted(int[] positive, double[] positiveWeights, int[] negative, double[] negativeWeights, double offset, double sign, double divisor) {
+        return new PreferenceKernel(positive.clone(), positiveWeights.clone(), negative.clone(), negativeWeights.clone(), offset, sign, divisor);
+    }
+
+    /**
+     * Compute the preference of the tuple for the compiled query
+     * @param tuple The tuple as a bitmask of its attributes
+     * @return The preference of the tuple
+     */
+    public double compute(int tuple) {
+        double sum = 0.0;
+        for (int i = 0; i < positive.length; i++) {
+            if ((tuple & 1 << positive[i]) > 0) {
+                sum += positiveWeights[i];
+            }
+        }
+        for (int i = 0; i < negative.length; i++) {
+            if ((tuple & 1 << negative[i]) == 0) {
+                sum += negativeWeights[i];
+            }
+        }
+        return offset + sign * (sum / divisor);
+    }
+
+    /**
+     * Compute the preference of all the input tuples, it is equivalent to call
+     * <code>compute</code> on each tuple. Weights are accumulated one constraint
+     * at a time over the whole array, so that the inner loops are simple.
+     * @param tuples The tuples as bitmasks of their attributes
+     * @param out The array that stores the preferences, at least as long as
+     * <code>tuples</code>
+     */
+    public void computeAll(int[] tuples, double[] out) {
+        computeAll(tuples, 0, tuples.length, out);
+    }
+
+    /*
+     * Compute the preferences of tuples[from, to) into out[0, to - from)
+     */
+    private void computeAll(int[] tuples, int from, int to, double[] out) {
+        int n = to - from, bit;
+        double w;
+        for (int i = 0; i < n; i++) {
+            out[i] = 0.0;
+        }
+        for (int j = 0; j < positive.length; j++) {
+            bit = 1 << positive[j];
+            w = positiveWeights[j];
+            for (int i = 0; i < n; i++) {
+                out[i] += (tuples[from + i] & bit) > 0 ? w : 0.0;
+            }
+        }
+        for (int j = 0; j < negative.length; j++) {
+            bit = 1 << negative[j];
+            w = negativeWeights[j];
+            for (int i = 0; i < n; i++) {
+                out[i] += (tuples[from + i] & bit) == 0 ? w : 0.0;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            out[i] = offset + sign * (out[i] / divisor);
+        }
+    }
+
+    /**
+     * Return the maximum preference among the input tuples, the preferences
+     * are never materialized for the whole array.
+     * @param tuples The tuples as bitmasks of their attributes
+     * @return The maximum preference, 0 if there are no tuples
+     */
+    public double max(int[] tuples) {
+        double[] block = new double[Math.min(BLOCK_SIZE, tuples.length)];
+        double max = 0.0;
+        int to;
+        for (int from = 0; from < tuples.length; from += BLOCK_SIZE) {
+            to = Math.min(from + BLOCK_SIZE, tuples.length);
+            computeAll(tuples, from, to, block);
+            for (int i = 0; i < to - from; i++) {
+                if (block[i] > max) {
+                    max = block[i];
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Select the k tuples with the highest preference using a bounded heap,
+     * without sorting the whole input. Ties are broken in favor of the tuple
+     * that comes first in the input.
+     * @param tuples The tuples as bitmasks of their attributes
+     * @param k The number of tuples to select
+     * @return The positions in <code>tuples</code> of the selected tuples, by
+     * descending preference, at most <code>k</code>
+     */
+    public int[] topK(int[] tuples, int k) {
+        BoundedHeap heap = new BoundedHeap(Math.min(k, tuples.length));
+        double[] block = new double[Math.min(BLOCK_SIZE, tuples.length)];
+        int to;
+
+        for (int from = 0; from < tuples.length; from += BLOCK_SIZE) {
+            to = Math.min(from + BLOCK_SIZE, tuples.length);
+            computeAll(tuples, from, to, block);
+            for (int i = 0; i < to - from; i++) {
+                heap.offer(from + i, block[i]);
+            }
+        }
+        return heap.sortDescending().getFirst();
+    }
+
+    /*
+     * Number of positive constraints, used together with positiveAttribute and
+     * positiveGain by the threshold algorithm of EfficientBoolDatabase
+     */
+    int positiveCount() {
+        return positive.length;
+    }
+
+    int positiveAttribute(int j) {
+        return positive[j];
+    }
+
+    /*
+     * Value the j-th positive constraint adds to the preference of a tuple 
+     * that has its bit set
+     */
+    double positiveGain(int j) {
+        return sign * (positiveWeights[j] / divisor);
+    }
+
+    /*
+     * Upper bound of the preference of a tuple that satisfies none of the 
+     * positive constraints with a positive gain
+     */
+    double baseBound() {
+        double bound = offset, gain;
+        for (int j = 0; j < negative.length; j++) {
+            gain = sign * (negativeWeights[j] / divisor);
+            if (gain > 0) {
+                bound += gain;
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Return the attribute index of each constraint in the list
+     * @param constraints The constraints of a query
+     * @return The attribute indexes, in the same order of the constraints
+     * @throws NumberFormatException If an attribute name is not an index
+     */
+    public static int[] attributes(List<Constraint> constraints) {
+        int[] atts = new int[constraints.size()];
+        for (int i = 0; i < atts.length; i++) {
+            atts[i] = Integer.parseInt(constraints.get(i).getAttributeName());
+        }
+        return atts;
+    }
+}
@@ -20,66 +20,129 @@
 package it.unitn.disi.db.queryrelaxation.model.data;
 
 import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
+import it.unitn.disi.db.queryrelaxation.metrics.Metrics;
 import it.unitn.disi.db.queryrelaxation.model.EfficientBoolDatabase;
+import it.unitn.disi.db.queryrelaxation.model.LeaveOneOut;
 import it.unitn.disi.db.queryrelaxation.model.Pair;
+import it.unitn.disi.db.queryrelaxation.model.PreferenceKernel;
 import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.statistics.EmptySubqueryMiner;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Connects to a fake dataset that is a boolean hard-coded matrix.
  * @author Davide Mottin
  */
 public class BooleanMockConnector implements DatabaseConnector {
+    /**
+     * The operations whose time and number of calls are recorded
+     */
+    public static enum Operation {
+        SUBMIT_QUERY, RESULTS_AND_BENEFITS, COUNT, MIN_MAX_BENEFIT, MAX_BENEFIT, BENEFIT_ABOVE, TOP_K, LEAVE_ONE_OUT, MINE_SUBQUERIES
+    }
+
     /*
-     * A boolean database: each row is a tuple; efficient implementation to 
-     * reduce the time blow up
+     * The database and its idfs, built once by connect() and never modified 
+     * afterwards: they are published together so that concurrent trees never
+     * see a partially built database
      */
-    private EfficientBoolDatabase database; 
+    private volatile Snapshot snapshot;
     /*
      * Actual path of the db
      */
-    private String dbPath;
+    private final String dbPath;
     /*
-     * Total time to interrogate the database
+     * Time (in nanoseconds) spent and number of calls for each operation
      */
-    private long totalTimeDbInterrogation; 
+    private final LongAdder[] operationTime;
+    private final LongAdder[] operationCount;
     /*
-     * The matrix of idfs
+     * Time spent by each thread to interrogate the database
      */
-    private Map<Integer,Pair<Double,Double>> idfs;
-    
+    private final ThreadLocal<long[]> threadTime;
+    /*
+     * Registry of the probes, disabled by default
+     */
+    private volatile Metrics metrics;
+    /*
+     * Store the tuples by descending benefit
+     */
+    private final boolean benefitSorted;
 
-    private boolean isConnected = false;
+    private volatile boolean isConnected = false;
     
     public BooleanMockConnector(String path) throws
             java.io.FileNotFoundException, java.io.IOException, NumberFormatException, ConnectionException {//A:
+        this(path, false);
+    }
+
+    /**
+     * Create a connector to the database in the input path
+     * @param path The path of the database file
+     * @param benefitSorted If true the tuples are stored by descending benefit, 
+     * which makes maximum benefit probes stop at the first match
+     */
+    public BooleanMockConnector(String path, boolean benefitSorted) throws
+            java.io.FileNotFoundException, java.io.IOException, NumberFormatException, ConnectionException {
         dbPath = path;
-        totalTimeDbInterrogation = 0;
+        this.benefitSorted = benefitSorted;
+        operationTime = new LongAdder[Operation.values().length];
+        operationCount = new LongAdder[Operation.values().length];
+        for (int i = 0; i < operationTime.length; i++) {
+            operationTime[i] = new LongAdder();
+            operationCount[i] = new LongAdder();
+        }
+        metrics = Metrics.DISABLED;
+        threadTime = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[1];
+            }
+        };
     }
 
+    /**
+     * Load the database the first time it is called, concurrent calls wait for
+     * the same load. A closed connector is reopened without reloading.
+     * @return true if the connection holds
+     * @throws ConnectionException If the database cannot be loaded
+     */
+    @Override
     public boolean connect() throws ConnectionException {
-        if (!isConnected) {
-            try {
-                database = new EfficientBoolDatabase(dbPath);
-                idfs = new HashMap<>();
-                int count;
-                for (int i = 0; i < database.noAttributes(); i++) {
-                    try {
-                        count = 1 + database.count(i);
-                    } catch (NullPointerException nex) {
-                        count = 1;
-                    }
-                    idfs.put(i,new Pair<Double,Double>(Math.log10(database.size()/(double)count),Math.log10(database.size()/(database.size() - (double)count))));
+        if (snapshot == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    snapshot = load();
                 }
-                isConnected = true;
-            } catch (Exception ex) {
-                throw new ConnectionException(ex);
             }
         }
+        isConnected = true;
         return true;
     }
 
+    private Snapshot load() throws ConnectionException {
+        EfficientBoolDatabase database;
+        Map<Integer,Pair<Double,Double>> idfs;
+        try {
+            database = new EfficientBoolDatabase(dbPath, benefitSorted);
+            idfs = new HashMap<>();
+            int count;
+            for (int i = 0; i < database.noAttributes(); i++) {
+                try {
+                    count = 1 + database.count(i);
+                } catch (NullPointerException nex) {
+                    count = 1;
+                }
+                idfs.put(i,new Pair<Double,Double>(Math.log10(database.size()/(double)count),Math.log10(database.size()/(database.size() - (double)count))));
+            }
+        } catch (Exception ex) {
+            throw new ConnectionException(ex);
+        }
+        return new Snapshot(database, idfs);
+    }
+
     @Override
     public boolean close() throws ConnectionException {
         isConnected = false;
@@ -93,22 +156,19 @@ public class BooleanMockConnector implements DatabaseConnector {
 
     public int[] submitQuery(Query q, boolean restricted) throws ConnectionException {
         long curentTime =  System.nanoTime();
-        if (database == null) {
-            throw new ConnectionException("Database is not connected");
-        } 
+        EfficientBoolDatabase database = database();
         int[] result = null;
         result = database.resultSet(q).getFirst();
-        totalTimeDbInterrogation +=  System.nanoTime() - curentTime; 
+        record(Operation.SUBMIT_QUERY, curentTime);
         return result;
     }
 
     
     @Override
     public int count(int attIndex, Object value) throws ConnectionException {
+        long currentTime = System.nanoTime();
+        EfficientBoolDatabase database = database();
         int c = 0;
-        if (database == null) {
-            throw new ConnectionException("Database is not connected");
-        } 
         if (attIndex >= database.getAttributes().size()) 
         {
             throw new ConnectionException(String.format("Attribute index %d does not exist", attIndex));
@@ -118,6 +178,7 @@ public class BooleanMockConnector implements DatabaseConnector {
         } catch (Exception ex) {
             throw new ConnectionException(String.format("Attribute %d does not exist", attIndex));
         }
+        record(Operation.COUNT, currentTime);
         return c;
     }
 
@@ -158,17 +219,12 @@ public class BooleanMockConnector implements DatabaseConnector {
 
     @Override
     public int size() throws ConnectionException {
-        if (database == null) {
-            throw new ConnectionException("Database is not connected");
-        } 
-        return database.size();  //A:
+        return database().size();  //A:
     }
 
     @Override
     public String[] getAttributeNames() throws ConnectionException {
-        if (database == null) {
-            throw new ConnectionException("Database is not connected");
-        } 
+        EfficientBoolDatabase database = database();
         String[] attr = new String[database.getAttributes().size()];  //A:
         for (int i = 0; i < database.getAttributes().size(); i++) {
             attr[i] = (String) database.getAttributes().get(i);
@@ -213,23 +269,6 @@ public class BooleanMockConnector implements DatabaseConnector {
 //        }
 //    }
 
-//    public List<Tuple> topkTuples(int[] weights, Query q, int k) throws ConnectionException {        
-//        if (database == null) {
-//            throw new ConnectionException("Database is not connected");
-//        } 
-//        List<Tuple> result = null;
-//        try {
-//            result = database.getTopKTuples(weights, q, k);
-//        } catch (Exception ex) {
-//            throw new ConnectionException(ex);
-//        }
-//        return result;
-//    }
-//    
-//    public List<Tuple> topkTuples(int[] weights, int k) throws ConnectionException {
-//        return topkTuples(weights, null, k);
-//    }
-    
 //    private List<Tuple> update(Pair<Integer, List<Object>> initialList, List<Tuple> addingList) {
 //        List<Tuple> result = new ArrayList<Tuple>();
 //        Tuple t;
@@ -251,69 +290,232 @@ public class BooleanMockConnector implements DatabaseConnector {
 
     @Override
     public int getAttributeNumber(){//A: added
-        if(database != null) {
-            return database.noAttributes();
+        Snapshot s = snapshot;
+        if(s != null) {
+            return s.database.noAttributes();
         }
         return 0;
     }
 
+    /**
+     * Return the time spent by all the threads to interrogate the database
+     * @return The total time in nanoseconds
+     */
     public long getTotalTimeDbInterrogation(){ //A:
-        return this.totalTimeDbInterrogation;
+        long total = 0;
+        for (LongAdder time : operationTime) {
+            total += time.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @param op The operation to consider
+     * @return The time in nanoseconds spent by all the threads in the operation
+     */
+    public long getTimeDbInterrogation(Operation op) {
+        return operationTime[op.ordinal()].sum();
+    }
+
+    /**
+     * @param op The operation to consider
+     * @return The number of times the operation has been called
+     */
+    public long getCount(Operation op) {
+        return operationCount[op.ordinal()].sum();
+    }
+
+    /**
+     * Return the time spent by the calling thread to interrogate the database,
+     * so that trees built concurrently on the same connector can be told apart
+     * @return The time in nanoseconds
+     */
+    public long getThreadTimeDbInterrogation() {
+        return threadTime.get()[0];
     }
 
+    /**
+     * Reset the time and the calls of all the operations, updates running 
+     * concurrently may or may not be counted.
+     */
     public void resetTime(){
-        this.totalTimeDbInterrogation = 0;
+        for (int i = 0; i < operationTime.length; i++) {
+            operationTime[i].reset();
+            operationCount[i].reset();
+        }
+        resetThreadTime();
+    }
+
+    /**
+     * Reset the time spent by the calling thread
+     */
+    public void resetThreadTime() {
+        threadTime.get()[0] = 0;
+    }
+
+    /*
+     * Record the time elapsed since start for the operation and the calling 
+     * thread
+     */
+    private void record(Operation op, long start) {
+        long elapsed = System.nanoTime() - start;
+        operationTime[op.ordinal()].add(elapsed);
+        operationCount[op.ordinal()].increment();
+        threadTime.get()[0] += elapsed;
+        metrics.record(Metrics.DB_PROBES, "operation", op, start);
+    }
+
+    @Override
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics != null ? metrics : Metrics.DISABLED;
+    }
+
+    private EfficientBoolDatabase database() throws ConnectionException {
+        Snapshot s = snapshot;
+        if (s == null) {
+            throw new ConnectionException("Database is not connected");
+        }
+        return s.database;
     }
 
     @Override
     public double idf(int attIndex, Object value) throws ConnectionException {
+        Snapshot s = snapshot;
+        if (s == null) {
+            throw new ConnectionException("Database is not connected");
+        }
         if (value.equals(true)) {
-            return idfs.get(attIndex).getFirst();
+            return s.idfs.get(attIndex).getFirst();
         }
-        return idfs.get(attIndex).getSecond();
+        return s.idfs.get(attIndex).getSecond();
     }
 
     @Override
     public double getMinBenefit() throws ConnectionException {
-        return database.getMinBenefit();
+        return database().getMinBenefit();
     }
 
     @Override
     public double getMaxBenefit() throws ConnectionException {
-        return database.getMaxBenefit();
+        return database().getMaxBenefit();
     }
 
     @Override
     public Pair<Double,Double> getMinMaxBenefit(Query q) throws ConnectionException {
-        Pair<int[],double[]> results = database.resultSet(q);
-        Pair<Double, Double> lbub;
-        int[] rs = results.getFirst();
-        double[] benefits = results.getSecond();
-        double min = Double.MAX_VALUE;
-        double max = 0;
-
-        double benefit;
-        for (int i = 0; i < rs.length; i++) {
-            benefit = benefits[i];
-            if (benefit < min) {
-                min = benefit;
-            }
-            if (benefit > max) {
-                max = benefit;
-            }
+        long currentTime = System.nanoTime();
+        Pair<Double, Double> minMax = database().minMaxBenefit(q);
+        record(Operation.MIN_MAX_BENEFIT, currentTime);
+        //No matches give (Double.MAX_VALUE, 0), the max is never below 0
+        return new Pair<>(Math.min(minMax.getFirst(), Double.MAX_VALUE), Math.max(minMax.getSecond(), 0));
+    }
+
+    @Override
+    public double getMaxBenefit(Query q) throws ConnectionException {
+        long currentTime = System.nanoTime();
+        double max = Math.max(database().maxBenefit(q), 0);
+        record(Operation.MAX_BENEFIT, currentTime);
+        return max;
+    }
+
+    @Override
+    public boolean hasBenefitAbove(Query q, double threshold) throws ConnectionException {
+        long currentTime = System.nanoTime();
+        boolean found = database().hasBenefitAbove(q, threshold);
+        record(Operation.BENEFIT_ABOVE, currentTime);
+        return found;
+    }
+
+    @Override
+    public Pair<int[], double[]> topKTuples(Query q, PreferenceKernel kernel, int k) throws ConnectionException {
+        long currentTime = System.nanoTime();
+        Pair<int[], double[]> result = database().topKTuples(q, kernel, k);
+        record(Operation.TOP_K, currentTime);
+        return result;
+    }
+
+    @Override
+    public LeaveOneOut leaveOneOut(Query q) throws ConnectionException {
+        long currentTime = System.nanoTime();
+        LeaveOneOut variants = database().leaveOneOut(q);
+        record(Operation.LEAVE_ONE_OUT, currentTime);
+        return variants;
+    }
+
+    /**
+     * Mine the minimal empty and the maximal non-empty subqueries of a query,
+     * the bitmaps used to count the results are built at the first call
+     * @param q The query
+     * @param cardinality The minimum number of results of a non-empty query
+     * @return The lattice of the subqueries of q
+     * @throws ConnectionException If the database is not connected
+     * @see EmptySubqueryMiner
+     */
+    public EmptySubqueryMiner.Lattice mineEmptySubqueries(Query q, int cardinality) throws ConnectionException {
+        long currentTime = System.nanoTime();
+        Snapshot s = snapshot;
+        EmptySubqueryMiner.Lattice lattice;
+        if (s == null) {
+            throw new ConnectionException("Database is not connected");
         }
-        lbub = new Pair<>(min, max);
-        return lbub;
+        lattice = s.miner().mine(q, cardinality);
+        record(Operation.MINE_SUBQUERIES, currentTime);
+        return lattice;
+    }
+
+    /**
+     * @return The miner of the empty subqueries of the whole database
+     * @throws ConnectionException If the database is not connected
+     */
+    public EmptySubqueryMiner getMiner() throws ConnectionException {
+        Snapshot s = snapshot;
+        if (s == null) {
+            throw new ConnectionException("Database is not connected");
+        }
+        return s.miner();
+    }
+
+    @Override
+    public boolean isBenefitSorted() {
+        return benefitSorted;
     }
 
     @Override
     public boolean isConnected() {
-        return isConnected || database == null;
+        return isConnected;
     }
 
     @Override
     public Pair<int[], double[]> resultsAndBenefits(Query q) throws ConnectionException {
-        return database.resultSet(q);
+        long currentTime = System.nanoTime();
+        Pair<int[], double[]> result = database().resultSet(q);
+        record(Operation.RESULTS_AND_BENEFITS, currentTime);
+        return result;
+    }
+
+    /*
+     * Immutable state of a connected database, the miner is derived from the
+     * database the first time it is needed
+     */
+    private static final class Snapshot {
+        private final EfficientBoolDatabase database;
+        private final Map<Integer,Pair<Double,Double>> idfs;
+        private volatile EmptySubqueryMiner miner;
+
+        private Snapshot(EfficientBoolDatabase database, Map<Integer,Pair<Double,Double>> idfs) {
+            this.database = database;
+            this.idfs = idfs;
+        }
+
+        private EmptySubqueryMiner miner() {
+            if (miner == null) {
+                synchronized (this) {
+                    if (miner == null) {
+                        miner = new EmptySubqueryMiner(database);
+                    }
+                }
+            }
+            return miner;
+        }
     }
 
 }
@@ -21,7 +21,10 @@
 package it.unitn.disi.db.queryrelaxation.model.data;
 
 import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
+import it.unitn.disi.db.queryrelaxation.metrics.Metrics;
+import it.unitn.disi.db.queryrelaxation.model.LeaveOneOut;
 import it.unitn.disi.db.queryrelaxation.model.Pair;
+import it.unitn.disi.db.queryrelaxation.model.PreferenceKernel;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 
 /**
@@ -144,4 +147,58 @@ public interface DatabaseConnector {
      * @throws ConnectionException 
      */
     public Pair<Double, Double> getMinMaxBenefit(Query q) throws ConnectionException; 
+    
+    /**
+     * Given a query find the maximum benefit of that query result
+     * @param q The input query to be performed
+     * @return The maximum benefit of the result set, 0 if the result set is 
+     * empty or all the benefits are negative
+     * @throws ConnectionException If something unexpected happens
+     */
+    public double getMaxBenefit(Query q) throws ConnectionException;
+    
+    /**
+     * Check if the result of a query contains a tuple with benefit greater 
+     * than a threshold
+     * @param q The input query to be performed
+     * @param threshold The benefit to exceed
+     * @return true if such a tuple exists, false otherwise
+     * @throws ConnectionException If something unexpected happens
+     */
+    public boolean hasBenefitAbove(Query q, double threshold) throws ConnectionException;
+    
+    /**
+     * Compute the results of all the queries obtained removing exactly one
+     * constraint from the input query (e.g., the siblings generated when a 
+     * node of the relaxation tree is expanded) with a single access to the data
+     * @param q The input query
+     * @return The count, the benefit aggregates and the results of each variant
+     * @throws ConnectionException If something unexpected happens
+     */
+    public LeaveOneOut leaveOneOut(Query q) throws ConnectionException;
+    
+    /**
+     * Return true if results are returned by descending benefit
+     * @return true if the tuples are stored by descending benefit
+     */
+    public boolean isBenefitSorted();
+    
+    /**
+     * Retrieve the k best tuples that satisfy the query, where a tuple is 
+     * scored by its preference for the kernel plus its benefit. Only k tuples
+     * are returned, the whole table is not scanned unless needed.
+     * @param q The query the tuples must satisfy
+     * @param kernel The preference function compiled for the query
+     * @param k The number of tuples to retrieve
+     * @return The tuples and their scores by descending score
+     * @throws ConnectionException If something unexpected happens
+     */
+    public Pair<int[], double[]> topKTuples(Query q, PreferenceKernel kernel, int k) throws ConnectionException;
+
+    /**
+     * Record the number and the time of the probes to the database in the 
+     * input registry
+     * @param metrics The registry, null to stop recording
+     */
+    public void setMetrics(Metrics metrics);
 }
@@ -0,0 +1,309 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.model.data;
+
+import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
+import it.unitn.disi.db.queryrelaxation.model.functions.IPFTable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide cache of the datasets (connected databases) and of the parsed
+ * IPF files. Each resource is loaded once and shared through handles that
+ * count the references: a resource that is not referenced stays cached until
+ * the estimated memory of the cache exceeds the budget, then the least
+ * recently used ones are evicted. Resources in use are never evicted.
+ * <p>
+ * Handles must be closed when the resource is not needed anymore, e.g.:
+ * <pre>
+ * try (DatasetRegistry.Handle&lt;BooleanMockConnector&gt; db = DatasetRegistry.getInstance().database(path)) {
+ *     tree.setDb(db.get());
+ *     ...
+ * }
+ * </pre>
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public final class DatasetRegistry {
+    private static final DatasetRegistry INSTANCE = new DatasetRegistry(Runtime.getRuntime().maxMemory() / 2);
+
+    /*
+     * Cached resources by key, in access order (the first is the least recently
+     * used)
+     */
+    private final LinkedHashMap<String, Entry> entries;
+    /*
+     * Maximum estimated memory of the cached resources, in bytes
+     */
+    private long budget;
+    /*
+     * Estimated memory of the loaded resources, in bytes
+     */
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    DatasetRegistry(long budget) {
+        this.budget = budget;
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @return The registry shared by the whole process
+     */
+    public static DatasetRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Set the memory budget and evict the unused resources that exceed it
+     * @param budget The budget in bytes, non positive values mean half of the
+     * maximum heap
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget > 0 ? budget : Runtime.getRuntime().maxMemory() / 2;
+        evict();
+    }
+
+    /**
+     * Acquire the database in the input path, connecting to it if it is not
+     * already loaded
+     * @param path The path of the database file
+     * @return A handle to the connected database
+     * @throws ConnectionException If the database cannot be loaded
+     */
+    public Handle<BooleanMockConnector> database(String path) throws ConnectionException {
+        return database(path, false);
+    }
+
+    /**
+     * Acquire the database in the input path with the given layout, connecting
+     * to it if it is not already loaded
+     * @param path The path of the database file
+     * @param benefitSorted True to store the tuples by descending benefit
+     * @return A handle to the connected database
+     * @throws ConnectionException If the database cannot be loaded
+     */
+    public Handle<BooleanMockConnector> database(final String path, final boolean benefitSorted) throws ConnectionException {
+        try {
+            return acquire("db" + (benefitSorted ? "-sorted:" : ":") + canonical(path), new Loader<BooleanMockConnector>() {
+                @Override
+                public BooleanMockConnector load() throws Exception {
+                    BooleanMockConnector db = new BooleanMockConnector(path, benefitSorted);
+                    db.connect();
+                    return db;
+                }
+
+                @Override
+                public long estimatedBytes(BooleanMockConnector db) throws Exception {
+                    //Tuples, benefits and (at most) a posting list entry per attribute
+                    return 64L + (long) db.size() * (Integer.BYTES + Double.BYTES + (long) Integer.BYTES * db.getAttributeNumber());
+                }
+            });
+        } catch (ConnectionException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new ConnectionException(ex);
+        }
+    }
+
+    /**
+     * Acquire the parsed IPF file in the input path, reading it if it is not
+     * already loaded
+     * @param path The path of the IPF file
+     * @return A handle to the parsed file
+     * @throws IOException If the file cannot be read
+     */
+    public Handle<IPFTable> prior(final String path) throws IOException {
+        try {
+            return acquire("ipf:" + canonical(path), new Loader<IPFTable>() {
+                @Override
+                public IPFTable load() throws Exception {
+                    return IPFTable.read(path);
+                }
+
+                @Override
+                public long estimatedBytes(IPFTable table) {
+                    return table.estimatedBytes();
+                }
+            });
+        } catch (IOException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Handle<T> acquire(String key, Loader<T> loader) throws Exception {
+        Entry entry;
+        long bytes = 0;
+        boolean loaded = false;
+
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key);
+                entries.put(key, entry);
+                misses++;
+            } else {
+                hits++;
+            }
+            entry.references++;
+        }
+        //Loads of different resources can proceed in parallel
+        try {
+            synchronized (entry) {
+                if (entry.value == null) {
+                    entry.value = loader.load();
+                    bytes = loader.estimatedBytes((T) entry.value);
+                    loaded = true;
+                }
+            }
+        } catch (Exception ex) {
+            synchronized (this) {
+                entry.references--;
+                if (entry.value == null && entry.references == 0) {
+                    entries.remove(key);
+                }
+            }
+            throw ex;
+        }
+        if (loaded) {
+            synchronized (this) {
+                entry.bytes = bytes;
+                usedBytes += bytes;
+                evict();
+            }
+        }
+        return new Handle<>(this, entry, (T) entry.value);
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.references--;
+        evict();
+    }
+
+    /*
+     * Evict the least recently used resources that are not referenced until the
+     * memory fits the budget
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        Entry entry;
+        while (usedBytes > budget && it.hasNext()) {
+            entry = it.next().getValue();
+            if (entry.references == 0 && entry.value != null) {
+                it.remove();
+                usedBytes -= entry.bytes;
+                evictions++;
+                if (entry.value instanceof DatabaseConnector) {
+                    try {
+                        ((DatabaseConnector) entry.value).close();
+                    } catch (ConnectionException ex) {
+                        Logger.getLogger(DatasetRegistry.class.getName()).log(Level.WARNING, "Cannot close " + entry.key, ex);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String canonical(String path) {
+        try {
+            return new File(path).getCanonicalPath();
+        } catch (IOException ex) {
+            return new File(path).getAbsolutePath();
+        }
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("DatasetRegistry[resources=%d, used=%dMB, budget=%dMB, hits=%d, misses=%d, evictions=%d]",
+                entries.size(), usedBytes >> 20, budget >> 20, hits, misses, evictions);
+    }
+
+    /**
+     * A reference to a shared resource, the resource must not be used after
+     * the handle is closed.
+     * @param <T> The type of the resource
+     */
+    public static final class Handle<T> implements AutoCloseable {
+        private final DatasetRegistry registry;
+        private final Entry entry;
+        private final T value;
+        private boolean closed;
+
+        private Handle(DatasetRegistry registry, Entry entry, T value) {
+            this.registry = registry;
+            this.entry = entry;
+            this.value = value;
+            closed = false;
+        }
+
+        public T get() {
+            return value;
+        }
+
+        /**
+         * Release the reference, closing twice has no effect
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            registry.release(entry);
+        }
+    }
+
+    private interface Loader<T> {
+        T load() throws Exception;
+        long estimatedBytes(T value) throws Exception;
+    }
+
+    private static final class Entry {
+        private final String key;
+        private Object value;
+        private long bytes;
+        private int references;
+
+        private Entry(String key) {
+            this.key = key;
+            references = 0;
+        }
+    }
+}
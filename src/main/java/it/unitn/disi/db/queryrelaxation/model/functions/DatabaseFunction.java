@@ -19,6 +19,7 @@
 */
 package it.unitn.disi.db.queryrelaxation.model.functions;
 
+import it.unitn.disi.db.queryrelaxation.model.PreferenceKernel;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 import it.unitn.disi.db.queryrelaxation.model.data.DatabaseConnector;
 
@@ -36,6 +37,11 @@ public class DatabaseFunction extends IdfFunction {
     public double compute(Query q, int tuple) {
         return 1 - super.compute(q, tuple);
     }
+
+    @Override
+    public PreferenceKernel compile(Query q) {
+        return compile(q, 1.0, -1.0);
+    }
     
     
 }
@@ -21,8 +21,10 @@ package it.unitn.disi.db.queryrelaxation.model.functions;
 
 import it.unitn.disi.db.queryrelaxation.model.Constraint;
 import it.unitn.disi.db.queryrelaxation.model.PreferenceFunction;
+import it.unitn.disi.db.queryrelaxation.model.PreferenceKernel;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 import it.unitn.disi.db.queryrelaxation.statistics.Utilities;
+import java.util.Arrays;
 
 /**
  * Implements the Normalized Hamming Function to use when you compute the 
@@ -54,4 +56,21 @@ public class HammingFunction implements PreferenceFunction {
         distance += Utilities.bitCount((~t) & refValue);        
         return distance / q.size();
     }
+
+    /**
+     * Compile the normalized hamming function, every constraint has weight 1
+     * and the sum is divided by the size of the query
+     * @param q The query of the user
+     * @return The kernel that computes the function for the query
+     */
+    @Override
+    public PreferenceKernel compile(Query q) {
+        int[] positive = PreferenceKernel.attributes(q.getConstraints());
+        int[] negative = PreferenceKernel.attributes(q.negatedConstraints());
+        double[] positiveWeights = new double[positive.length];
+        double[] negativeWeights = new double[negative.length];
+        Arrays.fill(positiveWeights, 1.0);
+        Arrays.fill(negativeWeights, 1.0);
+        return PreferenceKernel.weighted(positive, positiveWeights, negative, negativeWeights, 0.0, 1.0, q.size());
+    }
 }
@@ -53,6 +53,20 @@ public final class IPFPrior extends Prior {
 
     }
 
+    /**
+     * Build the prior of the query from an already parsed IPF file, the result
+     * is the same as reading the file with the other constructor.
+     * @param db The database
+     * @param table The parsed IPF file
+     * @param query The query whose attributes are considered
+     * @throws ConnectionException If the database is not available
+     */
+    public IPFPrior(DatabaseConnector db, IPFTable table, Query query) throws ConnectionException {
+        super(db);
+        filterIndicesToConsiderFromIPF(query);
+        filterIPFTable(table);
+    }
+
     public void filterIndicesToConsiderFromIPF(Query query) {
         this.indicesToConsider = new int[(int) query.size()];
         List<Constraint> constr = query.getConstraints();
@@ -120,6 +134,27 @@ public final class IPFPrior extends Prior {
         br.close();
     }
 
+    /*
+     * Same as readAndFilterIPFFile, the rows are projected on the considered
+     * attributes and the probabilities of equal projections are summed
+     */
+    private void filterIPFTable(IPFTable table) {
+        int mask = 0, tuple;
+        for (int i = 0; i < indicesToConsider.length; i++) {
+            mask |= 1 << indicesToConsider[i];
+        }
+        for (int row = 0; row < table.size(); row++) {
+            tuple = table.tuple(row) & mask;
+            if (PROBS.containsKey(tuple)) {
+                PROBS.put(tuple, table.probability(row) + PROBS.get(tuple));
+            } else if (table.isZero(row)) {
+                PROBS.put(tuple, Double.valueOf(0.001f)); //replace the 0 values with a small value
+            } else {
+                PROBS.put(tuple, table.probability(row));
+            }
+        }
+    }
+
 //    public void readIPFFile(String ipfFilePath) throws
 //            java.io.FileNotFoundException, java.io.IOException, NumberFormatException {//A:
 //
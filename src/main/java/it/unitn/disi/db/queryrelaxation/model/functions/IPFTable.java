@@ -0,0 +1,115 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.model.functions;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+/**
+ * The content of an IPF file parsed once, so that priors for different queries
+ * on the same dataset can be built without reading the file again. Each row is
+ * a tuple (at most 32 attributes, as the database) followed by its probability.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ * @see IPFPrior#IPFPrior(it.unitn.disi.db.queryrelaxation.model.data.DatabaseConnector, IPFTable, it.unitn.disi.db.queryrelaxation.model.Query)
+ */
+public final class IPFTable {
+    /* The attributes set to 1 in each row */
+    private final int[] tuples;
+    private final double[] probabilities;
+    /* True if the probability is 0 when read as a float */
+    private final boolean[] zeros;
+
+    private IPFTable(int[] tuples, double[] probabilities, boolean[] zeros) {
+        this.tuples = tuples;
+        this.probabilities = probabilities;
+        this.zeros = zeros;
+    }
+
+    /**
+     * Parse an IPF file
+     * @param ipfFilePath The path of the file
+     * @return The parsed table
+     * @throws IOException If the file cannot be read
+     * @throws NumberFormatException If a probability is not a number
+     */
+    public static IPFTable read(String ipfFilePath) throws IOException, NumberFormatException {
+        int[] tuples = new int[1024];
+        double[] probabilities = new double[1024];
+        boolean[] zeros = new boolean[1024];
+        String line, token;
+        StringTokenizer st;
+        int counter, tuple, rows = 0;
+
+        try (BufferedReader br = new BufferedReader(new FileReader(ipfFilePath))) {
+            while ((line = br.readLine()) != null) {
+                st = new StringTokenizer(line, " \t");
+                counter = 0;
+                tuple = 0;
+                while (st.hasMoreTokens()) {
+                    token = st.nextToken().trim();
+                    if (st.hasMoreTokens()) { //not the last elem, so not the probab
+                        if (counter < Integer.SIZE && token.equals("1")) {
+                            tuple |= 1 << counter;
+                        }
+                        counter++;
+                    } else { //it's the last elem, so the probab
+                        if (rows == tuples.length) {
+                            tuples = Arrays.copyOf(tuples, rows * 2);
+                            probabilities = Arrays.copyOf(probabilities, rows * 2);
+                            zeros = Arrays.copyOf(zeros, rows * 2);
+                        }
+                        tuples[rows] = tuple;
+                        probabilities[rows] = Double.parseDouble(token);
+                        zeros[rows] = Float.valueOf(token) == 0f;
+                        rows++;
+                    }
+                }
+            }
+        }
+        return new IPFTable(Arrays.copyOf(tuples, rows), Arrays.copyOf(probabilities, rows), Arrays.copyOf(zeros, rows));
+    }
+
+    public int size() {
+        return tuples.length;
+    }
+
+    public int tuple(int row) {
+        return tuples[row];
+    }
+
+    public double probability(int row) {
+        return probabilities[row];
+    }
+
+    public boolean isZero(int row) {
+        return zeros[row];
+    }
+
+    /**
+     * @return An estimate of the memory used by the table, in bytes
+     */
+    public long estimatedBytes() {
+        return 64L + (long) tuples.length * (Integer.BYTES + Double.BYTES + 1);
+    }
+}
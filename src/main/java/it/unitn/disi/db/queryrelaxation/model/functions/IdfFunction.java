@@ -21,6 +21,7 @@ package it.unitn.disi.db.queryrelaxation.model.functions;
 
 import it.unitn.disi.db.queryrelaxation.model.Constraint;
 import it.unitn.disi.db.queryrelaxation.model.PreferenceFunction;
+import it.unitn.disi.db.queryrelaxation.model.PreferenceKernel;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
 import it.unitn.disi.db.queryrelaxation.model.data.DatabaseConnector;
@@ -65,5 +66,38 @@ public class IdfFunction implements PreferenceFunction {
         }
         return score/normalizingFactor;
     }
+
+    @Override
+    public PreferenceKernel compile(Query q) {
+        return compile(q, 0.0, 1.0);
+    }
+
+    /*
+     * Compile the normalized idf as offset + sign * idf, so that subclasses
+     * can reuse the same weights
+     */
+    protected PreferenceKernel compile(Query q, double offset, double sign) {
+        double normalizingFactor = 0.0;
+        int[] positive, negative;
+        double[] positiveWeights, negativeWeights;
+
+        try {
+            positive = PreferenceKernel.attributes(q.getConstraints());
+            negative = PreferenceKernel.attributes(q.negatedConstraints());
+            positiveWeights = new double[positive.length];
+            negativeWeights = new double[negative.length];
+            for (int i = 0; i < positive.length; i++) {
+                positiveWeights[i] = db.idf(positive[i], true);
+                normalizingFactor += positiveWeights[i];
+            }
+            for (int i = 0; i < negative.length; i++) {
+                negativeWeights[i] = db.idf(negative[i], false);
+                normalizingFactor += negativeWeights[i];
+            }
+        } catch (NumberFormatException | ConnectionException ex) {
+            return PreferenceKernel.constant(offset);
+        }
+        return PreferenceKernel.weighted(positive, positiveWeights, negative, negativeWeights, offset, sign, normalizingFactor);
+    }
     
 }
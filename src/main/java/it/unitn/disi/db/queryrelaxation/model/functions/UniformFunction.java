@@ -20,6 +20,7 @@
 package it.unitn.disi.db.queryrelaxation.model.functions;
 
 import it.unitn.disi.db.queryrelaxation.model.PreferenceFunction;
+import it.unitn.disi.db.queryrelaxation.model.PreferenceKernel;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 
 /**
@@ -31,5 +32,9 @@ public class UniformFunction implements PreferenceFunction {
     public double compute(Query q, int t) {
         return 1.0;
     }
+
+    public PreferenceKernel compile(Query q) {
+        return PreferenceKernel.constant(1.0);
+    }
     
 }
@@ -0,0 +1,391 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.statistics;
+
+import eu.unitn.disi.db.command.util.LoggableObject;
+import it.unitn.disi.db.queryrelaxation.model.Constraint;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generator of synthetic boolean databases, with the matching prior and the
+ * empty queries on them. Tuples are drawn from a mixture model: each tuple
+ * picks one of the clusters and copies each attribute from the prototype of
+ * the cluster with probability equal to the correlation, otherwise the
+ * attribute is 1 with its marginal probability. Marginals follow a Zipf law
+ * with the given skew (attribute 0 is the most frequent) and average density.
+ * <p>
+ * The database is written in chunks generated in parallel and written in
+ * order, each chunk has its own seed so the output depends only on the seed
+ * and not on the number of workers. Memory does not depend on the number of
+ * rows. The prior written is the exact distribution of the model, in the IPF
+ * format.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class DatasetGenerator extends LoggableObject {
+    /* The prior lists all the combinations of the attributes */
+    public static final int MAX_PRIOR_ATTRIBUTES = 24;
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final double MAX_MARGINAL = 0.95;
+
+    private final int attributes;
+    private final double correlation;
+    private final long seed;
+    private final double[] marginals;
+    private final int[] prototypes;
+
+    /**
+     * @param attributes The number of attributes, at most 32
+     * @param density The average probability of an attribute to be 1
+     * @param skew The exponent of the Zipf law of the marginals, 0 means all
+     * the attributes have the same marginal
+     * @param correlation The probability to copy an attribute from the
+     * prototype of the cluster, 0 means independent attributes
+     * @param clusters The number of clusters
+     * @param seed The seed of the generation
+     */
+    public DatasetGenerator(int attributes, double density, double skew, double correlation, int clusters, long seed) {
+        Random random = new Random(seed);
+        double sum = 0;
+
+        if (attributes < 1 || attributes > Integer.SIZE) {
+            throw new IllegalArgumentException(String.format("The number of attributes must be in [1, %d]", Integer.SIZE));
+        }
+        if (density <= 0 || density >= 1 || correlation < 0 || correlation > 1 || clusters < 1) {
+            throw new IllegalArgumentException("Density must be in (0, 1), correlation in [0, 1] and clusters positive");
+        }
+        this.attributes = attributes;
+        this.correlation = correlation;
+        this.seed = seed;
+        marginals = new double[attributes];
+        for (int a = 0; a < attributes; a++) {
+            marginals[a] = 1 / Math.pow(a + 1, skew);
+            sum += marginals[a];
+        }
+        //Marginals are capped, so a very high skew lowers the average density
+        for (int a = 0; a < attributes; a++) {
+            marginals[a] = Math.min(MAX_MARGINAL, marginals[a] * density * attributes / sum);
+        }
+        prototypes = new int[clusters];
+        for (int k = 0; k < clusters; k++) {
+            for (int a = 0; a < attributes; a++) {
+                if (random.nextDouble() < marginals[a]) {
+                    prototypes[k] |= 1 << a;
+                }
+            }
+        }
+    }
+
+    /**
+     * Draw the candidate empty queries, all different, uniformly among the
+     * queries of each size. Emptiness is verified while writing the database.
+     * @param minQuerySize The minimum size of a query
+     * @param maxQuerySize The maximum size of a query
+     * @param count The number of candidates of each size
+     * @return The candidates
+     */
+    public Candidates candidates(int minQuerySize, int maxQuerySize, int count) {
+        Random random = new Random(mix(seed ^ 0x5DEECE66DL));
+        List<Integer> masks = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        int mask, attribute, size;
+
+        for (size = Math.max(1, minQuerySize); size <= Math.min(maxQuerySize, attributes); size++) {
+            seen.clear();
+            //Small sizes may have less than count distinct queries
+            for (int attempt = 0; attempt < count * 10 && seen.size() < count; attempt++) {
+                mask = 0;
+                while (Integer.bitCount(mask) < size) {
+                    attribute = random.nextInt(attributes);
+                    mask |= 1 << attribute;
+                }
+                if (seen.add(mask)) {
+                    masks.add(mask);
+                }
+            }
+        }
+        return new Candidates(masks, marginals);
+    }
+
+    /**
+     * Write the database, marking the candidates that have some result
+     * @param path The database file
+     * @param rows The number of tuples
+     * @param candidates The candidate empty queries, can be null
+     * @param workers The number of threads generating the tuples
+     * @throws IOException If the file cannot be written
+     */
+    public void writeDatabase(String path, final int rows, final Candidates candidates, int workers) throws IOException {
+        final int chunks = (rows + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        writeInOrder(path, chunks, workers, new ChunkFactory() {
+            @Override
+            public Callable<byte[]> chunk(final int chunk) {
+                return new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() {
+                        return tuples(chunk, Math.min(CHUNK_SIZE, rows - chunk * CHUNK_SIZE), candidates);
+                    }
+                };
+            }
+        });
+        info("Written %d tuples with %d attributes in %s", rows, attributes, path);
+    }
+
+    /*
+     * Generate the tuples of a chunk in the database format, i.e., the benefit
+     * followed by the attribute values
+     */
+    private byte[] tuples(int chunk, int size, Candidates candidates) {
+        StringBuilder sb = new StringBuilder(size * (2 * attributes + 8));
+        SplittableRandom random = new SplittableRandom(mix(seed + mix(chunk + 1)));
+        int tuple, prototype, ones;
+
+        for (int i = 0; i < size; i++) {
+            prototype = prototypes[random.nextInt(prototypes.length)];
+            tuple = 0;
+            for (int a = 0; a < attributes; a++) {
+                if (correlation > 0 && random.nextDouble() < correlation) {
+                    tuple |= prototype & (1 << a);
+                } else if (random.nextDouble() < marginals[a]) {
+                    tuple |= 1 << a;
+                }
+            }
+            //Benefits grow with the number of attributes, as in BenefitGenerator
+            ones = Integer.bitCount(tuple);
+            sb.append(Math.round((ones + 1 + random.nextDouble()) / (attributes + 2) * 1e4) / 1e4).append('\t');
+            for (int a = 0; a < attributes; a++) {
+                sb.append((tuple & (1 << a)) != 0 ? '1' : '0').append(a < attributes - 1 ? ' ' : '\n');
+            }
+            if (candidates != null) {
+                candidates.check(tuple);
+            }
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Write the probability of each combination of the attributes under the
+     * model, in the IPF format
+     * @param path The prior file
+     * @param workers The number of threads computing the probabilities
+     * @throws IOException If the file cannot be written
+     */
+    public void writePrior(String path, int workers) throws IOException {
+        if (attributes > MAX_PRIOR_ATTRIBUTES) {
+            throw new IllegalStateException(String.format("Cannot write a prior with more than %d attributes", MAX_PRIOR_ATTRIBUTES));
+        }
+        final int low = attributes / 2, high = attributes - low;
+        final double[][] lowTable = clusterTable(0, low), highTable = clusterTable(low, high);
+        final long combinations = 1L << attributes;
+        final int chunks = (int) ((combinations + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+        writeInOrder(path, chunks, workers, new ChunkFactory() {
+            @Override
+            public Callable<byte[]> chunk(final int chunk) {
+                return new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() {
+                        int from = chunk * CHUNK_SIZE, to = (int) Math.min(combinations, from + (long) CHUNK_SIZE);
+                        StringBuilder sb = new StringBuilder((to - from) * (2 * attributes + 24));
+                        double probability;
+                        for (int t = from; t < to; t++) {
+                            probability = 0;
+                            for (int k = 0; k < prototypes.length; k++) {
+                                probability += lowTable[k][t & ((1 << low) - 1)] * highTable[k][t >>> low];
+                            }
+                            for (int a = 0; a < attributes; a++) {
+                                sb.append((t & (1 << a)) != 0 ? "1 " : "0 ");
+                            }
+                            sb.append(probability / prototypes.length).append('\n');
+                        }
+                        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+                    }
+                };
+            }
+        });
+        info("Written the prior of %d combinations in %s", combinations, path);
+    }
+
+    /*
+     * Probability of each combination of the attributes in [from, from + length)
+     * in each cluster, the probability of a tuple is the product of the tables
+     * of its two halves
+     */
+    private double[][] clusterTable(int from, int length) {
+        double[][] table = new double[prototypes.length][1 << length];
+        double one;
+        for (int k = 0; k < prototypes.length; k++) {
+            Arrays.fill(table[k], 1.0);
+            for (int a = 0; a < length; a++) {
+                one = correlation * ((prototypes[k] >>> (from + a)) & 1) + (1 - correlation) * marginals[from + a];
+                for (int t = 0; t < table[k].length; t++) {
+                    table[k][t] *= (t & (1 << a)) != 0 ? one : 1 - one;
+                }
+            }
+        }
+        return table;
+    }
+
+    /*
+     * Generate the chunks in parallel and write them in order, keeping only a
+     * few chunks in memory
+     */
+    private void writeInOrder(String path, int chunks, int workers, ChunkFactory factory) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers));
+        Queue<Future<byte[]>> pending = new ArrayDeque<>();
+        int next = 0, inFlight = 2 * Math.max(1, workers);
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path), 1 << 20)) {
+            while (next < chunks || !pending.isEmpty()) {
+                while (next < chunks && pending.size() < inFlight) {
+                    pending.add(pool.submit(factory.chunk(next++)));
+                }
+                out.write(pending.poll().get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Generation interrupted", ex);
+        } catch (java.util.concurrent.ExecutionException ex) {
+            throw new IOException("Cannot generate " + path, ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /*
+     * Finalizer of SplitMix64, to derive independent seeds
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public double[] getMarginals() {
+        return marginals.clone();
+    }
+
+    private interface ChunkFactory {
+        Callable<byte[]> chunk(int chunk);
+    }
+
+    /**
+     * Candidate empty queries as boolean queries. Each candidate is indexed by
+     * its least frequent attribute, so a tuple is only compared with the
+     * candidates of the attributes it has.
+     */
+    public static final class Candidates {
+        private final int[] masks;
+        /* Candidates by least frequent attribute */
+        private final int[][] byPivot;
+        /*
+         * Candidates with some result. Flags only go from false to true, a
+         * stale read only costs a comparison, and the generation ends with the
+         * join of the workers.
+         */
+        private final boolean[] nonEmpty;
+
+        private Candidates(List<Integer> masks, double[] marginals) {
+            int[] pivots, counts = new int[marginals.length];
+            int pivot;
+            this.masks = new int[masks.size()];
+            pivots = new int[masks.size()];
+            for (int i = 0; i < this.masks.length; i++) {
+                this.masks[i] = masks.get(i);
+                pivot = -1;
+                for (int a = 0; a < marginals.length; a++) {
+                    if ((this.masks[i] & (1 << a)) != 0 && (pivot < 0 || marginals[a] < marginals[pivot])) {
+                        pivot = a;
+                    }
+                }
+                pivots[i] = pivot;
+                counts[pivot]++;
+            }
+            byPivot = new int[marginals.length][];
+            for (int a = 0; a < marginals.length; a++) {
+                byPivot[a] = new int[counts[a]];
+                counts[a] = 0;
+            }
+            for (int i = 0; i < this.masks.length; i++) {
+                byPivot[pivots[i]][counts[pivots[i]]++] = i;
+            }
+            nonEmpty = new boolean[this.masks.length];
+        }
+
+        void check(int tuple) {
+            int rest = tuple, a;
+            while (rest != 0) {
+                a = Integer.numberOfTrailingZeros(rest);
+                rest &= rest - 1;
+                for (int i : byPivot[a]) {
+                    if (!nonEmpty[i] && (tuple & masks[i]) == masks[i]) {
+                        nonEmpty[i] = true;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Return the candidates of the given size that have no results, in
+         * generation order. Call only after the database is written.
+         * @param size The size of the queries
+         * @param count The maximum number of queries
+         * @return The empty queries, constraints sorted by attribute
+         */
+        public List<Query> emptyQueries(int size, int count) {
+            List<Query> queries = new ArrayList<>();
+            Query q;
+            for (int i = 0; i < masks.length && queries.size() < count; i++) {
+                if (!nonEmpty[i] && Integer.bitCount(masks[i]) == size) {
+                    q = new Query();
+                    for (int a = 0; a < Integer.SIZE; a++) {
+                        if ((masks[i] & (1 << a)) != 0) {
+                            q.addConstraint(new Constraint(String.valueOf(a), true));
+                        }
+                    }
+                    queries.add(q);
+                }
+            }
+            return queries;
+        }
+
+        public int size() {
+            return masks.length;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.statistics;
+
+import it.unitn.disi.db.queryrelaxation.model.Constraint;
+import it.unitn.disi.db.queryrelaxation.model.EfficientBoolDatabase;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Mines the lattice of the subsets of a query (or of all the attributes) for
+ * the minimal empty subqueries, i.e., the empty subqueries whose proper
+ * subqueries all have results, and the maximal non-empty subqueries. A
+ * subquery is empty if it has less results than the cardinality.
+ * <p>
+ * The lattice is visited level by level, apriori-style: a set is counted only
+ * if all its subsets of one attribute less have results, since a superset of
+ * an empty query is empty. Results are counted intersecting per-attribute
+ * bitmaps of the tuples, and the candidates of large levels are counted in
+ * parallel. Queries are boolean queries, i.e., bit i is attribute i.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class EmptySubqueryMiner {
+    /* Levels with less candidates are counted by the calling thread */
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    /* The tuples of each attribute */
+    private final long[][] bitmaps;
+    private final int tuples;
+
+    public EmptySubqueryMiner(EfficientBoolDatabase db) {
+        tuples = db.size();
+        bitmaps = new long[db.dimension()][];
+        for (int a = 0; a < bitmaps.length; a++) {
+            bitmaps[a] = db.bitmap(a);
+        }
+    }
+
+    /**
+     * Mine the subqueries of a query
+     * @param q The query
+     * @param cardinality The minimum number of results of a non-empty query
+     * @return The lattice of the subqueries of q
+     */
+    public Lattice mine(Query q, int cardinality) {
+        return mine(Utilities.toBooleanQuery(q), Integer.SIZE, cardinality);
+    }
+
+    /**
+     * Mine the queries on all the attributes up to a size
+     * @param maxSize The maximum size of the queries
+     * @param cardinality The minimum number of results of a non-empty query
+     * @return The lattice of the queries of at most maxSize attributes
+     */
+    public Lattice mineAll(int maxSize, int cardinality) {
+        return mine(bitmaps.length == Integer.SIZE ? -1 : (1 << bitmaps.length) - 1, maxSize, cardinality);
+    }
+
+    /**
+     * Mine the subsets of a set of attributes
+     * @param universe The attributes, as a boolean query
+     * @param maxSize The maximum size of the queries
+     * @param cardinality The minimum number of results of a non-empty query
+     * @return The lattice of the subsets of the universe of at most maxSize
+     * attributes
+     */
+    public Lattice mine(int universe, int maxSize, int cardinality) {
+        List<Integer> minimalEmpty = new ArrayList<>();
+        List<Integer> maximalNonEmpty = new ArrayList<>();
+        Set<Integer> level = new HashSet<>(), nextLevel, notMaximal;
+        List<Integer> candidates;
+        boolean[] nonEmpty;
+        int candidate, size = 0;
+
+        if (tuples < cardinality) { //Even the empty query is empty
+            return new Lattice(universe, maxSize, cardinality, new int[]{0}, new int[0]);
+        }
+        level.add(0);
+        while (!level.isEmpty() && size < maxSize) {
+            //Extend each set with the attributes after its last one, so that
+            //each candidate is generated once
+            candidates = new ArrayList<>();
+            for (int set : level) {
+                for (int a = Integer.SIZE - Integer.numberOfLeadingZeros(set); a < bitmaps.length; a++) {
+                    candidate = set | (1 << a);
+                    if ((universe & (1 << a)) != 0 && allSubsetsNonEmpty(candidate, level)) {
+                        candidates.add(candidate);
+                    }
+                }
+            }
+            nonEmpty = count(candidates, cardinality);
+            nextLevel = new HashSet<>();
+            notMaximal = new HashSet<>();
+            for (int i = 0; i < nonEmpty.length; i++) {
+                candidate = candidates.get(i);
+                if (nonEmpty[i]) {
+                    nextLevel.add(candidate);
+                    for (int rest = candidate; rest != 0; rest &= rest - 1) {
+                        notMaximal.add(candidate & ~Integer.lowestOneBit(rest));
+                    }
+                } else {
+                    minimalEmpty.add(candidate);
+                }
+            }
+            for (int set : level) {
+                if (!notMaximal.contains(set)) {
+                    maximalNonEmpty.add(set);
+                }
+            }
+            level = nextLevel;
+            size++;
+        }
+        //Sets of the last level are maximal within the size limit
+        maximalNonEmpty.addAll(level);
+        return new Lattice(universe, maxSize, cardinality, toSortedArray(minimalEmpty), toSortedArray(maximalNonEmpty));
+    }
+
+    private static boolean allSubsetsNonEmpty(int candidate, Set<Integer> level) {
+        for (int rest = candidate; rest != 0; rest &= rest - 1) {
+            if (!level.contains(candidate & ~Integer.lowestOneBit(rest))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Check which candidates have at least cardinality results
+     */
+    private boolean[] count(final List<Integer> candidates, final int cardinality) {
+        final boolean[] nonEmpty = new boolean[candidates.size()];
+        List<Future<?>> slices = new ArrayList<>();
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+
+        if (candidates.size() < PARALLEL_THRESHOLD || parallelism <= 1) {
+            for (int i = 0; i < nonEmpty.length; i++) {
+                nonEmpty[i] = hasResults(candidates.get(i), cardinality);
+            }
+            return nonEmpty;
+        }
+        for (int s = 0; s < parallelism; s++) {
+            final int from = s * nonEmpty.length / parallelism, to = (s + 1) * nonEmpty.length / parallelism;
+            slices.add(ForkJoinPool.commonPool().submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = from; i < to; i++) {
+                        nonEmpty[i] = hasResults(candidates.get(i), cardinality);
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<?> slice : slices) {
+                slice.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Mining interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Cannot count the candidates", ex.getCause());
+        }
+        return nonEmpty;
+    }
+
+    /**
+     * Count the tuples having all the attributes of the query, stopping as
+     * soon as the cardinality is reached
+     * @param query The boolean query, not empty
+     * @param cardinality The number of results to reach
+     * @return True if the query has at least cardinality results
+     */
+    public boolean hasResults(int query, int cardinality) {
+        int[] attributes = new int[Integer.bitCount(query)];
+        int count = 0, i = 0;
+        long word;
+
+        if (cardinality <= 0) {
+            return true;
+        }
+        if (query == 0) {
+            return tuples >= cardinality;
+        }
+        for (int rest = query; rest != 0; rest &= rest - 1) {
+            attributes[i++] = Integer.numberOfTrailingZeros(rest);
+            if (attributes[i - 1] >= bitmaps.length) {
+                return false;
+            }
+        }
+        for (int w = 0; w < (tuples + 63) >>> 6; w++) {
+            word = -1L;
+            for (i = 0; i < attributes.length && word != 0; i++) {
+                word &= bitmaps[attributes[i]][w];
+            }
+            if (word != 0) {
+                count += Long.bitCount(word);
+                if (count >= cardinality) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int[] toSortedArray(List<Integer> sets) {
+        int[] array = new int[sets.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = sets.get(i);
+        }
+        Arrays.sort(array);
+        return array;
+    }
+
+    /**
+     * The minimal empty and maximal non-empty subsets of a universe of
+     * attributes, up to a size
+     */
+    public static final class Lattice {
+        private final int universe;
+        private final int maxSize;
+        private final int cardinality;
+        private final int[] minimalEmpty;
+        private final int[] maximalNonEmpty;
+
+        private Lattice(int universe, int maxSize, int cardinality, int[] minimalEmpty, int[] maximalNonEmpty) {
+            this.universe = universe;
+            this.maxSize = maxSize;
+            this.cardinality = cardinality;
+            this.minimalEmpty = minimalEmpty;
+            this.maximalNonEmpty = maximalNonEmpty;
+        }
+
+        /**
+         * @param query A boolean query
+         * @return True if the emptiness of the query is known from the lattice
+         */
+        public boolean covers(int query) {
+            return (query & ~universe) == 0 && Integer.bitCount(query) <= maxSize;
+        }
+
+        /**
+         * A covered query is empty if and only if it contains a minimal empty
+         * subquery
+         * @param query A boolean query covered by the lattice
+         * @return True if the query has less results than the cardinality
+         */
+        public boolean isEmpty(int query) {
+            for (int set : minimalEmpty) {
+                if ((query & set) == set) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Relaxing a constraint can give results only if the constraint is in
+         * all the minimal empty subqueries of the query
+         * @param query An empty boolean query covered by the lattice
+         * @return The attributes whose relaxation can give results, as a
+         * boolean query
+         */
+        public int usefulRelaxations(int query) {
+            int useful = query;
+            for (int set : minimalEmpty) {
+                if ((query & set) == set) {
+                    useful &= set;
+                }
+            }
+            return useful;
+        }
+
+        /**
+         * Draw distinct empty queries of a size, each one is a minimal empty
+         * subquery extended with random attributes of the universe. No
+         * database access is needed since supersets of empty queries are empty.
+         * @param size The size of the queries
+         * @param count The maximum number of queries
+         * @param random The random generator
+         * @return The empty queries, at most count
+         */
+        public List<Query> emptyQueries(int size, int count, Random random) {
+            List<Integer> seeds = new ArrayList<>();
+            List<Query> queries = new ArrayList<>();
+            Set<Integer> seen = new HashSet<>();
+            int query, attribute;
+
+            for (int set : minimalEmpty) {
+                if (Integer.bitCount(set) <= size) {
+                    seeds.add(set);
+                }
+            }
+            for (int attempt = 0; !seeds.isEmpty() && queries.size() < count && attempt < count * 100; attempt++) {
+                query = seeds.get(random.nextInt(seeds.size()));
+                while (Integer.bitCount(query) < size && Integer.bitCount(universe & ~query) > 0) {
+                    attribute = random.nextInt(Integer.SIZE);
+                    if ((universe & (1 << attribute)) != 0) {
+                        query |= 1 << attribute;
+                    }
+                }
+                if (Integer.bitCount(query) == size && seen.add(query)) {
+                    queries.add(toQuery(query));
+                }
+            }
+            return queries;
+        }
+
+        /**
+         * @param query A boolean query
+         * @return The query with a constraint per attribute, by attribute index
+         */
+        public static Query toQuery(int query) {
+            Query q = new Query();
+            for (int rest = query; rest != 0; rest &= rest - 1) {
+                q.addConstraint(new Constraint(String.valueOf(Integer.numberOfTrailingZeros(rest)), true));
+            }
+            return q;
+        }
+
+        public int[] getMinimalEmpty() {
+            return minimalEmpty.clone();
+        }
+
+        public int[] getMaximalNonEmpty() {
+            return maximalNonEmpty.clone();
+        }
+
+        public int getCardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Lattice[universe=%s, minimal empty=%d, maximal non-empty=%d]",
+                    Integer.toBinaryString(universe), minimalEmpty.length, maximalNonEmpty.length);
+        }
+    }
+}
@@ -21,11 +21,10 @@
 package it.unitn.disi.db.queryrelaxation.statistics;
 
 import it.unitn.disi.db.queryrelaxation.model.Constraint;
-import it.unitn.disi.db.queryrelaxation.model.Pair;
-import it.unitn.disi.db.queryrelaxation.model.PairFirstComparator;
 import it.unitn.disi.db.queryrelaxation.model.PreferenceFunction;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 import it.unitn.disi.db.queryrelaxation.model.data.BooleanMockConnector;
+import it.unitn.disi.db.queryrelaxation.model.data.DatasetRegistry;
 import it.unitn.disi.db.queryrelaxation.model.functions.IdfFunction;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -34,8 +33,6 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -69,7 +66,7 @@ public class RealtorConQueRTranslator {
         Query q; 
         List<Constraint> constraints;
         int[] tuples;
-        List<Pair<Integer,Double>> orderedTuples; 
+        int[] topTuples; 
         //String basePath = new File(queryFile).getParent();
         Map<Integer,Integer> attMap;
         int type, index;
@@ -79,7 +76,7 @@ public class RealtorConQueRTranslator {
         PreferenceFunction pref;
         int count = 0; 
         String table = isInt? "houseint" : "house";
-        Pair<Integer, Double> tuple; 
+        int tuple; 
         
         //ueries = new ArrayList<String>();
         //mapping = new ArrayList<String>();
@@ -103,27 +100,14 @@ public class RealtorConQueRTranslator {
                     query = "";
                     splittedLine = line.split("\t");
                     q = EmptyQueryGeneration.stringToQuery(splittedLine[2]);
-                    db = new BooleanMockConnector(splittedLine[0]);
-                    db.connect();
-                    pref = new IdfFunction(db);
-                    
-                    //Get the whole database
-                    tuples = db.submitQuery(new Query());
-                    orderedTuples = new ArrayList<>();
-                    for (int t : tuples) {
-                        orderedTuples.add(new Pair<>(t, pref.compute(q, t)));
-                    }
-                    Collections.sort(orderedTuples, new Comparator<Pair<Integer, Double>>() {
+                    try (DatasetRegistry.Handle<BooleanMockConnector> dbHandle = DatasetRegistry.getInstance().database(splittedLine[0])) {
+                        db = dbHandle.get();
+                        pref = new IdfFunction(db);
 
-                        @Override
-                        public int compare(Pair<Integer, Double> o1, Pair<Integer, Double> o2) {
-                            if (o1.getSecond() == o2.getSecond())
-                                return 0; 
-                            else if (o1.getSecond() > o2.getSecond())
-                                return -1; 
-                            return 1; 
-                        }
-                    });
+                        //Get the whole database
+                        tuples = db.submitQuery(new Query());
+                        topTuples = pref.compile(q).topK(tuples, nTuples);
+                    }
                     
                     
                     indeces = splittedLine[0].substring(splittedLine[0].lastIndexOf("att_") + 4,splittedLine[0].lastIndexOf(".")).split("_");
@@ -163,19 +147,19 @@ public class RealtorConQueRTranslator {
                     sb.append(" ;\n\n");
                     
                     sb.append("_WN\n");
-                    sb.append("N|").append(nTuples).append("|");
+                    sb.append("N|").append(topTuples.length).append("|");
                     //Tuple t; 
-                    for (int i = 0; i < nTuples; i++) {
-                        tuple = orderedTuples.get(i);
+                    for (int i = 0; i < topTuples.length; i++) {
+                        tuple = tuples[topTuples[i]];
                         constraints = q.getConstraints();
                         for (int j = 0; j < constraints.size(); j++) {
                             c = constraints.get(j);
-                            sb.append((tuple.getFirst() & (1 << Integer.parseInt(c.getAttributeName()))) > 0 ? "1" : "0");
+                            sb.append((tuple & (1 << Integer.parseInt(c.getAttributeName()))) > 0 ? "1" : "0");
                             if (j < constraints.size() - 1) {
                                 sb.append("_");
                             }
                         }
-                        sb.append(i < nTuples - 1? "|" : "");  
+                        sb.append(i < topTuples.length - 1? "|" : "");  
                     }
                     writer = new BufferedWriter (new FileWriter(outputDir + File.separator + (isInt? "rqi" : "rq") + count + ".sql"));
                     writer.append(sb);
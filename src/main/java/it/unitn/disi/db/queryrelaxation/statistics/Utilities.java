@@ -116,6 +116,56 @@ public class Utilities {
         return query;
     }
 
+    /**
+     * Return the positions of the input values in sorted order, the sort is 
+     * stable (equal values keep their relative order) and does not box values.
+     * @param values The values to be sorted, they are not modified
+     * @param descending True to sort from the highest to the lowest value
+     * @return The positions of the values in sorted order
+     */
+    public static int[] sortByValue(double[] values, boolean descending) {
+        int n = values.length;
+        int[] order = new int[n], buffer = new int[n], tmp;
+        int i, j, k, mid, end;
+        for (i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        //Bottom-up merge sort
+        for (int width = 1; width < n; width *= 2) {
+            for (int start = 0; start < n; start += 2 * width) {
+                mid = Math.min(start + width, n);
+                end = Math.min(start + 2 * width, n);
+                i = start;
+                j = mid;
+                k = start;
+                while (i < mid && j < end) {
+                    if (precedes(values[order[j]], values[order[i]], descending)) {
+                        buffer[k++] = order[j++];
+                    } else {
+                        buffer[k++] = order[i++];
+                    }
+                }
+                while (i < mid) {
+                    buffer[k++] = order[i++];
+                }
+                while (j < end) {
+                    buffer[k++] = order[j++];
+                }
+            }
+            tmp = order;
+            order = buffer;
+            buffer = tmp;
+        }
+        return order;
+    }
+
+    /*
+     * True if value a must come strictly before value b
+     */
+    private static boolean precedes(double a, double b, boolean descending) {
+        return descending ? Double.compare(a, b) > 0 : Double.compare(a, b) < 0;
+    }
+
     public static String matrixToString(double[][] matrix) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < matrix.length; i++) {
@@ -0,0 +1,350 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import java.util.Arrays;
+
+/**
+ * Histograms whose limits are placed by probability mass (equi-depth): each 
+ * bucket holds about 1/B of the mass, so that no bucket is wasted on costs 
+ * that never occur and the tails of the distributions are kept with few 
+ * buckets. The mass of a bucket is uniform between its limits, and a bucket 
+ * whose limits are equal is a point mass (e.g. the histogram of a constant).
+ * <p>
+ * The operations consider the histograms as independent variables. The result
+ * is first computed on the pairs of non-empty buckets, or on the union of the
+ * limits for min and max, and then compressed back to B equi-depth buckets.
+ * Empty buckets are skipped, so that sparse histograms are cheap.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class AdaptiveHistograms extends Histograms {
+    /*
+     * Pieces of the distribution to compress, the mass of each piece is 
+     * uniform on [lows, highs] 
+     */
+    private double[] lows;
+    private double[] highs;
+    private double[] masses;
+    private int pieces;
+    /*
+     * Scratch buffers of compress, indexed by breakpoint
+     */
+    private double[] points;
+    private double[] jumps;
+    private double[] densities;
+    private double[] lefts;
+    private double[] rights;
+    private double[] limits;
+
+    public AdaptiveHistograms(int buckets) {
+        super(buckets);
+        lows = new double[buckets * buckets];
+        highs = new double[buckets * buckets];
+        masses = new double[buckets * buckets];
+        points = new double[2 * buckets * buckets];
+        jumps = new double[2 * buckets * buckets];
+        densities = new double[2 * buckets * buckets];
+        lefts = new double[2 * buckets * buckets];
+        rights = new double[2 * buckets * buckets];
+        limits = new double[2 * buckets + 2];
+    }
+
+    @Override
+    public Type getType() {
+        return Type.ADAPTIVE;
+    }
+
+    /**
+     * The histogram of a constant: all the limits are equal to the value, so 
+     * that the first bucket is a point mass
+     */
+    @Override
+    protected double[][] constantHistogram(double value) {
+        double[][] h = new double[2][buckets + 1];
+        Arrays.fill(h[0], value);
+        h[1][0] = 1;
+        h[1][buckets] = -1;
+        return h;
+    }
+
+    /**
+     * The sum of two distributions: the mass of each pair of buckets is spread
+     * on the sum of their ranges
+     * @param h1 The first histogram
+     * @param h2 The second histogram
+     * @return A new histogram
+     */
+    @Override
+    public double[][] sum(double[][] h1, double[][] h2) {
+        pieces = 0;
+        for (int i = 0; i < buckets; i++) {
+            if (h1[1][i] == 0) {
+                continue;
+            }
+            for (int j = 0; j < buckets; j++) {
+                if (h2[1][j] != 0) {
+                    add(h1[0][i] + h2[0][j], h1[0][i + 1] + h2[0][j + 1], h1[1][i] * h2[1][j]);
+                }
+            }
+        }
+        return compress();
+    }
+
+    /**
+     * The product of two distributions: the mass of each pair of buckets is
+     * spread between the smallest and the largest product of their limits
+     * @param h1 The first histogram
+     * @param h2 The second histogram
+     * @return A new histogram
+     */
+    @Override
+    public double[][] product(double[][] h1, double[][] h2) {
+        double a, b, c, d;
+        pieces = 0;
+        for (int i = 0; i < buckets; i++) {
+            if (h1[1][i] == 0) {
+                continue;
+            }
+            for (int j = 0; j < buckets; j++) {
+                if (h2[1][j] != 0) {
+                    a = h1[0][i] * h2[0][j];
+                    b = h1[0][i] * h2[0][j + 1];
+                    c = h1[0][i + 1] * h2[0][j];
+                    d = h1[0][i + 1] * h2[0][j + 1];
+                    add(Math.min(Math.min(a, b), Math.min(c, d)), 
+                            Math.max(Math.max(a, b), Math.max(c, d)), h1[1][i] * h2[1][j]);
+                }
+            }
+        }
+        return compress();
+    }
+
+    @Override
+    public double[][] min(double[][] h1, double[][] h2) {
+        return extreme(h1, h2, true);
+    }
+
+    @Override
+    public double[][] max(double[][] h1, double[][] h2) {
+        return extreme(h1, h2, false);
+    }
+
+    /**
+     * Probability that a value of the first histogram is smaller than a value
+     * of the second, or equal if orEqual. The suffix sums are not used.
+     * @param h1 The first histogram
+     * @param h2 The second histogram
+     * @param suffix2 Ignored, can be null
+     * @param orEqual True if equal values count
+     * @return The probability p(h1 &lt; h2)
+     */
+    @Override
+    public double less(double[][] h1, double[][] h2, double[] suffix2, boolean orEqual) {
+        double p = 0, a, b;
+        for (int i = 0; i < buckets; i++) {
+            if (h1[1][i] == 0) {
+                continue;
+            }
+            a = h1[0][i];
+            b = h1[0][i + 1];
+            if (a == b) {
+                p += h1[1][i] * (1 - cdf(h2, a, orEqual));
+            } else {
+                p += h1[1][i] * (1 - average(h2, a, b));
+            }
+        }
+        return p;
+    }
+
+    /*
+     * Distribution of the minimum (or maximum) from the cdf on the limits of
+     * both histograms: F = 1 - (1 - F1)(1 - F2) for the minimum, F = F1 F2 
+     * for the maximum. Each limit gives its jump and the interval before it. 
+     */
+    private double[][] extreme(double[][] h1, double[][] h2, boolean min) {
+        int n = 2 * buckets + 2;
+        double left, right, previous = 0;
+        System.arraycopy(h1[0], 0, limits, 0, buckets + 1);
+        System.arraycopy(h2[0], 0, limits, buckets + 1, buckets + 1);
+        Arrays.sort(limits, 0, n);
+        pieces = 0;
+        for (int j = 0; j < n; j++) {
+            if (j > 0 && limits[j] == limits[j - 1]) {
+                continue;
+            }
+            left = combine(cdf(h1, limits[j], true), cdf(h2, limits[j], true), min);
+            right = combine(cdf(h1, limits[j], false), cdf(h2, limits[j], false), min);
+            if (j > 0) {
+                add(limits[j - 1], limits[j], left - previous);
+            }
+            add(limits[j], limits[j], right - left);
+            previous = right;
+        }
+        return compress();
+    }
+
+    private static double combine(double f1, double f2, boolean min) {
+        return min ? f1 + f2 - f1 * f2 : f1 * f2;
+    }
+
+    /*
+     * p(X <= t), or p(X < t) if strict
+     */
+    private double cdf(double[][] h, double t, boolean strict) {
+        double f = 0, a, b;
+        for (int i = 0; i < buckets; i++) {
+            a = h[0][i];
+            b = h[0][i + 1];
+            if (h[1][i] == 0 || t < a) {
+                continue;
+            }
+            if (a == b) {
+                if (t > a || !strict) {
+                    f += h[1][i];
+                }
+            } else if (t >= b) {
+                f += h[1][i];
+            } else if (t > a) {
+                f += h[1][i] * (t - a) / (b - a);
+            }
+        }
+        return f;
+    }
+
+    /*
+     * Mean of the cdf of h in [a, b], the cdf is linear between two limits
+     */
+    private double average(double[][] h, double a, double b) {
+        double area = 0, x = a;
+        for (int k = 0; k <= buckets; k++) {
+            if (h[0][k] > x && h[0][k] < b) {
+                area += (h[0][k] - x) * (cdf(h, x, false) + cdf(h, h[0][k], true)) / 2;
+                x = h[0][k];
+            }
+        }
+        area += (b - x) * (cdf(h, x, false) + cdf(h, b, true)) / 2;
+        return area / (b - a);
+    }
+
+    private void add(double low, double high, double mass) {
+        if (mass <= 0) {
+            return;
+        }
+        if (pieces == masses.length) {
+            lows = Arrays.copyOf(lows, 2 * pieces);
+            highs = Arrays.copyOf(highs, 2 * pieces);
+            masses = Arrays.copyOf(masses, 2 * pieces);
+        }
+        lows[pieces] = low;
+        highs[pieces] = high;
+        masses[pieces++] = mass;
+    }
+
+    /*
+     * Compress the pieces to B buckets with the same mass: the limits are the
+     * quantiles of the cdf of the pieces, and each piece gives its mass to the
+     * buckets it overlaps. A point mass goes to the empty-width bucket at its
+     * value, if any.
+     */
+    private double[][] compress() {
+        double[][] h;
+        double f = 0, density = 0, target, d;
+        int n = 0, j, k;
+        if (pieces == 0) {
+            return acquire(0, 0);
+        }
+        if (points.length < 2 * pieces) {
+            points = new double[2 * pieces];
+            jumps = new double[2 * pieces];
+            densities = new double[2 * pieces];
+            lefts = new double[2 * pieces];
+            rights = new double[2 * pieces];
+        }
+        System.arraycopy(lows, 0, points, 0, pieces);
+        System.arraycopy(highs, 0, points, pieces, pieces);
+        Arrays.sort(points, 0, 2 * pieces);
+        for (int i = 0; i < 2 * pieces; i++) {
+            if (i == 0 || points[i] != points[n - 1]) {
+                points[n] = points[i];
+                jumps[n] = 0;
+                densities[n++] = 0;
+            }
+        }
+        //Jumps at the points, changes of density where the intervals start and end
+        for (int i = 0; i < pieces; i++) {
+            j = Arrays.binarySearch(points, 0, n, lows[i]);
+            if (lows[i] == highs[i]) {
+                jumps[j] += masses[i];
+            } else {
+                d = masses[i] / (highs[i] - lows[i]);
+                densities[j] += d;
+                densities[Arrays.binarySearch(points, 0, n, highs[i])] -= d;
+            }
+        }
+        for (j = 0; j < n; j++) {
+            if (j > 0) {
+                f += density * (points[j] - points[j - 1]);
+            }
+            lefts[j] = f;
+            f += jumps[j];
+            rights[j] = f;
+            density += densities[j];
+            densities[j] = density;
+        }
+        h = acquire(points[0], points[n - 1]);
+        j = 0;
+        for (k = 1; k < buckets; k++) {
+            target = f * k / buckets;
+            while (j < n && rights[j] < target) {
+                j++;
+            }
+            if (j == n) {
+                h[0][k] = points[n - 1];
+            } else if (j > 0 && lefts[j] >= target && densities[j - 1] > 0) {
+                h[0][k] = Math.min(points[j], points[j - 1] + (target - rights[j - 1]) / densities[j - 1]);
+            } else {
+                h[0][k] = points[j];
+            }
+        }
+        for (int i = 0; i < pieces; i++) {
+            k = 0;
+            if (lows[i] == highs[i]) {
+                while (k < buckets - 1 && h[0][k + 1] < lows[i]) {
+                    k++;
+                }
+                if (h[0][k] < lows[i] && k < buckets - 1 && h[0][k + 2] == lows[i]) {
+                    k++;
+                }
+                h[1][k] += masses[i];
+            } else {
+                d = masses[i] / (highs[i] - lows[i]);
+                while (k < buckets - 1 && h[0][k + 1] <= lows[i]) {
+                    k++;
+                }
+                for (; k < buckets && h[0][k] < highs[i]; k++) {
+                    h[1][k] += d * Math.max(0, Math.min(highs[i], h[0][k + 1]) - Math.max(lows[i], h[0][k]));
+                }
+            }
+        }
+        return h;
+    }
+}
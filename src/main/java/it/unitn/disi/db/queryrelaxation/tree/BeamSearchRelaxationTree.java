@@ -0,0 +1,373 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
+import it.unitn.disi.db.queryrelaxation.metrics.Metrics;
+import it.unitn.disi.db.queryrelaxation.model.Constraint;
+import it.unitn.disi.db.queryrelaxation.model.LeaveOneOut;
+import it.unitn.disi.db.queryrelaxation.model.Pair;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A relaxation tree for large queries: each relaxation node keeps only the 
+ * best <code>width</code> choice nodes, ranked by a cheap score, and the 
+ * expansion stops after <code>depth</code> questions. The size of the tree is
+ * bounded by (2 width)^depth, instead of growing with the factorial of the
+ * number of constraints.
+ * <p>
+ * The nodes that are not expanded, truncated at the maximum depth or whose 
+ * choices are discarded, are estimated with bounds on their cost. The cost of
+ * the root is computed with the pessimistic bounds, so that it can be 
+ * achieved; computed with the optimistic bounds it is a bound on the cost of 
+ * the optimal tree, and the difference is reported as the cost gap.
+ *
+ * @see OptimalRelaxationTree
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class BeamSearchRelaxationTree extends OptimalRelaxationTree {
+    public static final int DEFAULT_WIDTH = 3;
+
+    /**
+     * The score that ranks the choice nodes of a relaxation node, the highest 
+     * first. All the scores need at most one probe for all the choices.
+     */
+    public enum Ranking {
+        /* Number of results of the relaxed query */
+        SELECTIVITY,
+        /* Probability that the user accepts the relaxation */
+        PREFERENCE,
+        /* Cost of the relaxed query if it were a leaf */
+        BOUNDS
+    }
+    /*
+     * Maximum number of choice nodes of a relaxation node
+     */
+    private int width;
+    /*
+     * Maximum number of questions in a path of the tree
+     */
+    private int depth;
+    private Ranking ranking = Ranking.BOUNDS;
+    /*
+     * Bounds (lower, upper) on the cost of the nodes truncated at the maximum
+     * depth, and of the relaxation nodes having discarded choices
+     */
+    private Map<Node, Pair<Double, Double>> truncated;
+    private Map<Node, Pair<Double, Double>> discarded;
+    /*
+     * Results of the relaxations of the nodes whose choices are not built yet
+     */
+    private Map<Node, LeaveOneOut> ranked;
+    private boolean optimistic;
+    private double optimisticCost;
+
+    public BeamSearchRelaxationTree(Query query, int cardinality, TreeType type, int width, int depth) {
+        super(query, cardinality, type);
+        this.width = width;
+        this.depth = depth;
+        optimisticCost = Double.NaN;
+    }
+
+    @Override
+    public void materialize(boolean computeCosts) throws TreeException {
+        if (width < 1 || depth < 1) {
+            throw new TreeException("width and depth cannot be < 1");
+        }
+        super.materialize(computeCosts);
+    }
+
+    @Override
+    protected void buildIteratively() throws TreeException {
+        LinkedList<Node> queue = new LinkedList<>();
+        List<ChoiceNode> candidates = new ArrayList<>();
+        ChoiceNode cn;
+        Node n;
+        truncated = new HashMap<>();
+        discarded = new HashMap<>();
+        ranked = new HashMap<>();
+        queue.add(root);
+        nodes = 1;
+        relaxationNodes = 1;
+        try {
+            if (!db.isConnected()) {
+                db.connect();
+            }
+            while (!queue.isEmpty()) {
+                n = queue.poll();
+                //No further relaxations or only hard constraints. 
+                if (!n.getQuery().getConstraints().isEmpty() && !n.getQuery().allHardConstraints()) {
+                    if (n instanceof RelaxationNode) {
+                        if (((RelaxationNode) n).isEmpty()) {
+                            if (depth(n) >= depth) {
+                                truncated.put(n, bounds((RelaxationNode) n, type));
+                                continue;
+                            }
+                            metrics.increment(Metrics.NODES_EXPANDED);
+                            candidates.clear();
+                            for (Constraint c : n.getQuery().getConstraints()) {
+                                if (!c.isHard()) {
+                                    cn = new ChoiceNode();
+                                    cn.setFather(n);
+                                    cn.setConstraint(c);
+                                    cn.setQuery((Query) n.getQuery().clone());
+                                    candidates.add(cn);
+                                }
+                            }
+                            for (ChoiceNode best : beam((RelaxationNode) n, candidates)) {
+                                ((RelaxationNode) n).addNode(best.getConstraint().getAttributeName(), best);
+                                queue.add(best);
+                                nodes++;
+                            }
+                            if (candidates.size() > width) {
+                                discarded.put(n, bounds((RelaxationNode) n, type));
+                            }
+                        }
+                    } else if (n instanceof ChoiceNode) {
+                        metrics.increment(Metrics.NODES_EXPANDED);
+                        constructAnswers((ChoiceNode) n, queue);
+                    }
+                } //END IF NOT EMPTY QUERY
+            }
+        } catch (Exception ex) {
+            throw new TreeException("Wrong way to build the model, please check", ex);
+        } finally {
+            ranked.clear();
+        }
+    }
+
+    /*
+     * The best width candidates, in the order of the constraints
+     */
+    private List<ChoiceNode> beam(RelaxationNode n, List<ChoiceNode> candidates) throws ConnectionException {
+        List<ChoiceNode> best = new ArrayList<>();
+        double[] scores;
+        boolean[] kept;
+        int top;
+        if (candidates.size() <= width) {
+            best.addAll(candidates);
+            return best;
+        }
+        scores = new double[candidates.size()];
+        kept = new boolean[candidates.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = score(n, candidates.get(i));
+        }
+        for (int j = 0; j < width; j++) {
+            top = -1;
+            for (int i = 0; i < scores.length; i++) {
+                if (!kept[i] && (top == -1 || scores[i] > scores[top])) {
+                    top = i;
+                }
+            }
+            kept[top] = true;
+        }
+        for (int i = 0; i < scores.length; i++) {
+            if (kept[i]) {
+                best.add(candidates.get(i));
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Score of a choice node, the results of the relaxations are computed 
+     * once for all the choices and reused to build the kept ones
+     */
+    private double score(RelaxationNode n, ChoiceNode cn) throws ConnectionException {
+        LeaveOneOut results;
+        Query q;
+        int i;
+        if (ranking == Ranking.PREFERENCE) {
+            q = (Query) cn.getQuery().clone();
+            q.relax(cn.getConstraint());
+            return computeYesProbability(q, n);
+        }
+        results = ranked.get(n);
+        if (results == null) {
+            results = db.leaveOneOut(n.getQuery());
+            ranked.put(n, results);
+        }
+        i = results.indexOf(cn.getConstraint());
+        if (ranking == Ranking.SELECTIVITY) {
+            return results.count(i);
+        }
+        switch (type) {
+            case MIN_EFFORT:
+                //A non empty relaxation ends the interaction
+                return results.count(i) >= cardinality ? 0 : -c;
+            case MAX_VALUE_AVG:
+                return results.count(i) == 0 ? 0 : results.sum(i) / results.count(i);
+            case MAX_VALUE_MAX:
+                return results.count(i) == 0 ? 0 : results.max(i);
+            case PREFERRED:
+                return results.count(i) == 0 ? 0 : getPrefKernel().max(results.resultSet(i).getFirst());
+            default:
+                throw new AssertionError("Wrong type");
+        }
+    }
+
+    /*
+     * Bounds on the cost of a relaxation node that is not expanded: each 
+     * question removes a soft constraint, and the relaxations cannot do 
+     * better than the query with the hard constraints only
+     */
+    private Pair<Double, Double> bounds(RelaxationNode n, TreeType objective) throws ConnectionException {
+        List<Constraint> hard = n.getQuery().getHardConstraints();
+        Query hq = new Query(hard);
+        double step = penalty(objective);
+        switch (objective) {
+            case MIN_EFFORT:
+                return new Pair<>(step, step * (n.getQuery().getConstraints().size() - hard.size()));
+            case MAX_VALUE_AVG:
+            case MAX_VALUE_MAX:
+                return new Pair<>(0.0, hard.isEmpty() ? db.getMaxBenefit() : db.getMaxBenefit(hq));
+            case PREFERRED:
+                return new Pair<>(0.0, getPrefKernel().max(db.submitQuery(hq)));
+            default:
+                throw new AssertionError("Wrong type");
+        }
+    }
+
+    /*
+     * Number of questions from the root to the node
+     */
+    private static int depth(Node n) {
+        int d = 0;
+        for (Node f = n.father; f != null; f = f.father) {
+            if (f instanceof ChoiceNode) {
+                d++;
+            }
+        }
+        return d;
+    }
+
+    @Override
+    protected LeaveOneOut siblingResults(ChoiceNode n) throws ConnectionException {
+        LeaveOneOut results = ranked.get(n.father);
+        return results != null ? results : super.siblingResults(n);
+    }
+
+    @Override
+    protected void constructAnswers(ChoiceNode n, LinkedList<Node> queue) throws ConnectionException {
+        List<Node> siblings = n.father.getChildren();
+        super.constructAnswers(n, queue);
+        //The results are not needed after the last choice
+        if (siblings.get(siblings.size() - 1) == n) {
+            ranked.remove(n.father);
+        }
+    }
+
+    /**
+     * Compute the costs with the optimistic bounds of the nodes not expanded 
+     * and then with the pessimistic ones, that are kept in the nodes
+     * @throws TreeException If it is not possible to compute the cost
+     */
+    @Override
+    public void computeCosts() throws TreeException {
+        optimistic = true;
+        super.computeCosts();
+        optimisticCost = root.getCost();
+        optimistic = false;
+        super.computeCosts();
+    }
+
+    @Override
+    protected void computeLeafCost(RelaxationNode n) throws ConnectionException {
+        Pair<Double, Double> b = truncated.get(n);
+        if (b == null) {
+            super.computeLeafCost(n);
+        } else {
+            n.setCost(optimistic != type.isMaximize() ? b.getFirst() : b.getSecond());
+        }
+    }
+
+    /**
+     * The bounds of a node truncated at the maximum depth, for any cost 
+     * function
+     */
+    @Override
+    protected Pair<Double, Double> leafBounds(RelaxationNode n, TreeType objective) throws ConnectionException {
+        Pair<Double, Double> b = truncated.get(n);
+        if (b == null || objective == type) {
+            return b;
+        }
+        return bounds(n, objective);
+    }
+
+    @Override
+    public void updateCost(Node n) throws TreeException {
+        Pair<Double, Double> b;
+        super.updateCost(n);
+        //A discarded choice costs at least c or gives at most the upper bound
+        if (optimistic && (b = discarded.get(n)) != null) {
+            n.setCost(type.isMaximize() ? Math.max(n.getCost(), b.getSecond()) : Math.min(n.getCost(), b.getFirst()));
+        }
+    }
+
+    /**
+     * The cost of the root computed with the optimistic bounds of the nodes 
+     * not expanded, it bounds the cost of the optimal tree
+     * @return The optimistic cost, NaN if the costs are not computed
+     */
+    public double getOptimisticCost() {
+        return optimisticCost;
+    }
+
+    /**
+     * The difference between the cost of the root and the optimistic one, 
+     * zero if the beam does not discard any choice
+     * @return The gap, NaN if the costs are not computed
+     */
+    public double getCostGap() {
+        return Math.abs(root.getCost() - optimisticCost);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public Ranking getRanking() {
+        return ranking;
+    }
+
+    public void setRanking(Ranking ranking) {
+        this.ranking = ranking;
+    }
+}
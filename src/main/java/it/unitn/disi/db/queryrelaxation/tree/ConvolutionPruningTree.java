@@ -19,6 +19,7 @@
  */
 package it.unitn.disi.db.queryrelaxation.tree;
 
+import it.unitn.disi.db.queryrelaxation.metrics.Metrics;
 import it.unitn.disi.db.queryrelaxation.model.Constraint;
 import it.unitn.disi.db.queryrelaxation.model.Pair;
 import it.unitn.disi.db.queryrelaxation.model.Query;
@@ -37,6 +38,10 @@ import java.util.Set;
  * @author Davide Mottin, Alice Marascu
  */
 public class ConvolutionPruningTree extends ConvolutionTree {
+    /*
+     * True if the last expansion updated the bounds and pruned the tree
+     */
+    protected boolean updated;
 
     public ConvolutionPruningTree(Query query, int level) {
         this(query, level, 3, 1, DEFAULT_TYPE);
@@ -59,6 +64,7 @@ public class ConvolutionPruningTree extends ConvolutionTree {
         Node n;
 //        bounds.put(currentRoot, new Pair<>(1.0, query.size()));
         queue.add(getCurrentRoot());
+        updated = false;
 
         try {
             if (!db.isConnected()) {
@@ -83,6 +89,7 @@ public class ConvolutionPruningTree extends ConvolutionTree {
                 n = queue.poll();
                 if (!n.getQuery().getConstraints().isEmpty() && !n.getQuery().allHardConstraints()) {
                     if (!marked.contains(n)) { //Do not expand further
+                        metrics.increment(Metrics.NODES_EXPANDED);
                         if (n instanceof RelaxationNode) {
                             if (((RelaxationNode) n).isEmpty()) {
                                 for (Constraint c : n.getQuery().getConstraints()) {
@@ -157,8 +164,8 @@ public class ConvolutionPruningTree extends ConvolutionTree {
                                             node.setBuckets(bucketize((double) 1 / noOfBuckets, 1, query.size() - actualLevel, 1));
                                     }
                                 }
-                                update(queue);
-                                prune(queue);
+                                updateAndPrune(queue);
+                                updated = true;
                                 if (verbose) {
                                     System.out.println(toString());
                                 }
@@ -169,6 +176,8 @@ public class ConvolutionPruningTree extends ConvolutionTree {
 
                 } //END IF NOT EMPTY QUERY
             }
+            //What is left is the next level, unless the subtree ended
+            frontier = actualLevel > currentLevel ? queue : null;
             //System.out.println("A: L=" + actualLevel); //A:
         } catch (Exception ex) {
             throw new TreeException("Wrong way to build the model, please check", ex);
@@ -176,35 +185,19 @@ public class ConvolutionPruningTree extends ConvolutionTree {
     }    
     
     
-    /**
-     * Print the paths starting from the input node and saving them into a string
-     * used as an accumulator. 
-     * @param n The starting node
-     * @param acc The string to save the paths
-     * @param optimal True if we need only optimal paths, false otherwise
-     * @return The paths separated by a \n
+    /*
+     * Propagate the bounds of the root of the branch up to the root of the 
+     * tree and prune from the root of the branch, siblings included, if the
+     * copy updated and pruned its branch
      */
     @Override
-    protected String printPaths(Node n, String acc, boolean optimal) {
-        if (n instanceof RelaxationNode) {
-            if (n.isLeaf()) {
-                return acc + "\n";
-            } else {
-                String result = "";
-                for (Node child : n.getChildren()) {
-                    if ((!optimal || n.cost == child.cost) && !unconsideredBranches.contains(child) && !marked.contains(child)) { //Take the paths with the cost of the root equal to the cost of the parent - i.e. Opt
-                        result += printPaths(child, acc, optimal);
-                    }
-                }
-                return result;
+    protected void replay(ConvolutionTree branch, Node top) {
+        LinkedList<Node> fathers = new LinkedList<>();
+        if (((ConvolutionPruningTree) branch).updated) {
+            if (top.father != null) {
+                fathers.add(top.father);
             }
-        } else {
-            //ChoiceNode cannot be a leaf
-            ChoiceNode cn = (ChoiceNode) n;
-//            return printPaths(cn.getYesNode(), acc + cn.getConstraint().getAttributeName() + "|" + cn.getYesProbability() +  "|", optimal) +
-//            printPaths(cn.getNoNode(), acc + cn.getConstraint().getAttributeName() + "|" + cn.getNoProbability() + "|", optimal);
-            return printPaths(cn.getYesNode(), acc + cn.getConstraint().getAttributeName() + "|" + "yes" + "|", optimal)
-                    + printPaths(cn.getNoNode(), acc + cn.getConstraint().getAttributeName() + "|" + "no" + "|", optimal);
+            updateAndPrune(fathers);
         }
     }
 
@@ -280,6 +273,14 @@ public class ConvolutionPruningTree extends ConvolutionTree {
 //    protected boolean optimalityCondition(Node n1, Node n2) {
 //        return n1.cost == n2.cost && !unconsideredBranches.contains(n2) && !marked.contains(n2);
 //    }
+
+    /*
+     * The paths skip the pruned nodes too
+     */
+    @Override
+    protected boolean onPath(Node father, Node child, boolean optimal) {
+        return super.onPath(father, child, optimal) && !marked.contains(child);
+    }
     
     @Override
     protected RelaxationTree optimalTree(RelaxationTree optTree) throws TreeException {
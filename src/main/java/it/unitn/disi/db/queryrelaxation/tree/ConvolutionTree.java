@@ -19,14 +19,24 @@
  */
 package it.unitn.disi.db.queryrelaxation.tree;
 
+import it.unitn.disi.db.queryrelaxation.metrics.Metrics;
 import it.unitn.disi.db.queryrelaxation.model.Constraint;
+import it.unitn.disi.db.queryrelaxation.model.Pair;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 import it.unitn.disi.db.queryrelaxation.statistics.Utilities;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Compute the CDR algorithm realizing the first L level of the tree and then 
@@ -36,7 +46,16 @@ import java.util.Set;
  * the distributions.
  * @author Alice Marascu
  */
-public class ConvolutionTree extends PruningTree {
+public class ConvolutionTree extends PruningTree implements Cloneable {
+    /*
+     * Minimum number of operations (children^2 * buckets) to score the 
+     * children of a root in parallel
+     */
+    protected static final int PARALLEL_SCORING = 1 << 14;
+    /*
+     * Recorded in place of the histogram of the nodes without one
+     */
+    private static final double[][] NO_BUCKETS = new double[0][];
     /*
      * Branches not expanded from the convolution methods, probabilistically worse
     */
@@ -50,6 +69,44 @@ public class ConvolutionTree extends PruningTree {
     protected int currentLevel;
     protected int noOfBuckets; //A: added the number of buckets for prob distr
     protected int indexAddendum; 
+    /*
+     * Arithmetic on the histograms with the buffers and the constants of 
+     * this tree
+     */
+    protected Histograms histograms;
+    /*
+     * Roots of the branches to be expanded, with the level to start from
+     */
+    protected LinkedList<Pair<Node, Integer>> expandableBranches;
+    /*
+     * Number of threads that expand the branches, 1 expands them one at a time
+     */
+    protected int parallelism = 1;
+    /*
+     * Threads that expand the branches and score the children of the roots, 
+     * null if the tree is built by a single thread
+     */
+    protected ForkJoinPool pool;
+    /*
+     * True if this tree expands a single branch on behalf of another tree, 
+     * then it never looks outside the subtree of the current root
+     */
+    protected boolean forked;
+    /*
+     * Nodes left to expand by the last expansion, all at the same depth, null
+     * if the expansion did not reach the next level
+     */
+    protected LinkedList<Node> frontier;
+    /*
+     * Nodes to expand first in each enqueued branch, taken from the frontier 
+     * of the expansion that enqueued it
+     */
+    protected Map<Node, LinkedList<Node>> frontiers;
+    /*
+     * Histogram of each node at the end of its last approximation, a node is
+     * approximated again only if its histogram or the one of a child changed
+     */
+    protected Map<Node, double[][]> approximated;
     
     public ConvolutionTree(Query query, int level) {
         this(query, level, 3, 1, DEFAULT_TYPE);
@@ -61,6 +118,7 @@ public class ConvolutionTree extends PruningTree {
         this.level = levelL;
         this.noOfBuckets = noOfBuckets;
         this.indexAddendum = type.isMaximize()? 0 : 1;
+        this.histograms = new Histograms(noOfBuckets);
     }
 
     @Override
@@ -70,37 +128,232 @@ public class ConvolutionTree extends PruningTree {
         numberOfSteps = 0;
         marked = new HashSet<>();
         bounds = new HashMap<>();
-        LinkedList<Node> roots = new LinkedList<>();
-        Map<Node, Integer> uncompletedBranches = new HashMap<>();
-        Node lastRoot, n;
+        expandableBranches = new LinkedList<>();
         currentLevel = level;
-        roots.add(root);
+        expandableBranches.add(new Pair<>(root, 1));
         nodes++;
-        uncompletedBranches.put(root, 1);
-        while (!roots.isEmpty()) {
-            lastRoot = currentRoot = roots.poll();
-            actualLevel = uncompletedBranches.remove(currentRoot);
-            if (actualLevel > currentLevel) {
-                currentLevel++;
+        expandBranches();
+    }
+
+    /*
+     * Expand the branches in the order they are found till there is nothing 
+     * left to expand
+     */
+    protected void expandBranches() throws TreeException {
+        frontiers = new HashMap<>();
+        approximated = new HashMap<>();
+        if (parallelism > 1 && profiler == null) {
+            expandConcurrently();
+            return;
+        }
+        while (!expandableBranches.isEmpty()) {
+            enter(expandableBranches.poll());
+            step();
+        }
+    }
+
+    /*
+     * Expand the current root and keep the frontier of each branch found
+     */
+    protected void step() throws TreeException {
+        Node top = currentRoot;
+        int enqueued = expandableBranches.size();
+        frontier = null;
+        expand();
+        if (frontier != null && expandableBranches.size() > enqueued) {
+            split(top, expandableBranches.subList(enqueued, expandableBranches.size()));
+        }
+        frontier = null;
+    }
+
+    /*
+     * Split the frontier among the branches under the expanded root. Nodes of
+     * a branch at the same depth are contiguous in breadth-first order, hence
+     * the branch of a node is looked up once per father. 
+     */
+    protected void split(Node top, List<Pair<Node, Integer>> branches) {
+        Map<Node, LinkedList<Node>> split = new HashMap<>();
+        LinkedList<Node> nodes, above = null;
+        Node father = null, n;
+
+        for (Pair<Node, Integer> branch : branches) {
+            split.put(branch.getFirst(), new LinkedList<Node>());
+        }
+        for (Node f : frontier) {
+            nodes = split.get(f);
+            if (nodes == null) {
+                if (f.father != father) {
+                    father = f.father;
+                    above = null;
+                    for (n = father; n != null && above == null; n = n == top ? null : n.father) {
+                        above = split.get(n);
+                    }
+                }
+                nodes = above;
             }
-            constructByLevel();
-            numberOfSteps++;
-            if (currentLevel < query.size() && query.size() > level) {
-                computeApproximation();
-                if (currentRoot != lastRoot) { //Empty node or end of the tree
-                    for (int i = 0; i < currentRoot.getChildren().size(); i++) {
-                        n = currentRoot.getChildren().get(i);
-                        if (!n.isLeaf()) {
-                            roots.add(n);
-                            uncompletedBranches.put(n, (int) actualLevel);
-                        }
+            if (nodes != null) {
+                nodes.add(f);
+            }
+        }
+        frontiers.putAll(split);
+    }
+
+    /*
+     * Make the branch the current root, moving to the next level if the branch
+     * starts below the current one
+     */
+    protected void enter(Pair<Node, Integer> branch) {
+        currentRoot = branch.getFirst();
+        actualLevel = branch.getSecond();
+        if (actualLevel > currentLevel) {
+            currentLevel++;
+        }
+    }
+
+    /*
+     * Materialize the current root up to the current level and enqueue the 
+     * branches to be expanded next
+     */
+    protected void expand() throws TreeException {
+        Node lastRoot = currentRoot, n;
+        constructByLevel();
+        numberOfSteps++;
+        if (currentLevel < query.size() && query.size() > level) {
+            computeApproximation();
+            if (currentRoot != lastRoot) { //Empty node or end of the tree
+                for (int i = 0; i < currentRoot.getChildren().size(); i++) {
+                    n = currentRoot.getChildren().get(i);
+                    if (!n.isLeaf()) {
+                        expandableBranches.add(new Pair<>(n, (int) actualLevel));
                     }
                 }
             }
-            //Increment only if needed. 
         }
     }
 
+    /*
+     * Expand the branches in waves. The branches enqueued so far are disjoint
+     * subtrees, so each one is expanded by a copy of this tree in its own 
+     * thread. The copies are created and merged in the order of the queue, 
+     * once all of them are done, hence the levels, the choices, the bounds 
+     * and the next branches are the same of the sequential expansion.
+     */
+    protected void expandConcurrently() throws TreeException {
+        List<ConvolutionTree> wave = new ArrayList<>();
+        List<Node> tops = new ArrayList<>();
+        List<Future<Void>> expansions = new ArrayList<>();
+        share();
+        pool = new ForkJoinPool(parallelism);
+        try {
+            while (!expandableBranches.isEmpty()) {
+                wave.clear();
+                tops.clear();
+                expansions.clear();
+                while (!expandableBranches.isEmpty()) {
+                    enter(expandableBranches.poll());
+                    tops.add(currentRoot);
+                    wave.add(fork());
+                }
+                for (final ConvolutionTree branch : wave) {
+                    expansions.add(pool.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws TreeException {
+                            branch.step();
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> expansion : expansions) {
+                    expansion.get();
+                }
+                for (int i = 0; i < wave.size(); i++) {
+                    join(wave.get(i), tops.get(i));
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TreeException("Expansion of the branches interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new TreeException("Cannot expand the branch", ex.getCause());
+        } finally {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    /*
+     * Replace the structures written by the branches with concurrent ones
+     */
+    protected void share() {
+        //Synchronized sets, the father of the root is looked up as well
+        marked = Collections.synchronizedSet(new HashSet<>(marked));
+        unconsideredBranches = Collections.synchronizedSet(new HashSet<>(unconsideredBranches));
+        bounds = new ConcurrentHashMap<>(bounds);
+        cachedBounds = new ConcurrentHashMap<>(cachedBounds);
+        cachedResults = new ConcurrentHashMap<>(cachedResults);
+        computedProbabilities = new ConcurrentHashMap<>(computedProbabilities);
+        frontiers = new ConcurrentHashMap<>(frontiers);
+        approximated = new ConcurrentHashMap<>(approximated);
+        if (type == TreeType.PREFERRED) {
+            getPrefKernel(); //Compiled once, before the copies
+        }
+    }
+
+    /*
+     * A copy of this tree that expands the current root. It shares the nodes,
+     * the bounds and the caches but it has its own counters, histograms and 
+     * branches to expand.
+     */
+    protected ConvolutionTree fork() throws TreeException {
+        ConvolutionTree branch;
+        try {
+            branch = (ConvolutionTree) clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new TreeException("Cannot copy the tree", ex);
+        }
+        branch.forked = true;
+        branch.histograms = Histograms.create(histograms.getType(), noOfBuckets);
+        branch.expandableBranches = new LinkedList<>();
+        branch.numberOfSteps = 0;
+        branch.clearCounters();
+        return branch;
+    }
+
+    /*
+     * Add the counters and the branches found by a copy of this tree, then 
+     * replay on this tree what the copy does not see outside its branch
+     */
+    protected void join(ConvolutionTree branch, Node top) {
+        addCounters(branch);
+        numberOfSteps += branch.numberOfSteps;
+        expandableBranches.addAll(branch.expandableBranches);
+        currentRoot = top;
+        actualLevel = branch.actualLevel;
+        replay(branch, top);
+        currentRoot = branch.currentRoot;
+    }
+
+    /*
+     * A copy does not propagate the bounds above the root of its branch and 
+     * does not prune the siblings of the root, as the sequential expansion 
+     * does at the end of each level. This tree has no bounds, hence there is
+     * nothing to replay.
+     */
+    protected void replay(ConvolutionTree branch, Node top) {
+    }
+
+    @Override
+    protected boolean propagates(Node n) {
+        //The ancestors of the root of a branch are updated by the join
+        return forked ? n != currentRoot : super.propagates(n);
+    }
+
+    @Override
+    protected List<Node> pruningSiblings(Node n) {
+        //The siblings of the root of a branch are expanded by other threads,
+        //the join prunes them
+        return forked && n == currentRoot ? new ArrayList<Node>() : super.pruningSiblings(n);
+    }
 
     /*
      * Expand only one each time you iterate. This is easier.
@@ -129,6 +382,7 @@ public class ConvolutionTree extends PruningTree {
                 n = queue.remove(0);
                 if (!n.getQuery().getConstraints().isEmpty() && !n.getQuery().allHardConstraints()) {
                     if (!marked.contains(n)) {
+                        metrics.increment(Metrics.NODES_EXPANDED);
                         //currentTime = System.nanoTime();
 
                         if (n instanceof RelaxationNode) {
@@ -229,6 +483,8 @@ public class ConvolutionTree extends PruningTree {
 
                 } //END IF NOT EMPTY QUERY
             }
+            //What is left is the next level, unless the subtree ended
+            frontier = actualLevel > currentLevel ? queue : null;
             //System.out.println("A: L=" + actualLevel); //A:
         } catch (Exception ex) {
             throw new TreeException("Wrong way to build the model, please check", ex);
@@ -241,7 +497,13 @@ public class ConvolutionTree extends PruningTree {
      * Since you have choosen a new root go down till the level to be expanded
      */
     protected void scrollDown(LinkedList<Node> queue) {
+        LinkedList<Node> known = frontiers != null ? frontiers.remove(currentRoot) : null;
         Node n;
+        if (known != null) { //Found by the expansion of the father
+            queue.clear();
+            queue.addAll(known);
+            return;
+        }
         int i = (currentLevel - level) + 1;
         while (!queue.isEmpty() && i < actualLevel) {
             n = queue.poll();
@@ -263,7 +525,7 @@ public class ConvolutionTree extends PruningTree {
      */
     public void updateApproximation(Node n) throws TreeException {
 
-        double[][] distr1PlusC1, distr1PlusC2, distrMPYes, distrMPNo, finalSum = null;
+        double[][] distr1PlusC1 = null, distr1PlusC2 = null, distrMPYes = null, distrMPNo = null, finalSum = null;
         if (n instanceof ChoiceNode) {
             ChoiceNode cn = (ChoiceNode) n;
             cn.setCost((cn.getYesNode().getCost() + c) * cn.getYesProbability() + (cn.getNoNode().getCost() + c) * cn.getNoProbability());
@@ -336,6 +598,11 @@ public class ConvolutionTree extends PruningTree {
 
                 finalSum = combineDistr(0, distrMPYes, distrMPNo);
             }
+            //Intermediate distributions are not referenced anymore
+            histograms.release(distr1PlusC1);
+            histograms.release(distrMPYes);
+            histograms.release(distr1PlusC2);
+            histograms.release(distrMPNo);
             cn.setBuckets(finalSum);
 
         } else if (n instanceof RelaxationNode) {
@@ -353,13 +620,17 @@ public class ConvolutionTree extends PruningTree {
                 }
                 n.setCost(min);
                 //convolution min/max
-                double[][] tmpDiff;
+                double[][] tmpDiff, previous;
                 tmpDiff = n.getChildren().get(0).getBuckets();
                 for (int i = 1; i < n.getChildren().size(); i++) {
                     if (!marked.contains(n.getChildren().get(i))) {
+                        previous = tmpDiff;
                         tmpDiff = type.isMaximize()?
                             convolutionMax(tmpDiff, n.getChildren().get(i).getBuckets()) : 
                             convolutionMin(tmpDiff, n.getChildren().get(i).getBuckets());
+                        if (previous != n.getChildren().get(0).getBuckets()) {
+                            histograms.release(previous);
+                        }
                     }
                 }
                 n.setBuckets(tmpDiff);
@@ -368,29 +639,19 @@ public class ConvolutionTree extends PruningTree {
     }
 
     protected void computeTopRoots() {
-        double maxProb = Double.MAX_VALUE, tmpProb, tmp; //1.
+        double maxProb = Double.MAX_VALUE, tmpProb; //1.
         Node bestRootChild = currentRoot; //can be erased
+        List<Node> children = currentRoot.getChildren();
+        double[] scores = scores(children);
+        Node child1;
 
-        for (Node child1 : currentRoot.getChildren()) {
+        for (int c1 = 0; c1 < children.size(); c1++) {
+            child1 = children.get(c1);
             if (!marked.contains(child1)) {
                 if (verbose) {//Very verbose
                     System.out.println(Utilities.matrixToString(child1.buckets));
                 }
-                tmpProb = 0;
-                //   checkIfBucketsAreAProb(child1.getBuckets());
-                for (Node child2 : currentRoot.getChildren()) {
-                    //  checkIfBucketsAreAProb(child2.getBuckets());
-                    if (child1 != child2) {
-                        //compute p(child1 < child2)
-                        for (int i = 0; i < noOfBuckets - 1; i++) {
-                            tmp = 0;
-                            for (int j = i + indexAddendum; j < noOfBuckets - 1; j++) {
-                                tmp += child2.getBuckets()[1][j];
-                            }
-                            tmpProb += tmp * child1.getBuckets()[1][i];
-                        }
-                    }
-                }
+                tmpProb = scores[c1];
                 if (verbose)
                     System.out.printf("Prob: %f - Child: %s - %s\n", tmpProb, child1.toString(), ((ChoiceNode) child1).getYesNode().query);
 
@@ -414,6 +675,86 @@ public class ConvolutionTree extends PruningTree {
     }
     
     
+    /**
+     * Compute for each child not marked the probability p(child &lt; sibling),
+     * summed over all the siblings. If the tree has a pool and the children 
+     * are many, the children are scored in parallel.
+     * @param children The children of the current root
+     * @return The score of each child, zero for the marked ones
+     */
+    protected double[] scores(final List<Node> children) {
+        final double[][] tails = tails(children);
+        final double[] scores = new double[children.size()];
+        List<Future<Void>> slices = new ArrayList<>();
+
+        if (pool == null || (long) scores.length * scores.length * noOfBuckets < PARALLEL_SCORING) {
+            score(children, tails, scores, 0, scores.length);
+            return scores;
+        }
+        for (int s = 0; s < parallelism; s++) {
+            final int from = s * scores.length / parallelism, to = (s + 1) * scores.length / parallelism;
+            slices.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    score(children, tails, scores, from, to);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> slice : slices) {
+                slice.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Scoring interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Cannot score the children", ex.getCause());
+        }
+        return scores;
+    }
+
+    /*
+     * Score the children not marked in [from, to)
+     */
+    private void score(List<Node> children, double[][] tails, double[] scores, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!marked.contains(children.get(i))) {
+                scores[i] = score(i, children, tails);
+            }
+        }
+    }
+
+    /*
+     * p(child < sibling) summed over all the siblings of the child
+     */
+    protected double score(int child, List<Node> children, double[][] tails) {
+        double p = 0;
+        for (int i = 0; i < children.size(); i++) {
+            if (child != i) {
+                //compute p(child1 < child2)
+                p += histograms.less(children.get(child).getBuckets(), children.get(i).getBuckets(), 
+                        tails[i], indexAddendum == 0);
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Compute the masses of the buckets of each node from each bucket to the
+     * last one, used to compare the distributions of the nodes
+     * @param children The nodes to compare
+     * @return The suffix sums of the buckets of each node
+     * @see Histograms#less(double[][], double[][], double[], boolean)
+     */
+    protected double[][] tails(List<Node> children) {
+        double[][] tails = new double[children.size()][];
+        for (int i = 0; i < tails.length; i++) {
+            tails[i] = histograms.suffix(children.get(i).getBuckets(), null);
+        }
+        return tails;
+    }
+
     /**
      * Computes the approximation that chooses the best branch among the list of
      * possible relaxations.
@@ -422,10 +763,12 @@ public class ConvolutionTree extends PruningTree {
     protected void computeApproximation() throws TreeException {  //A: convolution adapted
         LinkedList<Node> stack = new LinkedList<>();
         LinkedList<Integer> currentChild = new LinkedList<>();
+        Set<Node> changed = new HashSet<>();
         Node currentNode, child;
         Integer actualChild;
 
-        stack.push(root);
+        //Only the subtree of the current root changed since the last step
+        stack.push(currentRoot);
         currentChild.push(0);
         try {
             while (!stack.isEmpty()) {
@@ -437,9 +780,17 @@ public class ConvolutionTree extends PruningTree {
                         throw new TreeException("Wrong leaf node type, it should be a RelaxationNode");
                     }
                     currentNode.setCost(0);
+                    if (!isApproximated(currentNode)) {
+                        changed.add(currentNode);
+                        approximated(currentNode);
+                    }
                 } else if (currentNode.getChildren().size() <= actualChild) {//Visited all the childs
                     stack.pop();
-                    updateApproximation(currentNode);
+                    if (currentNode == currentRoot || !isApproximated(currentNode) || anyChanged(currentNode.getChildren(), changed)) {
+                        updateApproximation(currentNode);
+                        changed.add(currentNode);
+                        approximated(currentNode);
+                    }
                 } else {
                     child = currentNode.getChildren().get(actualChild);
                     currentChild.push(actualChild + 1);
@@ -452,6 +803,37 @@ public class ConvolutionTree extends PruningTree {
         }
     }
 
+    /*
+     * True if the node still has the histogram of its last approximation
+     */
+    private boolean isApproximated(Node n) {
+        return approximated.get(n) == (n.getBuckets() == null ? NO_BUCKETS : n.getBuckets());
+    }
+
+    /*
+     * Record the histogram of the node as approximated
+     */
+    private void approximated(Node n) {
+        approximated.put(n, n.getBuckets() == null ? NO_BUCKETS : n.getBuckets());
+    }
+
+    private boolean anyChanged(List<Node> children, Set<Node> changed) {
+        for (Node child : children) {
+            if (changed.contains(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void mark(Node n, PruningProfiler.Rule rule) {
+        super.mark(n, rule);
+        if (approximated != null && n.father != null) {
+            approximated.remove(n.father); //The father does not consider it anymore
+        }
+    }
+
     /**
      * Computes the min among PDFs using convolution
      * @param buckets1 The first bucket to combine
@@ -459,26 +841,7 @@ public class ConvolutionTree extends PruningTree {
      * @return The convoluted PDF (min operator)
      */
     public double[][] convolutionMin(double[][] buckets1, double[][] buckets2) {
-        //  double maxValue = Math.max(buckets1[0][noOfBuckets], buckets2[0][noOfBuckets]),
-        //         minValue = Math.min(buckets1[0][0], buckets2[0][0]);
-        double[][] minBuckets = bucketize(0, Math.min(buckets1[0][0], buckets2[0][0]),
-                Math.max(buckets1[0][noOfBuckets], buckets2[0][noOfBuckets]), 1);
-        double tmp1, tmp2;
-        for (int i = 0; i < noOfBuckets - 1 /*+ 1 - 1*/; i++) {
-            tmp1 = 0;
-            tmp2 = 0;
-            for (int j = i + 1; j < noOfBuckets /*+ 1 - 1*/; j++) {
-                tmp1 += buckets1[1][i] * buckets2[1][j];
-                tmp2 += buckets2[1][i] * buckets1[1][j];
-            }
-            minBuckets[1][i] = buckets1[1][i] * buckets2[1][i] + tmp1 + tmp2;
-        }
-
-//        if (!areBucketsPdfs(buckets1) || !areBucketsPdfs(buckets2) || !areBucketsPdfs(minBuckets)) {
-//            System.err.println("Buckets:" + display(buckets1) + " MIN " + display(buckets2) + " = " + display(minBuckets));
-//        }
-        // System.out.println("MinConv of:"+display(buckets1)+" MIN "+ display(buckets2)+" = "+display(minBuckets));
-        return minBuckets;
+        return histograms.min(buckets1, buckets2);
     }
 
     /**
@@ -488,26 +851,7 @@ public class ConvolutionTree extends PruningTree {
      * @return The convoluted PDF (min operator)
      */
     public double[][] convolutionMax(double[][] buckets1, double[][] buckets2) {
-        //  double maxValue = Math.max(buckets1[0][noOfBuckets], buckets2[0][noOfBuckets]),
-        //         minValue = Math.min(buckets1[0][0], buckets2[0][0]);        
-        double[][] maxBuckets = bucketize(0, Math.max(buckets1[0][0], buckets2[0][0]),
-                Math.max(buckets1[0][noOfBuckets], buckets2[0][noOfBuckets]), 1);
-        double tmp1, tmp2;
-        for (int i = 0; i < noOfBuckets - 1 /*+ 1 - 1*/; i++) {
-            tmp1 = 0;
-            tmp2 = 0;
-            for (int j = 0; j <= i /*+ 1 - 1*/; j++) {
-                tmp1 += buckets1[1][i] * buckets2[1][j];
-                tmp2 += buckets2[1][i] * buckets1[1][j];
-            }
-            maxBuckets[1][i] = tmp1 + tmp2;
-        }
-
-//        if (!areBucketsPdfs(buckets1) || !areBucketsPdfs(buckets2) || !areBucketsPdfs(maxBuckets)) {
-//            System.err.println("Buckets:" + display(buckets1) + " MAX " + display(buckets2) + " = " + display(maxBuckets));
-//        }
-        // System.out.println("MinConv of:"+display(buckets1)+" MIN "+ display(buckets2)+" = "+display(minBuckets));
-        return maxBuckets;
+        return histograms.max(buckets1, buckets2);
     }
     
     
@@ -521,49 +865,15 @@ public class ConvolutionTree extends PruningTree {
      * @return The convoluted bucket
      */
     protected double[][] combineDistr(int typeCombination, double[][] buckets1, double[][] buckets2) {
-        double[][] resultBuckets = bucketize(0, buckets1[0][0] + buckets2[0][0], buckets1[0][noOfBuckets] + buckets2[0][noOfBuckets], 1);
-
-        /*  double[][] resultBuckets =  new double[2][noOfBuckets+1];
-        double maxValue = buckets1[0][noOfBuckets] + buckets2[0][noOfBuckets],
-        minValue = buckets1[0][0] + buckets2[0][0];
-        
-        //initialize buckets limits
-        for(int i= 0; i < resultBuckets.length; i++){
-        resultBuckets[0][i] = (maxValue - minValue) / (double)noOfBuckets * (i+1);
-        }
-         */
-        //commpute prob1 (* or +) prob2
-
         switch (typeCombination) {
             case 0: //plus
-                for (int i = 0; i < noOfBuckets /*+ 1 - 1*/; i++) {
-                    for (int j = 0; j < noOfBuckets /*+ 1 - 1*/; j++) {
-                        //resultBuckets[1][(i + j) / 2] += (buckets1[1][i] + buckets2[1][j]) / noOfBuckets;
-                        resultBuckets[1][(i + j) / 2] += (buckets1[1][i] + buckets2[1][j]) / noOfBuckets / 2;
-                    }
-                }
-//                if (checkIfBucketsAreAProb(buckets1) == false || checkIfBucketsAreAProb(buckets2) == false) {
-                    //  System.out.println("SUM: Buckets:"+ display(buckets1)+" PLUS "+ display(buckets2)+" = "+display(resultBuckets));
-//                }
-                // System.out.println("Buckets:"+ display(buckets1)+" PLUS "+ display(buckets2)+" = "+display(resultBuckets));
-                break;
+                return histograms.sum(buckets1, buckets2);
             case 1: //multiplication
-                for (int i = 0; i < noOfBuckets /*+ 1 - 1*/; i++) {
-                    for (int j = 0; j < noOfBuckets /*+ 1 - 1*/; j++) {
-                        resultBuckets[1][(i + j) / 2] += (buckets1[1][i] * buckets2[1][j]) / noOfBuckets;
-                    }
-                }
-//                if (checkIfBucketsAreAProb(buckets1) == false || checkIfBucketsAreAProb(buckets2) == false) {
-                    // System.out.println("MULTIPLICATION: Buckets:"+ display(buckets1)+" X "+ display(buckets2)+" = "+display(resultBuckets));
-//                }
-                //  System.out.println("Buckets:"+ display(buckets1)+" x "+display(buckets2)+" = "+display(resultBuckets));
-                break;
+                return histograms.product(buckets1, buckets2);
             default:
                 System.out.println("Probability distribution unknown combination");
-                break;
+                return histograms.uniform(0, buckets1[0][0] + buckets2[0][0], buckets1[0][noOfBuckets] + buckets2[0][noOfBuckets]);
         }
-
-        return resultBuckets;
     }
 
     /**
@@ -579,86 +889,17 @@ public class ConvolutionTree extends PruningTree {
      * @return 
      */
     protected double[][] bucketize(double value, double minValue, double maxValue, int type) { //A: added
-        double[][] buckets = new double[2][noOfBuckets + 1];
-        
         switch (type) {
-            case 0: //constant bucket-ization
-                //it will compare with the right limit, so (], except if value is zero, where [)
-                if (value < 1) {//System.out.println("Value "+ value+" <1 to be bucketized as constant)");
-                    minValue = 0;
-                    maxValue = 1;
-                    double tmp = (maxValue - minValue) / (double) noOfBuckets;
-
-                    if (value != 0) {
-                        for (int i = 0; i < noOfBuckets + 1; i++) {
-                            buckets[0][i] = minValue + tmp * i; //bucket's limits
-                            if (value > buckets[0][i] && value <= buckets[0][i] + tmp) {
-                                buckets[1][i] = 1;  //bucket containg the value
-                            } else {
-                                buckets[1][i] = 0;  //zero
-                            }
-                        }
-                    } else {//value is zero, and it compares to the left limit of the bucket
-                        for (int i = 0; i < noOfBuckets + 1; i++) {
-                            buckets[0][i] = minValue + tmp * i; //bucket's limits
-                            if (value >= buckets[0][i] && value < buckets[0][i] + tmp) {
-                                buckets[1][i] = 1;  //bucket containg the value
-                            } else {
-                                buckets[1][i] = 0;  //zero
-                            }
-                        }
-                    }
-
-                    buckets[1][noOfBuckets] = -1;
-                } else { /* so   value >=1*/
-                    minValue = value - 1;
-                    maxValue = value;
-                    double tmp = (maxValue - minValue) / (double) noOfBuckets;
-
-                    for (int i = 0; i < noOfBuckets + 1; i++) {
-                        buckets[0][i] = minValue + tmp * i; //bucket's limits
-                        if (value > buckets[0][i] && value <= buckets[0][i] + tmp) {
-                            buckets[1][i] = 1;  //bucket containg the value
-                        } else {
-                            buckets[1][i] = 0;  //zero
-                        }
-                    }
-
-                    buckets[1][noOfBuckets] = -1;
-                }
-                break;
+            case 0: //constant bucket-ization, shared among the nodes
+                return histograms.constant(value);
             case 1: 
                 //if the value must be put in each bucket (these are not real leavses, so
 //              it will be bucketized into [1, N-L] and the mass of each bucket will be 1/noOfBuckets
-                //the step size is computed with tmp, and this gives you the single intervals
-                //in the histogram. 
-                double tmp = (maxValue - minValue) / (double) noOfBuckets;
-
-                for (int i = 0; i < noOfBuckets + 1; i++) {
-                    buckets[0][i] = minValue + tmp * i; //bucket's limits - steps
-                    buckets[1][i] = value;  //bucket's value
-                }
-
-                buckets[1][noOfBuckets] = -1;   //last bucket is not used
-                break;
-//            case 2: { //puts the value = value in all buckets
-//                double tmp = (maxValue - minValue) / (double) noOfBuckets;
-//
-//                for (int i = 0; i < noOfBuckets + 1; i++) {
-//                    buckets[0][i] = minValue + tmp * i; //bucket's limits
-//                    buckets[1][i] = value;  //bucket's value
-//                }
-//
-//                buckets[1][noOfBuckets] = -1;   //last bucket is not used
-//            }
-//            break;
+                return histograms.uniform(value, minValue, maxValue);
             default:
                 System.out.println("unknown type");
-                break;
+                return new double[2][noOfBuckets + 1];
         }
-
-        //System.out.println(" Min/Max = "+minValue+"/"+maxValue+" with value="+value+" was bucketized to "+display(buckets));
-        return buckets;
     }
 
 //bucketize a value in noOfBuckets buckets from minValue to maxValue and the mass
@@ -758,6 +999,33 @@ public class ConvolutionTree extends PruningTree {
         return numberOfSteps;
     }
 
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of threads that expand the branches of the tree, the 
+     * tree is the same for any number of threads. 
+     * @param parallelism The number of threads, 1 to build the tree in the 
+     * calling thread
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public Histograms.Type getHistogramType() {
+        return histograms.getType();
+    }
+
+    /**
+     * Set how the limits of the buckets of the cost distributions are placed,
+     * adaptive histograms need less buckets for the same choices
+     * @param type The type of the histograms
+     */
+    public void setHistogramType(Histograms.Type type) {
+        histograms = Histograms.create(type, noOfBuckets);
+    }
+
     public boolean areBucketsPdfs(double[][] buckets) { // check is sum of the buckets is 1
         float tmp = 0;
 
@@ -774,38 +1042,6 @@ public class ConvolutionTree extends PruningTree {
         return tmp == 1;
     }
 
-    /**
-     * Print the paths starting from the input node and saving them into a string
-     * used as an accumulator. 
-     * @param n The starting node
-     * @param acc The string to save the paths
-     * @param optimal True if we need only optimal paths, false otherwise
-     * @return The paths separated by a \n
-     */
-    @Override
-    protected String printPaths(Node n, String acc, boolean optimal) {
-        if (n instanceof RelaxationNode) {
-            if (n.isLeaf()) {
-                return acc + "\n";
-            } else {
-                String result = "";
-                for (Node child : n.getChildren()) {
-                    if ((!optimal || n.cost == child.cost) && !unconsideredBranches.contains(child)) { //Take the paths with the cost of the root equal to the cost of the parent - i.e. Opt
-                        result += printPaths(child, acc, optimal);
-                    }
-                }
-                return result;
-            }
-        } else {
-            //ChoiceNode cannot be a leaf
-            ChoiceNode cn = (ChoiceNode) n;
-//            return printPaths(cn.getYesNode(), acc + cn.getConstraint().getAttributeName() + "|" + cn.getYesProbability() +  "|", optimal) +
-//            printPaths(cn.getNoNode(), acc + cn.getConstraint().getAttributeName() + "|" + cn.getNoProbability() + "|", optimal);
-            return printPaths(cn.getYesNode(), acc + cn.getConstraint().getAttributeName() + "|" + "yes" + "|", optimal)
-                    + printPaths(cn.getNoNode(), acc + cn.getConstraint().getAttributeName() + "|" + "no" + "|", optimal);
-        }
-    }
-
     /**
      * Compute the (maximum) path similarity between this tree and the optimal. 
      * Print the longest common subsequence among the paths. 
@@ -896,6 +1132,15 @@ public class ConvolutionTree extends PruningTree {
     protected boolean isMarked(Node n) {
         return marked.contains(n) || unconsideredBranches.contains(n);
     }
+
+    /*
+     * The paths skip only the branches not considered, the marked nodes are
+     * kept
+     */
+    @Override
+    protected boolean onPath(Node father, Node child, boolean optimal) {
+        return (!optimal || father.cost == child.cost) && !unconsideredBranches.contains(child);
+    }
     
     
 
@@ -21,9 +21,6 @@
 package it.unitn.disi.db.queryrelaxation.tree;
 
 import it.unitn.disi.db.queryrelaxation.model.Query;
-import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
-import java.util.List;
-import java.util.Random;
 
 /**
  *
@@ -57,16 +54,12 @@ public class GreedyRelaxationTree extends OptimalRelaxationTree {
         } else if (n instanceof RelaxationNode) {
             //1. left most choice for the cost in case of no valid answer
             n.setCost(n.getChildren().get(0).getCost());
-            try {
-                for (Node child : n.getChildren()) {
-                    if (db.submitQuery(child.query).length != 0) {
-                        n.setCost(child.getCost());
-                        break;
-                    }
+            //The emptiness of the relaxations is recorded on the 'yes' nodes
+            for (Node child : n.getChildren()) {
+                if (PolicySimulator.hasAnswers((ChoiceNode) child)) {
+                    n.setCost(child.getCost());
+                    break;
                 }
-            } catch (ConnectionException ce) {
-                System.out.println("exception in db connection from greedy meth");
-                System.exit(1);
             }
             //end 1
 
@@ -106,57 +99,12 @@ public class GreedyRelaxationTree extends OptimalRelaxationTree {
     }
     
     /**
-     * Compute the time in a random choice, repeat k times and average the time.
+     * Compute the time of the greedy choices, repeat k times and average the 
+     * time. The walks are simulated by {@link PolicySimulator}.
      * @param k Times to repeat in order to measure the time to perform this method
      * @return average time to perform this method
      */
     public long getTime(int k) {
-        Random r = new Random();
-        Node n;
-        List<Node> children;
-        ChoiceNode cn;
-        long avgTime = 0;
-        //String print;
-        try {
-            if (!db.isConnected()) {
-                db.connect();
-            }
-            for (int i = 0; i < k; i++) {
-                avgTime -= System.nanoTime();
-                n = root;
-            //    print = "";
-                while (true) {
-                    if (n instanceof RelaxationNode) {
-                        if (n.isLeaf()) {
-                            db.submitQuery(n.query); //Pay anyway
-                            break;
-                        }
-                        children = n.getChildren();
-                        n = children.get(0);
-                        for (Node child : children) {
-                            if (db.submitQuery(((ChoiceNode)child).getYesNode().query).length != 0) {
-          //                      print += ((ChoiceNode)child).getConstraint().getAttributeName() + "|";
-                                n = child;
-                                break;
-                            }
-                        }
-                    } else {
-                        cn = (ChoiceNode) n;
-                        if (r.nextDouble() <= cn.getYesProbability()) {
-                            n = cn.getYesNode();
-            //                print += "yes|";
-                        } else {
-                            n = cn.getNoNode();
-            //                print += "no|";
-                        }
-                    }
-                }
-            //    System.out.println(print);
-                avgTime += System.nanoTime();
-            }
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
-        return avgTime / (k * 1000000);
+        return simulate(PolicySimulator.Policies.GREEDY, k);
     }
 }
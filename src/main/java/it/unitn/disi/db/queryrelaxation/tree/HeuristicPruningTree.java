@@ -19,6 +19,7 @@
  */
 package it.unitn.disi.db.queryrelaxation.tree;
 
+import it.unitn.disi.db.queryrelaxation.metrics.Metrics;
 import it.unitn.disi.db.queryrelaxation.model.Constraint;
 import it.unitn.disi.db.queryrelaxation.model.Pair;
 import it.unitn.disi.db.queryrelaxation.model.Query;
@@ -26,6 +27,7 @@ import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
 import it.unitn.disi.db.queryrelaxation.statistics.Utilities;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -61,16 +63,53 @@ public class HeuristicPruningTree extends PruningTree {
      */
     private Set<Node> expandableNodes;
 
+    /*
+     * Branches not yet expanded ordered by the score of their bounds
+     */
+    private IndexedPriorityQueue<Node> frontier;
+    /*
+     * Best cost of the completed branches whose bounds are tight, NaN if none
+     */
+    private double settled;
+
+    /**
+     * Score of a branch of the root from its bounds: the branch with the 
+     * smallest score is expanded first. 
+     */
+    public interface Scoring {
+        double score(Pair<Double, Double> bounds, TreeType type);
+    }
+
     /**
      * Enumeration to choose the strategy to adopt to expand the subtree
      */
-    public enum Strategy {
+    public enum Strategy implements Scoring {
 
-        UBFIRST,
-        LBFIRST,
-        DIFFFIRST,
+        UBFIRST {
+            @Override
+            public double score(Pair<Double, Double> bounds, TreeType type) {
+                return type.isMaximize() ? 1 / bounds.getSecond() : bounds.getSecond();
+            }
+        },
+        LBFIRST {
+            @Override
+            public double score(Pair<Double, Double> bounds, TreeType type) {
+                //Store 1/lb to reorder the list in increasing order
+                return type.isMaximize() ? bounds.getFirst() : 1 / bounds.getFirst();
+            }
+        },
+        DIFFFIRST {
+            @Override
+            public double score(Pair<Double, Double> bounds, TreeType type) {
+                return bounds.getSecond() - bounds.getFirst();
+            }
+        },
     }
     protected Strategy strategy = Strategy.UBFIRST;
+    /*
+     * Replaces the score of the strategy if not null
+     */
+    protected Scoring scoring;
 
     public HeuristicPruningTree(Query query) {
         super(query);
@@ -106,6 +145,9 @@ public class HeuristicPruningTree extends PruningTree {
         expandableNodes = new HashSet<>();
         //actualLevel = 1.0;
         uncompletedBranches = new LinkedHashMap<>();
+        frontier = new IndexedPriorityQueue<>();
+        settled = Double.NaN;
+        consideredBranch = null;
         nodes++;
         queue.add(root);
         try {
@@ -129,6 +171,7 @@ public class HeuristicPruningTree extends PruningTree {
 
                 if (!n.getQuery().getConstraints().isEmpty() && !n.getQuery().allHardConstraints()) {
                     if (!marked.contains(n)) {
+                        metrics.increment(Metrics.NODES_EXPANDED);
                         if (n instanceof RelaxationNode) {
                             //DAVIDE-MOD 10/07/2014 - (Modified also the condition below)
                             //Check the condition in constructRelaxationNodes function
@@ -184,12 +227,7 @@ public class HeuristicPruningTree extends PruningTree {
                                         uncompletedBranches.put(node, (int) actualLevel);
                                     }
                                 }
-                                update(queue);
-//                                if (!marked.contains(n)) {
-//                                    time += (System.nanoTime() - currentTime);
-//
-//                                }
-                                prune(queue);
+                                updateAndPrune(queue);
                                 if (verbose) {
                                     System.out.println(toString());
                                 }
@@ -297,15 +335,10 @@ public class HeuristicPruningTree extends PruningTree {
                 //double max = -(Double.MAX_VALUE);
                 //double benefit;
                 if (!n.isEmpty()) {
-                    if (cachedBounds.containsKey(q)) {
+                    if (cached(cachedBounds, q, "bounds")) {
                         ub = cachedBounds.get(q);
                     } else {
-                        for (double benefit : resultSet.getSecond()) {
-                            //benefit = t.getBenefit();
-                            if (benefit > ub) {
-                                ub = benefit;
-                            }
-                        }
+                        ub = maxBenefit(resultSet);
                         cachedBounds.put(q, ub);
                     }
                     lb = ub;
@@ -317,12 +350,10 @@ public class HeuristicPruningTree extends PruningTree {
                     expandableNodes.add(n);
                     if (!n.getQuery().getHardConstraints().isEmpty()) {
                         Query hq = new Query(n.getQuery().getHardConstraints());
-                        if (cachedBounds.containsKey(hq)) {
+                        if (cached(cachedBounds, hq, "bounds")) {
                             ub = cachedBounds.get(hq);
                         } else {
-                            Pair<Double, Double> minMax = db.getMinMaxBenefit(hq);
-                            //lb = minMax.getFirst();
-                            ub = minMax.getSecond();
+                            ub = db.getMaxBenefit(hq);
                             cachedBounds.put(hq, ub);
                         }
                     } else {
@@ -340,7 +371,7 @@ public class HeuristicPruningTree extends PruningTree {
                 //double max = -(Double.MAX_VALUE);
 
                 if (!n.isEmpty()) {
-                    if (cachedBounds.containsKey(q)) {
+                    if (cached(cachedBounds, q, "bounds")) {
                         ub = cachedBounds.get(q);
                     } else {
                         for (double benefit : resultSet.getSecond()) {
@@ -358,12 +389,10 @@ public class HeuristicPruningTree extends PruningTree {
                     expandableNodes.add(n);
                     if (!n.getQuery().getHardConstraints().isEmpty()) {
                         Query hq = new Query(n.getQuery().getHardConstraints());
-                        if (cachedBounds.containsKey(hq)) {
+                        if (cached(cachedBounds, hq, "bounds")) {
                             ub = cachedBounds.get(hq);
                         } else {
-                            Pair<Double, Double> minMax = db.getMinMaxBenefit(hq);
-                            //lb = minMax.getFirst();
-                            ub = minMax.getSecond();
+                            ub = db.getMaxBenefit(hq);
                             cachedBounds.put(hq, ub);
                         }
                     } else {
@@ -388,18 +417,10 @@ public class HeuristicPruningTree extends PruningTree {
             case PREFERRED:
                 lb = ub = 0;
                 if (!n.isEmpty()) {
-                    if (cachedBounds.containsKey(q)) {
+                    if (cached(cachedBounds, q, "bounds")) {
                         ub = cachedBounds.get(q);
                     } else {
-                        double preference = 0;
-                        //resultSet = db.submitQuery(n.query); 
-                        ub = 0;
-                        for (int t : resultSet.getFirst()) {
-                            preference = pref.compute(query, t);
-                            if (preference > ub) {
-                                ub = preference;
-                            }
-                        }
+                        ub = getPrefKernel().max(resultSet.getFirst());
                         cachedBounds.put(q, ub);
                     }
                     lb = ub;
@@ -411,18 +432,10 @@ public class HeuristicPruningTree extends PruningTree {
                 } else {
                     Query hq = new Query(n.getQuery().getHardConstraints());
                     expandableNodes.add(n);
-                    if (cachedBounds.containsKey(hq)) {
+                    if (cached(cachedBounds, hq, "bounds")) {
                         ub = cachedBounds.get(hq);
                     } else {
-                        double preference = 0;
-                        int[] rs = db.submitQuery(hq);
-                        ub = 0;
-                        for (int t : rs) {
-                            preference = pref.compute(query, t);
-                            if (preference > ub) {
-                                ub = preference;
-                            }
-                        }
+                        ub = getPrefKernel().max(db.submitQuery(hq));
                         cachedBounds.put(hq, ub);
                     }
                     nodeBounds = new Pair<>(0.0, ub);
@@ -482,14 +495,16 @@ public class HeuristicPruningTree extends PruningTree {
 //                        System.out.println("UbMin: " + ubMin);
 //                        System.out.println("Siblings: " + bounds.get(sibling).getFirst());
 //                        System.out.println(sibling);
-                        marked.add(sibling);
+                        mark(sibling, type.isMaximize() ? PruningProfiler.Rule.UPPER_BOUND : PruningProfiler.Rule.LOWER_BOUND);
                         uncompletedBranches.remove(sibling);
+                        frontier.remove(sibling);
                         expandableNodes.remove(sibling);
                     }
                     if (marked.contains(sibling.father)) {
-                        marked.add(sibling);
+                        mark(sibling, PruningProfiler.Rule.INHERITED);
                         //uncompletedBranches.remove(sibling.father);
                         uncompletedBranches.remove(sibling);
+                        frontier.remove(sibling);
                         expandableNodes.remove(sibling);
                         //expandableNodes.remove(sibling.father);
                     }
@@ -497,9 +512,6 @@ public class HeuristicPruningTree extends PruningTree {
             }//END WHILE
             //Look at the best non-empty branch
             //System.out.println(marked);
-            double value = 0.0, min = Double.MAX_VALUE, check = 0;
-            boolean allEqual = false;
-            int validBranches = 0;
             if (consideredBranch != null && uncompletedBranches.containsKey(consideredBranch) && (expandableNodes.isEmpty() || uncompletedBranches.get(consideredBranch) == query.size())) {
                 //A:begin
                 //System.out.println("A: the level of the removed ("+ consideredBranch+") one is="+ uncompletedBranches.get(consideredBranch));
@@ -518,38 +530,22 @@ public class HeuristicPruningTree extends PruningTree {
                 this.noPrunedNodes += tmp_sum;
                 //A:end
                 uncompletedBranches.remove(consideredBranch);
-            }
-            Set<Node> nList = uncompletedBranches.keySet();
-            consideredBranch = null;
-            for (Node node : nList) {
-                validBranches++;
-                switch (strategy) {
-                    case UBFIRST:
-                        value = type.isMaximize() ? 1 / bounds.get(node).getSecond() : bounds.get(node).getSecond();
-                        break;
-                    case LBFIRST:
-                        //Store 1/lb to reorder the list in increasing order
-                        value = type.isMaximize() ? bounds.get(node).getFirst() : 1 / bounds.get(node).getFirst();
-                        break;
-                    case DIFFFIRST:
-                        value = bounds.get(node).getSecond() - bounds.get(node).getFirst();
-                        //value = type.isMaximize()? 1/value : value;
-                        break;
-                }
-                //The number of vaflid branches tells us if we have to consider the last one
-                if (validBranches == 1) {
-                    check = value;
-                } else {
-                    allEqual = allEqual && (check == value);
-                }
-                if (value < min) {
-                    min = value;
-                    consideredBranch = node;
-                    expandableNodes.clear();
+                frontier.remove(consideredBranch);
+                settle(consideredBranch);
+            } else if (consideredBranch != null && uncompletedBranches.containsKey(consideredBranch)) {
+                //Only the bounds of the expanded branch changed
+                frontier.put(consideredBranch, score(consideredBranch));
+            } else if (consideredBranch == null) {
+                for (Node node : uncompletedBranches.keySet()) {
+                    frontier.put(node, score(node));
                 }
             }
-            if (consideredBranch != null) {
+            consideredBranch = frontier.peek();
+            if (consideredBranch != null && frontier.getPriority(consideredBranch) < Double.MAX_VALUE) {
+                expandableNodes.clear();
                 actualLevel = uncompletedBranches.get(consideredBranch);
+            } else {
+                consideredBranch = null;
             }
             //IDEA: Maybe add a diversification (jumping) step.
             //Scroll down in the tree. 
@@ -559,7 +555,6 @@ public class HeuristicPruningTree extends PruningTree {
                 n = tree.poll();
                 if (n instanceof RelaxationNode && n.isLeaf()) {
                     otherQueue.add(n);
-                    queue.remove(n);
                 }
                 if (n != null && !n.isLeaf()) {
                     tree.addAll(n.getChildren());
@@ -573,9 +568,58 @@ public class HeuristicPruningTree extends PruningTree {
         }
     }
 
+    /*
+     * Score of a branch, the smallest is expanded first
+     */
+    private double score(Node branch) {
+        return (scoring != null ? scoring : strategy).score(bounds.get(branch), type);
+    }
+
+    /*
+     * A completed branch with tight bounds settles the cost of the root: the 
+     * branches that cannot do better are pruned without being expanded, and 
+     * the construction stops when none is left
+     */
+    private void settle(Node branch) {
+        Pair<Double, Double> b = bounds.get(branch);
+        Iterator<Node> it;
+        Node node;
+        if (marked.contains(branch) || !b.getFirst().equals(b.getSecond())) {
+            return;
+        }
+        if (Double.isNaN(settled) || (type.isMaximize() ? b.getFirst() > settled : b.getSecond() < settled)) {
+            settled = type.isMaximize() ? b.getFirst() : b.getSecond();
+        }
+        it = uncompletedBranches.keySet().iterator();
+        while (it.hasNext()) {
+            node = it.next();
+            b = bounds.get(node);
+            if (type.isMaximize() ? b.getSecond() < settled : b.getFirst() > settled) {
+                mark(node, type.isMaximize() ? PruningProfiler.Rule.UPPER_BOUND : PruningProfiler.Rule.LOWER_BOUND);
+                expandableNodes.remove(node);
+                frontier.remove(node);
+                it.remove();
+            }
+        }
+    }
+
+    public Scoring getScoring() {
+        return scoring != null ? scoring : strategy;
+    }
+
+    /**
+     * Set the score that orders the branches of the root, instead of the one
+     * of the strategy
+     * @param scoring The score, null to use the strategy
+     */
+    public void setScoring(Scoring scoring) {
+        this.scoring = scoring;
+    }
+
     @Override
     public RelaxationTree optimalTree(TreeType tt) throws TreeException {
         HeuristicPruningTree t = new HeuristicPruningTree(query, cardinality, tt, strategy);
+        t.scoring = scoring;
         t.marked = new HashSet<Node>();
         return optimalTree(t);
     }
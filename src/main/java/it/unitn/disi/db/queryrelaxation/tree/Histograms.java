@@ -0,0 +1,320 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Arithmetic on the histograms that approximate the cost distributions of the
+ * CDR-based trees (see {@link ConvolutionTree}). A histogram with B buckets is
+ * a <code>double[2][B + 1]</code>: the first row contains the limits of the
+ * buckets, the second one the mass of each bucket (the last cell is not used
+ * and set to -1).
+ * <p>
+ * The engine belongs to a single tree and it is not thread safe. Histograms of
+ * constants are cached and shared, so that they must never be modified; the
+ * results of the operations can be given back with {@link #release(double[][])}
+ * when they are temporary, to be reused by the next operations.
+ * All the operations are linear in the number of buckets: sums and min/max use
+ * prefix sums, products skip the empty buckets, and one of the two operands of
+ * a product is always a constant, i.e. it has a single non-empty bucket.
+ * <p>
+ * The buckets of these histograms have the same width, see 
+ * {@link AdaptiveHistograms} for buckets placed by probability mass.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class Histograms {
+    /**
+     * How the limits of the buckets are placed
+     */
+    public static enum Type {
+        EQUI_WIDTH, ADAPTIVE
+    }
+    private static final int MAX_POOL = 64;
+
+    protected final int buckets;
+    /*
+     * Histograms of the constants by value, shared and never modified
+     */
+    private final Map<Double, double[][]> constants;
+    private final Map<double[][], Boolean> shared;
+    private final ArrayDeque<double[][]> pool;
+    /*
+     * Scratch buffers
+     */
+    private final double[] prefix1;
+    private final double[] prefix2;
+    private final int[] nonZero1;
+    private final int[] nonZero2;
+
+    public Histograms(int buckets) {
+        this.buckets = buckets;
+        constants = new HashMap<>();
+        shared = new IdentityHashMap<>();
+        pool = new ArrayDeque<>();
+        prefix1 = new double[buckets + 1];
+        prefix2 = new double[buckets + 1];
+        nonZero1 = new int[buckets];
+        nonZero2 = new int[buckets];
+    }
+
+    /**
+     * Create the engine for the type of histograms
+     * @param type The placement of the limits of the buckets
+     * @param buckets The number of buckets of each histogram
+     * @return The engine
+     */
+    public static Histograms create(Type type, int buckets) {
+        return type == Type.ADAPTIVE ? new AdaptiveHistograms(buckets) : new Histograms(buckets);
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    public Type getType() {
+        return Type.EQUI_WIDTH;
+    }
+
+    /**
+     * The histogram of a constant: one bucket has mass 1. Values smaller than 1
+     * are bucketized in [0, 1], the others in [value - 1, value]; the bucket
+     * containing the value is closed on the right, except for 0.
+     * @param value The constant
+     * @return The cached histogram, that must not be modified
+     */
+    public double[][] constant(double value) {
+        double[][] h = constants.get(value);
+        if (h == null) {
+            h = constantHistogram(value);
+            constants.put(value, h);
+            shared.put(h, Boolean.TRUE);
+        }
+        return h;
+    }
+
+    /*
+     * Build the histogram of a constant, it is cached by constant(value)
+     */
+    protected double[][] constantHistogram(double value) {
+        double[][] h = new double[2][buckets + 1];
+        double minValue = value < 1 ? 0 : value - 1;
+        double maxValue = value < 1 ? 1 : value;
+        double tmp = (maxValue - minValue) / (double) buckets;
+        for (int i = 0; i < buckets + 1; i++) {
+            h[0][i] = minValue + tmp * i; //bucket's limits
+            if (value != 0 ? value > h[0][i] && value <= h[0][i] + tmp
+                    : value >= h[0][i] && value < h[0][i] + tmp) {
+                h[1][i] = 1;
+            } else {
+                h[1][i] = 0;
+            }
+        }
+        h[1][buckets] = -1;
+        return h;
+    }
+
+    /**
+     * A histogram from minValue to maxValue where each bucket has the same mass
+     * @param value The mass of each bucket
+     * @param minValue The lower limit of the first bucket
+     * @param maxValue The upper limit of the last bucket
+     * @return A new histogram
+     */
+    public double[][] uniform(double value, double minValue, double maxValue) {
+        double[][] h = acquire(minValue, maxValue);
+        for (int i = 0; i < buckets; i++) {
+            h[1][i] = value;
+        }
+        return h;
+    }
+
+    /**
+     * Give back a temporary histogram, it must not be used anymore. Cached 
+     * constants are ignored.
+     * @param h The histogram, can be null
+     */
+    public void release(double[][] h) {
+        if (h != null && !shared.containsKey(h) && h[0].length == buckets + 1 && pool.size() < MAX_POOL) {
+            pool.push(h);
+        }
+    }
+
+    /**
+     * The sum of two distributions: the pair of buckets (i, j) gives the mean 
+     * of their masses to the bucket (i + j) / 2
+     * @param h1 The first histogram
+     * @param h2 The second histogram
+     * @return A new histogram
+     */
+    public double[][] sum(double[][] h1, double[][] h2) {
+        double[][] result = acquire(h1[0][0] + h2[0][0], h1[0][buckets] + h2[0][buckets]);
+        double s;
+        int lo, hi;
+        prefix(h1, prefix1);
+        prefix(h2, prefix2);
+        //The pairs with (i + j) / 2 = k have i + j = 2k or i + j = 2k + 1
+        for (int k = 0; k < buckets; k++) {
+            lo = Math.max(0, 2 * k - buckets + 1);
+            hi = Math.min(buckets - 1, 2 * k);
+            s = prefix1[hi + 1] - prefix1[lo] + prefix2[hi + 1] - prefix2[lo];
+            lo = Math.max(0, 2 * k - buckets + 2);
+            hi = Math.min(buckets - 1, 2 * k + 1);
+            if (lo <= hi) {
+                s += prefix1[hi + 1] - prefix1[lo] + prefix2[hi + 1] - prefix2[lo];
+            }
+            result[1][k] = s / buckets / 2;
+        }
+        return result;
+    }
+
+    /**
+     * The product of two distributions: the pair of buckets (i, j) gives the
+     * product of their masses to the bucket (i + j) / 2
+     * @param h1 The first histogram
+     * @param h2 The second histogram
+     * @return A new histogram
+     */
+    public double[][] product(double[][] h1, double[][] h2) {
+        double[][] result = acquire(h1[0][0] + h2[0][0], h1[0][buckets] + h2[0][buckets]);
+        int n1 = nonZero(h1, nonZero1), n2 = nonZero(h2, nonZero2), i, j;
+        //Empty buckets do not contribute, the order of the sums is kept
+        for (int a = 0; a < n1; a++) {
+            i = nonZero1[a];
+            for (int b = 0; b < n2; b++) {
+                j = nonZero2[b];
+                result[1][(i + j) / 2] += (h1[1][i] * h2[1][j]) / buckets;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The distribution of the minimum of two independent variables
+     * @param h1 The first histogram
+     * @param h2 The second histogram
+     * @return A new histogram
+     */
+    public double[][] min(double[][] h1, double[][] h2) {
+        double[][] result = acquire(Math.min(h1[0][0], h2[0][0]), Math.max(h1[0][buckets], h2[0][buckets]));
+        suffix(h1, prefix1);
+        suffix(h2, prefix2);
+        for (int i = 0; i < buckets - 1; i++) {
+            result[1][i] = h1[1][i] * h2[1][i] + h1[1][i] * prefix2[i + 1] + h2[1][i] * prefix1[i + 1];
+        }
+        return result;
+    }
+
+    /**
+     * The distribution of the maximum of two independent variables
+     * @param h1 The first histogram
+     * @param h2 The second histogram
+     * @return A new histogram
+     */
+    public double[][] max(double[][] h1, double[][] h2) {
+        double[][] result = acquire(Math.max(h1[0][0], h2[0][0]), Math.max(h1[0][buckets], h2[0][buckets]));
+        prefix(h1, prefix1);
+        prefix(h2, prefix2);
+        for (int i = 0; i < buckets - 1; i++) {
+            result[1][i] = h1[1][i] * prefix2[i + 1] + h2[1][i] * prefix1[i + 1];
+        }
+        return result;
+    }
+
+    /**
+     * Sums of the masses from each bucket to the last one, s[i] is the mass of
+     * the buckets from i to B - 1 and s[B] = 0
+     * @param h The histogram
+     * @param s The output, of size B + 1 at least (null to allocate it)
+     * @return The sums
+     */
+    public double[] suffix(double[][] h, double[] s) {
+        if (s == null) {
+            s = new double[buckets + 1];
+        }
+        s[buckets] = 0;
+        for (int i = buckets - 1; i >= 0; i--) {
+            s[i] = s[i + 1] + h[1][i];
+        }
+        return s;
+    }
+
+    /**
+     * Probability that a value of the first histogram is in a bucket before
+     * the one of a value of the second, or in the same bucket if orEqual. The
+     * last bucket is not considered.
+     * @param h1 The first histogram
+     * @param h2 The second histogram
+     * @param suffix2 The suffix sums of the second histogram
+     * @param orEqual True if the values in the same bucket count
+     * @return The probability p(h1 &lt; h2)
+     * @see #suffix(double[][], double[])
+     */
+    public double less(double[][] h1, double[][] h2, double[] suffix2, boolean orEqual) {
+        int addendum = orEqual ? 0 : 1;
+        double p = 0;
+        for (int i = 0; i < buckets - 1; i++) {
+            p += (suffix2[i + addendum] - suffix2[buckets - 1]) * h1[1][i];
+        }
+        return p;
+    }
+
+    /*
+     * p[i] is the mass of the buckets before i
+     */
+    private void prefix(double[][] h, double[] p) {
+        p[0] = 0;
+        for (int i = 0; i < buckets; i++) {
+            p[i + 1] = p[i] + h[1][i];
+        }
+    }
+
+    private int nonZero(double[][] h, int[] indexes) {
+        int n = 0;
+        for (int i = 0; i < buckets; i++) {
+            if (h[1][i] != 0) {
+                indexes[n++] = i;
+            }
+        }
+        return n;
+    }
+
+    /*
+     * An empty histogram from minValue to maxValue, reused if possible
+     */
+    protected double[][] acquire(double minValue, double maxValue) {
+        double[][] h = pool.poll();
+        double tmp = (maxValue - minValue) / (double) buckets;
+        if (h == null) {
+            h = new double[2][buckets + 1];
+        }
+        for (int i = 0; i < buckets + 1; i++) {
+            h[0][i] = minValue + tmp * i;
+            h[1][i] = 0;
+        }
+        h[1][buckets] = -1;
+        return h;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A binary heap of distinct elements ordered by a priority, the smallest 
+ * first. The position of each element is indexed, so that its priority can 
+ * be changed (decrease or increase key) and it can be removed in logarithmic 
+ * time. Elements with the same priority are returned in the order they were 
+ * first inserted.
+ * 
+ * @param <T> The type of the elements
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class IndexedPriorityQueue<T> {
+    private T[] heap;
+    private double[] priorities;
+    /*
+     * Insertion number of each element, breaks the ties
+     */
+    private long[] order;
+    private final Map<T, Integer> positions;
+    private int size;
+    private long inserted;
+
+    public IndexedPriorityQueue() {
+        this(16);
+    }
+
+    @SuppressWarnings("unchecked")
+    public IndexedPriorityQueue(int capacity) {
+        capacity = Math.max(1, capacity);
+        heap = (T[]) new Object[capacity];
+        priorities = new double[capacity];
+        order = new long[capacity];
+        positions = new HashMap<>();
+    }
+
+    /**
+     * Insert an element or change its priority
+     * @param e The element
+     * @param priority The new priority
+     * @return true if the element was not in the queue
+     */
+    public boolean put(T e, double priority) {
+        Integer i = positions.get(e);
+        double old;
+        if (i == null) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, 2 * size);
+                priorities = Arrays.copyOf(priorities, 2 * size);
+                order = Arrays.copyOf(order, 2 * size);
+            }
+            heap[size] = e;
+            priorities[size] = priority;
+            order[size] = inserted++;
+            positions.put(e, size);
+            up(size++);
+            return true;
+        }
+        old = priorities[i];
+        priorities[i] = priority;
+        if (Double.compare(priority, old) < 0) {
+            up(i);
+        } else {
+            down(i);
+        }
+        return false;
+    }
+
+    /**
+     * @return The element with the smallest priority, null if the queue is 
+     * empty
+     */
+    public T peek() {
+        return size == 0 ? null : heap[0];
+    }
+
+    /**
+     * Remove the element with the smallest priority
+     * @return The element, null if the queue is empty
+     */
+    public T poll() {
+        T e = peek();
+        if (e != null) {
+            removeAt(0);
+        }
+        return e;
+    }
+
+    /**
+     * Remove an element, if present
+     * @param e The element
+     * @return true if the element was in the queue
+     */
+    public boolean remove(T e) {
+        Integer i = positions.get(e);
+        if (i == null) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    public boolean contains(T e) {
+        return positions.containsKey(e);
+    }
+
+    /**
+     * @param e The element
+     * @return The priority of the element, NaN if it is not in the queue
+     */
+    public double getPriority(T e) {
+        Integer i = positions.get(e);
+        return i == null ? Double.NaN : priorities[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(heap, 0, size, null);
+        positions.clear();
+        size = 0;
+    }
+
+    private void removeAt(int i) {
+        positions.remove(heap[i]);
+        size--;
+        if (i < size) {
+            move(size, i);
+            heap[size] = null;
+            if (i > 0 && less(i, (i - 1) / 2)) {
+                up(i);
+            } else {
+                down(i);
+            }
+        } else {
+            heap[size] = null;
+        }
+    }
+
+    private boolean less(int i, int j) {
+        int c = Double.compare(priorities[i], priorities[j]);
+        return c < 0 || (c == 0 && order[i] < order[j]);
+    }
+
+    private void up(int i) {
+        int parent;
+        while (i > 0) {
+            parent = (i - 1) / 2;
+            if (!less(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void down(int i) {
+        int child;
+        while ((child = 2 * i + 1) < size) {
+            if (child + 1 < size && less(child + 1, child)) {
+                child++;
+            }
+            if (!less(child, i)) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        T e = heap[i];
+        double p = priorities[i];
+        long o = order[i];
+        move(j, i);
+        heap[j] = e;
+        priorities[j] = p;
+        order[j] = o;
+        positions.put(e, j);
+    }
+
+    /*
+     * Copy the element in position from to position to
+     */
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        priorities[to] = priorities[from];
+        order[to] = order[from];
+        positions.put(heap[to], to);
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
+import it.unitn.disi.db.queryrelaxation.metrics.Metrics;
+import it.unitn.disi.db.queryrelaxation.model.Constraint;
+import it.unitn.disi.db.queryrelaxation.model.LeaveOneOut;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * An approximate relaxation tree grown by Monte Carlo tree search. Each 
+ * episode descends from the root choosing the questions with UCT and sampling
+ * the answers of the user with the probabilities of the choice nodes, expands 
+ * the first relaxation node that is not expanded yet and estimates the cost of
+ * the answer with a rollout of the default policy. The rollouts do not build 
+ * any node: the greedy policy asks the first relaxation that has results, as 
+ * in {@link GreedyRelaxationTree}, the random one picks a relaxation at random, 
+ * as in {@link RandomRelaxationTree}.
+ * <p>
+ * The search stops when the time budget or the maximum number of episodes is 
+ * reached, or when the whole tree is expanded. The cost of the nodes that are
+ * not expanded is the average cost of their episodes, then the costs are 
+ * computed bottom-up as in the optimal tree, so the tree becomes the optimal 
+ * one as the budget grows.
+ * <p>
+ * The episodes can run in parallel: the tree is descended, expanded and 
+ * updated holding the lock of the tree, while the rollouts, that query the 
+ * database, run concurrently. The nodes on the path of a running episode
+ * carry a virtual loss, i.e. they count as visited with the worst cost, so 
+ * that the other episodes explore different paths.
+ *
+ * @see OptimalRelaxationTree
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class MonteCarloRelaxationTree extends OptimalRelaxationTree {
+    /*
+     * Default time budget in milliseconds
+     */
+    public static final long DEFAULT_BUDGET = 1000;
+    public static final double DEFAULT_EXPLORATION = Math.sqrt(2);
+
+    /**
+     * The policy that chooses the questions of the rollouts
+     */
+    public enum Policy {
+        /* The first relaxation having results, the first one otherwise */
+        GREEDY,
+        /* A relaxation at random */
+        RANDOM
+    }
+
+    /*
+     * Visits of a node: the virtual ones belong to the running episodes. The 
+     * open nodes are the relaxation nodes of the subtree to expand.
+     */
+    private static class Statistics {
+        int visits;
+        int virtual;
+        double total;
+        int open;
+    }
+    /*
+     * Time budget in milliseconds, no limit if <= 0
+     */
+    private long budget;
+    /*
+     * Maximum number of episodes, no limit if <= 0
+     */
+    private int iterations;
+    /*
+     * Number of threads running the episodes
+     */
+    private int parallelism = 1;
+    private Policy policy = Policy.GREEDY;
+    /*
+     * Weight of the exploration term of UCT
+     */
+    private double exploration = DEFAULT_EXPLORATION;
+    private long seed;
+    private Map<Node, Statistics> statistics;
+    private int episodes;
+    private long deadline;
+    /*
+     * Range of the costs of the episodes, to normalize the averages in UCT
+     */
+    private double lowest;
+    private double highest;
+    /*
+     * Cost of a node on the path of a running episode
+     */
+    private double virtualLoss;
+    /*
+     * Random generator of the rollouts of the nodes never visited
+     */
+    private Random random;
+
+    public MonteCarloRelaxationTree(Query query, int cardinality, TreeType type, long budget) {
+        super(query, cardinality, type);
+        this.budget = budget;
+        seed = System.nanoTime();
+        //Leaf costs are cached by concurrent rollouts
+        cachedResults = new ConcurrentHashMap<>();
+    }
+
+    public MonteCarloRelaxationTree(Query query, int cardinality, TreeType type) {
+        this(query, cardinality, type, DEFAULT_BUDGET);
+    }
+
+    @Override
+    public void materialize(boolean computeCosts) throws TreeException {
+        if (parallelism < 1) {
+            throw new TreeException("parallelism cannot be < 1");
+        }
+        super.materialize(computeCosts);
+    }
+
+    /**
+     * Run the episodes until the budget is exhausted, building the tree
+     * @throws TreeException If the database cannot be queried 
+     */
+    @Override
+    protected void buildIteratively() throws TreeException {
+        List<Future<Void>> workers = new ArrayList<>();
+        ForkJoinPool pool;
+        statistics = new HashMap<>();
+        random = new Random(seed);
+        nodes = 1;
+        relaxationNodes = 1;
+        episodes = 0;
+        statistics(root).open = expandable((RelaxationNode) root) ? 1 : 0;
+        lowest = Double.MAX_VALUE;
+        highest = -Double.MAX_VALUE;
+        //Every question removes a soft constraint
+        virtualLoss = type.isMaximize() ? 0 : c * (query.getConstraints().size() - query.getHardConstraints().size());
+        deadline = budget > 0 ? System.nanoTime() + budget * 1000000L : Long.MAX_VALUE;
+        try {
+            if (!db.isConnected()) {
+                db.connect();
+            }
+            if (type == TreeType.PREFERRED) {
+                getPrefKernel(); //Compiled once, before the episodes
+            }
+            if (parallelism == 1) {
+                search(random);
+                return;
+            }
+            pool = new ForkJoinPool(parallelism);
+            try {
+                for (int i = 0; i < parallelism; i++) {
+                    final Random r = new Random(seed + i + 1);
+                    workers.add(pool.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws ConnectionException {
+                            search(r);
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> worker : workers) {
+                    worker.get();
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TreeException("Search interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new TreeException("Cannot run the episodes", ex.getCause());
+        } catch (ConnectionException ex) {
+            throw new TreeException("Wrong way to build the model, please check", ex);
+        }
+    }
+
+    /*
+     * Run episodes until the budget is exhausted
+     */
+    private void search(Random r) throws ConnectionException {
+        List<Node> path = new ArrayList<>();
+        RelaxationNode last;
+        while (next()) {
+            path.clear();
+            last = descend(path, r);
+            backup(path, expandable(last) ? rollout(last, r) : leafCost(last.getQuery(), last.isEmpty()));
+        }
+    }
+
+    /*
+     * Start a new episode if the budget is not exhausted
+     */
+    private synchronized boolean next() {
+        if (statistics(root).open == 0 || (iterations > 0 && episodes >= iterations) || System.nanoTime() >= deadline) {
+            return false;
+        }
+        episodes++;
+        return true;
+    }
+
+    /*
+     * Descend from the root to the first relaxation node that is not expanded,
+     * expand it and sample one of its answers. The subtrees that are fully 
+     * expanded are skipped, so that every episode expands a node. The nodes 
+     * on the path get a virtual loss.
+     */
+    private synchronized RelaxationNode descend(List<Node> path, Random r) throws ConnectionException {
+        Node n = root, answer;
+        ChoiceNode cn;
+        boolean expanded = false;
+        while (true) {
+            path.add(n);
+            statistics(n).virtual++;
+            if (n instanceof ChoiceNode) {
+                cn = (ChoiceNode) n;
+                n = r.nextDouble() <= cn.getYesProbability() ? cn.getYesNode() : cn.getNoNode();
+                answer = n == cn.getYesNode() ? cn.getNoNode() : cn.getYesNode();
+                if (!expanded && statistics(n).open == 0 && statistics(answer).open > 0) {
+                    n = answer;
+                }
+            } else if (expanded || !expandable((RelaxationNode) n)) {
+                return (RelaxationNode) n;
+            } else {
+                if (n.isLeaf()) {
+                    expand((RelaxationNode) n, path);
+                    expanded = true;
+                }
+                n = select((RelaxationNode) n, expanded);
+            }
+        }
+    }
+
+    /*
+     * Build the choice nodes of a relaxation node and their answers, and 
+     * update the open nodes of the path to the node
+     */
+    private void expand(RelaxationNode n, List<Node> path) throws ConnectionException {
+        LinkedList<Node> answers = new LinkedList<>();
+        ChoiceNode cn;
+        int open = 0;
+        metrics.increment(Metrics.NODES_EXPANDED);
+        for (Constraint constraint : n.getQuery().getConstraints()) {
+            if (!constraint.isHard()) {
+                cn = new ChoiceNode();
+                cn.setFather(n);
+                cn.setConstraint(constraint);
+                cn.setQuery((Query) n.getQuery().clone());
+                n.addNode(constraint.getAttributeName(), cn);
+                nodes++;
+            }
+        }
+        for (Node child : n.getChildren()) {
+            metrics.increment(Metrics.NODES_EXPANDED);
+            constructAnswers((ChoiceNode) child, answers);
+            cn = (ChoiceNode) child;
+            statistics(cn.getYesNode()).open = expandable(cn.getYesNode()) ? 1 : 0;
+            statistics(cn.getNoNode()).open = expandable(cn.getNoNode()) ? 1 : 0;
+            statistics(cn).open = statistics(cn.getYesNode()).open + statistics(cn.getNoNode()).open;
+            open += statistics(cn).open;
+        }
+        //n is not open anymore
+        for (Node f : path) {
+            statistics(f).open += open - 1;
+        }
+    }
+
+    /*
+     * The choice with the highest upper confidence bound, the first choice 
+     * never visited if any. The choices without open nodes are skipped, 
+     * unless n has just been expanded.
+     */
+    private ChoiceNode select(RelaxationNode n, boolean expanded) {
+        Statistics s = statistics(n);
+        double logVisits = Math.log(s.visits + s.virtual), range = highest > lowest ? highest - lowest : 1;
+        double score, bestScore = -Double.MAX_VALUE, average;
+        ChoiceNode best = null;
+        for (Node child : n.getChildren()) {
+            s = statistics(child);
+            if (!expanded && s.open == 0) {
+                continue;
+            }
+            if (s.visits + s.virtual == 0) {
+                return (ChoiceNode) child;
+            }
+            average = (s.total + s.virtual * virtualLoss) / (s.visits + s.virtual);
+            score = (average - lowest) / range;
+            if (!type.isMaximize()) {
+                score = 1 - score;
+            }
+            score += exploration * Math.sqrt(logVisits / (s.visits + s.virtual));
+            if (score > bestScore) {
+                bestScore = score;
+                best = (ChoiceNode) child;
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Add the cost of the episode to the nodes of the path, from the last 
+     * one, and remove their virtual loss. Each question costs c.
+     */
+    private synchronized void backup(List<Node> path, double cost) {
+        Statistics s;
+        Node n;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            n = path.get(i);
+            if (n instanceof ChoiceNode) {
+                cost += c;
+            }
+            s = statistics(n);
+            s.virtual--;
+            s.visits++;
+            s.total += cost;
+            lowest = Math.min(lowest, cost);
+            highest = Math.max(highest, cost);
+        }
+    }
+
+    /*
+     * Simulate the interaction from a relaxation node with the default policy
+     * and sampled answers, without building the nodes
+     */
+    private double rollout(RelaxationNode n, Random r) throws ConnectionException {
+        Query q = n.getQuery(), yes, hard;
+        boolean empty = n.isEmpty();
+        double cost = 0;
+        LeaveOneOut results;
+        Constraint chosen;
+        while (empty && !q.getConstraints().isEmpty() && !q.allHardConstraints()) {
+            results = db.leaveOneOut(q);
+            chosen = choose(q, results, r);
+            yes = (Query) q.clone();
+            yes.relax(chosen);
+            if (r.nextDouble() <= computeYesProbability(yes, new RelaxationNode(q))) {
+                empty = results.count(results.indexOf(chosen)) < cardinality;
+                q = yes;
+            } else {
+                q = (Query) q.clone();
+                hard = new Query();
+                for (Constraint constraint : q.getConstraints()) {
+                    if (constraint.equals(chosen)) {
+                        constraint.setHard(true);
+                    }
+                    if (constraint.isHard()) {
+                        hard.addConstraint(constraint);
+                    }
+                }
+                hard.negatedConstraints().addAll(q.negatedConstraints());
+                //The same stopping condition of the 'no' nodes
+                empty = hasResults(hard);
+            }
+            cost += c;
+        }
+        return cost + leafCost(q, empty);
+    }
+
+    /*
+     * The question asked by the default policy
+     */
+    private Constraint choose(Query q, LeaveOneOut results, Random r) {
+        List<Constraint> soft = new ArrayList<>();
+        for (Constraint constraint : q.getConstraints()) {
+            if (!constraint.isHard()) {
+                soft.add(constraint);
+            }
+        }
+        if (policy == Policy.RANDOM) {
+            return soft.get(r.nextInt(soft.size()));
+        }
+        for (Constraint constraint : soft) {
+            if (results.count(results.indexOf(constraint)) >= cardinality) {
+                return constraint;
+            }
+        }
+        return soft.get(0);
+    }
+
+    /*
+     * Cost of a leaf with the query
+     */
+    private double leafCost(Query q, boolean empty) throws ConnectionException {
+        RelaxationNode leaf = new RelaxationNode(q);
+        leaf.setEmpty(empty);
+        super.computeLeafCost(leaf);
+        return leaf.getCost();
+    }
+
+    /*
+     * True if the relaxation node needs questions
+     */
+    private boolean expandable(RelaxationNode n) {
+        return n.isEmpty() && !n.getQuery().getConstraints().isEmpty() && !n.getQuery().allHardConstraints();
+    }
+
+    private Statistics statistics(Node n) {
+        Statistics s = statistics.get(n);
+        if (s == null) {
+            s = new Statistics();
+            statistics.put(n, s);
+        }
+        return s;
+    }
+
+    /**
+     * The cost of a node that is not expanded is the average cost of its
+     * episodes, or the cost of a rollout if it has never been visited
+     * @param n The leaf node to compute
+     * @throws ConnectionException In case the database is not available.
+     */
+    @Override
+    protected void computeLeafCost(RelaxationNode n) throws ConnectionException {
+        Statistics s;
+        if (!expandable(n)) {
+            super.computeLeafCost(n);
+        } else if ((s = statistics.get(n)) != null && s.visits > 0) {
+            n.setCost(s.total / s.visits);
+        } else {
+            n.setCost(rollout(n, random));
+        }
+    }
+
+    /**
+     * Number of episodes of the last search
+     * @return The number of episodes
+     */
+    public int getEpisodes() {
+        return episodes;
+    }
+
+    /**
+     * Number of relaxation nodes that are not expanded, zero if the search 
+     * built the whole tree
+     * @return The number of relaxation nodes to expand
+     */
+    public int getOpenNodes() {
+        return statistics != null ? statistics(root).open : 0;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    public double getExploration() {
+        return exploration;
+    }
+
+    public void setExploration(double exploration) {
+        this.exploration = exploration;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set the seed of the random answers and rollouts, the search is 
+     * repeatable with a single thread and no time budget
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
+import it.unitn.disi.db.queryrelaxation.model.Pair;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree.TreeType;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The costs of the optimal tree of a materialized tree for several objectives,
+ * computed in a single bottom-up pass without copying the tree. The nodes are
+ * the ones of {@link OptimalRelaxationTree#optimalView()}, i.e. the choices
+ * satisfying the optimality condition of the tree and their answers, and each
+ * node has a vector of costs, one per objective. The results of each leaf 
+ * query are fetched once for all the objectives.
+ *
+ * @see OptimalRelaxationTree#computeObjectives(TreeType...)
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class ObjectiveCosts {
+    private final OptimalRelaxationTree tree;
+    private final OptimalTreeView view;
+    private final TreeType[] objectives;
+    /*
+     * Costs of the nodes of the optimal tree, one per objective
+     */
+    private final Map<Node, double[]> costs;
+    /*
+     * Costs of the non empty leaves by query
+     */
+    private final Map<Query, double[]> leaves;
+
+    ObjectiveCosts(OptimalRelaxationTree tree, TreeType[] objectives) {
+        this.tree = tree;
+        view = tree.optimalView();
+        this.objectives = objectives.clone();
+        costs = new HashMap<>();
+        leaves = new HashMap<>();
+    }
+
+    /*
+     * Compute the costs of the nodes of the optimal tree
+     */
+    void compute() throws TreeException {
+        costs.clear();
+        leaves.clear();
+        try {
+            if (!tree.db.isConnected()) {
+                tree.db.connect();
+            }
+            evaluate(tree.getRoot());
+        } catch (ConnectionException ex) {
+            throw new TreeException("Error on cost computation", ex);
+        }
+    }
+
+    /*
+     * Costs of a node of the optimal tree, computed from the ones of its 
+     * children as in OptimalRelaxationTree.updateCost
+     */
+    private double[] evaluate(Node n) throws ConnectionException {
+        double[] cost, yes, no, child;
+        List<Node> children = view.getChildren(n);
+        double c;
+        ChoiceNode cn;
+        if (n instanceof ChoiceNode) {
+            cn = (ChoiceNode) n;
+            cost = new double[objectives.length];
+            yes = evaluate(cn.getYesNode());
+            no = evaluate(cn.getNoNode());
+            for (int i = 0; i < objectives.length; i++) {
+                c = OptimalRelaxationTree.penalty(objectives[i]);
+                cost[i] = (yes[i] + c) * cn.getYesProbability() + (no[i] + c) * cn.getNoProbability();
+            }
+        } else if (children.isEmpty()) {
+            cost = leaf((RelaxationNode) n);
+        } else {
+            cost = new double[objectives.length];
+            for (int i = 0; i < objectives.length; i++) {
+                cost[i] = objectives[i].isMaximize() ? -Double.MAX_VALUE : Double.MAX_VALUE;
+            }
+            for (Node choice : children) {
+                child = evaluate(choice);
+                for (int i = 0; i < objectives.length; i++) {
+                    cost[i] = objectives[i].isMaximize() ? Math.max(cost[i], child[i]) : Math.min(cost[i], child[i]);
+                }
+            }
+        }
+        costs.put(n, cost);
+        return cost;
+    }
+
+    /*
+     * Costs of a leaf of the optimal tree as in 
+     * OptimalRelaxationTree.computeLeafCost, with a single query
+     */
+    private double[] leaf(RelaxationNode n) throws ConnectionException {
+        Query q = new Query(n.query.getConstraints());
+        double[] cost;
+        Pair<int[], double[]> resultSet = null;
+        Pair<Double, Double> b;
+        double sum, max;
+        if (n.isEmpty()) {
+            //A leaf that is not expanded costs its pessimistic bound, as in the tree
+            cost = new double[objectives.length];
+            for (int i = 0; i < objectives.length; i++) {
+                b = tree.leafBounds(n, objectives[i]);
+                if (b != null) {
+                    cost[i] = objectives[i].isMaximize() ? b.getFirst() : b.getSecond();
+                }
+            }
+            return cost;
+        }
+        if (tree.cached(leaves, q, "objectives")) {
+            return leaves.get(q);
+        }
+        cost = new double[objectives.length];
+        for (int i = 0; i < objectives.length; i++) {
+            if (objectives[i] == TreeType.MIN_EFFORT) {
+                continue;
+            }
+            if (resultSet == null) {
+                resultSet = tree.db.resultsAndBenefits(q);
+            }
+            switch (objectives[i]) {
+                case MAX_VALUE_AVG:
+                    sum = 0;
+                    for (double t : resultSet.getSecond()) {
+                        sum += t;
+                    }
+                    cost[i] = resultSet.getFirst().length != 0 ? sum / resultSet.getFirst().length : 0;
+                    break;
+                case MAX_VALUE_MAX:
+                    max = 0;
+                    for (double t : resultSet.getSecond()) {
+                        max = Math.max(max, t);
+                    }
+                    cost[i] = max;
+                    break;
+                case PREFERRED:
+                    cost[i] = tree.getPrefKernel().max(resultSet.getFirst());
+                    break;
+                default:
+                    throw new AssertionError("Wrong type");
+            }
+        }
+        leaves.put(q, cost);
+        return cost;
+    }
+
+    /**
+     * The cost of the root for the objective
+     * @param objective One of the objectives
+     * @return The cost of the root of the optimal tree
+     */
+    public double getCost(TreeType objective) {
+        return getCost(tree.getRoot(), objective);
+    }
+
+    /**
+     * The cost of a node for the objective
+     * @param n A node of the optimal tree
+     * @param objective One of the objectives
+     * @return The cost of the node, NaN if it is not in the optimal tree
+     * @throws IllegalArgumentException If the objective has not been computed
+     */
+    public double getCost(Node n, TreeType objective) {
+        double[] cost = costs.get(n);
+        return cost == null ? Double.NaN : cost[index(objective)];
+    }
+
+    /**
+     * The number of optimal choices of the root, i.e. the children of the 
+     * root of the optimal tree
+     * @return The number of optimal choices
+     */
+    public int getOptimalChoices() {
+        return view.getChildren(tree.getRoot()).size();
+    }
+
+    /**
+     * The paths of the optimal tree that are optimal for the objective, with
+     * the syntax of {@link OptimalRelaxationTree#optimalPaths()}
+     * @param objective One of the objectives
+     * @return The set of the paths
+     */
+    public Set<String> optimalPaths(TreeType objective) {
+        final int o = index(objective);
+        Set<String> paths = new HashSet<>();
+        OptimalTreeView optimalPaths = new OptimalTreeView(tree, true) {
+            @Override
+            protected boolean accept(Node father, Node child) {
+                return super.accept(father, child) && costs.get(father)[o] == costs.get(child)[o];
+            }
+        };
+        for (OptimalTreeView.Path path : optimalPaths) {
+            //A root without choices has no paths
+            if (path.size() != 0) {
+                paths.add(path.toString());
+            }
+        }
+        return paths;
+    }
+
+    public TreeType[] getObjectives() {
+        return objectives.clone();
+    }
+
+    private int index(TreeType objective) {
+        for (int i = 0; i < objectives.length; i++) {
+            if (objectives[i] == objective) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("The objective " + objective + " has not been computed");
+    }
+}
@@ -20,9 +20,12 @@
 package it.unitn.disi.db.queryrelaxation.tree;
 
 import it.unitn.disi.db.queryrelaxation.model.Constraint;
+import it.unitn.disi.db.queryrelaxation.model.LeaveOneOut;
 import it.unitn.disi.db.queryrelaxation.model.Pair;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
+import it.unitn.disi.db.queryrelaxation.metrics.Metrics;
+import it.unitn.disi.db.queryrelaxation.statistics.EmptySubqueryMiner;
 import it.unitn.disi.db.queryrelaxation.statistics.Utilities;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -33,6 +36,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
     
     /**
@@ -69,9 +73,10 @@ public class OptimalRelaxationTree extends RelaxationTree {
      */
     protected int relaxationNodes = 0;
     /*
-     * Time spent in IPF interrogartion
+     * Time spent in IPF interrogartion, the probabilities can be computed by
+     * concurrent rollouts
      */
-    private long totalTimeIPFInterrogation; //A:
+    private AtomicLong totalTimeIPFInterrogation = new AtomicLong(); //A:
     /*
      * Parameter c controls the penalization at each step (look at cost-function) 
      */
@@ -84,6 +89,21 @@ public class OptimalRelaxationTree extends RelaxationTree {
      * Represents the cost of an empty query 
      */
     protected Map<Query, Double> cachedResults;
+    /*
+     * Results of the relaxations of the last expanded node, shared by its
+     * choice nodes
+     */
+    private LeaveOneOut siblingResults;
+    private Node siblingFather;
+    /*
+     * Minimal empty subqueries of the query, if known emptiness checks on the
+     * subqueries do not need the database
+     */
+    protected EmptySubqueryMiner.Lattice lattice;
+    /*
+     * Cost and latency of the last simulation of the policy of the tree
+     */
+    protected PolicySimulator.Result simulation;
         
     
     /**
@@ -99,7 +119,6 @@ public class OptimalRelaxationTree extends RelaxationTree {
         root = new RelaxationNode(query);
         cachedResults = new HashMap<>();
         computePenalty();
-        totalTimeIPFInterrogation = 0;//A:
     }
 
     public OptimalRelaxationTree(Query q) {
@@ -114,15 +133,21 @@ public class OptimalRelaxationTree extends RelaxationTree {
      * @throws TreeException If the tree construction generates an error.
      */
     public void materialize(boolean computeCosts) throws TreeException {
+        long start = metrics.start(), phase;
         computedProbabilities = new HashMap<>();
         time.reset();
         time.start();
+        phase = metrics.start();
         buildIteratively();
+        metrics.phase(Metrics.BUILD, phase);
         
         if (computeCosts) {
+            phase = metrics.start();
             computeCosts();
+            metrics.phase(Metrics.COST, phase);
         }
         time.stop();
+        metrics.query(getClass().getSimpleName(), query, nodes, prunedNodes(), start);
     }
 
     /**
@@ -131,14 +156,10 @@ public class OptimalRelaxationTree extends RelaxationTree {
      * @throws TreeException If something wrong happens while constructing the tree
      */
     protected void buildIteratively() throws TreeException {
-        RelaxationNode rn;
         ChoiceNode cn;
-        Query q;
-        Double probability, den, num;
+        Double den, num;
         LinkedList<Node> queue = new LinkedList<>();
         boolean leaf;
-        Map<Integer, Constraint> qConstraints = new HashMap<>();
-        int[] results; 
         Node n;
         queue.add(root);
         nodes = 1;
@@ -151,6 +172,7 @@ public class OptimalRelaxationTree extends RelaxationTree {
                 n = queue.poll();
                 //No further relaxations or only hard constraints. 
                 if (!n.getQuery().getConstraints().isEmpty() && !n.getQuery().allHardConstraints()) { 
+                    metrics.increment(Metrics.NODES_EXPANDED);
                     if (n instanceof RelaxationNode) {
                         if (((RelaxationNode) n).isEmpty()) {
                             for (Constraint c : n.getQuery().getConstraints()) {
@@ -167,53 +189,7 @@ public class OptimalRelaxationTree extends RelaxationTree {
                         }
                     } 
                     else if (n instanceof ChoiceNode) {
-                        //Build yes node
-                        q = (Query) n.getQuery().clone();
-                        q.relax(((ChoiceNode) n).getConstraint());
-                        rn = new RelaxationNode(q);
-
-                        probability = computeYesProbability(q, (RelaxationNode) n.father);
-                        
-                        ((ChoiceNode) n).setYesNode(probability, rn);
-                        rn.setFather(n);
-                        
-                        results = db.submitQuery(q);
-                        //Cardinality constraint acts as a stopping condition
-                        rn.setEmpty(results.length < cardinality);
-                        queue.add(rn);
-                        relaxationNodes++;
-                        nodes++;
-                        //Build 'no' node
-                        q = (Query) n.getQuery().clone();
-                        for (Constraint c : q.getConstraints()) {
-                            if (c.equals(((ChoiceNode) n).getConstraint())) {
-                                c.setHard(true);
-                            }
-                        }
-                        rn = new RelaxationNode(q);
-                        rn.setFather(n);
-                        //DAVIDE-MOD
-                        //DAVIDE-MOD (10/07/2014) - The reasoning is the opposite: 
-                        //If it returns no answers removing all the non hard, non empty
-                        //contraints, than it is a leaf, then it is marked nonEmpty 
-                        //(since we want to be a leaf in the next iteration)
-                        qConstraints.clear();
-                        q = new Query();
-                        for (Constraint c : rn.query.getConstraints()) {
-                            if (c.isHard()) {
-                                q.addConstraint(c);
-                            }
-                        }
-                        q.negatedConstraints().addAll(rn.query.negatedConstraints());
-                        //If the query gives us some result the node is not empty
-                        results = db.submitQuery(q);
-                        rn.setEmpty(results.length >= cardinality);
-                        //DAVIDE-MOD-END
-                        ((ChoiceNode) n).setNoNode(1 - probability, rn);
-                        //((ChoiceNode) n).setNoNode(computeNoProbabilitySecondVersion(q, (RelaxationNode) n.father), rn);
-                        queue.add(rn);
-                        relaxationNodes++;
-                        nodes++;
+                        constructAnswers((ChoiceNode) n, queue);
                     }
                 } //END IF NOT EMPTY QUERY
             }
@@ -222,6 +198,140 @@ public class OptimalRelaxationTree extends RelaxationTree {
         } 
     }
 
+    /**
+     * Build the 'yes' and the 'no' nodes of a choice node and add them to the 
+     * queue of the nodes to expand
+     * @param n The choice node
+     * @param queue The nodes to expand
+     * @throws ConnectionException If the database cannot be queried
+     */
+    protected void constructAnswers(ChoiceNode n, LinkedList<Node> queue) throws ConnectionException {
+        RelaxationNode rn;
+        Query q;
+        double probability;
+        LeaveOneOut siblings;
+        //Build yes node
+        q = (Query) n.getQuery().clone();
+        q.relax(n.getConstraint());
+        rn = new RelaxationNode(q);
+
+        probability = computeYesProbability(q, (RelaxationNode) n.father);
+        
+        n.setYesNode(probability, rn);
+        rn.setFather(n);
+        
+        //Cardinality constraint acts as a stopping condition
+        if (useLattice(Utilities.toBooleanQuery(q))) {
+            rn.setEmpty(lattice.isEmpty(Utilities.toBooleanQuery(q)));
+        } else {
+            siblings = siblingResults(n);
+            rn.setEmpty(siblings.count(siblings.indexOf(n.getConstraint())) < cardinality);
+        }
+        queue.add(rn);
+        relaxationNodes++;
+        nodes++;
+        //Build 'no' node
+        q = (Query) n.getQuery().clone();
+        for (Constraint c : q.getConstraints()) {
+            if (c.equals(n.getConstraint())) {
+                c.setHard(true);
+            }
+        }
+        rn = new RelaxationNode(q);
+        rn.setFather(n);
+        //DAVIDE-MOD
+        //DAVIDE-MOD (10/07/2014) - The reasoning is the opposite: 
+        //If it returns no answers removing all the non hard, non empty
+        //contraints, than it is a leaf, then it is marked nonEmpty 
+        //(since we want to be a leaf in the next iteration)
+        q = new Query();
+        for (Constraint c : rn.query.getConstraints()) {
+            if (c.isHard()) {
+                q.addConstraint(c);
+            }
+        }
+        q.negatedConstraints().addAll(rn.query.negatedConstraints());
+        //If the query gives us some result the node is not empty
+        rn.setEmpty(hasResults(q));
+        //DAVIDE-MOD-END
+        n.setNoNode(1 - probability, rn);
+        //n.setNoNode(computeNoProbabilitySecondVersion(q, (RelaxationNode) n.father), rn);
+        queue.add(rn);
+        relaxationNodes++;
+        nodes++;
+    }
+
+    /**
+     * Return the results of the relaxations of all the choice nodes having the
+     * same father as n. They are computed with a single probe the first time
+     * one of the siblings is visited, and reused as long as the siblings are
+     * visited one after the other (as in a breadth-first construction).
+     * @param n The choice node whose constraint is relaxed
+     * @return The results of the leave-one-out variants of the query of n
+     * @throws ConnectionException If the database cannot be queried
+     */
+    protected LeaveOneOut siblingResults(ChoiceNode n) throws ConnectionException {
+        if (siblingResults == null || siblingFather != n.father) {
+            siblingResults = db.leaveOneOut(n.getQuery());
+            siblingFather = n.father;
+        }
+        return siblingResults;
+    }
+
+    /**
+     * Check if a computation on the query is cached, counting the hits and
+     * the misses of the cache
+     * @param cache The cache to look into
+     * @param q The key of the computation
+     * @param name The name of the cache in the metrics
+     * @return True if the cache contains q
+     */
+    protected boolean cached(Map<Query, ?> cache, Query q, String name) {
+        boolean hit = cache.containsKey(q);
+        metrics.increment(hit ? Metrics.CACHE_HITS : Metrics.CACHE_MISSES, "cache", name);
+        return hit;
+    }
+
+    /*
+     * Number of pruned nodes reported to the metrics
+     */
+    protected int prunedNodes() {
+        return noPrunedNodes;
+    }
+
+    /*
+     * True if the emptiness of the boolean query is known from the lattice
+     */
+    protected boolean useLattice(int query) {
+        return lattice != null && lattice.getCardinality() == cardinality && lattice.covers(query);
+    }
+
+    /**
+     * Check if a subquery of the query has at least <code>cardinality</code>
+     * results, using the lattice of the subqueries when it is available
+     * @param q The subquery, negations are ignored as in the database
+     * @return True if q has enough results
+     * @throws ConnectionException If the database cannot be queried
+     */
+    protected boolean hasResults(Query q) throws ConnectionException {
+        int query = Utilities.toBooleanQuery(q);
+        if (useLattice(query)) {
+            return !lattice.isEmpty(query);
+        }
+        return db.submitQuery(q).length >= cardinality;
+    }
+
+    /**
+     * Set the minimal empty subqueries of the query, mined with the same
+     * cardinality of the tree, so that the emptiness of the nodes is checked
+     * without querying the database
+     * @param lattice The lattice of the subqueries of the query, null to
+     * always query the database
+     */
+    public void setLattice(EmptySubqueryMiner.Lattice lattice) {
+        this.lattice = lattice;
+    }
+
     /**
      * Visit the tree in preorder, i.e. first visit the root and the children,
      * and returns the list of all the nodes
@@ -294,9 +404,11 @@ public class OptimalRelaxationTree extends RelaxationTree {
         int t = Utilities.toBooleanQuery(q1);
         long curentTime = System.nanoTime(); //A:
         pr = prior.getProbability(t);
-        totalTimeIPFInterrogation += System.nanoTime() - curentTime; //A:
+        totalTimeIPFInterrogation.addAndGet(System.nanoTime() - curentTime); //A:
+        metrics.increment(Metrics.PRIOR_EVALUATIONS);
+        metrics.increment(Metrics.PREFERENCE_EVALUATIONS);
         if (type == TreeType.PREFERRED)
-            probability = (1 - pref.compute(query, t)) * pr;
+            probability = (1 - getPrefKernel().compute(t)) * pr;
         else
             probability = (1 - pref.compute(parent.getQuery(), t)) * pr;
         return probability;
@@ -367,15 +479,20 @@ public class OptimalRelaxationTree extends RelaxationTree {
     */
 
     private void computePenalty() {
+        c = penalty(type);
+    }
+
+    /*
+     * The penalization of each step for the cost function
+     */
+    static double penalty(TreeType type) {
         switch (type) {
             case MAX_VALUE_AVG:
             case MAX_VALUE_MAX:
             case PREFERRED: 
-                c = 0;
-                break;
+                return 0;
             case MIN_EFFORT : 
-                c = 1;
-                break;
+                return 1;
             default:
                 throw new AssertionError();
         }
@@ -440,7 +557,7 @@ public class OptimalRelaxationTree extends RelaxationTree {
         if (!n.isEmpty()) {
             switch (type) {
                 case MAX_VALUE_AVG:
-                    if (cachedResults.containsKey(q))
+                    if (cached(cachedResults, q, "results"))
                         cost = cachedResults.get(q);
                     else {
                         resultSet = db.resultsAndBenefits(q);
@@ -453,30 +570,21 @@ public class OptimalRelaxationTree extends RelaxationTree {
                     }
                     break;  
                 case MAX_VALUE_MAX :
-                    if (cachedResults.containsKey(q))
+                    if (cached(cachedResults, q, "results"))
                         cost = cachedResults.get(q);
                     else {
-                        resultSet = db.resultsAndBenefits(n.query); 
-                        for (double benefit : resultSet.getSecond()) {
-                            if (benefit > cost)
-                                cost = benefit;
-                        }
+                        cost = db.getMaxBenefit(n.query);
                         cachedResults.put(q, cost);
                     }
                     break;
                 case MIN_EFFORT : 
                     break;
                 case PREFERRED : 
-                    if (cachedResults.containsKey(q))
+                    if (cached(cachedResults, q, "results"))
                         cost = cachedResults.get(q);
                     else {
-                        double preference;
                         resultSet = db.resultsAndBenefits(n.query); 
-                        for (int t : resultSet.getFirst()) {
-                            preference = pref.compute(query, t);
-                            if (preference > cost)
-                                cost = preference;
-                        }
+                        cost = getPrefKernel().max(resultSet.getFirst());
                         cachedResults.put(q, cost);
                         //n.setCost(max);                
                     }
@@ -487,6 +595,19 @@ public class OptimalRelaxationTree extends RelaxationTree {
         }
         n.setCost(cost);
     }
+
+    /**
+     * Bounds on the cost of a leaf that is not expanded, for a cost function 
+     * that can differ from the one of the tree
+     * @param n The leaf node
+     * @param objective The cost function
+     * @return The bounds (lower, upper), null if the node is a leaf of the 
+     * complete tree
+     * @throws ConnectionException In case the database is not available.
+     */
+    protected Pair<Double, Double> leafBounds(RelaxationNode n, TreeType objective) throws ConnectionException {
+        return null;
+    }
     
     
     /**
@@ -523,13 +644,41 @@ public class OptimalRelaxationTree extends RelaxationTree {
     @Override
     public long getTime() {
         long t = time.getElapsedTimeMillis();
-        if (type == TreeType.MIN_EFFORT) {
-            t = t/(long)root.cost;
+        //Time per question: the expected number of questions is fractional
+        //and it is 0 when the root is a leaf
+        if (type == TreeType.MIN_EFFORT && root.cost > 0) {
+            t = (long)(t/root.cost);
         }
         return t;
     }
 
 
+    /**
+     * Simulate the policy on the tree and keep the statistics of the walks, 
+     * the latency below the millisecond is kept by {@link #getSimulation()}
+     * @param policy The policy choosing the questions
+     * @param k The number of walks
+     * @return The average latency of the walks, rounded to milliseconds
+     * @throws IllegalStateException If the walks cannot be completed
+     */
+    protected long simulate(PolicySimulator.Policy policy, int k) {
+        try {
+            simulation = new PolicySimulator(this).simulate(policy, k);
+        } catch (TreeException ex) {
+            throw new IllegalStateException("Cannot simulate the policy", ex);
+        }
+        return Math.round(simulation.getLatency().getMean());
+    }
+
+    /**
+     * The cost and the latency of the last simulation of the policy of the 
+     * tree, see {@link #getTime()}
+     * @return The statistics of the walks, null if the policy is not simulated
+     */
+    public PolicySimulator.Result getSimulation() {
+        return simulation;
+    }
+
     /**
      * A method to represent the actual tree in a string encoded in Graphviz DOT language
      * @return A string representing the tree
@@ -576,7 +725,7 @@ public class OptimalRelaxationTree extends RelaxationTree {
      * @return 
      */
     public long getTotalTimeIPFInterrogation() { 
-        return this.totalTimeIPFInterrogation;
+        return this.totalTimeIPFInterrogation.get();
     }
 
     /**
@@ -584,7 +733,30 @@ public class OptimalRelaxationTree extends RelaxationTree {
      */
     @Override
     public void resetTime() {
-        this.totalTimeIPFInterrogation = 0;
+        this.totalTimeIPFInterrogation.set(0);
+    }
+
+    /*
+     * Reset the node counters and the time spent on the IPF, used by the trees
+     * that materialize a single branch on behalf of another tree
+     */
+    protected void clearCounters() {
+        nodes = 0;
+        relaxationNodes = 0;
+        noPrunedNodes = 0;
+        //A copy of the tree must not share the time with the original
+        totalTimeIPFInterrogation = new AtomicLong();
+    }
+
+    /*
+     * Add the node counters and the time spent on the IPF of a tree that 
+     * materialized a branch of this tree
+     */
+    protected void addCounters(OptimalRelaxationTree branch) {
+        nodes += branch.nodes;
+        relaxationNodes += branch.relaxationNodes;
+        noPrunedNodes += branch.noPrunedNodes;
+        totalTimeIPFInterrogation.addAndGet(branch.totalTimeIPFInterrogation.get());
     }
     
     /**
@@ -618,13 +790,28 @@ public class OptimalRelaxationTree extends RelaxationTree {
     }
     
     /*
-     * Split the paths produced with method printPaths
+     * The strings of the paths of the view that end in a leaf of the tree, the
+     * empty string if there are none. A leaf root has no paths.
      */
-    protected Set<String> splitPahts(boolean optimal) {
-        String[] paths = printPaths(root, "", optimal).split("\n");
+    protected Set<String> splitPahts(final boolean optimal) {
         Set<String> retval = new HashSet<>();
-        for (int i = 0; i < paths.length; i++) {
-            retval.add(paths[i].trim());
+        boolean leaves = false;
+        OptimalTreeView paths = new OptimalTreeView(this, optimal) {
+            @Override
+            protected boolean accept(Node father, Node child) {
+                return onPath(father, child, optimal);
+            }
+        };
+        for (OptimalTreeView.Path path : paths) {
+            if (path.getLeaf().isLeaf()) {
+                leaves = true;
+                if (path.size() != 0) {
+                    retval.add(path.toString());
+                }
+            }
+        }
+        if (!leaves) {
+            retval.add("");
         }
         return retval;
     }
@@ -642,6 +829,30 @@ public class OptimalRelaxationTree extends RelaxationTree {
         return optimalTree(new OptimalRelaxationTree(query, cardinality, tt));
     }
     
+    /**
+     * The optimal tree (see {@link #optimalTree(TreeType)}) as a view of this
+     * tree, the nodes are filtered by the optimality condition without copying
+     * them. The costs of this tree must be computed.
+     * @return The view of the optimal tree
+     */
+    public OptimalTreeView optimalView() {
+        return new OptimalTreeView(this, true);
+    }
+
+    /**
+     * Compute the costs of the optimal tree (see {@link #optimalTree(TreeType)})
+     * for several cost functions in a single pass, without copying the tree.
+     * The costs of this tree must be computed.
+     * @param objectives The cost functions
+     * @return The costs of the nodes of the optimal tree for each function
+     * @throws TreeException If it is not possible to compute the costs
+     */
+    public ObjectiveCosts computeObjectives(TreeType... objectives) throws TreeException {
+        ObjectiveCosts costs = new ObjectiveCosts(this, objectives);
+        costs.compute();
+        return costs;
+    }
+
     protected RelaxationTree optimalTree(RelaxationTree optTree) throws TreeException {
         LinkedList<Node> queue = new LinkedList<>();
         LinkedList<Node> optQueue = new LinkedList<>();
@@ -711,6 +922,14 @@ public class OptimalRelaxationTree extends RelaxationTree {
         return n1.cost == n2.cost;
     }
 
+    /*
+     * Whether a choice is on the paths of optimalPaths() (or allPaths() if not
+     * optimal): the choices not marked, with the cost of the father if optimal
+     */
+    protected boolean onPath(Node father, Node child, boolean optimal) {
+        return (!optimal || father.cost == child.cost) && !isMarked(child);
+    }
+
     /* 
      *  None of the nodes are marked in the optimal tree. 
      */
@@ -719,30 +938,6 @@ public class OptimalRelaxationTree extends RelaxationTree {
         return false;
     }
     
-    /*
-     * Recursive function to produce all the paths separated by a \n
-     */
-    protected String printPaths(Node n, String acc, boolean optimal) {
-        if (n instanceof RelaxationNode) {
-            if (n.isLeaf()) {
-                return acc + "\n";
-            } else {
-                String result = "";
-                for (Node child : n.getChildren()) {
-                    if (!optimal || n.cost == child.cost) { //Take the paths with the cost of the root equal to the cost of the parent - i.e. Opt
-                        result += printPaths(child, acc, optimal);
-                    }
-                }
-                return result;
-            }            
-        } else {
-            //ChoiceNode cannot be a leaf
-            ChoiceNode cn = (ChoiceNode)n;
-            return printPaths(cn.getYesNode(), acc + cn.getConstraint().getAttributeName() + "|" + "yes" +  "|", optimal) +
-            printPaths(cn.getNoNode(), acc + cn.getConstraint().getAttributeName() + "|" + "no" + "|", optimal);
-        }
-    }
-    
     /**
      * Return the candidate relaxation nodes belonging to some Optimal path
      * @return An HashSet of nodes that belong to some optimal path
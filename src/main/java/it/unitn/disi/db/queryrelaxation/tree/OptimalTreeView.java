@@ -0,0 +1,356 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree.TreeType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The optimal tree of a materialized tree seen through the nodes of the tree 
+ * itself: the children of a relaxation node are filtered on the fly by the 
+ * optimality condition of the tree, while the choices keep both their answers.
+ * Differently from {@link OptimalRelaxationTree#optimalTree(TreeType)} nothing
+ * is copied, so that the view costs no memory and it follows the changes of 
+ * the tree. A view can also contain all the nodes that are not marked by the 
+ * tree. The paths of {@link OptimalRelaxationTree#optimalPaths()} and 
+ * {@link OptimalRelaxationTree#allPaths()} are filtered by each tree instead.
+ * <p>
+ * The view iterates over its paths, from the root to each leaf, building a 
+ * path only when it is reached and its string only when it is asked.
+ *
+ * @see OptimalRelaxationTree#optimalView()
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class OptimalTreeView implements Iterable<OptimalTreeView.Path> {
+    protected final OptimalRelaxationTree tree;
+    /*
+     * True if only the optimal choices are in the view
+     */
+    protected final boolean optimal;
+
+    OptimalTreeView(OptimalRelaxationTree tree, boolean optimal) {
+        this.tree = tree;
+        this.optimal = optimal;
+    }
+
+    /**
+     * Whether a choice of a relaxation node belongs to the view, the answers 
+     * of a choice always do
+     * @param father The relaxation node in the view
+     * @param child One of its choices
+     * @return True if the choice is in the view
+     */
+    protected boolean accept(Node father, Node child) {
+        return optimal ? tree.optimalityCondition(father, child) : !tree.isMarked(child);
+    }
+
+    public Node getRoot() {
+        return tree.getRoot();
+    }
+
+    public OptimalRelaxationTree getTree() {
+        return tree;
+    }
+
+    public boolean isOptimal() {
+        return optimal;
+    }
+
+    /**
+     * The children of a node of the view
+     * @param n A node in the view
+     * @return The choices in the view of a relaxation node, the yes and the no
+     * node of a choice
+     */
+    public List<Node> getChildren(Node n) {
+        List<Node> children;
+        if (n instanceof ChoiceNode) {
+            return n.getChildren();
+        }
+        children = new ArrayList<>();
+        for (Node child : n.getChildren()) {
+            if (accept(n, child)) {
+                children.add(child);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * A node is a leaf of the view if it is a relaxation node without choices 
+     * in the view
+     * @param n A node in the view
+     * @return True if the node is a leaf of the view
+     */
+    public boolean isLeaf(Node n) {
+        if (n instanceof ChoiceNode) {
+            return false;
+        }
+        for (Node child : n.getChildren()) {
+            if (accept(n, child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Iterate over the paths from the root to the leaves of the view, in depth
+     * first order. A root without choices has only the empty path.
+     * @return The iterator of the paths
+     */
+    @Override
+    public Iterator<Path> iterator() {
+        return new Paths();
+    }
+
+    /**
+     * The view in Graphviz DOT language, as {@link OptimalRelaxationTree#toString()}
+     * @return A string representing the view
+     */
+    @Override
+    public String toString() {
+        return toString(null, null);
+    }
+
+    /**
+     * The view in Graphviz DOT language with the costs of an objective, as the
+     * optimal tree built for the objective and whose costs are computed
+     * @param costs The costs of the optimal tree, null to use the costs of the
+     * nodes
+     * @param objective One of the objectives of the costs
+     * @return A string representing the view
+     */
+    public String toString(ObjectiveCosts costs, TreeType objective) {
+        StringBuilder sb = new StringBuilder();
+        List<String> edges = new ArrayList<>();
+        Map<Integer, String> nodes = new LinkedHashMap<>();
+        LinkedList<Node> queue = new LinkedList<>();
+        LinkedList<Integer> roots = new LinkedList<>();
+        int index = 1, rindex;
+        List<Node> children;
+        ChoiceNode cn;
+        String shape;
+        double cost;
+        Node n;
+
+        queue.add(getRoot());
+        roots.add(index);
+        while (!queue.isEmpty()) {
+            n = queue.poll();
+            rindex = roots.poll();
+            children = getChildren(n);
+            if (n instanceof ChoiceNode) {
+                shape = "triangle";
+                cn = (ChoiceNode) n;
+                edges.add(String.format(OptimalRelaxationTree.PROB_EDGE, rindex, ++index, "Yes=", cn.getYesProbability()));
+                roots.add(index);
+                edges.add(String.format(OptimalRelaxationTree.PROB_EDGE, rindex, ++index, "No=", cn.getNoProbability()));
+                roots.add(index);
+            } else {
+                shape = "circle";
+                for (Node child : children) {
+                    edges.add(String.format(OptimalRelaxationTree.EDGE, rindex, ++index, ((ChoiceNode) child).getConstraint().getAttributeName()));
+                    roots.add(index);
+                }
+            }
+            queue.addAll(children);
+            cost = costs == null ? n.cost : costs.getCost(n, objective);
+            nodes.put(rindex, String.format(OptimalRelaxationTree.NODE, rindex, rindex, cost >= 0 ? String.format("\\nc=%.4g", cost) : "", shape, "white"));
+        }
+        sb.append("digraph relaxation_graph {\n");
+        sb.append("\tsize=\"8,5\"\n");
+        for (String node : nodes.values()) {
+            sb.append(node);
+        }
+        for (String edge : edges) {
+            sb.append(edge);
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * A path from the root to a leaf of the view: the sequence of the choices 
+     * and of the answers given to them
+     */
+    public static class Path {
+        private final ChoiceNode[] choices;
+        private final boolean[] answers;
+        private final RelaxationNode leaf;
+
+        Path(ChoiceNode[] choices, boolean[] answers, RelaxationNode leaf) {
+            this.choices = choices;
+            this.answers = answers;
+            this.leaf = leaf;
+        }
+
+        /**
+         * The number of choices in the path
+         * @return The length of the path
+         */
+        public int size() {
+            return choices.length;
+        }
+
+        public ChoiceNode getChoice(int i) {
+            return choices[i];
+        }
+
+        /**
+         * The answer to the i-th choice
+         * @param i The position of the choice
+         * @return True if the answer is yes
+         */
+        public boolean getAnswer(int i) {
+            return answers[i];
+        }
+
+        public RelaxationNode getLeaf() {
+            return leaf;
+        }
+
+        /**
+         * The path with the syntax of {@link OptimalRelaxationTree#optimalPaths()}
+         * @return The string of the path
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < choices.length; i++) {
+                sb.append(choices[i].getConstraint().getAttributeName()).append(answers[i] ? "|yes|" : "|no|");
+            }
+            return sb.toString();
+        }
+    }
+
+    /*
+     * Depth first visit of the view with an explicit stack, the nodes of the 
+     * current path and the index of the next child of each one
+     */
+    private class Paths implements Iterator<Path> {
+        private final List<Node> stack;
+        private int[] next;
+        private Path path;
+
+        Paths() {
+            stack = new ArrayList<>();
+            next = new int[16];
+            if (isLeaf(getRoot())) {
+                path = new Path(new ChoiceNode[0], new boolean[0], (RelaxationNode) getRoot());
+            } else {
+                push(getRoot());
+                path = advance();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return path != null;
+        }
+
+        @Override
+        public Path next() {
+            Path current = path;
+            if (current == null) {
+                throw new NoSuchElementException();
+            }
+            path = advance();
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("The view cannot be modified");
+        }
+
+        /*
+         * Go down to the next leaf, null if there are no more leaves
+         */
+        private Path advance() {
+            List<Node> children;
+            Node n, child;
+            Path leafPath;
+            int top;
+            while (!stack.isEmpty()) {
+                top = stack.size() - 1;
+                n = stack.get(top);
+                children = n.getChildren();
+                child = null;
+                while (child == null && next[top] < children.size()) {
+                    child = children.get(next[top]++);
+                    if (!(n instanceof ChoiceNode) && !accept(n, child)) {
+                        child = null;
+                    }
+                }
+                if (child == null) {
+                    stack.remove(top);
+                } else if (isLeaf(child)) {
+                    push(child);
+                    leafPath = snapshot();
+                    stack.remove(top + 1);
+                    return leafPath;
+                } else {
+                    push(child);
+                }
+            }
+            return null;
+        }
+
+        private void push(Node n) {
+            if (stack.size() == next.length) {
+                next = Arrays.copyOf(next, next.length * 2);
+            }
+            next[stack.size()] = 0;
+            stack.add(n);
+        }
+
+        /*
+         * The path of the nodes in the stack, that ends with a leaf
+         */
+        private Path snapshot() {
+            int size = 0, i, j = 0;
+            for (i = 0; i < stack.size(); i++) {
+                if (stack.get(i) instanceof ChoiceNode) {
+                    size++;
+                }
+            }
+            ChoiceNode[] choices = new ChoiceNode[size];
+            boolean[] answers = new boolean[size];
+            for (i = 0; i < stack.size() - 1; i++) {
+                if (stack.get(i) instanceof ChoiceNode) {
+                    choices[j] = (ChoiceNode) stack.get(i);
+                    answers[j] = stack.get(i + 1) == choices[j].getYesNode();
+                    j++;
+                }
+            }
+            return new Path(choices, answers, (RelaxationNode) stack.get(stack.size() - 1));
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Monte Carlo evaluation of a policy on a materialized tree with the costs 
+ * computed. Each walk starts from the root: the policy chooses the question 
+ * at the relaxation nodes, the answers are sampled with the probabilities of
+ * the choice nodes, and the walk costs c for each question plus the cost of
+ * the leaf it reaches. The duration of the walk is its latency.
+ * <p>
+ * The walks never query the database: the policies use the emptiness 
+ * recorded on the relaxation nodes. They are split in slices run in parallel,
+ * each one with its own random generator split from the one of the 
+ * simulator, so that the walks are repeatable with the same seed and the 
+ * same parallelism. The tree is only read.
+ *
+ * @see OptimalRelaxationTree
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class PolicySimulator {
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    /*
+     * Quantile of the normal distribution for the 95% confidence intervals
+     */
+    private static final double Z_95 = 1.959963984540054;
+    /*
+     * Minimum number of walks of a slice
+     */
+    private static final int MIN_SLICE = 1000;
+
+    /**
+     * Choose the question to ask at a relaxation node that is not a leaf
+     */
+    public interface Policy {
+        ChoiceNode choose(RelaxationNode n, RelaxationTree.TreeType type, SplittableRandom random);
+    }
+
+    /**
+     * The policies of the trees
+     */
+    public enum Policies implements Policy {
+        /* A question at random, as in RandomRelaxationTree */
+        RANDOM {
+            @Override
+            public ChoiceNode choose(RelaxationNode n, RelaxationTree.TreeType type, SplittableRandom random) {
+                List<Node> children = n.getChildren();
+                return (ChoiceNode) children.get(random.nextInt(children.size()));
+            }
+        },
+        /* The first relaxation having results, the first question otherwise, as in GreedyRelaxationTree */
+        GREEDY {
+            @Override
+            public ChoiceNode choose(RelaxationNode n, RelaxationTree.TreeType type, SplittableRandom random) {
+                for (Node child : n.getChildren()) {
+                    if (hasAnswers((ChoiceNode) child)) {
+                        return (ChoiceNode) child;
+                    }
+                }
+                return (ChoiceNode) n.getChildren().get(0);
+            }
+        },
+        /* A relaxation having results at random, a question at random otherwise, as in GreedyRelaxationRandomChoiceTree */
+        GREEDY_RANDOM {
+            @Override
+            public ChoiceNode choose(RelaxationNode n, RelaxationTree.TreeType type, SplittableRandom random) {
+                List<Node> children = n.getChildren();
+                int answers = 0, i;
+                for (Node child : children) {
+                    if (hasAnswers((ChoiceNode) child)) {
+                        answers++;
+                    }
+                }
+                if (answers == 0) {
+                    return (ChoiceNode) children.get(random.nextInt(children.size()));
+                }
+                i = random.nextInt(answers);
+                for (Node child : children) {
+                    if (hasAnswers((ChoiceNode) child) && i-- == 0) {
+                        return (ChoiceNode) child;
+                    }
+                }
+                throw new AssertionError("No relaxation having results");
+            }
+        },
+        /* The question with the best cost, as in the optimal and the pruning trees */
+        BEST {
+            @Override
+            public ChoiceNode choose(RelaxationNode n, RelaxationTree.TreeType type, SplittableRandom random) {
+                Node best = null;
+                for (Node child : n.getChildren()) {
+                    if (best == null || (type.isMaximize() ? child.getCost() > best.getCost() : child.getCost() < best.getCost())) {
+                        best = child;
+                    }
+                }
+                return (ChoiceNode) best;
+            }
+        }
+    }
+
+    /**
+     * Mean and variance of a sample, computed in a single pass
+     */
+    public static class Summary {
+        private long count;
+        private double mean;
+        private double m2;
+
+        void add(double x) {
+            double delta = x - mean;
+            count++;
+            mean += delta / count;
+            m2 += delta * (x - mean);
+        }
+
+        /*
+         * Add the values of another summary
+         */
+        void merge(Summary s) {
+            double delta = s.mean - mean;
+            long n = count + s.count;
+            if (s.count == 0) {
+                return;
+            }
+            mean += delta * s.count / n;
+            m2 += s.m2 + delta * delta * count * s.count / n;
+            count = n;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * The unbiased variance of the sample
+         * @return The variance, 0 if there are less than two values
+         */
+        public double getVariance() {
+            return count > 1 ? m2 / (count - 1) : 0;
+        }
+
+        /**
+         * Half width of the 95% confidence interval of the mean
+         * @return The half width of the interval
+         */
+        public double getHalfWidth() {
+            return count > 0 ? Z_95 * Math.sqrt(getVariance() / count) : 0;
+        }
+
+        public double getLowerBound() {
+            return mean - getHalfWidth();
+        }
+
+        public double getUpperBound() {
+            return mean + getHalfWidth();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.4f +- %.4f (variance %.4f)", mean, getHalfWidth(), getVariance());
+        }
+    }
+
+    /**
+     * Cost and latency (in milliseconds) of the walks of a policy
+     */
+    public static class Result {
+        private final Summary cost = new Summary();
+        private final Summary latency = new Summary();
+
+        public Summary getCost() {
+            return cost;
+        }
+
+        public Summary getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("cost: %s, latency: %s ms", cost, latency);
+        }
+    }
+
+    private final OptimalRelaxationTree tree;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private SplittableRandom random;
+
+    public PolicySimulator(OptimalRelaxationTree tree) {
+        this.tree = tree;
+        random = new SplittableRandom();
+    }
+
+    /**
+     * Simulate the walks of the policy on the tree
+     * @param policy The policy choosing the questions
+     * @param walks The number of walks
+     * @return The cost and the latency of the walks
+     * @throws TreeException If the walks cannot be completed
+     */
+    public Result simulate(final Policy policy, int walks) throws TreeException {
+        List<Future<Result>> slices = new ArrayList<>();
+        Result result = new Result();
+        ForkJoinPool pool;
+        int threads = Math.max(1, Math.min(parallelism, walks / MIN_SLICE));
+        if (threads == 1) {
+            return walk(policy, walks, random.split());
+        }
+        //The children of the nodes are cached before the walks
+        tree.visit();
+        pool = new ForkJoinPool(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                final int size = walks / threads + (i < walks % threads ? 1 : 0);
+                final SplittableRandom r = random.split();
+                slices.add(pool.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        return walk(policy, size, r);
+                    }
+                }));
+            }
+            for (Future<Result> slice : slices) {
+                result.cost.merge(slice.get().cost);
+                result.latency.merge(slice.get().latency);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TreeException("Simulation interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new TreeException("Cannot simulate the policy", ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return result;
+    }
+
+    /*
+     * A slice of walks
+     */
+    private Result walk(Policy policy, int walks, SplittableRandom r) {
+        Result result = new Result();
+        RelaxationTree.TreeType type = tree.getType();
+        Node n;
+        ChoiceNode cn;
+        double cost;
+        long start;
+        for (int i = 0; i < walks; i++) {
+            start = System.nanoTime();
+            n = tree.getRoot();
+            cost = 0;
+            while (!(n instanceof RelaxationNode && n.isLeaf())) {
+                if (n instanceof RelaxationNode) {
+                    n = policy.choose((RelaxationNode) n, type, r);
+                    cost += tree.c;
+                } else {
+                    cn = (ChoiceNode) n;
+                    n = r.nextDouble() <= cn.getYesProbability() ? cn.getYesNode() : cn.getNoNode();
+                }
+            }
+            result.latency.add((System.nanoTime() - start) / 1000000.0);
+            result.cost.add(cost + n.getCost());
+        }
+        return result;
+    }
+
+    /**
+     * True if the relaxation of the choice node has results, as recorded on
+     * its 'yes' node
+     * @param cn The choice node
+     * @return True if the 'yes' node is not empty
+     */
+    public static boolean hasAnswers(ChoiceNode cn) {
+        return !cn.getYesNode().isEmpty();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Set the seed of the walks, that are repeatable with the same parallelism
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+}
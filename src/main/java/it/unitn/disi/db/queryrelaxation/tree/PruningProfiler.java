@@ -0,0 +1,287 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import it.unitn.disi.db.queryrelaxation.model.Pair;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records, for each level of a bound-based tree (see {@link PruningTree}), how
+ * large the frontier is, how many choice nodes are marked by each pruning rule
+ * and how tight the bounds are, so that different pruning strategies can be 
+ * compared on the same queries. A level is the number of relaxations asked to
+ * reach a node, i.e. the number of choice nodes from the root, and it does not
+ * depend on how each tree counts its iterations.
+ * <p>
+ * The tightness is measured at the root: the bounds of the root at the end of 
+ * each level are compared with its final cost, that is computed by 
+ * <code>materialize(true)</code>. A profiler belongs to a single tree. 
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class PruningProfiler {
+    /**
+     * Tab separated header of {@link #report(String, String)}
+     */
+    public static final String HEADER = "tree\tquery\tlevel\tfrontier\tlive\tbounded\tavgGap\tlbMarks\tubMarks\tinheritedMarks\trootLb\trootUb\trootCost\tlbSlack\tubSlack";
+
+    /**
+     * The rule that marked a node
+     */
+    public static enum Rule {
+        /* Its lower bound is above the smallest upper bound of its siblings */
+        LOWER_BOUND, 
+        /* Its upper bound is below the greatest lower bound of its siblings */
+        UPPER_BOUND, 
+        /* Its father is marked */
+        INHERITED
+    }
+
+    private final List<Level> levels;
+    private double rootCost;
+    /*
+     * The last recorded frontier and its level, pruning may reorder the queue
+     */
+    private List<Node> frontier;
+    private Level current;
+
+    public PruningProfiler() {
+        levels = new ArrayList<>();
+        rootCost = Double.NaN;
+        frontier = new ArrayList<>();
+    }
+
+    /**
+     * Record the frontier at the end of a level, after the bounds have been 
+     * updated and before pruning
+     * @param frontier The relaxation nodes of the next level
+     * @param bounds The bounds (lower, upper) of the nodes
+     * @param root The root of the tree
+     */
+    void frontier(Collection<Node> frontier, Map<Node, Pair<Double, Double>> bounds, Node root) {
+        Set<Node> fathers = new HashSet<>();
+        Pair<Double, Double> lbub;
+        Level l;
+
+        this.frontier.clear();
+        current = null;
+        if (frontier.isEmpty()) {
+            return;
+        }
+        this.frontier.addAll(frontier);
+        l = current = level(depth(frontier.iterator().next()));
+        l.frontier += frontier.size();
+        for (Node n : frontier) {
+            if (n.father != null && fathers.add(n.father)) {
+                lbub = bounds.get(n.father);
+                if (lbub != null) {
+                    l.bounded++;
+                    l.gap += lbub.getSecond() - lbub.getFirst();
+                }
+            }
+        }
+        lbub = bounds.get(root);
+        if (lbub != null) {
+            l.rootLb = lbub.getFirst();
+            l.rootUb = lbub.getSecond();
+        }
+    }
+
+    /**
+     * Record the nodes of the last frontier that cannot be expanded after 
+     * pruning
+     * @param marked The marked nodes
+     */
+    void pruned(Set<Node> marked) {
+        if (current == null) {
+            return;
+        }
+        for (Node n : frontier) {
+            if (marked.contains(n) || marked.contains(n.father)) {
+                current.dead++;
+            }
+        }
+        frontier.clear();
+        current = null;
+    }
+
+    /**
+     * Record a node marked by a rule, a node is counted once
+     * @param n The marked node
+     * @param rule The rule that marked the node
+     */
+    void marked(Node n, Rule rule) {
+        Level l = level(depth(n));
+        switch (rule) {
+            case LOWER_BOUND:
+                l.lowerBoundMarks++;
+                break;
+            case UPPER_BOUND:
+                l.upperBoundMarks++;
+                break;
+            case INHERITED:
+                l.inheritedMarks++;
+                break;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    /**
+     * Record the final cost of the root
+     * @param cost The cost computed for the root
+     */
+    void finish(double cost) {
+        rootCost = cost;
+    }
+
+    /**
+     * Remove everything recorded so far
+     */
+    public void reset() {
+        levels.clear();
+        frontier.clear();
+        current = null;
+        rootCost = Double.NaN;
+    }
+
+    public List<Level> getLevels() {
+        return levels;
+    }
+
+    public double getRootCost() {
+        return rootCost;
+    }
+
+    /**
+     * Write a row per level, tab separated, with the columns of {@link #HEADER}
+     * @param tree The name of the tree
+     * @param query A label for the query
+     * @return The rows
+     */
+    public String report(String tree, String query) {
+        StringBuilder sb = new StringBuilder();
+        Level l;
+        for (int i = 1; i < levels.size(); i++) {
+            l = levels.get(i);
+            sb.append(String.format(Locale.ROOT, "%s\t%s\t%d\t%d\t%d\t%d\t%.6f\t%d\t%d\t%d\t%.6f\t%.6f\t%.6f\t%.6f\t%.6f\n",
+                    tree, query, i, l.frontier, l.getLive(), l.bounded, l.getAverageGap(), 
+                    l.lowerBoundMarks, l.upperBoundMarks, l.inheritedMarks,
+                    l.rootLb, l.rootUb, rootCost, rootCost - l.rootLb, l.rootUb - rootCost));
+        }
+        return sb.toString();
+    }
+
+    private Level level(int depth) {
+        while (levels.size() <= depth) {
+            levels.add(new Level());
+        }
+        return levels.get(depth);
+    }
+
+    /*
+     * Number of choice nodes from the root to n, n included
+     */
+    private static int depth(Node n) {
+        int depth = 0;
+        for (; n != null; n = n.father) {
+            if (n instanceof ChoiceNode) {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * The statistics of a level
+     */
+    public static class Level {
+        private int frontier;
+        private int dead;
+        private int bounded;
+        private double gap;
+        private int lowerBoundMarks;
+        private int upperBoundMarks;
+        private int inheritedMarks;
+        private double rootLb = Double.NaN;
+        private double rootUb = Double.NaN;
+
+        /**
+         * @return The number of relaxation nodes reached at this level
+         */
+        public int getFrontier() {
+            return frontier;
+        }
+
+        /**
+         * @return The nodes of the frontier that can still be expanded after
+         * pruning, i.e. whose father is not marked
+         */
+        public int getLive() {
+            return frontier - dead;
+        }
+
+        /**
+         * @return The number of choice nodes with bounds at this level
+         */
+        public int getBounded() {
+            return bounded;
+        }
+
+        /**
+         * @return The average difference between upper and lower bound of the
+         * choice nodes of this level
+         */
+        public double getAverageGap() {
+            return bounded == 0 ? 0 : gap / bounded;
+        }
+
+        public int getLowerBoundMarks() {
+            return lowerBoundMarks;
+        }
+
+        public int getUpperBoundMarks() {
+            return upperBoundMarks;
+        }
+
+        /**
+         * @return The nodes (choice or relaxation) marked because their father
+         * is marked
+         */
+        public int getInheritedMarks() {
+            return inheritedMarks;
+        }
+
+        public double getRootLb() {
+            return rootLb;
+        }
+
+        public double getRootUb() {
+            return rootUb;
+        }
+    }
+}
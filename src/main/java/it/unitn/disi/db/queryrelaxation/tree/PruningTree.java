@@ -19,7 +19,9 @@
  */
 package it.unitn.disi.db.queryrelaxation.tree;
 
+import it.unitn.disi.db.queryrelaxation.metrics.Metrics;
 import it.unitn.disi.db.queryrelaxation.model.Constraint;
+import it.unitn.disi.db.queryrelaxation.model.LeaveOneOut;
 import it.unitn.disi.db.queryrelaxation.model.Pair;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 import it.unitn.disi.db.queryrelaxation.exceptions.ConnectionException;
@@ -63,6 +65,10 @@ public class PruningTree extends OptimalRelaxationTree {
      * A hash map that caches bound computations
      */
     public Map<Query, Double> cachedBounds;
+    /*
+     * Per-level statistics of the pruning, if requested
+     */
+    protected PruningProfiler profiler;
     
     //to erase
     private boolean writeInfo = false; // to erase
@@ -99,8 +105,7 @@ public class PruningTree extends OptimalRelaxationTree {
 
         //to erase
         int count = 0;
-        long previousTime = System.currentTimeMillis(), current_Time = System.currentTimeMillis(),
-                updateTime = 0, pruneTime = 0;
+        long previousTime = System.currentTimeMillis(), current_Time = System.currentTimeMillis();
         //end to erase
 
         String lastProcessedNodeInfo = "";//added for debugging
@@ -143,6 +148,7 @@ public class PruningTree extends OptimalRelaxationTree {
 
                 if (!n.getQuery().getConstraints().isEmpty() && !n.getQuery().allHardConstraints()) {
                     if (!marked.contains(n)) {
+                        metrics.increment(Metrics.NODES_EXPANDED);
 //                        currentTime = System.nanoTime();
                         if (n instanceof RelaxationNode) {
                             //DAVIDE-MOD
@@ -208,24 +214,7 @@ public class PruningTree extends OptimalRelaxationTree {
                                 //Update and prune
 //                            if (++actualLevel == level) {
                                 ++actualLevel;
-
-                                if (writeInfo) {
-                                    current_Time = System.currentTimeMillis(); // to erase
-                                }
-                                update(queue);
-                                if (writeInfo) {
-                                    updateTime += System.currentTimeMillis() - current_Time; //to erase
-                                }
-//                                if (!marked.contains(n)) {
-//                                    time += (System.nanoTime() - currentTime);
-//                                }
-                                if (writeInfo) {
-                                    current_Time = System.currentTimeMillis(); // to erase
-                                }
-                                prune(queue);
-                                if (writeInfo) {
-                                    pruneTime += System.currentTimeMillis() - current_Time; //to erase
-                                }
+                                updateAndPrune(queue);
                                 if (verbose) {
                                     System.out.println(toString());
                                 }
@@ -240,11 +229,9 @@ public class PruningTree extends OptimalRelaxationTree {
                     if ((count % 1000) == 0) {
                         current_Time = System.currentTimeMillis();
                         appendInfoInAFile(count + " nodes were processed so far (both choice and relax nodes). The last 1000  nodes in "
-                                + (current_Time - previousTime) + " ms; update time = " + updateTime + "; pruning time = " + pruneTime + " ms;\n "
+                                + (current_Time - previousTime) + " ms;\n "
                                 + /*marked.size()+" marked nodes & "*/ +relaxationNodes + " relaxationNodes. \n\n");
                         previousTime = System.currentTimeMillis();
-                        pruneTime = 0;
-                        updateTime = 0;
                     }
                     count++;
                 }
@@ -266,6 +253,8 @@ public class PruningTree extends OptimalRelaxationTree {
         RelaxationNode rn;
         Double probability;
         Pair<int[], double[]> resultSet;
+        LeaveOneOut siblings;
+        int variant;
 
         q = (Query) n.getQuery().clone();
         //Worst case, only estimate
@@ -282,8 +271,10 @@ public class PruningTree extends OptimalRelaxationTree {
             n.setYesNode(probability, rn);
             if (db != null) { //Optimize, no node for sure are empty ;-)
                 //MODIFIED - Nocturnum delirium
-                resultSet = db.resultsAndBenefits(q);
-                rn.setEmpty(resultSet.getFirst().length < cardinality);
+                siblings = siblingResults(n);
+                variant = siblings.indexOf(n.getConstraint());
+                resultSet = siblings.resultSet(variant);
+                rn.setEmpty(siblings.count(variant) < cardinality);
                 //Set the bounds. 
                 //if it is a leaf the ub and lb are equal to the level ..
                 updateBounds(rn, resultSet);
@@ -317,7 +308,7 @@ public class PruningTree extends OptimalRelaxationTree {
                 }
             }
             q.negatedConstraints().addAll(rn.query.negatedConstraints());
-            rn.setEmpty(db.submitQuery(q).length >= cardinality); // Look the condition is reversed
+            rn.setEmpty(hasResults(q)); // Look the condition is reversed
             //END-DAVIDE-MOD (Modified the below condition) - added "!rn.isEmpty()"
             updateBounds(rn, new Pair<>(new int[0], new double[0]));
         }
@@ -341,15 +332,10 @@ public class PruningTree extends OptimalRelaxationTree {
                 //double max = -(Double.MAX_VALUE);
                 //double benefit;
                 if (!n.isEmpty()) {
-                    if (cachedBounds.containsKey(q)) {
+                    if (cached(cachedBounds, q, "bounds")) {
                         ub = cachedBounds.get(q);
                     } else {
-                        for (double benefit : resultSet.getSecond()) {
-                            //benefit = t.getBenefit();
-                            if (benefit > ub) {
-                                ub = benefit;
-                            }
-                        }
+                        ub = maxBenefit(resultSet);
                         cachedBounds.put(q, ub);
                     }
                     lb = ub;
@@ -360,12 +346,10 @@ public class PruningTree extends OptimalRelaxationTree {
                     // These are not tight bounds! 
                     if (!n.getQuery().getHardConstraints().isEmpty()) {
                         Query hq = new Query(n.getQuery().getHardConstraints());
-                        if (cachedBounds.containsKey(hq)) {
+                        if (cached(cachedBounds, hq, "bounds")) {
                             ub = cachedBounds.get(hq);
                         } else {
-                            Pair<Double, Double> minMax = db.getMinMaxBenefit(hq);
-                            //lb = minMax.getFirst();
-                            ub = minMax.getSecond();
+                            ub = db.getMaxBenefit(hq);
                             cachedBounds.put(hq, ub);
                         }
                     } else {
@@ -383,7 +367,7 @@ public class PruningTree extends OptimalRelaxationTree {
                 //double max = -(Double.MAX_VALUE);
 
                 if (!n.isEmpty()) {
-                    if (cachedBounds.containsKey(q)) {
+                    if (cached(cachedBounds, q, "bounds")) {
                         ub = cachedBounds.get(q);
                     } else {
                         for (double benefit : resultSet.getSecond()) {
@@ -400,12 +384,10 @@ public class PruningTree extends OptimalRelaxationTree {
                     // These are not tight bounds! 
                     if (!n.getQuery().getHardConstraints().isEmpty()) {
                         Query hq = new Query(n.getQuery().getHardConstraints());
-                        if (cachedBounds.containsKey(hq)) {
+                        if (cached(cachedBounds, hq, "bounds")) {
                             ub = cachedBounds.get(hq);
                         } else {
-                            Pair<Double, Double> minMax = db.getMinMaxBenefit(hq);
-                            //lb = minMax.getFirst();
-                            ub = minMax.getSecond();
+                            ub = db.getMaxBenefit(hq);
                             cachedBounds.put(hq, ub);
                         }
                     } else {
@@ -429,18 +411,10 @@ public class PruningTree extends OptimalRelaxationTree {
             case PREFERRED:
                 lb = ub = 0;
                 if (!n.isEmpty()) {
-                    if (cachedBounds.containsKey(q)) {
+                    if (cached(cachedBounds, q, "bounds")) {
                         ub = cachedBounds.get(q);
                     } else {
-                        double preference = 0;
-                        //resultSet = db.submitQuery(n.query); 
-                        ub = 0;
-                        for (int t : resultSet.getFirst()) {
-                            preference = pref.compute(query, t);
-                            if (preference > ub) {
-                                ub = preference;
-                            }
-                        }
+                        ub = getPrefKernel().max(resultSet.getFirst());
                         cachedBounds.put(q, ub);
                     }
                     lb = ub;
@@ -451,18 +425,10 @@ public class PruningTree extends OptimalRelaxationTree {
                     //bounds.put(n,new Pair<Double, Double>(0.0, 0.0) );
                 } else {
                     Query hq = new Query(n.getQuery().getHardConstraints());
-                    if (cachedBounds.containsKey(hq)) {
+                    if (cached(cachedBounds, hq, "bounds")) {
                         ub = cachedBounds.get(hq);
                     } else {
-                        double preference = 0;
-                        int[] rs = db.submitQuery(hq);
-                        ub = 0;
-                        for (int t : rs) {
-                            preference = pref.compute(query, t);
-                            if (preference > ub) {
-                                ub = preference;
-                            }
-                        }
+                        ub = getPrefKernel().max(db.submitQuery(hq));
                         cachedBounds.put(hq, ub);
                     }
                     nodeBounds = new Pair<>(0.0, ub);
@@ -473,6 +439,24 @@ public class PruningTree extends OptimalRelaxationTree {
         bounds.put(n, nodeBounds);
     }
 
+    /*
+     * Maximum benefit of a result set (0 if empty): when the database returns
+     * the tuples by descending benefit it is the first one.
+     */
+    protected double maxBenefit(Pair<int[], double[]> resultSet) {
+        double[] benefits = resultSet.getSecond();
+        double max = 0;
+        if (db.isBenefitSorted()) {
+            return benefits.length > 0 && benefits[0] > 0 ? benefits[0] : 0;
+        }
+        for (double benefit : benefits) {
+            if (benefit > max) {
+                max = benefit;
+            }
+        }
+        return max;
+    }
+
 
     /*
      * Update the tree bounds bottom-up, like computing the cost but in a pruning
@@ -529,7 +513,7 @@ public class PruningTree extends OptimalRelaxationTree {
             } else {
                 throw new AssertionError("Wrong type of node in the tree");
             }
-            if (n != root && partialTree.peekLast() != n.father) {
+            if (propagates(n) && partialTree.peekLast() != n.father) {
                 //!partialTree.contains(n.father)) {
                 partialTree.add(n.father);
             }
@@ -595,6 +579,57 @@ public class PruningTree extends OptimalRelaxationTree {
 //        } //END WHILE
 //    }
 
+    /*
+     * True if the bounds of the node are propagated to its father
+     */
+    protected boolean propagates(Node n) {
+        return n != root;
+    }
+
+    /*
+     * The siblings whose bounds are compared with the ones of the node when 
+     * pruning
+     */
+    protected List<Node> pruningSiblings(Node n) {
+        return n.getSiblings();
+    }
+
+    /*
+     * Update the bounds and prune the tree at the end of a level, the time of
+     * the two phases is recorded in the metrics
+     */
+    protected void updateAndPrune(LinkedList<Node> queue) {
+        long start = metrics.start();
+        update(queue);
+        metrics.phase(Metrics.UPDATE, start);
+        if (profiler != null) {
+            profiler.frontier(queue, bounds, root);
+        }
+        start = metrics.start();
+        prune(queue);
+        metrics.phase(Metrics.PRUNE, start);
+        if (profiler != null) {
+            profiler.pruned(marked);
+        }
+    }
+
+    /*
+     * Mark the node as pruned by the rule, counting it at the current level
+     */
+    protected void mark(Node n, PruningProfiler.Rule rule) {
+        if (marked.add(n)) {
+            metrics.increment(Metrics.NODES_PRUNED, "level", (int) actualLevel);
+            if (profiler != null) {
+                profiler.marked(n, rule);
+            }
+        }
+    }
+
+    @Override
+    protected int prunedNodes() {
+        return marked != null ? marked.size() : 0;
+    }
+
     /*
      * To prune start from the root and then mark the nodes till you get in some
      * of the enqueued nodes. Remove (or keep) the node from the list and continue.
@@ -614,7 +649,7 @@ public class PruningTree extends OptimalRelaxationTree {
         tree.add(getCurrentRoot());
         while (!tree.isEmpty()) { //Explore all the nodes
             n = tree.poll();
-            siblings = n.getSiblings();
+            siblings = pruningSiblings(n);
             ubMin = bounds.get(n).getSecond();
             lbMax = bounds.get(n).getFirst();
             for (int i = 0; i < siblings.size(); i++) {
@@ -635,13 +670,13 @@ public class PruningTree extends OptimalRelaxationTree {
                 //If the father is marked than so the chilren OR
                 //lb > some ub
                 if (!type.isMaximize() && bounds.get(sibling).getFirst() > ubMin && sibling instanceof ChoiceNode) {
-                    marked.add(sibling);
+                    mark(sibling, PruningProfiler.Rule.LOWER_BOUND);
                 }
                 if (type.isMaximize() && bounds.get(sibling).getSecond() < lbMax && sibling instanceof ChoiceNode) {
-                    marked.add(sibling);
+                    mark(sibling, PruningProfiler.Rule.UPPER_BOUND);
                 }
                 if (marked.contains(sibling.father)) {
-                    marked.add(sibling);
+                    mark(sibling, PruningProfiler.Rule.INHERITED);
                 }
             }//END FOR
         }//END WHILE
@@ -721,25 +756,27 @@ public class PruningTree extends OptimalRelaxationTree {
     }
 
     @Override
-    protected String printPaths(Node n, String acc, boolean optimal) {
-        if (n instanceof RelaxationNode) {
-            if (n.isLeaf()) {
-                return acc + "\n";
-            } else {
-                String result = "";
-                for (Node child : n.getChildren()) {
-                    if ((!optimal || n.cost == child.cost) && !marked.contains(child)) { //Take the paths with the cost of the root equal to the cost of the parent - i.e. Opt
-                        result += printPaths(child, acc, optimal);
-                    }
-                }
-                return result;
-            }
-        } else {
-            //ChoiceNode cannot be a leaf
-            ChoiceNode cn = (ChoiceNode) n;
-            return printPaths(cn.getYesNode(), acc + cn.getConstraint().getAttributeName() + "|" + "yes" + "|", optimal)
-                    + printPaths(cn.getNoNode(), acc + cn.getConstraint().getAttributeName() + "|" + "no" + "|", optimal);
+    public void materialize(boolean computeCosts) throws TreeException {
+        if (profiler != null) {
+            profiler.reset();
         }
+        super.materialize(computeCosts);
+        if (profiler != null && computeCosts) {
+            profiler.finish(root.getCost());
+        }
+    }
+
+    public PruningProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Record the size of the frontier, the nodes marked by each rule and the 
+     * tightness of the bounds at each level of the next materializations
+     * @param profiler The profiler, null to disable profiling
+     */
+    public void setProfiler(PruningProfiler profiler) {
+        this.profiler = profiler;
     }
 
     public boolean isPruned(Node n) {
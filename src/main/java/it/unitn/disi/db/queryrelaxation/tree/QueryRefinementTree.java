@@ -22,7 +22,9 @@ package it.unitn.disi.db.queryrelaxation.tree;
 import it.unitn.disi.db.queryrelaxation.model.Constraint;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 import it.unitn.disi.db.queryrelaxation.model.data.BooleanMockConnector;
+import it.unitn.disi.db.queryrelaxation.model.data.DatasetRegistry;
 import it.unitn.disi.db.queryrelaxation.model.functions.IPFPrior;
+import it.unitn.disi.db.queryrelaxation.model.functions.IPFTable;
 import it.unitn.disi.db.queryrelaxation.model.functions.IdfFunction;
 import it.unitn.disi.db.queryrelaxation.statistics.EmptyQueryGeneration;
 import it.unitn.disi.db.queryrelaxation.statistics.Utilities;
@@ -446,14 +448,16 @@ public class QueryRefinementTree extends RelaxationTree {
                 if (line.length() != 0) {
                     splittedLine = line.split("\t");
                     q = EmptyQueryGeneration.stringToQuery(splittedLine[2]);
-                    db = new BooleanMockConnector(f.getAbsoluteFile().getParent()+ File.separator + splittedLine[0]);
-                    db.connect();
-                    tree = new QueryRefinementTree(q);
-                    tree.setDb(db);
-                    tree.setPrior(new IPFPrior(db, f.getAbsoluteFile().getParent() + File.separator + splittedLine[1], q));
-                    tree.setPref(new IdfFunction(db));
-                    tree.setVerbose(false);
-                    tree.materialize(true);
+                    try (DatasetRegistry.Handle<BooleanMockConnector> dbHandle = DatasetRegistry.getInstance().database(f.getAbsoluteFile().getParent()+ File.separator + splittedLine[0]);
+                            DatasetRegistry.Handle<IPFTable> ipfHandle = DatasetRegistry.getInstance().prior(f.getAbsoluteFile().getParent() + File.separator + splittedLine[1])) {
+                        db = dbHandle.get();
+                        tree = new QueryRefinementTree(q);
+                        tree.setDb(db);
+                        tree.setPrior(new IPFPrior(db, ipfHandle.get(), q));
+                        tree.setPref(new IdfFunction(db));
+                        tree.setVerbose(false);
+                        tree.materialize(true);
+                    }
                     System.out.println(tree.nonEmptyQueries);
                     for (String neq : tree.nonEmptyQueries) {
                         br.write(neq + "|");
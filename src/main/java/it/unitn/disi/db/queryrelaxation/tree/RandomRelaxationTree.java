@@ -21,7 +21,6 @@
 package it.unitn.disi.db.queryrelaxation.tree;
 
 import it.unitn.disi.db.queryrelaxation.model.Query;
-import java.util.Random;
 
 /**
  * Random algorithm which averages all the costs of the children in the 
@@ -82,49 +81,11 @@ public class RandomRelaxationTree extends OptimalRelaxationTree {
     
     /**
      * Compute the time in a random choice, repeat k times and average the time.
+     * The walks are simulated by {@link PolicySimulator}.
      * @param k Times to repeat in order to measure the time to perform this method
      * @return average time to perform this method
      */
     public long getTime(int k) {
-        Random r = new Random();
-        Node n;
-        ChoiceNode cn;
-        long avgTime = 0;
-        //String print;
-        try {
-            if (!db.isConnected()) {
-                db.connect();
-            }
-            for (int i = 0; i < k; i++) {
-                avgTime -= System.nanoTime();
-                n = root;
-                //print = "";
-                while (n != null) {
-                    if (n instanceof RelaxationNode) {
-                        if (!n.isLeaf()) {
-                            n = n.getChildren().get(r.nextInt(n.getChildren().size()));
-                //            print += ((ChoiceNode)n).getConstraint().getAttributeName() + "|";
-                        } else {
-                            db.submitQuery(n.query);//To add this cost in any case
-                            break;
-                        }
-                    } else {
-                        cn = (ChoiceNode)n;
-                        if (r.nextDouble() <= cn.getYesProbability()) {
-                            n = cn.getYesNode();
-                //            print += "yes|";
-                        } else {
-                            n = cn.getNoNode();
-                //            print += "yes|";
-                        }
-                    }
-                }
-                //System.out.println(print);
-                avgTime += System.nanoTime();
-            }
-        } catch(Exception ex) {
-            ex.printStackTrace();
-        }
-        return avgTime / (k*1000000);
+        return simulate(PolicySimulator.Policies.RANDOM, k);
     }
 }
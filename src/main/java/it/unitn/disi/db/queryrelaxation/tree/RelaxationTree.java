@@ -21,7 +21,9 @@ package it.unitn.disi.db.queryrelaxation.tree;
 
 import eu.unitn.disi.db.command.util.LoggableObject;
 import eu.unitn.disi.db.command.util.StopWatch;
+import it.unitn.disi.db.queryrelaxation.metrics.Metrics;
 import it.unitn.disi.db.queryrelaxation.model.PreferenceFunction;
+import it.unitn.disi.db.queryrelaxation.model.PreferenceKernel;
 import it.unitn.disi.db.queryrelaxation.model.Prior;
 import it.unitn.disi.db.queryrelaxation.model.Query;
 import it.unitn.disi.db.queryrelaxation.model.data.DatabaseConnector;
@@ -42,6 +44,10 @@ public abstract class RelaxationTree extends LoggableObject {
     protected int cardinality; 
     protected Node root;
     protected TreeType type;
+    /* Counters and timers of the construction, disabled by default */
+    protected Metrics metrics;
+    /* Preference function compiled for the query of the tree */
+    private PreferenceKernel prefKernel;
     
     /**
      * Express the kind of tree you want to realize. The general framework can 
@@ -70,6 +76,7 @@ public abstract class RelaxationTree extends LoggableObject {
         this.cardinality = cardinality; 
         time = new StopWatch(StopWatch.TimeType.CPU);
         this.type = type;
+        metrics = Metrics.DISABLED;
     }
     
     public RelaxationTree(Query q) {
@@ -149,6 +156,32 @@ public abstract class RelaxationTree extends LoggableObject {
 
     public void setPref(PreferenceFunction pref) {
         this.pref = pref;
+        this.prefKernel = null;
+    }
+
+    /**
+     * Return the preference function compiled for the query of the tree, the
+     * function is compiled the first time it is requested.
+     * @return The kernel that computes <code>pref.compute(query, t)</code>
+     */
+    protected PreferenceKernel getPrefKernel() {
+        if (prefKernel == null) {
+            prefKernel = pref.compile(query);
+        }
+        return prefKernel;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Record the nodes, the phases and the evaluations of the tree in the 
+     * input registry, that can be shared by several trees
+     * @param metrics The registry, null to stop recording
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics != null ? metrics : Metrics.DISABLED;
     }
 
     public Query getQuery() {
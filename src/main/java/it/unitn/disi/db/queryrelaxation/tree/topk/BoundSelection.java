@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 Davide Mottin <mottin@disi.unitn.eu>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package it.unitn.disi.db.queryrelaxation.tree.topk;
+
+import it.unitn.disi.db.queryrelaxation.model.Pair;
+import it.unitn.disi.db.queryrelaxation.tree.ChoiceNode;
+import it.unitn.disi.db.queryrelaxation.tree.Node;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selection of the siblings pruned by the top-k trees. When minimizing, a 
+ * sibling is pruned if its lower bound is above the k-th smallest upper bound
+ * (the k-th largest lower bound and the upper bound when maximizing), so that 
+ * at least k siblings are kept. 
+ * <p>
+ * The bounds are copied once in primitive arrays and the k-th bound is found 
+ * with quickselect, in linear expected time, instead of sorting the siblings.
+ * 
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+final class BoundSelection {
+
+    private BoundSelection() {
+    }
+
+    /**
+     * The siblings that can be pruned
+     * @param siblings The siblings, the node included
+     * @param bounds The bounds of the nodes
+     * @param k The number of siblings to keep at least
+     * @param maximize True if the tree maximizes the cost
+     * @return The indexes of the siblings to prune
+     */
+    static int[] prunable(List<Node> siblings, Map<Node, Pair<Double, Double>> bounds, int k, boolean maximize) {
+        int m = siblings.size(), n = 0, excess = m - k;
+        double[] lower = new double[m], upper = new double[m];
+        int[] pruned;
+        double kthBound;
+        Pair<Double, Double> bound;
+        if (excess <= 0) {
+            return new int[0];
+        }
+        for (int i = 0; i < m; i++) {
+            bound = bounds.get(siblings.get(i));
+            lower[i] = bound.getFirst();
+            upper[i] = bound.getSecond();
+        }
+        kthBound = maximize ? select(lower.clone(), m - k) : select(upper.clone(), k - 1);
+        pruned = new int[m];
+        for (int i = 0; i < m; i++) {
+            if (siblings.get(i) instanceof ChoiceNode && (maximize ? upper[i] < kthBound : lower[i] > kthBound)) {
+                pruned[n++] = i;
+            }
+        }
+        //Only if the bounds are not consistent (lb > ub)
+        if (n > excess) {
+            sortWorstFirst(pruned, n, maximize ? upper : lower, maximize);
+            n = excess;
+        }
+        return n == pruned.length ? pruned : Arrays.copyOf(pruned, n);
+    }
+
+    /**
+     * The i-th smallest value (from 0) with quickselect, the array is 
+     * reordered
+     * @param values The values
+     * @param i The rank of the value
+     * @return The i-th smallest value
+     */
+    static double select(double[] values, int i) {
+        int lo = 0, hi = values.length - 1, left, right, mid;
+        double pivot, tmp;
+        while (lo < hi) {
+            mid = (lo + hi) >>> 1;
+            //Median of three as the pivot
+            if (values[mid] < values[lo]) {
+                tmp = values[mid]; values[mid] = values[lo]; values[lo] = tmp;
+            }
+            if (values[hi] < values[lo]) {
+                tmp = values[hi]; values[hi] = values[lo]; values[lo] = tmp;
+            }
+            if (values[hi] < values[mid]) {
+                tmp = values[hi]; values[hi] = values[mid]; values[mid] = tmp;
+            }
+            pivot = values[mid];
+            left = lo;
+            right = hi;
+            while (left <= right) {
+                while (values[left] < pivot) {
+                    left++;
+                }
+                while (values[right] > pivot) {
+                    right--;
+                }
+                if (left <= right) {
+                    tmp = values[left]; values[left] = values[right]; values[right] = tmp;
+                    left++;
+                    right--;
+                }
+            }
+            if (i <= right) {
+                hi = right;
+            } else if (i >= left) {
+                lo = left;
+            } else {
+                return values[i];
+            }
+        }
+        return values[i];
+    }
+
+    /*
+     * Insertion sort of the few candidates, the worst bound first and the 
+     * ties in the order the siblings were scanned by the sorting version
+     */
+    private static void sortWorstFirst(int[] indexes, int n, double[] keys, boolean maximize) {
+        int current, j;
+        for (int i = 1; i < n; i++) {
+            current = indexes[i];
+            j = i - 1;
+            while (j >= 0 && worse(current, indexes[j], keys, maximize)) {
+                indexes[j + 1] = indexes[j];
+                j--;
+            }
+            indexes[j + 1] = current;
+        }
+    }
+
+    private static boolean worse(int a, int b, double[] keys, boolean maximize) {
+        if (keys[a] != keys[b]) {
+            return maximize ? keys[a] < keys[b] : keys[a] > keys[b];
+        }
+        return maximize ? a < b : a > b;
+    }
+}
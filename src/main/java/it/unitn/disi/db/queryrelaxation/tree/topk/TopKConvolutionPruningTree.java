@@ -24,10 +24,8 @@ import it.unitn.disi.db.queryrelaxation.statistics.Utilities;
 import it.unitn.disi.db.queryrelaxation.tree.ChoiceNode;
 import it.unitn.disi.db.queryrelaxation.tree.ConvolutionPruningTree;
 import it.unitn.disi.db.queryrelaxation.tree.Node;
+import it.unitn.disi.db.queryrelaxation.tree.PruningProfiler;
 import it.unitn.disi.db.queryrelaxation.tree.TreeException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -44,50 +42,8 @@ public class TopKConvolutionPruningTree extends ConvolutionPruningTree {
     //from TopKPruningTree. It's horrible, I know, don't blame me. 
 
     protected int k;
-    private final RankingFunction lbRanking;
-    private final RankingFunction ubRanking;
-    /*
-     * List containing the ranked branches to be expanded. 
-     */
-    private LinkedList<Pair<Node, Integer>> expandableBranches;
-
-    private class RankingFunction implements Comparator<Node> {
-
-        private final boolean lower;
-
-        public RankingFunction(boolean lower) {
-            this.lower = lower;
-        }
-
-        @Override
-        public int compare(Node o1, Node o2) {
-            Pair<Double, Double> o1Bounds = bounds.get(o1);
-            Pair<Double, Double> o2Bounds = bounds.get(o2);
-            if (o1Bounds == null || o2Bounds == null) {
-                System.err.printf("Error: bounds have not been computed yet for %s or %s", o1, o2);
-                return 0;
-            }
-            if (lower) {
-                if (o1Bounds.getFirst() < o2Bounds.getFirst()) {
-                    return -1;
-                } else if (o1Bounds.getFirst() > o2Bounds.getFirst()) {
-                    return 1;
-                }
-            } else {
-                if (o1Bounds.getSecond() < o2Bounds.getSecond()) {
-                    return -1;
-                } else if (o1Bounds.getSecond() > o2Bounds.getSecond()) {
-                    return 1;
-                }
-            }
-            return 0;
-        }
-    }
-
     public TopKConvolutionPruningTree(Query query, int levelL, int noOfBuckets, int cardinality, TreeType type, int k) {
         super(query, levelL, noOfBuckets, cardinality, type);
-        ubRanking = new RankingFunction(false);
-        lbRanking = new RankingFunction(true);
         this.k = k;
     }
 
@@ -114,28 +70,32 @@ public class TopKConvolutionPruningTree extends ConvolutionPruningTree {
         numberOfSteps = 1;
         marked = new HashSet<>();
         bounds = new HashMap<>();
-        Pair<Node, Integer> nodeLevel;
         currentLevel = level;
         expandableBranches.add(new Pair<>(root, 1));
         nodes++;
 
         //Now we have everything in expandable roots.
-        while (!expandableBranches.isEmpty()) {
-            nodeLevel = expandableBranches.poll();
-            currentRoot = nodeLevel.getFirst();
-            actualLevel = nodeLevel.getSecond();
-            if (actualLevel > currentLevel) {
-                currentLevel++;
-                numberOfSteps++;
-            }
-            constructByLevel();
-            if (currentLevel < query.size() && query.size() > level) {
-                if (currentRoot.getChildrenNumber() > k) {
-                    computeApproximation();
-                } else {
-                    for (Node children : currentRoot.getChildren()) {
-                        expandableBranches.add(new Pair<>(children, (int) actualLevel));
-                    }
+        expandBranches();
+    }
+
+    @Override
+    protected void enter(Pair<Node, Integer> branch) {
+        int previousLevel = currentLevel;
+        super.enter(branch);
+        if (currentLevel > previousLevel) {
+            numberOfSteps++;
+        }
+    }
+
+    @Override
+    protected void expand() throws TreeException {
+        constructByLevel();
+        if (currentLevel < query.size() && query.size() > level) {
+            if (currentRoot.getChildrenNumber() > k) {
+                computeApproximation();
+            } else {
+                for (Node children : currentRoot.getChildren()) {
+                    expandableBranches.add(new Pair<>(children, (int) actualLevel));
                 }
             }
         }
@@ -143,32 +103,21 @@ public class TopKConvolutionPruningTree extends ConvolutionPruningTree {
 
     @Override
     protected void computeTopRoots() {
-        double maxProb = Double.MAX_VALUE, tmpProb, tmp;
+        double maxProb = Double.MAX_VALUE, tmpProb;
         Node bestRootChild = currentRoot; //can be erased
         PriorityQueue<Pair<Node, Double>> rankedBranches = new PriorityQueue<>((int) query.size(), new PairSecondComparator(true));
-        Node branch;
+        Node branch, child1;
         int count = 0;
+        List<Node> rootChildren = currentRoot.getChildren();
+        double[] scores = scores(rootChildren);
 
-        for (Node child1 : currentRoot.getChildren()) {
+        for (int c1 = 0; c1 < rootChildren.size(); c1++) {
+            child1 = rootChildren.get(c1);
             if (!marked.contains(child1)) {
                 if (verbose) {//Very verbose
                     System.out.println(Utilities.matrixToString(child1.getBuckets()));
                 }
-                tmpProb = 0;
-                //   checkIfBucketsAreAProb(child1.getBuckets());
-                for (Node child2 : currentRoot.getChildren()) {
-                    //  checkIfBucketsAreAProb(child2.getBuckets());
-                    if (child1 != child2) {
-                        //compute p(child1 < child2)
-                        for (int i = 0; i < noOfBuckets - 1; i++) {
-                            tmp = 0;
-                            for (int j = i + indexAddendum; j < noOfBuckets - 1; j++) {
-                                tmp += child2.getBuckets()[1][j];
-                            }
-                            tmpProb += tmp * child1.getBuckets()[1][i];
-                        }
-                    }
-                }
+                tmpProb = scores[c1];
                 if (type.isMaximize()) {
                     tmpProb = 1 - tmpProb;
                 }
@@ -206,53 +155,27 @@ public class TopKConvolutionPruningTree extends ConvolutionPruningTree {
     @Override
     protected void prune(LinkedList<Node> queue) {
         LinkedList<Node> tree = new LinkedList<>();
-        Pair<Double, Double> bound;
-        double kthBound;
-        int count;
         List<Node> siblings;
-        List<Node> candidateSiblings;
-        Node n, sibling;
+        Node n;
 
         tree.add(getCurrentRoot());
         while (!tree.isEmpty()) { //Explore all the nodes
             n = tree.poll();
 
-            siblings = n.getSiblings();
-            //If the size of the siblings plus the node <= k then none of them can be pruned
+            siblings = pruningSiblings(n);
+            //If the size of the siblings plus the node <= k then none of them can be pruned,
+            //otherwise the ones beyond the kth bound
             siblings.add(n);//Add the node to the siblings
-            if (siblings.size() + 1 > k) {
-                Collections.sort(siblings, type.isMaximize() ? ubRanking : lbRanking);
-                candidateSiblings = new ArrayList<>(siblings);
-                Collections.sort(candidateSiblings, type.isMaximize() ? lbRanking : ubRanking);
-
-                //Get the kth element in terms of upper/lower bound
-                //finding the best subset s of siblings of size k
-                bound = null;
-                bound = bounds.get(candidateSiblings.get(type.isMaximize() ? candidateSiblings.size() - k : k - 1));
-                kthBound = type.isMaximize() ? bound.getFirst() : bound.getSecond();
-
-                count = candidateSiblings.size();
-                for (int i = 0; i < siblings.size() && count > k; i++) {
-                    sibling = siblings.get(type.isMaximize() ? i : siblings.size() - i - 1);
-
-                    //If lb > kth ub, then prune                     
-                    if (!type.isMaximize() && bounds.get(sibling).getFirst() > kthBound && sibling instanceof ChoiceNode) {
-                        marked.add(sibling);
-                        count--;
-                    }
-                    if (type.isMaximize() && bounds.get(sibling).getSecond() < kthBound && sibling instanceof ChoiceNode) {
-                        marked.add(sibling);
-                        count--;
-                    }
-                }//END FOR
-            } //END IF
+            for (int i : BoundSelection.prunable(siblings, bounds, k, type.isMaximize())) {
+                mark(siblings.get(i), type.isMaximize() ? PruningProfiler.Rule.UPPER_BOUND : PruningProfiler.Rule.LOWER_BOUND);
+            }
             for (Node sib : siblings) {
                 if (!sib.getChildren().isEmpty()) {
                     tree.add(sib.getChildren().iterator().next());
                 }
                 //If the father is marked than so are the chilren
                 if (marked.contains(sib.getFather())) {
-                    marked.add(sib);
+                    mark(sib, PruningProfiler.Rule.INHERITED);
                 }
             }
         }//END WHILE
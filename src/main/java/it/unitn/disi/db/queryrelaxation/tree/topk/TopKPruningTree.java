@@ -18,15 +18,11 @@
 
 package it.unitn.disi.db.queryrelaxation.tree.topk;
 
-import it.unitn.disi.db.queryrelaxation.model.Pair;
 import it.unitn.disi.db.queryrelaxation.model.Query;
-import it.unitn.disi.db.queryrelaxation.tree.ChoiceNode;
 import it.unitn.disi.db.queryrelaxation.tree.Node;
+import it.unitn.disi.db.queryrelaxation.tree.PruningProfiler;
 import it.unitn.disi.db.queryrelaxation.tree.PruningTree;
 import it.unitn.disi.db.queryrelaxation.tree.TreeException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -36,51 +32,11 @@ import java.util.List;
  */
 public class TopKPruningTree extends PruningTree {
     protected int k; 
-    private final RankingFunction lbRanking; 
-    private final RankingFunction ubRanking;
-    
     
     public TopKPruningTree(Query query, int cardinality, TreeType type, int k) {
         super(query, cardinality, type);
-        lbRanking = new RankingFunction(true);
-        ubRanking = new RankingFunction(false);
         this.k = k; 
     }
-    
-        
-    private class RankingFunction implements Comparator<Node> {
-        private boolean lower; 
-
-        public RankingFunction(boolean lower) {
-            this.lower = lower;
-        }
-        
-        
-        @Override
-        public int compare(Node o1, Node o2) {
-            Pair<Double, Double> o1Bounds = bounds.get(o1); 
-            Pair<Double, Double> o2Bounds = bounds.get(o2); 
-            if (o1Bounds == null || o2Bounds == null) {
-                System.err.printf("Error: bounds have not been computed yet for %s or %s", o1, o2);
-                return 0; 
-            }
-            if (lower) {
-                if (o1Bounds.getFirst() < o2Bounds.getFirst()) {
-                    return -1; 
-                } else if (o1Bounds.getFirst() > o2Bounds.getFirst()) {
-                    return 1;
-                }
-            } else {
-                if (o1Bounds.getSecond() < o2Bounds.getSecond()) {
-                    return -1; 
-                } else if (o1Bounds.getSecond() > o2Bounds.getSecond()) {
-                    return 1;
-                }
-            }
-            return 0; 
-        }
-        
-    }
 
     @Override
     public void materialize(boolean computeCosts) throws TreeException {
@@ -97,58 +53,27 @@ public class TopKPruningTree extends PruningTree {
     @Override
     protected void prune(LinkedList<Node> queue) {
         LinkedList<Node> tree = new LinkedList<>();
-        Pair<Double, Double> bound; 
-        double kthBound; 
-        int count; 
         List<Node> siblings;
-        List<Node> candidateSiblings; 
-        Node n, sibling;
+        Node n;
         
         tree.add(root);
         while (!tree.isEmpty()) { //Explore all the nodes
             n = tree.poll();
             
             siblings = n.getSiblings();
-            //If the size of the siblings plus the node <= k then none of them can be pruned
+            //If the size of the siblings plus the node <= k then none of them can be pruned,
+            //otherwise the ones beyond the kth bound
             siblings.add(n);//Add the node to the siblings
-            if (siblings.size() + 1 > k) { 
-                Collections.sort(siblings, type.isMaximize()? ubRanking : lbRanking);
-                candidateSiblings = new ArrayList<>(siblings);
-                Collections.sort(candidateSiblings, type.isMaximize() ? lbRanking : ubRanking);                
-               
-                //Get the kth element in terms of upper/lower bound
-                //finding the best subset s of siblings of size k
-                bound = null;
-                bound = bounds.get(candidateSiblings.get(type.isMaximize()? candidateSiblings.size() - k : k - 1)); 
-                kthBound = type.isMaximize()? bound.getFirst() : bound.getSecond();                
-//                for (Node sib : candidateSiblings) {
-//                    System.out.printf("%s", bounds.get(sib));
-//                }
-//                System.out.println("");
-//                System.out.println("kthBound: " + kthBound);
-
-                count = candidateSiblings.size(); 
-                for (int i = 0; i < siblings.size() && count > k; i++) {
-                    sibling = siblings.get(type.isMaximize() ? i : siblings.size() - i - 1);
-
-                     //If lb > kth ub, then prune                     
-                    if (!type.isMaximize() && bounds.get(sibling).getFirst() > kthBound && sibling instanceof ChoiceNode) {
-                        marked.add(sibling);
-                        count--;
-                    }
-                    if (type.isMaximize() && bounds.get(sibling).getSecond() < kthBound && sibling instanceof ChoiceNode) {
-                        marked.add(sibling);
-                        count--;
-                    }                                       
-                }//END FOR
-            } //END IF
+            for (int i : BoundSelection.prunable(siblings, bounds, k, type.isMaximize())) {
+                mark(siblings.get(i), type.isMaximize() ? PruningProfiler.Rule.UPPER_BOUND : PruningProfiler.Rule.LOWER_BOUND);
+            }
             for (Node sib : siblings) {
                 if (!sib.getChildren().isEmpty()) {
                     tree.add(sib.getChildren().iterator().next());
                 }
                 //If the father is marked than so are the chilren
                 if (marked.contains(sib.getFather())) {
-                    marked.add(sib);
+                    mark(sib, PruningProfiler.Rule.INHERITED);
                 }
             }
        }//END WHILE
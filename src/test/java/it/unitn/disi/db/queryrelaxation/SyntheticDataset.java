@@ -0,0 +1,108 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation;
+
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.model.data.BooleanMockConnector;
+import it.unitn.disi.db.queryrelaxation.model.functions.IPFPrior;
+import it.unitn.disi.db.queryrelaxation.model.functions.IdfFunction;
+import it.unitn.disi.db.queryrelaxation.statistics.DatasetGenerator;
+import it.unitn.disi.db.queryrelaxation.tree.OptimalRelaxationTree;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * A small seeded synthetic database, with its prior and some empty queries, 
+ * shared by the tests. It is generated once per JVM in a temporary folder.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public final class SyntheticDataset {
+    public static final int ATTRIBUTES = 10;
+    public static final int ROWS = 400;
+    public static final long SEED = 42;
+    private static SyntheticDataset instance;
+
+    private final String dbPath;
+    private final String priorPath;
+    private final DatasetGenerator.Candidates candidates;
+    private final BooleanMockConnector db;
+
+    private SyntheticDataset() throws Exception {
+        File dir = Files.createTempDirectory("iqr-test").toFile();
+        DatasetGenerator generator = new DatasetGenerator(ATTRIBUTES, 0.3, 1.0, 0.3, 4, SEED);
+        dbPath = new File(dir, "db.txt").getPath();
+        priorPath = new File(dir, "prior.txt").getPath();
+        candidates = generator.candidates(2, 6, 20);
+        generator.writeDatabase(dbPath, ROWS, candidates, 1);
+        generator.writePrior(priorPath, 1);
+        db = new BooleanMockConnector(dbPath);
+        db.connect();
+        for (File f : new File[]{new File(dbPath), new File(priorPath), dir}) {
+            f.deleteOnExit();
+        }
+    }
+
+    public static synchronized SyntheticDataset get() throws Exception {
+        if (instance == null) {
+            instance = new SyntheticDataset();
+        }
+        return instance;
+    }
+
+    public BooleanMockConnector getDatabase() {
+        return db;
+    }
+
+    public String getDatabasePath() {
+        return dbPath;
+    }
+
+    public IPFPrior prior(Query q) throws Exception {
+        return new IPFPrior(db, priorPath, q);
+    }
+
+    /**
+     * The empty queries of the given size
+     * @param size The number of constraints
+     * @param count The maximum number of queries
+     * @return The queries, in generation order
+     */
+    public List<Query> emptyQueries(int size, int count) {
+        return candidates.emptyQueries(size, count);
+    }
+
+    /**
+     * Set the database, the prior of the query and the idf preference of a 
+     * tree that is not yet materialized
+     * @param tree The tree
+     * @param q The query of the tree
+     * @return The same tree
+     */
+    public <T extends OptimalRelaxationTree> T setup(T tree, Query q) throws Exception {
+        tree.setDb(db);
+        tree.setPrior(prior(q));
+        tree.setPref(new IdfFunction(db));
+        tree.setVerbose(false);
+        return tree;
+    }
+}
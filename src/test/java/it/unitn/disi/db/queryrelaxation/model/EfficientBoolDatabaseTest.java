@@ -0,0 +1,131 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+package it.unitn.disi.db.queryrelaxation.model;
+
+import it.unitn.disi.db.queryrelaxation.SyntheticDataset;
+import it.unitn.disi.db.queryrelaxation.model.functions.HammingFunction;
+import it.unitn.disi.db.queryrelaxation.model.functions.IdfFunction;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The retrieval methods of the boolean database against a full scan of the 
+ * result set, with and without the benefit-sorted layout
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class EfficientBoolDatabaseTest {
+    private static final double DELTA = 1e-9;
+
+    private static Query query(int[] positive, int[] negative) {
+        Query q = new Query();
+        for (int att : positive) {
+            q.addConstraint(new Constraint(String.valueOf(att), true));
+        }
+        for (int att : negative) {
+            q.addConstraint(new Constraint(String.valueOf(att), false));
+        }
+        return q;
+    }
+
+    private static EfficientBoolDatabase[] layouts() throws Exception {
+        String path = SyntheticDataset.get().getDatabasePath();
+        return new EfficientBoolDatabase[]{new EfficientBoolDatabase(path, false), new EfficientBoolDatabase(path, true)};
+    }
+
+    /*
+     * Score every tuple of the result set and return the scores by descending
+     * value
+     */
+    private static double[] scan(EfficientBoolDatabase db, Query q, PreferenceKernel kernel) {
+        Pair<int[], double[]> rs = db.resultSet(q);
+        double[] scores = new double[rs.getFirst().length];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = -(kernel.compute(rs.getFirst()[i]) + rs.getSecond()[i]);
+        }
+        Arrays.sort(scores);
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = -scores[i];
+        }
+        return scores;
+    }
+
+    @Test
+    public void testTopKTuples() throws Exception {
+        Query preference = query(new int[]{0, 2, 5}, new int[]{7});
+        PreferenceKernel[] kernels = {
+            new IdfFunction(SyntheticDataset.get().getDatabase()).compile(preference),
+            new HammingFunction().compile(preference),
+            PreferenceKernel.constant(0)
+        };
+        int[][] filters = {{}, {1}, {3, 4}, {0, 1, 2, 3, 4, 5, 6}};
+        
+        for (EfficientBoolDatabase db : layouts()) {
+            for (PreferenceKernel kernel : kernels) {
+                for (int[] filter : filters) {
+                    Query q = query(filter, new int[0]);
+                    double[] expected = scan(db, q, kernel);
+                    int mask = 0;
+                    for (int att : filter) {
+                        mask |= 1 << att;
+                    }
+                    for (int k : new int[]{0, 1, 5, 50, 1000}) {
+                        Pair<int[], double[]> top = db.topKTuples(q, kernel, k);
+                        String message = String.format("sorted=%b q=%s k=%d", db.isBenefitSorted(), q, k);
+                        assertEquals(message, Math.min(k, expected.length), top.getFirst().length);
+                        for (int i = 0; i < top.getFirst().length; i++) {
+                            assertEquals(message, mask, top.getFirst()[i] & mask);
+                            assertEquals(message, expected[i], top.getSecond()[i], DELTA);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHasBenefitAbove() throws Exception {
+        int[][] filters = {{}, {1}, {3, 4}, {0, 2, 5}, {0, 1, 2, 3, 4, 5, 6}};
+        
+        for (EfficientBoolDatabase db : layouts()) {
+            double[] thresholds = {Double.NEGATIVE_INFINITY, db.getMinBenefit(), 0, db.getMaxBenefit() / 2, db.getMaxBenefit(), Double.POSITIVE_INFINITY};
+            for (int[] filter : filters) {
+                Query q = query(filter, new int[0]);
+                double[] benefits = db.resultSet(q).getSecond();
+                for (double threshold : thresholds) {
+                    boolean expected = false;
+                    for (double benefit : benefits) {
+                        expected |= benefit > threshold;
+                    }
+                    assertEquals(String.format("sorted=%b q=%s threshold=%f", db.isBenefitSorted(), q, threshold), expected, db.hasBenefitAbove(q, threshold));
+                }
+                //Every benefit of the result set as threshold
+                for (double threshold : benefits) {
+                    boolean expected = false;
+                    for (double benefit : benefits) {
+                        expected |= benefit > threshold;
+                    }
+                    assertEquals(expected, db.hasBenefitAbove(q, threshold));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.model;
+
+import it.unitn.disi.db.queryrelaxation.SyntheticDataset;
+import it.unitn.disi.db.queryrelaxation.model.functions.HammingFunction;
+import it.unitn.disi.db.queryrelaxation.model.functions.IdfFunction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The compiled kernels against the preference functions they are compiled from
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class PreferenceKernelTest {
+    private static final double DELTA = 1e-12;
+
+    private static int[] tuples(int n, long seed) {
+        Random random = new Random(seed);
+        int[] tuples = new int[n];
+        for (int i = 0; i < n; i++) {
+            tuples[i] = random.nextInt();
+        }
+        tuples[0] = 0;
+        tuples[1] = -1;
+        tuples[2] = 1 << 31;
+        return tuples;
+    }
+
+    private static Query query(int[] positive, int[] negative) {
+        Query q = new Query();
+        for (int att : positive) {
+            q.addConstraint(new Constraint(String.valueOf(att), true));
+        }
+        for (int att : negative) {
+            q.addConstraint(new Constraint(String.valueOf(att), false));
+        }
+        return q;
+    }
+
+    @Test
+    public void testIdfKernel() throws Exception {
+        IdfFunction idf = new IdfFunction(SyntheticDataset.get().getDatabase());
+        Query q = query(new int[]{0, 3, 7}, new int[]{2, 9});
+        PreferenceKernel kernel = idf.compile(q);
+        int[] tuples = tuples(5000, 1);
+        double[] out = new double[tuples.length];
+        kernel.computeAll(tuples, out);
+        for (int i = 0; i < tuples.length; i++) {
+            assertEquals(idf.compute(q, tuples[i]), kernel.compute(tuples[i]), DELTA);
+            assertEquals(kernel.compute(tuples[i]), out[i], DELTA);
+        }
+    }
+
+    @Test
+    public void testHammingKernel() {
+        HammingFunction hamming = new HammingFunction();
+        Query q = query(new int[]{1, 4, 5}, new int[]{8});
+        PreferenceKernel kernel = hamming.compile(q);
+        int[] tuples = tuples(5000, 2);
+        double[] out = new double[tuples.length];
+        kernel.computeAll(tuples, out);
+        for (int i = 0; i < tuples.length; i++) {
+            assertEquals(hamming.compute(q, tuples[i]), kernel.compute(tuples[i]), DELTA);
+            assertEquals(kernel.compute(tuples[i]), out[i], DELTA);
+        }
+    }
+
+    /*
+     * The attributes are tested as in IdfFunction, (tuple & 1 << att) > 0
+     */
+    @Test
+    public void testHighestAttribute() {
+        PreferenceKernel kernel = PreferenceKernel.weighted(new int[]{31}, new double[]{1}, new int[]{30}, new double[]{2}, 0, 1, 3);
+        int[] tuples = {0, 1 << 31, 1 << 30, -1};
+        double[] out = new double[tuples.length];
+        kernel.computeAll(tuples, out);
+        for (int i = 0; i < tuples.length; i++) {
+            double expected = (((tuples[i] & 1 << 31) > 0 ? 1 : 0) + ((tuples[i] & 1 << 30) == 0 ? 2 : 0)) / 3.0;
+            assertEquals(expected, kernel.compute(tuples[i]), DELTA);
+            assertEquals(expected, out[i], DELTA);
+        }
+    }
+
+    @Test
+    public void testInfiniteWeights() {
+        PreferenceKernel kernel = PreferenceKernel.weighted(new int[]{0}, new double[]{Double.POSITIVE_INFINITY}, new int[]{1}, new double[]{1}, 0, 1, 1);
+        int[] tuples = {0, 1, 2, 3};
+        double[] out = new double[tuples.length];
+        kernel.computeAll(tuples, out);
+        for (int i = 0; i < tuples.length; i++) {
+            assertEquals(kernel.compute(tuples[i]), out[i], 0);
+        }
+    }
+
+    @Test
+    public void testMaxAndTopK() throws Exception {
+        final PreferenceKernel kernel = new IdfFunction(SyntheticDataset.get().getDatabase()).compile(query(new int[]{0, 1, 5}, new int[]{3}));
+        final int[] tuples = tuples(3000, 3);
+        List<Integer> positions = new ArrayList<>();
+        double max = 0;
+        for (int i = 0; i < tuples.length; i++) {
+            //Few distinct values, so that there are many ties
+            tuples[i] &= 0x3F;
+            positions.add(i);
+            max = Math.max(max, kernel.compute(tuples[i]));
+        }
+        assertEquals(max, kernel.max(tuples), DELTA);
+        assertEquals(0, kernel.max(new int[0]), 0);
+        Collections.sort(positions, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer p1, Integer p2) {
+                int c = Double.compare(kernel.compute(tuples[p2]), kernel.compute(tuples[p1]));
+                return c != 0 ? c : p1.compareTo(p2);
+            }
+        });
+        for (int k : new int[]{1, 10, 100, 5000}) {
+            int[] expected = new int[Math.min(k, tuples.length)];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = positions.get(i);
+            }
+            assertArrayEquals("k=" + k, expected, kernel.topK(tuples, k));
+        }
+        assertEquals(0, kernel.topK(new int[0], 3).length);
+        assertTrue(Arrays.equals(new int[0], kernel.topK(tuples, 0)));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The comparison of the equi-depth histograms, that replaces the sum over the
+ * bucket indexes of {@link Histograms#less(double[][], double[][], double[], boolean)},
+ * against sampling and the cases where the result is known
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class AdaptiveHistogramsTest {
+    private static final double DELTA = 1e-12;
+    private static final int BUCKETS = 8;
+    private static final int SAMPLES = 200000;
+
+    /*
+     * A random distribution with sorted limits, some buckets are point masses
+     * and some are empty
+     */
+    private static double[][] random(Random random) {
+        double[][] h = new double[2][BUCKETS + 1];
+        double sum = 0;
+        h[0][0] = random.nextInt(4);
+        for (int i = 1; i <= BUCKETS; i++) {
+            h[0][i] = h[0][i - 1] + (random.nextInt(4) == 0 ? 0 : random.nextDouble());
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            h[1][i] = random.nextInt(4) == 0 ? 0 : random.nextDouble();
+            sum += h[1][i];
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            h[1][i] = sum > 0 ? h[1][i] / sum : 1.0 / BUCKETS;
+        }
+        h[1][BUCKETS] = -1;
+        return h;
+    }
+
+    /*
+     * A value of the distribution, uniform in the chosen bucket
+     */
+    private static double sample(double[][] h, Random random) {
+        double u = random.nextDouble(), f = 0;
+        int i = 0;
+        while (i < BUCKETS - 1 && f + h[1][i] <= u) {
+            f += h[1][i++];
+        }
+        return h[0][i] + random.nextDouble() * (h[0][i + 1] - h[0][i]);
+    }
+
+    private static double estimate(double[][] h1, double[][] h2, boolean orEqual, Random random) {
+        int count = 0;
+        double x, y;
+        for (int s = 0; s < SAMPLES; s++) {
+            x = sample(h1, random);
+            y = sample(h2, random);
+            if (x < y || (orEqual && x == y)) {
+                count++;
+            }
+        }
+        return count / (double) SAMPLES;
+    }
+
+    @Test
+    public void testSampling() {
+        AdaptiveHistograms histograms = new AdaptiveHistograms(BUCKETS);
+        Random random = new Random(11);
+        double[][] h1, h2;
+        for (int t = 0; t < 20; t++) {
+            h1 = random(random);
+            h2 = t % 4 == 0 ? histograms.constant(h1[0][random.nextInt(BUCKETS)]) : random(random);
+            assertEquals(estimate(h1, h2, false, random), histograms.less(h1, h2, null, false), 0.01);
+            assertEquals(estimate(h1, h2, true, random), histograms.less(h1, h2, null, true), 0.01);
+        }
+    }
+
+    @Test
+    public void testComplement() {
+        AdaptiveHistograms histograms = new AdaptiveHistograms(BUCKETS);
+        Random random = new Random(13);
+        double[][] h1, h2;
+        //p(X < Y) + p(Y <= X) = 1
+        for (int t = 0; t < 500; t++) {
+            h1 = random(random);
+            h2 = random(random);
+            assertEquals(1, histograms.less(h1, h2, null, false) + histograms.less(h2, h1, null, true), 1e-9);
+            assertEquals(1, histograms.less(h1, h1, null, false) + histograms.less(h1, h1, null, true), 1e-9);
+        }
+    }
+
+    @Test
+    public void testConstants() {
+        AdaptiveHistograms histograms = new AdaptiveHistograms(BUCKETS);
+        double[][] one = histograms.constant(1), two = histograms.constant(2);
+        assertEquals(1, histograms.less(one, two, null, false), DELTA);
+        assertEquals(0, histograms.less(two, one, null, true), DELTA);
+        assertEquals(0, histograms.less(one, one, null, false), DELTA);
+        assertEquals(1, histograms.less(one, one, null, true), DELTA);
+    }
+
+    @Test
+    public void testDisjoint() {
+        //Disjoint supports are ordered whatever the limits of the buckets, a
+        //continuous distribution is below a copy of itself half of the times
+        AdaptiveHistograms histograms = new AdaptiveHistograms(BUCKETS);
+        double[][] low = histograms.uniform(1.0 / BUCKETS, 0, 1), high = histograms.uniform(1.0 / BUCKETS, 2, 3);
+        double[][] copy = new double[][]{Arrays.copyOf(low[0], BUCKETS + 1), Arrays.copyOf(low[1], BUCKETS + 1)};
+        for (boolean orEqual : new boolean[]{false, true}) {
+            assertEquals(1, histograms.less(low, high, null, orEqual), DELTA);
+            assertEquals(0, histograms.less(high, low, null, orEqual), DELTA);
+            assertEquals(0.5, histograms.less(low, copy, null, orEqual), DELTA);
+        }
+    }
+}
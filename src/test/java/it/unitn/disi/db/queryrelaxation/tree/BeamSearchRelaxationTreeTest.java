@@ -0,0 +1,64 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import it.unitn.disi.db.queryrelaxation.SyntheticDataset;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree.TreeType;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The objectives of the beam trees: the leaves truncated at the maximum depth
+ * must cost their bound as in the cost of the root
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class BeamSearchRelaxationTreeTest {
+    private static final double DELTA = 1e-9;
+    private static final int WIDTH = 2;
+    private static final TreeType[] TYPES = TreeType.values();
+
+    @Test
+    public void testTruncatedObjectives() throws Exception {
+        BeamSearchRelaxationTree tree;
+        ObjectiveCosts objectives;
+        String name;
+        int trees = 0;
+        for (int size = 4; size <= 6; size++) {
+            for (Query q : SyntheticDataset.get().emptyQueries(size, 3)) {
+                for (int depth = 1; depth <= 2; depth++) {
+                    for (TreeType type : TYPES) {
+                        tree = SyntheticDataset.get().setup(new BeamSearchRelaxationTree((Query) q.clone(), 1, type, WIDTH, depth), q);
+                        tree.materialize(true);
+                        objectives = tree.computeObjectives(TYPES);
+                        name = type + " depth " + depth + " " + q;
+                        assertEquals(name, tree.getRoot().getCost(), objectives.getCost(type), DELTA);
+                        //Each path asks at least one question
+                        assertTrue(name, objectives.getCost(TreeType.MIN_EFFORT) >= 1);
+                        trees++;
+                    }
+                }
+            }
+        }
+        assertTrue(trees > 0);
+    }
+}
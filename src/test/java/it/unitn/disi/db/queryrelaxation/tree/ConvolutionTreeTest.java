@@ -0,0 +1,118 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import it.unitn.disi.db.queryrelaxation.SyntheticDataset;
+import it.unitn.disi.db.queryrelaxation.model.Pair;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree.TreeType;
+import it.unitn.disi.db.queryrelaxation.tree.topk.TopKConvolutionPruningTree;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The branches of the CDR trees expanded by many threads against the 
+ * sequential expansion: the two trees must have the same nodes, choices, marks,
+ * bounds and costs
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class ConvolutionTreeTest {
+    private static final int LEVEL = 2;
+    private static final int BUCKETS = 10;
+    private static final int THREADS = 4;
+    private static final TreeType[] TYPES = {TreeType.MIN_EFFORT, TreeType.MAX_VALUE_MAX, TreeType.PREFERRED};
+
+    private static ConvolutionTree create(int kind, Query q, TreeType type) {
+        switch (kind) {
+            case 0:
+                return new ConvolutionTree(q, LEVEL, BUCKETS, 1, type);
+            case 1:
+                return new ConvolutionPruningTree(q, LEVEL, BUCKETS, 1, type);
+            case 2:
+                return new TopKConvolutionPruningTree(q, LEVEL, BUCKETS, 1, type, 2);
+            default:
+                return new TopKConvolutionPruningTree(q, LEVEL, BUCKETS, 1, type, 1);
+        }
+    }
+
+    private static ConvolutionTree build(int kind, Query q, TreeType type, int threads) throws Exception {
+        ConvolutionTree tree = SyntheticDataset.get().setup(create(kind, (Query) q.clone(), type), q);
+        tree.setParallelism(threads);
+        tree.materialize(true);
+        return tree;
+    }
+
+    /*
+     * The state of each node, by the path from the root
+     */
+    private static Map<String, String> nodes(ConvolutionTree tree) {
+        Map<String, String> nodes = new LinkedHashMap<>();
+        LinkedList<Pair<Node, String>> queue = new LinkedList<>();
+        Pair<Node, String> current;
+        Pair<Double, Double> bounds;
+        Node n;
+        queue.add(new Pair<>(tree.getRoot(), ""));
+        while (!queue.isEmpty()) {
+            current = queue.poll();
+            n = current.getFirst();
+            bounds = tree.bounds.get(n);
+            nodes.put(current.getSecond(), String.format("cost=%s bounds=%s marked=%b unconsidered=%b buckets=%s",
+                    n.getCost(), bounds, tree.marked.contains(n), tree.unconsideredBranches.contains(n), 
+                    Arrays.deepToString(n.getBuckets())));
+            for (Node child : n.getChildren()) {
+                queue.add(new Pair<>(child, current.getSecond() + "/" + (n instanceof ChoiceNode 
+                        ? (child == ((ChoiceNode) n).getYesNode() ? "yes" : "no") 
+                        : ((ChoiceNode) child).getConstraint().getAttributeName())));
+            }
+        }
+        return nodes;
+    }
+
+    @Test
+    public void testParallelExpansion() throws Exception {
+        ConvolutionTree sequential, parallel;
+        String name;
+        int trees = 0;
+        for (int size = 5; size <= 6; size++) {
+            for (Query q : SyntheticDataset.get().emptyQueries(size, 3)) {
+                for (TreeType type : TYPES) {
+                    for (int kind = 0; kind < 4; kind++) {
+                        sequential = build(kind, q, type, 1);
+                        parallel = build(kind, q, type, THREADS);
+                        name = sequential.getClass().getSimpleName() + " " + type + " " + q;
+                        assertEquals(name, nodes(sequential), nodes(parallel));
+                        assertEquals(name, sequential.getNumberOfNodes(), parallel.getNumberOfNodes());
+                        assertEquals(name, sequential.getRelaxationNodes(), parallel.getRelaxationNodes());
+                        assertEquals(name, sequential.getNumberOfSteps(), parallel.getNumberOfSteps());
+                        assertEquals(name, sequential.prunedNodes(), parallel.prunedNodes());
+                        trees++;
+                    }
+                }
+            }
+        }
+        assertTrue(trees > 0);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import it.unitn.disi.db.queryrelaxation.SyntheticDataset;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree.TreeType;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The heuristic trees, which settle the cost of the root and prune the 
+ * branches that cannot reach it, against the exhaustive tree: the cost and the
+ * optimal paths must be the same for every strategy. MAX_VALUE_AVG is excluded
+ * since its bounds are not exact.
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class HeuristicPruningTreeTest {
+    private static final TreeType[] TYPES = {TreeType.MIN_EFFORT, TreeType.MAX_VALUE_MAX, TreeType.PREFERRED};
+
+    private static <T extends OptimalRelaxationTree> T build(T tree, Query q) throws Exception {
+        SyntheticDataset.get().setup(tree, q);
+        tree.materialize(true);
+        return tree;
+    }
+
+    @Test
+    public void testSettledCost() throws Exception {
+        OptimalRelaxationTree exhaustive;
+        HeuristicPruningTree heuristic;
+        String name;
+        int trees = 0;
+        for (int size = 3; size <= 6; size++) {
+            for (Query q : SyntheticDataset.get().emptyQueries(size, 3)) {
+                for (TreeType type : TYPES) {
+                    exhaustive = build(new OptimalRelaxationTree((Query) q.clone(), 1, type), q);
+                    for (HeuristicPruningTree.Strategy strategy : HeuristicPruningTree.Strategy.values()) {
+                        heuristic = build(new HeuristicPruningTree((Query) q.clone(), 1, type, strategy), q);
+                        name = strategy + " " + type + " " + q;
+                        assertEquals(name, exhaustive.getRoot().getCost(), heuristic.getRoot().getCost(), 0.0);
+                        assertEquals(name, exhaustive.optimalPaths(), heuristic.optimalPaths());
+                        trees++;
+                    }
+                }
+            }
+        }
+        assertTrue(trees > 0);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The histogram engine against the quadratic operations of the first version
+ * of {@link ConvolutionTree} (bucketize, combineDistr, convolutionMin, 
+ * convolutionMax and the probability computed by computeTopRoots)
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class HistogramsTest {
+    private static final double DELTA = 1e-12;
+    private static final int[] BUCKETS = {1, 2, 5, 10, 33};
+
+    /*
+     * bucketize(value, -1, -1, 0)
+     */
+    private static double[][] constant(double value, int b) {
+        double[][] h = new double[2][b + 1];
+        double minValue = value < 1 ? 0 : value - 1, maxValue = value < 1 ? 1 : value;
+        double tmp = (maxValue - minValue) / (double) b;
+        for (int i = 0; i < b + 1; i++) {
+            h[0][i] = minValue + tmp * i;
+            if (value != 0) {
+                h[1][i] = value > h[0][i] && value <= h[0][i] + tmp ? 1 : 0;
+            } else {
+                h[1][i] = value >= h[0][i] && value < h[0][i] + tmp ? 1 : 0;
+            }
+        }
+        h[1][b] = -1;
+        return h;
+    }
+
+    /*
+     * bucketize(value, minValue, maxValue, 1)
+     */
+    private static double[][] uniform(double value, double minValue, double maxValue, int b) {
+        double[][] h = new double[2][b + 1];
+        double tmp = (maxValue - minValue) / (double) b;
+        for (int i = 0; i < b + 1; i++) {
+            h[0][i] = minValue + tmp * i;
+            h[1][i] = value;
+        }
+        h[1][b] = -1;
+        return h;
+    }
+
+    /*
+     * combineDistr(0 or 1, h1, h2)
+     */
+    private static double[][] combine(boolean product, double[][] h1, double[][] h2, int b) {
+        double[][] h = uniform(0, h1[0][0] + h2[0][0], h1[0][b] + h2[0][b], b);
+        for (int i = 0; i < b; i++) {
+            for (int j = 0; j < b; j++) {
+                h[1][(i + j) / 2] += product ? (h1[1][i] * h2[1][j]) / b : (h1[1][i] + h2[1][j]) / b / 2;
+            }
+        }
+        return h;
+    }
+
+    /*
+     * convolutionMin(h1, h2)
+     */
+    private static double[][] min(double[][] h1, double[][] h2, int b) {
+        double[][] h = uniform(0, Math.min(h1[0][0], h2[0][0]), Math.max(h1[0][b], h2[0][b]), b);
+        double tmp1, tmp2;
+        for (int i = 0; i < b - 1; i++) {
+            tmp1 = 0;
+            tmp2 = 0;
+            for (int j = i + 1; j < b; j++) {
+                tmp1 += h1[1][i] * h2[1][j];
+                tmp2 += h2[1][i] * h1[1][j];
+            }
+            h[1][i] = h1[1][i] * h2[1][i] + tmp1 + tmp2;
+        }
+        return h;
+    }
+
+    /*
+     * convolutionMax(h1, h2)
+     */
+    private static double[][] max(double[][] h1, double[][] h2, int b) {
+        double[][] h = uniform(0, Math.max(h1[0][0], h2[0][0]), Math.max(h1[0][b], h2[0][b]), b);
+        double tmp1, tmp2;
+        for (int i = 0; i < b - 1; i++) {
+            tmp1 = 0;
+            tmp2 = 0;
+            for (int j = 0; j <= i; j++) {
+                tmp1 += h1[1][i] * h2[1][j];
+                tmp2 += h2[1][i] * h1[1][j];
+            }
+            h[1][i] = tmp1 + tmp2;
+        }
+        return h;
+    }
+
+    /*
+     * p(child1 < child2) in computeTopRoots
+     */
+    private static double less(double[][] h1, double[][] h2, boolean orEqual, int b) {
+        double p = 0, tmp;
+        for (int i = 0; i < b - 1; i++) {
+            tmp = 0;
+            for (int j = i + (orEqual ? 0 : 1); j < b - 1; j++) {
+                tmp += h2[1][j];
+            }
+            p += tmp * h1[1][i];
+        }
+        return p;
+    }
+
+    /*
+     * A random distribution, some buckets are empty
+     */
+    private static double[][] random(Random random, int b) {
+        double minValue = random.nextInt(5), maxValue = minValue + 1 + random.nextInt(10);
+        double[][] h = uniform(0, minValue, maxValue, b);
+        double sum = 0;
+        for (int i = 0; i < b; i++) {
+            h[1][i] = random.nextInt(3) == 0 ? 0 : random.nextDouble();
+            sum += h[1][i];
+        }
+        for (int i = 0; i < b && sum > 0; i++) {
+            h[1][i] /= sum;
+        }
+        return h;
+    }
+
+    private static void assertHistogram(double[][] expected, double[][] actual) {
+        assertEquals(expected[0].length, actual[0].length);
+        assertArrayEquals(expected[0], actual[0], DELTA);
+        assertArrayEquals(expected[1], actual[1], DELTA);
+    }
+
+    @Test
+    public void testConstantAndUniform() {
+        double[] values = {0, 0.1, 0.5, 0.999, 1, 1.5, 2, 7.25};
+        for (int b : BUCKETS) {
+            Histograms histograms = new Histograms(b);
+            for (double value : values) {
+                assertHistogram(constant(value, b), histograms.constant(value));
+                assertSame(histograms.constant(value), histograms.constant(value));
+            }
+            assertHistogram(uniform(1.0 / b, 1, 4, b), histograms.uniform(1.0 / b, 1, 4));
+        }
+    }
+
+    @Test
+    public void testOperations() {
+        Random random = new Random(7);
+        double[][] h1, h2;
+        for (int b : BUCKETS) {
+            Histograms histograms = new Histograms(b);
+            for (int t = 0; t < 200; t++) {
+                h1 = random(random, b);
+                //One of the operands of the products in the trees is a constant
+                h2 = t % 2 == 0 ? random(random, b) : constant(random.nextInt(4) * random.nextDouble(), b);
+                assertHistogram(combine(false, h1, h2, b), histograms.sum(h1, h2));
+                assertHistogram(combine(true, h1, h2, b), histograms.product(h1, h2));
+                assertHistogram(min(h1, h2, b), histograms.min(h1, h2));
+                assertHistogram(max(h1, h2, b), histograms.max(h1, h2));
+                assertEquals(less(h1, h2, true, b), histograms.less(h1, h2, histograms.suffix(h2, null), true), DELTA);
+                assertEquals(less(h1, h2, false, b), histograms.less(h1, h2, histograms.suffix(h2, null), false), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testRelease() {
+        Histograms histograms = new Histograms(10);
+        double[][] constant = histograms.constant(0.5), h = histograms.uniform(0.1, 0, 1), reused;
+        double[][] copy = constant(0.5, 10);
+        //Released histograms are reused and cleared, constants are never given back
+        histograms.release(h);
+        reused = histograms.sum(constant, constant);
+        assertSame(h, reused);
+        histograms.release(constant);
+        assertNotSame(constant, histograms.product(reused, constant));
+        assertHistogram(copy, constant);
+        assertHistogram(combine(false, copy, copy, 10), reused);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The priority queue of the branches of {@link HeuristicPruningTree} against
+ * the linear scan of the uncompleted branches it replaces, where the first 
+ * inserted branch wins the ties
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class IndexedPriorityQueueTest {
+    private static final int OPERATIONS = 20000;
+    private static final int ELEMENTS = 30;
+    private static final int PRIORITIES = 5;
+
+    /*
+     * The element with the smallest priority in insertion order, as in the 
+     * selection loop of the first version of HeuristicPruningTree
+     */
+    private static Integer scan(Map<Integer, Double> elements) {
+        double min = Double.MAX_VALUE;
+        Integer selected = null;
+        for (Integer e : elements.keySet()) {
+            if (elements.get(e) < min) {
+                min = elements.get(e);
+                selected = e;
+            }
+        }
+        return selected;
+    }
+
+    @Test
+    public void testRandomOperations() {
+        IndexedPriorityQueue<Integer> queue = new IndexedPriorityQueue<>(2);
+        Map<Integer, Double> expected = new LinkedHashMap<>();
+        Random random = new Random(42);
+        Integer e;
+        double priority;
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            e = random.nextInt(ELEMENTS);
+            //Few priorities to have many ties
+            priority = random.nextInt(PRIORITIES);
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    assertEquals(!expected.containsKey(e), queue.put(e, priority));
+                    expected.put(e, priority);
+                    break;
+                case 2:
+                    assertEquals(expected.remove(e) != null, queue.remove(e));
+                    break;
+                default:
+                    e = scan(expected);
+                    assertEquals(e, queue.poll());
+                    expected.remove(e);
+            }
+            assertEquals(scan(expected), queue.peek());
+            assertEquals(expected.size(), queue.size());
+            assertEquals(expected.isEmpty(), queue.isEmpty());
+            e = random.nextInt(ELEMENTS);
+            assertEquals(expected.containsKey(e), queue.contains(e));
+            assertEquals(expected.containsKey(e) ? expected.get(e) : Double.NaN, queue.getPriority(e), 0.0);
+        }
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peek());
+        assertNull(queue.poll());
+    }
+}
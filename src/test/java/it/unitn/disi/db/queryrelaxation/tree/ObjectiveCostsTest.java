@@ -0,0 +1,76 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import it.unitn.disi.db.queryrelaxation.SyntheticDataset;
+import it.unitn.disi.db.queryrelaxation.commands.TestFramework;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree.TreeType;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The costs of the optimal tree computed in a single pass against the copies
+ * of the optimal tree, one for each cost function, that they replace
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class ObjectiveCostsTest {
+    private static final double DELTA = 1e-9;
+    private static final int LEVEL = 2;
+    private static final int BUCKETS = 10;
+    /*
+     * The algorithms of TestFramework having a copy of the optimal tree
+     */
+    private static final int[] ALGORITHMS = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+    private static final TreeType[] TYPES = {TreeType.MIN_EFFORT, TreeType.MAX_VALUE_MAX, TreeType.PREFERRED};
+    private static final TreeType[] OBJECTIVES = {TreeType.MIN_EFFORT, TreeType.PREFERRED, TreeType.MAX_VALUE_MAX};
+
+    @Test
+    public void testOptimalTrees() throws Exception {
+        OptimalRelaxationTree tree;
+        RelaxationTree optTree;
+        ObjectiveCosts objectives;
+        String name;
+        int trees = 0;
+        for (int size = 4; size <= 5; size++) {
+            for (Query q : SyntheticDataset.get().emptyQueries(size, 2)) {
+                for (TreeType type : TYPES) {
+                    for (int algorithm : ALGORITHMS) {
+                        tree = (OptimalRelaxationTree) TestFramework.createTree(algorithm, (Query) q.clone(), LEVEL, BUCKETS, 1, type, 1);
+                        SyntheticDataset.get().setup(tree, q);
+                        tree.materialize(true);
+                        objectives = tree.computeObjectives(OBJECTIVES);
+                        for (TreeType objective : OBJECTIVES) {
+                            name = TestFramework.treeName(algorithm) + " " + type + " " + objective + " " + q;
+                            optTree = tree.optimalTree(objective);
+                            optTree.computeCosts();
+                            assertEquals(name, optTree.getRoot().getCost(), objectives.getCost(objective), DELTA);
+                            assertEquals(name, optTree.getRoot().getChildren().size(), objectives.getOptimalChoices());
+                        }
+                        trees++;
+                    }
+                }
+            }
+        }
+        assertTrue(trees > 0);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import it.unitn.disi.db.queryrelaxation.SyntheticDataset;
+import it.unitn.disi.db.queryrelaxation.commands.TestFramework;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree.TreeType;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The view of the optimal tree against the code it replaces: the paths 
+ * against the recursive printPaths of each tree, and the optimal view against
+ * the copy of the optimal tree
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class OptimalTreeViewTest {
+    private static final int LEVEL = 2;
+    private static final int BUCKETS = 10;
+    private static final int[] ALGORITHMS = {0, 1, 3, 4, 5, 8, 9, 11, 12};
+    private static final TreeType[] TYPES = {TreeType.MIN_EFFORT, TreeType.MAX_VALUE_MAX, TreeType.PREFERRED};
+
+    /*
+     * The filter of the children in the printPaths of the first version of 
+     * each tree
+     */
+    private static boolean filter(OptimalRelaxationTree tree, Node n, Node child, boolean optimal) {
+        boolean accept = !optimal || n.cost == child.cost;
+        if (tree instanceof ConvolutionPruningTree) {
+            return accept && !((ConvolutionTree) tree).unconsideredBranches.contains(child) && !((ConvolutionTree) tree).marked.contains(child);
+        } else if (tree instanceof ConvolutionTree) {
+            return accept && !((ConvolutionTree) tree).unconsideredBranches.contains(child);
+        } else if (tree instanceof PruningTree) {
+            return accept && !((PruningTree) tree).marked.contains(child);
+        }
+        return accept;
+    }
+
+    private static String printPaths(OptimalRelaxationTree tree, Node n, String acc, boolean optimal) {
+        String result;
+        ChoiceNode cn;
+        if (n instanceof RelaxationNode) {
+            if (n.isLeaf()) {
+                return acc + "\n";
+            }
+            result = "";
+            for (Node child : n.getChildren()) {
+                if (filter(tree, n, child, optimal)) {
+                    result += printPaths(tree, child, acc, optimal);
+                }
+            }
+            return result;
+        }
+        cn = (ChoiceNode) n;
+        return printPaths(tree, cn.getYesNode(), acc + cn.getConstraint().getAttributeName() + "|" + "yes" + "|", optimal)
+                + printPaths(tree, cn.getNoNode(), acc + cn.getConstraint().getAttributeName() + "|" + "no" + "|", optimal);
+    }
+
+    private static Set<String> splitPaths(OptimalRelaxationTree tree, boolean optimal) {
+        Set<String> paths = new HashSet<>();
+        for (String path : printPaths(tree, tree.getRoot(), "", optimal).split("\n")) {
+            paths.add(path.trim());
+        }
+        return paths;
+    }
+
+    /*
+     * The number of nodes of the view, or of a tree
+     */
+    private static int size(OptimalTreeView view, Node root) {
+        LinkedList<Node> queue = new LinkedList<>();
+        Node n;
+        int size = 0;
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            n = queue.poll();
+            size++;
+            queue.addAll(view != null ? view.getChildren(n) : n.getChildren());
+        }
+        return size;
+    }
+
+    @Test
+    public void testPaths() throws Exception {
+        OptimalRelaxationTree tree;
+        RelaxationTree optTree;
+        String name;
+        int trees = 0;
+        for (int size = 4; size <= 5; size++) {
+            for (Query q : SyntheticDataset.get().emptyQueries(size, 2)) {
+                for (TreeType type : TYPES) {
+                    for (int algorithm : ALGORITHMS) {
+                        tree = (OptimalRelaxationTree) TestFramework.createTree(algorithm, (Query) q.clone(), LEVEL, BUCKETS, 1, type, 1);
+                        SyntheticDataset.get().setup(tree, q);
+                        tree.materialize(true);
+                        name = TestFramework.treeName(algorithm) + " " + type + " " + q;
+                        assertEquals(name, splitPaths(tree, true), tree.optimalPaths());
+                        assertEquals(name, splitPaths(tree, false), tree.allPaths());
+                        optTree = tree.optimalTree(type);
+                        assertEquals(name, size(null, optTree.getRoot()), size(tree.optimalView(), tree.getRoot()));
+                        trees++;
+                    }
+                }
+            }
+        }
+        assertTrue(trees > 0);
+    }
+
+    @Test
+    public void testMarkedConvolution() throws Exception {
+        Query q = SyntheticDataset.get().emptyQueries(5, 1).get(0);
+        ConvolutionTree tree = SyntheticDataset.get().setup(new ConvolutionTree((Query) q.clone(), LEVEL, BUCKETS, 1, TreeType.MIN_EFFORT), q);
+        Set<String> optimalPaths, allPaths;
+        tree.materialize(true);
+        optimalPaths = tree.optimalPaths();
+        allPaths = tree.allPaths();
+        //The paths of the convolution tree keep the marked nodes
+        for (Node child : tree.getRoot().getChildren()) {
+            tree.marked.add(child);
+        }
+        assertEquals(splitPaths(tree, true), tree.optimalPaths());
+        assertEquals(splitPaths(tree, false), tree.allPaths());
+        assertEquals(optimalPaths, tree.optimalPaths());
+        assertEquals(allPaths, tree.allPaths());
+    }
+}
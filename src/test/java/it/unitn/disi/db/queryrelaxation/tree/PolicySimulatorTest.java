@@ -0,0 +1,127 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree;
+
+import it.unitn.disi.db.queryrelaxation.SyntheticDataset;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.model.data.BooleanMockConnector;
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationTree.TreeType;
+import java.util.SplittableRandom;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The simulated walks against the trees they replace: each policy must choose
+ * the questions of the walks of the first version of the trees, and the mean
+ * cost of the walks must be the cost of the root of the tree of the policy
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class PolicySimulatorTest {
+    private static final int WALKS = 20000;
+    private static final long SEED = 42;
+    private static final TreeType[] TYPES = {TreeType.MIN_EFFORT, TreeType.MAX_VALUE_MAX};
+
+    private static <T extends OptimalRelaxationTree> T build(T tree, Query q) throws Exception {
+        SyntheticDataset.get().setup(tree, q);
+        tree.materialize(true);
+        return tree;
+    }
+
+    private static PolicySimulator.Result simulate(OptimalRelaxationTree tree, PolicySimulator.Policy policy, int parallelism) throws TreeException {
+        PolicySimulator simulator = new PolicySimulator(tree);
+        simulator.setSeed(SEED);
+        simulator.setParallelism(parallelism);
+        return simulator.simulate(policy, WALKS);
+    }
+
+    /*
+     * The question of the walks of the first version of GreedyRelaxationTree:
+     * the first relaxation with results in the database, the first otherwise
+     */
+    private static Node greedy(RelaxationNode n, BooleanMockConnector db) throws Exception {
+        for (Node child : n.getChildren()) {
+            if (db.submitQuery(((ChoiceNode) child).getYesNode().getQuery()).length != 0) {
+                return child;
+            }
+        }
+        return n.getChildren().get(0);
+    }
+
+    @Test
+    public void testGreedyChoice() throws Exception {
+        BooleanMockConnector db = SyntheticDataset.get().getDatabase();
+        SplittableRandom random = new SplittableRandom(SEED);
+        GreedyRelaxationTree tree;
+        int choices = 0;
+        for (Query q : SyntheticDataset.get().emptyQueries(5, 3)) {
+            tree = build(new GreedyRelaxationTree((Query) q.clone(), 1, TreeType.MIN_EFFORT), q);
+            for (Node n : tree.visit()) {
+                if (n instanceof RelaxationNode && !n.isLeaf()) {
+                    assertSame(q.toString(), greedy((RelaxationNode) n, db), 
+                            PolicySimulator.Policies.GREEDY.choose((RelaxationNode) n, TreeType.MIN_EFFORT, random));
+                    choices++;
+                }
+            }
+        }
+        assertTrue(choices > 0);
+    }
+
+    @Test
+    public void testExpectedCost() throws Exception {
+        OptimalRelaxationTree[] trees = new OptimalRelaxationTree[3];
+        PolicySimulator.Policy[] policies = {PolicySimulator.Policies.RANDOM, PolicySimulator.Policies.GREEDY, PolicySimulator.Policies.BEST};
+        PolicySimulator.Result result;
+        String name;
+        for (Query q : SyntheticDataset.get().emptyQueries(5, 2)) {
+            for (TreeType type : TYPES) {
+                trees[0] = build(new RandomRelaxationTree((Query) q.clone(), 1, type), q);
+                trees[1] = build(new GreedyRelaxationTree((Query) q.clone(), 1, type), q);
+                trees[2] = build(new OptimalRelaxationTree((Query) q.clone(), 1, type), q);
+                for (int i = 0; i < trees.length; i++) {
+                    result = simulate(trees[i], policies[i], 1);
+                    name = policies[i] + " " + type + " " + q;
+                    assertEquals(name, WALKS, result.getCost().getCount());
+                    //The root cost is the expected cost of the walks
+                    assertEquals(name, trees[i].getRoot().getCost(), result.getCost().getMean(), 
+                            4 * result.getCost().getHalfWidth() + 1e-9);
+                    assertTrue(name, result.getLatency().getMean() > 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRepeatable() throws Exception {
+        Query q = SyntheticDataset.get().emptyQueries(5, 1).get(0);
+        RandomRelaxationTree tree = build(new RandomRelaxationTree((Query) q.clone(), 1, TreeType.MIN_EFFORT), q);
+        for (int parallelism : new int[]{1, 4}) {
+            assertEquals(simulate(tree, PolicySimulator.Policies.RANDOM, parallelism).getCost().getMean(), 
+                    simulate(tree, PolicySimulator.Policies.RANDOM, parallelism).getCost().getMean(), 0.0);
+        }
+        //The latency is below the millisecond: getTime rounds it, the 
+        //simulation keeps it
+        long time = tree.getTime(WALKS);
+        assertNotNull(tree.getSimulation());
+        assertTrue(tree.getSimulation().getLatency().getMean() > 0);
+        assertEquals(Math.round(tree.getSimulation().getLatency().getMean()), time);
+    }
+}
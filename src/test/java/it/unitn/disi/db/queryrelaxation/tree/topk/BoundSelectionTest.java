@@ -0,0 +1,152 @@
+/*
+ * IQR (Interactive Query Relaxation) Library
+ * Copyright (C) 2011  Davide Mottin (mottin@disi.unitn.eu
+ * Alice Marascu (marascu@disi.unitn.eu)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+*/
+
+
+package it.unitn.disi.db.queryrelaxation.tree.topk;
+
+import it.unitn.disi.db.queryrelaxation.model.Pair;
+import it.unitn.disi.db.queryrelaxation.model.Query;
+import it.unitn.disi.db.queryrelaxation.tree.ChoiceNode;
+import it.unitn.disi.db.queryrelaxation.tree.Node;
+import it.unitn.disi.db.queryrelaxation.tree.RelaxationNode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The quickselect of the prunable siblings against the two sorts of the first
+ * version of the top-k trees
+ * @author Davide Mottin <mottin@disi.unitn.eu>
+ */
+public class BoundSelectionTest {
+    private static final int RUNS = 5000;
+    private static final int MAX_SIBLINGS = 12;
+    private static final int MAX_K = 4;
+
+    /*
+     * Order by lower (or upper) bound as the RankingFunction of the first 
+     * version
+     */
+    private static Comparator<Node> ranking(final Map<Node, Pair<Double, Double>> bounds, final boolean lower) {
+        return new Comparator<Node>() {
+            @Override
+            public int compare(Node o1, Node o2) {
+                return lower ? Double.compare(bounds.get(o1).getFirst(), bounds.get(o2).getFirst())
+                        : Double.compare(bounds.get(o1).getSecond(), bounds.get(o2).getSecond());
+            }
+        };
+    }
+
+    /*
+     * The siblings marked by the prune step of the first version of 
+     * TopKPruningTree
+     */
+    private static Set<Node> sorted(List<Node> nodes, Map<Node, Pair<Double, Double>> bounds, int k, boolean maximize) {
+        Set<Node> pruned = new HashSet<>();
+        List<Node> siblings = new ArrayList<>(nodes), candidateSiblings;
+        Pair<Double, Double> bound;
+        double kthBound;
+        int count;
+        Node sibling;
+        if (siblings.size() + 1 > k) {
+            Collections.sort(siblings, ranking(bounds, !maximize));
+            candidateSiblings = new ArrayList<>(siblings);
+            Collections.sort(candidateSiblings, ranking(bounds, maximize));
+            bound = bounds.get(candidateSiblings.get(maximize ? candidateSiblings.size() - k : k - 1));
+            kthBound = maximize ? bound.getFirst() : bound.getSecond();
+            count = candidateSiblings.size();
+            for (int i = 0; i < siblings.size() && count > k; i++) {
+                sibling = siblings.get(maximize ? i : siblings.size() - i - 1);
+                if (!maximize && bounds.get(sibling).getFirst() > kthBound && sibling instanceof ChoiceNode) {
+                    pruned.add(sibling);
+                    count--;
+                }
+                if (maximize && bounds.get(sibling).getSecond() < kthBound && sibling instanceof ChoiceNode) {
+                    pruned.add(sibling);
+                    count--;
+                }
+            }
+        }
+        return pruned;
+    }
+
+    @Test
+    public void testPrunable() {
+        Random random = new Random(42);
+        Map<Node, Pair<Double, Double>> bounds = new HashMap<>();
+        List<Node> siblings = new ArrayList<>();
+        Set<Node> pruned = new HashSet<>();
+        double lower, upper;
+        boolean maximize;
+        int k, levels;
+        Node n;
+
+        for (int run = 0; run < RUNS; run++) {
+            bounds.clear();
+            siblings.clear();
+            pruned.clear();
+            k = 1 + random.nextInt(MAX_K);
+            maximize = random.nextBoolean();
+            //Few distinct values to have many ties
+            levels = 2 + random.nextInt(8);
+            for (int i = 1 + random.nextInt(MAX_SIBLINGS); i > 0; i--) {
+                n = random.nextInt(5) == 0 ? new RelaxationNode(new Query()) : new ChoiceNode();
+                lower = random.nextInt(levels);
+                upper = lower + random.nextInt(levels);
+                //Some inconsistent bounds (lb > ub)
+                if (random.nextInt(10) == 0) {
+                    upper = lower - 1 - random.nextInt(levels);
+                }
+                bounds.put(n, new Pair<>(lower, upper));
+                siblings.add(n);
+            }
+            for (int i : BoundSelection.prunable(siblings, bounds, k, maximize)) {
+                assertTrue(pruned.add(siblings.get(i)));
+            }
+            assertEquals("run " + run, sorted(siblings, bounds, k, maximize), pruned);
+        }
+    }
+
+    @Test
+    public void testSelect() {
+        Random random = new Random(42);
+        double[] values, expected;
+        for (int run = 0; run < RUNS; run++) {
+            values = new double[1 + random.nextInt(50)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextInt(1 + values.length / 2);
+            }
+            expected = values.clone();
+            Arrays.sort(expected);
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(expected[i], BoundSelection.select(values.clone(), i), 0.0);
+            }
+        }
+    }
+}